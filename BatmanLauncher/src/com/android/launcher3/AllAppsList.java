@@ -28,10 +28,15 @@ import android.util.Log;
 
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.PackageInstallerCompat;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.FlagOp;
 import com.android.launcher3.util.ItemInfoMatcher;
+import com.android.launcher3.util.PackageUserKey;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
@@ -53,6 +58,10 @@ public class AllAppsList {
     /** The list of apps that have been modified since the last notify() call. */
     public ArrayList<AppInfo> modified = new ArrayList<>();
 
+    // Indexes of the apps in data, which must be updated along with it.
+    private final HashMap<ComponentKey, AppInfo> mAppsByComponent = new HashMap<>();
+    private final HashMap<PackageUserKey, ArrayList<AppInfo>> mAppsByPackage = new HashMap<>();
+
     private IconCache mIconCache;
 
     private AppFilter mAppFilter;
@@ -80,7 +89,7 @@ public class AllAppsList {
         }
         mIconCache.getTitleAndIcon(info, activityInfo, true /* useLowResIcon */);
 
-        data.add(info);
+        addToData(info);
         added.add(info);
     }
 
@@ -92,7 +101,7 @@ public class AllAppsList {
         if (applicationInfo == null) {
             PromiseAppInfo info = new PromiseAppInfo(installInfo);
             mIconCache.getTitleAndIcon(info, info.usingLowResIcon);
-            data.add(info);
+            addToData(info);
             added.add(info);
         }
     }
@@ -100,11 +109,13 @@ public class AllAppsList {
     public void removePromiseApp(AppInfo appInfo) {
         // the <em>removed</em> list is handled by the caller
         // so not adding it here
-        data.remove(appInfo);
+        removeFromData(Collections.singletonList(appInfo));
     }
 
     public void clear() {
         data.clear();
+        mAppsByComponent.clear();
+        mAppsByPackage.clear();
         // TODO: do we clear these too?
         added.clear();
         removed.clear();
@@ -136,13 +147,11 @@ public class AllAppsList {
      * Remove the apps for the given apk identified by packageName.
      */
     public void removePackage(String packageName, UserHandle user) {
-        final List<AppInfo> data = this.data;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            AppInfo info = data.get(i);
-            if (info.user.equals(user) && packageName.equals(info.componentName.getPackageName())) {
-                removed.add(info);
-                data.remove(i);
-            }
+        ArrayList<AppInfo> apps = mAppsByPackage.get(new PackageUserKey(packageName, user));
+        if (apps != null) {
+            apps = new ArrayList<>(apps);
+            removed.addAll(apps);
+            removeFromData(apps);
         }
     }
 
@@ -160,10 +169,31 @@ public class AllAppsList {
         }
     }
 
+    /**
+     * Updates the disabled flags of the apps in {@param packages} for {@param user}, based on
+     * {@param op}.
+     */
+    public void updateDisabledFlags(Collection<String> packages, UserHandle user, FlagOp op) {
+        for (String packageName : packages) {
+            ArrayList<AppInfo> apps = mAppsByPackage.get(new PackageUserKey(packageName, user));
+            if (apps == null) {
+                continue;
+            }
+            for (AppInfo info : apps) {
+                info.isDisabled = op.apply(info.isDisabled);
+                modified.add(info);
+            }
+        }
+    }
+
     public void updateIconsAndLabels(HashSet<String> packages, UserHandle user,
             ArrayList<AppInfo> outUpdates) {
-        for (AppInfo info : data) {
-            if (info.user.equals(user) && packages.contains(info.componentName.getPackageName())) {
+        for (String packageName : packages) {
+            ArrayList<AppInfo> apps = mAppsByPackage.get(new PackageUserKey(packageName, user));
+            if (apps == null) {
+                continue;
+            }
+            for (AppInfo info : apps) {
                 mIconCache.updateTitleAndIcon(info);
                 outUpdates.add(info);
             }
@@ -177,19 +207,25 @@ public class AllAppsList {
         final LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(context);
         final List<LauncherActivityInfo> matches = launcherApps.getActivityList(packageName,
                 user);
+        final ArrayList<AppInfo> packageApps =
+                mAppsByPackage.get(new PackageUserKey(packageName, user));
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
             // to the removed list.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                if (user.equals(applicationInfo.user)
-                        && packageName.equals(applicationInfo.componentName.getPackageName())) {
-                    if (!findActivity(matches, applicationInfo.componentName)) {
+            if (packageApps != null) {
+                HashSet<ComponentName> components = new HashSet<>(matches.size());
+                for (LauncherActivityInfo info : matches) {
+                    components.add(info.getComponentName());
+                }
+                ArrayList<AppInfo> removedApps = new ArrayList<>();
+                for (AppInfo applicationInfo : packageApps) {
+                    if (!components.contains(applicationInfo.componentName)) {
                         Log.w(TAG, "Shortcut will be removed due to app component name change.");
-                        removed.add(applicationInfo);
-                        data.remove(i);
+                        removedApps.add(applicationInfo);
                     }
                 }
+                removed.addAll(removedApps);
+                removeFromData(removedApps);
             }
 
             // Find enabled activities and add them to the adapter
@@ -203,34 +239,17 @@ public class AllAppsList {
                     modified.add(applicationInfo);
                 }
             }
-        } else {
+        } else if (packageApps != null) {
             // Remove all data for this package.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                if (user.equals(applicationInfo.user)
-                        && packageName.equals(applicationInfo.componentName.getPackageName())) {
-                    removed.add(applicationInfo);
-                    mIconCache.remove(applicationInfo.componentName, user);
-                    data.remove(i);
-                }
+            ArrayList<AppInfo> removedApps = new ArrayList<>(packageApps);
+            for (AppInfo applicationInfo : removedApps) {
+                removed.add(applicationInfo);
+                mIconCache.remove(applicationInfo.componentName, user);
             }
+            removeFromData(removedApps);
         }
     }
 
-
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(List<LauncherActivityInfo> apps,
-            ComponentName component) {
-        for (LauncherActivityInfo info : apps) {
-            if (info.getComponentName().equals(component)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Find an AppInfo object for the given componentName
      *
@@ -238,11 +257,44 @@ public class AllAppsList {
      */
     private @Nullable AppInfo findAppInfo(@NonNull ComponentName componentName,
                                           @NonNull UserHandle user) {
-        for (AppInfo info: data) {
-            if (componentName.equals(info.componentName) && user.equals(info.user)) {
-                return info;
+        return mAppsByComponent.get(new ComponentKey(componentName, user));
+    }
+
+    private void addToData(AppInfo info) {
+        data.add(info);
+        mAppsByComponent.put(new ComponentKey(info.componentName, info.user), info);
+        PackageUserKey key = new PackageUserKey(info.componentName.getPackageName(), info.user);
+        ArrayList<AppInfo> apps = mAppsByPackage.get(key);
+        if (apps == null) {
+            apps = new ArrayList<>(1);
+            mAppsByPackage.put(key, apps);
+        }
+        apps.add(info);
+    }
+
+    /**
+     * Removes {@param apps} from data and the indexes, in a single pass over data.
+     */
+    private void removeFromData(List<AppInfo> apps) {
+        if (apps.isEmpty()) {
+            return;
+        }
+        for (AppInfo info : apps) {
+            ComponentKey componentKey = new ComponentKey(info.componentName, info.user);
+            if (mAppsByComponent.get(componentKey) == info) {
+                mAppsByComponent.remove(componentKey);
+            }
+            PackageUserKey key =
+                    new PackageUserKey(info.componentName.getPackageName(), info.user);
+            ArrayList<AppInfo> packageApps = mAppsByPackage.get(key);
+            if (packageApps != null && packageApps.remove(info) && packageApps.isEmpty()) {
+                mAppsByPackage.remove(key);
             }
         }
-        return null;
+        if (apps.size() == 1) {
+            data.remove(apps.get(0));
+        } else {
+            data.removeAll(new HashSet<>(apps));
+        }
     }
 }
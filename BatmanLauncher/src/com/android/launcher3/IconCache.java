@@ -16,6 +16,7 @@
 
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -44,29 +45,41 @@ import android.util.Log;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.graphics.IconNormalization;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
+import com.android.launcher3.util.LooperExecutor;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Entries are guarded by a lock striped on the package and user of the entry, rather than by
+ * the whole cache, so that lookups for different packages do not block each other. A thread
+ * asking for an entry which is being generated waits for it on the same stripe, and then finds
+ * it in the cache instead of generating it again.
  */
 public class IconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    // Must be a power of 2.
+    private static final int LOCK_STRIPES = 32;
 
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
@@ -76,6 +89,16 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
+    // Number of icons written to the DB in a single transaction during a full update.
+    private static final int ICON_UPDATE_BATCH_SIZE = 25;
+    // Number of threads generating the icons of a batch.
+    private static final int ICON_UPDATE_THREADS =
+            Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    // Fractions of the app memory class which can be used by the in-memory cache.
+    private static final int FULL_RES_MEMORY_FRACTION = 8;
+    private static final int LOW_RES_MEMORY_FRACTION = 64;
+
     @Thunk static final Object ICON_UPDATE_TOKEN = new Object();
 
     public static class CacheEntry {
@@ -85,7 +108,8 @@ public class IconCache {
         public boolean isLowResIcon;
     }
 
-    private final HashMap<UserHandle, Bitmap> mDefaultIcons = new HashMap<>();
+    private final ConcurrentHashMap<UserHandle, Bitmap> mDefaultIcons =
+            new ConcurrentHashMap<>();
     @Thunk final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
 
     private final Context mContext;
@@ -93,13 +117,15 @@ public class IconCache {
     private final IconProvider mIconProvider;
     @Thunk final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    private final IconMemoryCache mCache;
+    private final Object[] mLocks = new Object[LOCK_STRIPES];
     private final InstantAppResolver mInstantAppResolver;
     private final int mIconDpi;
     @Thunk final IconDB mIconDb;
 
     @Thunk final Handler mWorkerHandler;
+    // Incremented to stop the active icon update tasks. Only accessed on the worker thread.
+    @Thunk int mIconUpdateGeneration;
 
     private final BitmapFactory.Options mLowResOptions;
 
@@ -120,6 +146,33 @@ public class IconCache {
         // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
         // automatically be loaded as ALPHA_8888.
         mLowResOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        long memoryClassBytes = ((ActivityManager) context.getSystemService(
+                Context.ACTIVITY_SERVICE)).getMemoryClass() * 1024L * 1024L;
+        mCache = new IconMemoryCache(memoryClassBytes / FULL_RES_MEMORY_FRACTION,
+                memoryClassBytes / LOW_RES_MEMORY_FRACTION,
+                new IconMemoryCache.LowResGenerator() {
+                    @Override
+                    public Bitmap generateLowResIcon(Bitmap icon) {
+                        return IconCache.this.generateLowResIcon(icon);
+                    }
+                }, new LooperExecutor(LauncherModel.getWorkerLooper()));
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the lock guarding all the entries of the given package and user, including the
+     * package default entry. Holders may call back into the cache for the same package, but
+     * must never wait on the lock of another package.
+     */
+    private Object getLock(String packageName, UserHandle user) {
+        int hash = 31 * packageName.hashCode() + user.hashCode();
+        // Spread the higher bits, as for HashMap.
+        hash ^= (hash >>> 16);
+        return mLocks[hash & (LOCK_STRIPES - 1)];
     }
 
     private Drawable getFullResDefaultActivityIcon() {
@@ -187,57 +240,56 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
-        mCache.remove(new ComponentKey(componentName, user));
+    public void remove(ComponentName componentName, UserHandle user) {
+        synchronized (getLock(componentName.getPackageName(), user)) {
+            mCache.remove(new ComponentKey(componentName, user));
+        }
     }
 
     /**
      * Remove any records for the supplied package name from memory.
+     * The lock for the package must be held by the caller.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key: mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
+        mCache.removePackage(packageName, user);
     }
 
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandle user) {
-        removeIconsForPkg(packageName, user);
-        try {
-            PackageInfo info = mPackageManager.getPackageInfo(packageName,
-                    PackageManager.GET_UNINSTALLED_PACKAGES);
-            long userSerial = mUserManager.getSerialNumberForUser(user);
-            for (LauncherActivityInfo app : mLauncherApps.getActivityList(packageName, user)) {
-                addIconToDBAndMemCache(app, info, userSerial, false /*replace existing*/);
+    public void updateIconsForPkg(String packageName, UserHandle user) {
+        synchronized (getLock(packageName, user)) {
+            removeIconsForPkg(packageName, user);
+            try {
+                PackageInfo info = mPackageManager.getPackageInfo(packageName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES);
+                long userSerial = mUserManager.getSerialNumberForUser(user);
+                for (LauncherActivityInfo app : mLauncherApps.getActivityList(packageName, user)) {
+                    addIconToDBAndMemCache(app, info, userSerial, false /*replace existing*/);
+                }
+            } catch (NameNotFoundException e) {
+                Log.d(TAG, "Package not found", e);
             }
-        } catch (NameNotFoundException e) {
-            Log.d(TAG, "Package not found", e);
         }
     }
 
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
-        removeFromMemCacheLocked(packageName, user);
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        mIconDb.delete(
-                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[]{packageName + "/%", Long.toString(userSerial)});
+    public void removeIconsForPkg(String packageName, UserHandle user) {
+        synchronized (getLock(packageName, user)) {
+            removeFromMemCacheLocked(packageName, user);
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            mIconDb.delete(
+                    IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
+                    new String[]{packageName + "/%", Long.toString(userSerial)});
+        }
     }
 
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
-        // Remove all active icon update tasks.
+        // Remove all active icon update tasks, including the batches being encoded.
         mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
+        mIconUpdateGeneration++;
 
         mIconProvider.updateSystemStateString();
         for (UserHandle user : mUserManager.getUserProfiles()) {
@@ -312,8 +364,10 @@ public class IconCache {
                 long updateTime = c.getLong(indexLastUpdate);
                 int version = c.getInt(indexVersion);
                 LauncherActivityInfo app = componentMap.remove(component);
-                if (version == info.versionCode && updateTime == info.lastUpdateTime &&
-                        TextUtils.equals(c.getString(systemStateIndex),
+                // The stored normalization is only valid for the same drawable and system state,
+                // which is also when the row is up to date. Updated rows are normalized again.
+                if (version == info.versionCode && updateTime == info.lastUpdateTime
+                        && TextUtils.equals(c.getString(systemStateIndex),
                                 mIconProvider.getIconSystemState(info.packageName))) {
                     continue;
                 }
@@ -352,30 +406,65 @@ public class IconCache {
      *                        the memory. This is useful then the previous bitmap was created using
      *                        old data.
      */
-    @Thunk synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
+    @Thunk void addIconToDBAndMemCache(LauncherActivityInfo app,
+            PackageInfo info, long userSerial, boolean replaceExisting) {
+        mIconDb.insertOrReplace(addIconToMemCache(app, info, userSerial, replaceExisting));
+    }
+
+    /**
+     * Adds an entry into the in-memory cache.
+     * @return the {@link ContentValues} to be written to the DB for this entry.
+     * @see #addIconToDBAndMemCache
+     */
+    @Thunk ContentValues addIconToMemCache(LauncherActivityInfo app,
             PackageInfo info, long userSerial, boolean replaceExisting) {
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
-        if (!replaceExisting) {
-            entry = mCache.get(key);
-            // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
-            }
+        IconNormalization normalization = new IconNormalization();
+        CacheEntry entry;
+        synchronized (getLock(key.componentName.getPackageName(), key.user)) {
+            entry = newIconEntry(key, app, replaceExisting, normalization);
+            mCache.put(key, entry);
         }
-        if (entry == null) {
-            entry = new CacheEntry();
-            entry.icon = LauncherIcons.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
-                    mContext,  app.getApplicationInfo().targetSdkVersion);
+        return newIconValues(app, info, userSerial, entry, normalization);
+    }
+
+    /**
+     * Creates the entry for {@param app}, without adding it to the in-memory cache.
+     * @param replaceExisting if false, the full-res icon of the cached entry is reused.
+     * @param normalization receives the normalization of the icon, if it is generated.
+     */
+    @Thunk CacheEntry newIconEntry(ComponentKey key, LauncherActivityInfo app,
+            boolean replaceExisting, IconNormalization normalization) {
+        CacheEntry entry = new CacheEntry();
+        CacheEntry existing = replaceExisting ? null : mCache.peek(key);
+        // We can't reuse the icon if the high-res icon is not present. The existing entry
+        // is replaced rather than updated, as it can be in use without the lock.
+        if (existing != null && !existing.isLowResIcon && existing.icon != null) {
+            entry.icon = existing.icon;
+        } else {
+            entry.icon = LauncherIcons.createBadgedIconBitmap(getFullResIcon(app),
+                    app.getUser(), mContext, app.getApplicationInfo().targetSdkVersion,
+                    normalization);
         }
         entry.title = app.getLabel();
-        entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
+        entry.contentDescription =
+                mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
+        return entry;
+    }
 
+    /**
+     * Returns the {@link ContentValues} to be written to the DB for {@param entry}.
+     */
+    @Thunk ContentValues newIconValues(LauncherActivityInfo app, PackageInfo info,
+            long userSerial, CacheEntry entry, IconNormalization normalization) {
         Bitmap lowResIcon = generateLowResIcon(entry.icon);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.title.toString(),
                 app.getApplicationInfo().packageName);
-        addIconToDB(values, app.getComponentName(), info, userSerial);
+        addVersionInfo(values, app.getComponentName(), info, userSerial);
+        if (normalization.isValid()) {
+            values.put(IconDB.COLUMN_NORMALIZATION, normalization.flattenToString());
+        }
+        return values;
     }
 
     /**
@@ -384,11 +473,19 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        addVersionInfo(values, key, info, userSerial);
+        mIconDb.insertOrReplace(values);
+    }
+
+    /**
+     * Updates {@param values} to contain versioning information.
+     */
+    private void addVersionInfo(ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
     }
 
     /**
@@ -422,8 +519,8 @@ public class IconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
-        CacheEntry entry = cacheLocked(application.componentName,
+    public void updateTitleAndIcon(AppInfo application) {
+        CacheEntry entry = getEntry(application.componentName,
                 Provider.<LauncherActivityInfo>of(null),
                 application.user, false, application.usingLowResIcon);
         if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
@@ -434,7 +531,7 @@ public class IconCache {
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
+    public void getTitleAndIcon(ItemInfoWithIcon info,
             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
         // If we already have activity info, no need to use package icon
         getTitleAndIcon(info, Provider.of(activityInfo), false, useLowResIcon);
@@ -444,7 +541,7 @@ public class IconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -461,11 +558,11 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    private synchronized void getTitleAndIcon(
+    private void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Provider<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(infoInOut.getTargetComponent(), activityInfoProvider,
+        CacheEntry entry = getEntry(infoInOut.getTargetComponent(), activityInfoProvider,
                 infoInOut.user, usePkgIcon, useLowResIcon);
         applyCacheEntry(entry, infoInOut);
     }
@@ -473,10 +570,13 @@ public class IconCache {
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
-        CacheEntry entry = getEntryForPackageLocked(
-                infoInOut.packageName, infoInOut.user, useLowResIcon);
+        CacheEntry entry;
+        synchronized (getLock(infoInOut.packageName, infoInOut.user)) {
+            entry = getEntryForPackageLocked(
+                    infoInOut.packageName, infoInOut.user, useLowResIcon);
+        }
         applyCacheEntry(entry, infoInOut);
     }
 
@@ -487,20 +587,44 @@ public class IconCache {
         info.usingLowResIcon = entry.isLowResIcon;
     }
 
-    public synchronized Bitmap getDefaultIcon(UserHandle user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public Bitmap getDefaultIcon(UserHandle user) {
+        Bitmap icon = mDefaultIcons.get(user);
+        if (icon == null) {
+            synchronized (mDefaultIcons) {
+                icon = mDefaultIcons.get(user);
+                if (icon == null) {
+                    icon = makeDefaultIcon(user);
+                    mDefaultIcons.put(user, icon);
+                }
+            }
         }
-        return mDefaultIcons.get(user);
+        return icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
         return mDefaultIcons.get(user) == icon;
     }
 
+    /**
+     * Returns the entry from the cache without locking if it is already present, otherwise
+     * creates it while holding the lock for its package.
+     */
+    private CacheEntry getEntry(
+            @NonNull ComponentName componentName,
+            @NonNull Provider<LauncherActivityInfo> infoProvider,
+            UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
+        CacheEntry entry = mCache.get(new ComponentKey(componentName, user), useLowResIcon);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (getLock(componentName.getPackageName(), user)) {
+            return cacheLocked(componentName, infoProvider, user, usePackageIcon, useLowResIcon);
+        }
+    }
+
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is not thread safe, the lock for the package must be held by the caller.
      */
     protected CacheEntry cacheLocked(
             @NonNull ComponentName componentName,
@@ -508,10 +632,9 @@ public class IconCache {
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = mCache.peek(cacheKey);
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             LauncherActivityInfo info = null;
@@ -555,38 +678,61 @@ public class IconCache {
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
                 }
             }
+            // Only publish the entry once it is complete, as it can be read without the lock.
+            mCache.put(cacheKey, entry);
         }
         return entry;
     }
 
-    public synchronized void clear() {
+    public void clear() {
         Preconditions.assertWorkerThread();
         mIconDb.clear();
     }
 
+    /**
+     * Releases cached icons according to {@param level}, see
+     * {@link android.content.ComponentCallbacks2#onTrimMemory}.
+     */
+    public void onTrimMemory(final int level) {
+        // Called on the UI thread, while the trim goes through all the entries.
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCache.onTrimMemory(level);
+            }
+        });
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        mCache.dump(prefix, writer);
+    }
+
     /**
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandle user,
+    public void cachePackageInstallInfo(String packageName, UserHandle user,
             Bitmap icon, CharSequence title) {
-        removeFromMemCacheLocked(packageName, user);
+        synchronized (getLock(packageName, user)) {
+            removeFromMemCacheLocked(packageName, user);
 
-        ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+            ComponentKey cacheKey = getPackageKey(packageName, user);
+            CacheEntry entry = mCache.peek(cacheKey);
 
-        // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
-        }
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
-        }
-        if (icon != null) {
-            entry.icon = LauncherIcons.createIconBitmap(icon, mContext);
-        }
-        if (!TextUtils.isEmpty(title) && entry.icon != null) {
-            mCache.put(cacheKey, entry);
+            // For icon caching, do not go through DB. Just update the in-memory entry.
+            if (entry == null) {
+                entry = new CacheEntry();
+            }
+            if (!TextUtils.isEmpty(title)) {
+                entry.title = title;
+            }
+            if (icon != null) {
+                entry.icon = LauncherIcons.createIconBitmap(icon, mContext);
+            }
+            if (!TextUtils.isEmpty(title) && entry.icon != null) {
+                // This entry is not in the DB, so it can not be evicted.
+                mCache.put(cacheKey, entry, false /* evictable */);
+            }
         }
     }
 
@@ -597,15 +743,15 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is not thread safe, the lock for the package must be held by the caller.
      */
     private CacheEntry getEntryForPackageLocked(String packageName, UserHandle user,
             boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = mCache.get(cacheKey, useLowResIcon);
 
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        if (entry == null) {
             entry = new CacheEntry();
             boolean entryUpdated = true;
 
@@ -703,15 +849,18 @@ public class IconCache {
 
     /**
      * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * LauncherActivityInfo list. Items are processed in batches: the icons of a batch are
+     * generated and encoded on up to {@link #ICON_UPDATE_THREADS} background threads, and then
+     * written to the DB in a single transaction on the worker thread. The next batch is only
+     * started after yielding to the other tasks queued on the worker thread, so that they do not
+     * get blocked.
      */
     @Thunk class SerializedIconUpdateTask implements Runnable {
         private final long mUserSerial;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
         private final Stack<LauncherActivityInfo> mAppsToAdd;
         private final Stack<LauncherActivityInfo> mAppsToUpdate;
-        private final HashSet<String> mUpdatedPackages = new HashSet<>();
+        private final int mGeneration;
 
         @Thunk SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
                 Stack<LauncherActivityInfo> appsToAdd,
@@ -720,38 +869,111 @@ public class IconCache {
             mPkgInfoMap = pkgInfoMap;
             mAppsToAdd = appsToAdd;
             mAppsToUpdate = appsToUpdate;
+            mGeneration = mIconUpdateGeneration;
         }
 
         @Override
         public void run() {
-            if (!mAppsToUpdate.isEmpty()) {
+            if (mGeneration != mIconUpdateGeneration) {
+                return;
+            }
+            // Take the next batch, updates first.
+            final ArrayList<LauncherActivityInfo> apps = new ArrayList<>();
+            final HashSet<String> updatedPackages = new HashSet<>();
+            while (!mAppsToUpdate.isEmpty() && apps.size() < ICON_UPDATE_BATCH_SIZE) {
                 LauncherActivityInfo app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
-
-                if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
-                    // No more app to update. Notify model.
-                    LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
-                            mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
-                }
+                apps.add(app);
+                updatedPackages.add(app.getComponentName().getPackageName());
+            }
+            final int updateCount = apps.size();
+            while (!mAppsToAdd.isEmpty() && apps.size() < ICON_UPDATE_BATCH_SIZE) {
+                apps.add(mAppsToAdd.pop());
+            }
+            if (apps.isEmpty()) {
+                return;
+            }
 
-                // Let it run one more time.
-                scheduleNext();
-            } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfo app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
-                // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/);
+            // The icons are generated on several threads, each taking every n-th app. The entries
+            // are only added to the in-memory cache once the batch is committed, so that a batch
+            // of a stopped update is never visible.
+            final ContentValues[] values = new ContentValues[apps.size()];
+            final CacheEntry[] entries = new CacheEntry[apps.size()];
+            final int threads = Math.min(ICON_UPDATE_THREADS, apps.size());
+            final AtomicInteger remaining = new AtomicInteger(threads);
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                Utilities.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = first; i < values.length; i += threads) {
+                            generateIcon(apps.get(i), i < updateCount, values, entries, i);
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            postCommit(apps, values, entries, updatedPackages);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * Sets the DB values and the cache entry of {@param app} at {@param index} of
+         * {@param values} and {@param entries}.
+         */
+        @Thunk void generateIcon(LauncherActivityInfo app, boolean isUpdate,
+                ContentValues[] values, CacheEntry[] entries, int index) {
+            PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
+            // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although
+            // every app should have package info, this is not guaranteed by the api
+            if (info == null) {
+                return;
+            }
+            ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
+            IconNormalization normalization = new IconNormalization();
+            entries[index] = newIconEntry(key, app, isUpdate /*replace existing*/, normalization);
+            values[index] = newIconValues(app, info, mUserSerial, entries[index], normalization);
+        }
+
+        @Thunk void postCommit(ArrayList<LauncherActivityInfo> apps, ContentValues[] results,
+                CacheEntry[] entries, final HashSet<String> updatedPackages) {
+            final ArrayList<ContentValues> values = new ArrayList<>(results.length);
+            final ArrayList<ComponentKey> keys = new ArrayList<>(results.length);
+            final ArrayList<CacheEntry> generated = new ArrayList<>(results.length);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != null) {
+                    LauncherActivityInfo app = apps.get(i);
+                    values.add(results[i]);
+                    keys.add(new ComponentKey(app.getComponentName(), app.getUser()));
+                    generated.add(entries[i]);
+                }
+            }
+            mWorkerHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    commitBatch(values, keys, generated, updatedPackages);
                 }
+            }, ICON_UPDATE_TOKEN, SystemClock.uptimeMillis());
+        }
 
-                if (!mAppsToAdd.isEmpty()) {
-                    scheduleNext();
+        @Thunk void commitBatch(ArrayList<ContentValues> values, ArrayList<ComponentKey> keys,
+                ArrayList<CacheEntry> entries, HashSet<String> updatedPackages) {
+            if (mGeneration != mIconUpdateGeneration) {
+                return;
+            }
+            mIconDb.insertOrReplace(values);
+            for (int i = 0; i < keys.size(); i++) {
+                ComponentKey key = keys.get(i);
+                synchronized (getLock(key.componentName.getPackageName(), key.user)) {
+                    mCache.put(key, entries.get(i));
                 }
             }
+            if (!updatedPackages.isEmpty()) {
+                // Notify the model once for the whole batch.
+                LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
+                        updatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
+            }
+            // Let it run one more time.
+            scheduleNext();
         }
 
         public void scheduleNext() {
@@ -760,7 +982,7 @@ public class IconCache {
     }
 
     private static final class IconDB extends SQLiteCacheHelper {
-        private final static int DB_VERSION = 17;
+        private final static int DB_VERSION = 18;
 
         private final static int RELEASE_VERSION = DB_VERSION +
                 (FeatureFlags.LAUNCHER3_DISABLE_ICON_NORMALIZATION ? 0 : 1);
@@ -775,6 +997,7 @@ public class IconCache {
         private final static String COLUMN_ICON_LOW_RES = "icon_low_res";
         private final static String COLUMN_LABEL = "label";
         private final static String COLUMN_SYSTEM_STATE = "system_state";
+        private final static String COLUMN_NORMALIZATION = "normalization";
 
         public IconDB(Context context, int iconPixelSize) {
             super(context, LauncherFiles.APP_ICONS_DB,
@@ -793,6 +1016,7 @@ public class IconCache {
                     COLUMN_ICON_LOW_RES + " BLOB, " +
                     COLUMN_LABEL + " TEXT, " +
                     COLUMN_SYSTEM_STATE + " TEXT, " +
+                    COLUMN_NORMALIZATION + " TEXT, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
                     ");");
         }
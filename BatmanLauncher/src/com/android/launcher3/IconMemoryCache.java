@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.UserHandle;
+
+import com.android.launcher3.IconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * In-memory store for {@link IconCache} entries, bounded by the size of their bitmaps.
+ *
+ * Full-res and low-res entries have separate byte budgets. When the full-res budget is exceeded,
+ * the least recently used full-res entries are queued to be demoted to low-res on the demotion
+ * executor, and low-res entries are dropped once the low-res budget is exceeded in turn. Each
+ * tier is kept in access order, so that a trim only walks the entries it removes.
+ */
+class IconMemoryCache {
+
+    private static final int INITIAL_CAPACITY = 50;
+
+    // Once over budget, trim down to this fraction of it, to avoid trimming on every put.
+    private static final float TRIM_TARGET = 0.9f;
+
+    /**
+     * Creates a scaled down copy of a full-res icon.
+     */
+    interface LowResGenerator {
+        Bitmap generateLowResIcon(Bitmap icon);
+    }
+
+    private static class Node {
+        final CacheEntry entry;
+        // Captured on creation, as some callers update their entries in place.
+        final int bytes;
+        final boolean lowRes;
+        // Entries which are not backed by the DB can not be regenerated, never evict them.
+        final boolean evictable;
+
+        Node(CacheEntry entry, boolean evictable) {
+            this.entry = entry;
+            this.bytes = entry.icon == null ? 0 : entry.icon.getAllocationByteCount();
+            this.lowRes = entry.isLowResIcon;
+            this.evictable = evictable;
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    // All the entries, including the ones which are not evictable or are being demoted.
+    private final HashMap<ComponentKey, Node> mNodes = new HashMap<>(INITIAL_CAPACITY);
+    // Evictable entries of each tier, least recently used first.
+    private final LinkedHashMap<ComponentKey, Node> mFullRes =
+            new LinkedHashMap<>(INITIAL_CAPACITY, 0.75f, true /* accessOrder */);
+    private final LinkedHashMap<ComponentKey, Node> mLowRes =
+            new LinkedHashMap<>(INITIAL_CAPACITY, 0.75f, true /* accessOrder */);
+    // Full-res entries waiting for their low-res copy, in the order they were queued.
+    private final LinkedHashMap<ComponentKey, Node> mDemoting = new LinkedHashMap<>();
+
+    private final LowResGenerator mLowResGenerator;
+    private final Executor mDemotionExecutor;
+    private boolean mDemotionScheduled;
+
+    // Bytes of the full-res entries, excluding the ones being demoted.
+    private long mFullResBytes;
+    private long mLowResBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mDemotions;
+    private long mEvictions;
+
+    private final long mMaxFullResBytes;
+    private final long mMaxLowResBytes;
+
+    /**
+     * @param demotionExecutor creates the low-res copies of the demoted entries, so that the
+     *                         callers of {@link #put} never wait for it.
+     */
+    IconMemoryCache(long maxFullResBytes, long maxLowResBytes, LowResGenerator generator,
+            Executor demotionExecutor) {
+        mMaxFullResBytes = maxFullResBytes;
+        mMaxLowResBytes = maxLowResBytes;
+        mLowResGenerator = generator;
+        mDemotionExecutor = demotionExecutor;
+    }
+
+    /**
+     * Returns the entry for the key, or null if it is not present or if it is a low-res entry
+     * and {@param allowLowRes} is false. Records the lookup in the hit and miss counters.
+     */
+    CacheEntry get(ComponentKey key, boolean allowLowRes) {
+        synchronized (mLock) {
+            Node node = mNodes.get(key);
+            if (node == null || (node.lowRes && !allowLowRes)) {
+                mMisses++;
+                return null;
+            }
+            // Moves the entry to the end of its tier, if it is in one.
+            (node.lowRes ? mLowRes : mFullRes).get(key);
+            mHits++;
+            return node.entry;
+        }
+    }
+
+    /**
+     * Returns the entry for the key without touching its recency or the counters.
+     */
+    CacheEntry peek(ComponentKey key) {
+        synchronized (mLock) {
+            Node node = mNodes.get(key);
+            return node == null ? null : node.entry;
+        }
+    }
+
+    void put(ComponentKey key, CacheEntry entry) {
+        put(key, entry, true);
+    }
+
+    /**
+     * @param evictable false if the entry can not be regenerated from the DB or the system.
+     */
+    void put(ComponentKey key, CacheEntry entry, boolean evictable) {
+        Node node = new Node(entry, evictable);
+        synchronized (mLock) {
+            removeLocked(key);
+            mNodes.put(key, node);
+            if (node.lowRes) {
+                mLowResBytes += node.bytes;
+            } else {
+                mFullResBytes += node.bytes;
+            }
+            if (evictable) {
+                (node.lowRes ? mLowRes : mFullRes).put(key, node);
+            }
+            if (mFullResBytes > mMaxFullResBytes) {
+                trimFullResLocked((long) (mMaxFullResBytes * TRIM_TARGET), true /* demote */);
+            }
+            if (mLowResBytes > mMaxLowResBytes) {
+                trimLowResLocked((long) (mMaxLowResBytes * TRIM_TARGET));
+            }
+        }
+    }
+
+    void remove(ComponentKey key) {
+        synchronized (mLock) {
+            removeLocked(key);
+        }
+    }
+
+    /**
+     * Removes all the entries of the given package and user.
+     */
+    void removePackage(String packageName, UserHandle user) {
+        synchronized (mLock) {
+            Iterator<Map.Entry<ComponentKey, Node>> it = mNodes.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<ComponentKey, Node> e = it.next();
+                ComponentKey key = e.getKey();
+                if (key.componentName.getPackageName().equals(packageName)
+                        && key.user.equals(user)) {
+                    it.remove();
+                    onNodeRemovedLocked(key, e.getValue());
+                }
+            }
+        }
+    }
+
+    private void removeLocked(ComponentKey key) {
+        Node node = mNodes.remove(key);
+        if (node != null) {
+            onNodeRemovedLocked(key, node);
+        }
+    }
+
+    /**
+     * Removes a node from its tier or from the demotion queue, and updates the byte counts.
+     */
+    private void onNodeRemovedLocked(ComponentKey key, Node node) {
+        if (mDemoting.remove(key) != null) {
+            // Already discounted when queued.
+            return;
+        }
+        if (node.evictable) {
+            (node.lowRes ? mLowRes : mFullRes).remove(key);
+        }
+        if (node.lowRes) {
+            mLowResBytes -= node.bytes;
+        } else {
+            mFullResBytes -= node.bytes;
+        }
+    }
+
+    /**
+     * Responds to {@link ComponentCallbacks2#onTrimMemory} with a one-off trim, deeper as the
+     * memory pressure grows. Full-res entries are dropped rather than demoted, so that no bitmap
+     * is created under memory pressure. The budgets themselves are unchanged, so that the cache
+     * grows back once the launcher is in use again.
+     */
+    void onTrimMemory(int level) {
+        synchronized (mLock) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+                // We are about to be killed, keep only what can not be regenerated.
+                dropDemotionsLocked();
+                trimFullResLocked(0, false /* demote */);
+                trimLowResLocked(0);
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+                // Keep only the low-res tier.
+                dropDemotionsLocked();
+                trimFullResLocked(0, false /* demote */);
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                    || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                trimFullResLocked(mMaxFullResBytes / 4, false /* demote */);
+            } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                trimFullResLocked(mMaxFullResBytes / 2, false /* demote */);
+            }
+        }
+    }
+
+    /**
+     * Demotes or drops the least recently used full-res entries until the full-res tier fits
+     * in {@param target} bytes.
+     */
+    private void trimFullResLocked(long target, boolean demote) {
+        Iterator<Map.Entry<ComponentKey, Node>> it = mFullRes.entrySet().iterator();
+        while (mFullResBytes > target && it.hasNext()) {
+            Map.Entry<ComponentKey, Node> e = it.next();
+            Node node = e.getValue();
+            it.remove();
+            mFullResBytes -= node.bytes;
+            if (demote && mMaxLowResBytes > 0) {
+                mDemoting.put(e.getKey(), node);
+            } else {
+                mNodes.remove(e.getKey());
+                mEvictions++;
+            }
+        }
+        if (!mDemoting.isEmpty() && !mDemotionScheduled) {
+            mDemotionScheduled = true;
+            mDemotionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runDemotions();
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the least recently used low-res entries until the low-res tier fits in
+     * {@param target} bytes.
+     */
+    private void trimLowResLocked(long target) {
+        Iterator<Map.Entry<ComponentKey, Node>> it = mLowRes.entrySet().iterator();
+        while (mLowResBytes > target && it.hasNext()) {
+            Map.Entry<ComponentKey, Node> e = it.next();
+            it.remove();
+            mNodes.remove(e.getKey());
+            mLowResBytes -= e.getValue().bytes;
+            mEvictions++;
+        }
+    }
+
+    private void dropDemotionsLocked() {
+        for (ComponentKey key : mDemoting.keySet()) {
+            mNodes.remove(key);
+            mEvictions++;
+        }
+        mDemoting.clear();
+    }
+
+    /**
+     * Replaces the queued full-res entries with low-res copies. The copies are created without
+     * holding the lock, and are discarded if the entry was replaced or removed meanwhile.
+     * Entries are replaced instead of modified, since they can be in use by other threads.
+     */
+    private void runDemotions() {
+        while (true) {
+            ComponentKey key;
+            Node node;
+            synchronized (mLock) {
+                Iterator<Map.Entry<ComponentKey, Node>> it = mDemoting.entrySet().iterator();
+                if (!it.hasNext()) {
+                    mDemotionScheduled = false;
+                    return;
+                }
+                Map.Entry<ComponentKey, Node> e = it.next();
+                key = e.getKey();
+                node = e.getValue();
+            }
+
+            CacheEntry lowRes = new CacheEntry();
+            lowRes.title = node.entry.title;
+            lowRes.contentDescription = node.entry.contentDescription;
+            lowRes.icon = node.entry.icon == null ? null
+                    : mLowResGenerator.generateLowResIcon(node.entry.icon);
+            lowRes.isLowResIcon = true;
+            Node lowResNode = new Node(lowRes, true);
+
+            synchronized (mLock) {
+                if (mDemoting.get(key) != node) {
+                    continue;
+                }
+                mDemoting.remove(key);
+                mNodes.put(key, lowResNode);
+                mLowRes.put(key, lowResNode);
+                mLowResBytes += lowResNode.bytes;
+                mDemotions++;
+                if (mLowResBytes > mMaxLowResBytes) {
+                    trimLowResLocked((long) (mMaxLowResBytes * TRIM_TARGET));
+                }
+            }
+        }
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        synchronized (mLock) {
+            long lookups = mHits + mMisses;
+            writer.println(prefix + "Icon memory cache: entries=" + mNodes.size()
+                    + " hits=" + mHits
+                    + " misses=" + mMisses
+                    + " hitRatio=" + (lookups == 0 ? 0 : (100 * mHits / lookups)) + "%"
+                    + " demotions=" + mDemotions
+                    + " evictions=" + mEvictions
+                    + " demoting=" + mDemoting.size());
+            writer.println(prefix + "  fullResBytes=" + mFullResBytes + "/" + mMaxFullResBytes
+                    + " lowResBytes=" + mLowResBytes + "/" + mMaxLowResBytes);
+        }
+    }
+}
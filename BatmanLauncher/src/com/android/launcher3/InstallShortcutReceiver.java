@@ -19,6 +19,7 @@ package com.android.launcher3;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.BroadcastReceiver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -36,9 +37,11 @@ import android.util.Base64;
 import android.util.Log;
 import android.util.Pair;
 
+import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.model.AddWorkspaceItemsTask;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
@@ -55,7 +58,6 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -87,7 +89,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
     private static final String APP_WIDGET_TYPE_KEY = "isAppWidget";
     private static final String USER_HANDLE_KEY = "userHandle";
 
-    // The set of shortcuts that are pending install
+    // The set of shortcuts that were pending install, before the queue moved to its own DB
     private static final String APPS_PENDING_INSTALL = "apps_to_install";
 
     public static final int NEW_SHORTCUT_BOUNCE_DURATION = 450;
@@ -95,71 +97,68 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
 
     private static final Object sLock = new Object();
 
-    private static void addToInstallQueue(
-            SharedPreferences sharedPrefs, PendingInstallShortcutInfo info) {
-        synchronized(sLock) {
-            String encoded = info.encodeToString();
-            if (encoded != null) {
-                Set<String> strings = sharedPrefs.getStringSet(APPS_PENDING_INSTALL, null);
-                strings = (strings != null) ? new HashSet<>(strings) : new HashSet<String>(1);
-                strings.add(encoded);
-                sharedPrefs.edit().putStringSet(APPS_PENDING_INSTALL, strings).apply();
+    // Guarded by sLock
+    private static PendingInstallQueue sQueue;
+
+    private static PendingInstallQueue getQueue(Context context) {
+        synchronized (sLock) {
+            if (sQueue == null) {
+                sQueue = new PendingInstallQueue(
+                        context.getApplicationContext(), LauncherFiles.INSTALL_QUEUE_DB);
+                migrateLegacyQueue(context, sQueue);
             }
+            return sQueue;
         }
     }
 
-    public static void removeFromInstallQueue(Context context, HashSet<String> packageNames,
-            UserHandle user) {
-        if (packageNames.isEmpty()) {
+    /**
+     * Moves the items queued in the shared preferences by the previous versions to {@param queue}.
+     */
+    private static void migrateLegacyQueue(Context context, PendingInstallQueue queue) {
+        SharedPreferences prefs = Utilities.getPrefs(context);
+        Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
+        if (strings == null) {
             return;
         }
-        SharedPreferences sp = Utilities.getPrefs(context);
-        synchronized(sLock) {
-            Set<String> strings = sp.getStringSet(APPS_PENDING_INSTALL, null);
-            if (DBG) {
-                Log.d(TAG, "APPS_PENDING_INSTALL: " + strings
-                        + ", removing packages: " + packageNames);
-            }
-            if (Utilities.isEmpty(strings)) {
-                return;
-            }
-            Set<String> newStrings = new HashSet<>(strings);
-            Iterator<String> newStringsIter = newStrings.iterator();
-            while (newStringsIter.hasNext()) {
-                String encoded = newStringsIter.next();
-                try {
-                    Decoder decoder = new Decoder(encoded, context);
-                    if (packageNames.contains(getIntentPackage(decoder.launcherIntent)) &&
-                            user.equals(decoder.user)) {
-                        newStringsIter.remove();
-                    }
-                } catch (JSONException | URISyntaxException e) {
-                    Log.d(TAG, "Exception reading shortcut to add: " + e);
-                    newStringsIter.remove();
-                }
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        ArrayList<ContentValues> entries = new ArrayList<>(strings.size());
+        for (String encoded : strings) {
+            try {
+                Decoder decoder = new Decoder(encoded, context);
+                entries.add(PendingInstallQueue.newEntry(decoder.getItemType(),
+                        getIntentPackage(decoder.launcherIntent),
+                        userManager.getSerialNumberForUser(decoder.user), encoded));
+            } catch (JSONException | URISyntaxException e) {
+                Log.d(TAG, "Exception reading shortcut to add: " + e);
             }
-            sp.edit().putStringSet(APPS_PENDING_INSTALL, newStrings).apply();
+        }
+        // Otherwise the items are migrated again by the next launch.
+        if (queue.addAll(entries)) {
+            prefs.edit().remove(APPS_PENDING_INSTALL).apply();
         }
     }
 
-    private static ArrayList<PendingInstallShortcutInfo> getAndClearInstallQueue(Context context) {
-        SharedPreferences sharedPrefs = Utilities.getPrefs(context);
-        synchronized(sLock) {
-            ArrayList<PendingInstallShortcutInfo> infos = new ArrayList<>();
-            Set<String> strings = sharedPrefs.getStringSet(APPS_PENDING_INSTALL, null);
-            if (DBG) Log.d(TAG, "Getting and clearing APPS_PENDING_INSTALL: " + strings);
-            if (strings == null) {
-                return infos;
-            }
-            for (String encoded : strings) {
-                PendingInstallShortcutInfo info = decode(encoded, context);
-                if (info != null) {
-                    infos.add(info);
-                }
-            }
-            sharedPrefs.edit().putStringSet(APPS_PENDING_INSTALL, new HashSet<String>()).apply();
-            return infos;
+    private static void addToInstallQueue(Context context, PendingInstallShortcutInfo info) {
+        String encoded = info.encodeToString();
+        if (encoded == null) {
+            return;
+        }
+        // Written before returning, so that the item is not lost if the process dies once the
+        // broadcast is handled. It is then read by the flush which follows.
+        getQueue(context).add(PendingInstallQueue.newEntry(info.getItemType(),
+                getIntentPackage(info.launchIntent),
+                UserManagerCompat.getInstance(context).getSerialNumberForUser(info.user),
+                encoded));
+    }
+
+    public static void removeFromInstallQueue(Context context, HashSet<String> packageNames,
+            UserHandle user) {
+        if (packageNames.isEmpty()) {
+            return;
         }
+        if (DBG) Log.d(TAG, "Removing packages from the install queue: " + packageNames);
+        getQueue(context).removePackages(packageNames,
+                UserManagerCompat.getInstance(context).getSerialNumberForUser(user));
     }
 
     public void onReceive(Context context, Intent data) {
@@ -236,17 +235,12 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
     public static HashSet<ShortcutKey> getPendingShortcuts(Context context) {
         HashSet<ShortcutKey> result = new HashSet<>();
 
-        Set<String> strings = Utilities.getPrefs(context).getStringSet(APPS_PENDING_INSTALL, null);
-        if (Utilities.isEmpty(strings)) {
-            return result;
-        }
-
+        ArrayList<String> strings = new ArrayList<>();
+        getQueue(context).getEntries(Favorites.ITEM_TYPE_DEEP_SHORTCUT, strings);
         for (String encoded : strings) {
             try {
                 Decoder decoder = new Decoder(encoded, context);
-                if (decoder.optBoolean(DEEPSHORTCUT_TYPE_KEY)) {
-                    result.add(ShortcutKey.fromIntent(decoder.launcherIntent, decoder.user));
-                }
+                result.add(ShortcutKey.fromIntent(decoder.launcherIntent, decoder.user));
             } catch (JSONException | URISyntaxException e) {
                 Log.d(TAG, "Exception reading shortcut to add: " + e);
             }
@@ -256,7 +250,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
 
     private static void queuePendingShortcutInfo(PendingInstallShortcutInfo info, Context context) {
         // Queue the item up for adding if launcher has not loaded properly yet
-        addToInstallQueue(Utilities.getPrefs(context), info);
+        addToInstallQueue(context, info);
         flushInstallQueue(context);
     }
 
@@ -274,12 +268,11 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         if (sInstallQueueDisabledFlags != 0 || launcherNotLoaded) {
             return;
         }
-
-        ArrayList<PendingInstallShortcutInfo> items = getAndClearInstallQueue(context);
-        if (!items.isEmpty()) {
-            model.addAndBindAddedWorkspaceItems(
-                    new LazyShortcutsProvider(context.getApplicationContext(), items));
-        }
+        // The queue is read and decoded on the worker thread, in one batch with everything
+        // queued until then. Items already claimed by a previous flush are skipped.
+        LazyShortcutsProvider provider =
+                new LazyShortcutsProvider(context.getApplicationContext());
+        model.addAndBindAddedWorkspaceItems(provider, provider);
     }
 
     /**
@@ -497,6 +490,18 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         public boolean isLauncherActivity() {
             return activityInfo != null;
         }
+
+        public int getItemType() {
+            if (activityInfo != null) {
+                return Favorites.ITEM_TYPE_APPLICATION;
+            } else if (shortcutInfo != null) {
+                return Favorites.ITEM_TYPE_DEEP_SHORTCUT;
+            } else if (providerInfo != null) {
+                return Favorites.ITEM_TYPE_APPWIDGET;
+            } else {
+                return Favorites.ITEM_TYPE_SHORTCUT;
+            }
+        }
     }
 
     private static String getIntentPackage(Intent intent) {
@@ -575,6 +580,18 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                 throw new JSONException("Invalid user");
             }
         }
+
+        public int getItemType() {
+            if (optBoolean(APP_SHORTCUT_TYPE_KEY)) {
+                return Favorites.ITEM_TYPE_APPLICATION;
+            } else if (optBoolean(DEEPSHORTCUT_TYPE_KEY)) {
+                return Favorites.ITEM_TYPE_DEEP_SHORTCUT;
+            } else if (optBoolean(APP_WIDGET_TYPE_KEY)) {
+                return Favorites.ITEM_TYPE_APPWIDGET;
+            } else {
+                return Favorites.ITEM_TYPE_SHORTCUT;
+            }
+        }
     }
 
     /**
@@ -601,14 +618,18 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         return new PendingInstallShortcutInfo(info, original.mContext);
     }
 
-    private static class LazyShortcutsProvider extends Provider<List<Pair<ItemInfo, Object>>> {
+    /**
+     * Claims the queued items when read by the {@link AddWorkspaceItemsTask}, and removes them
+     * from the queue once the task has added them.
+     */
+    private static class LazyShortcutsProvider extends Provider<List<Pair<ItemInfo, Object>>>
+            implements Runnable {
 
         private final Context mContext;
-        private final ArrayList<PendingInstallShortcutInfo> mPendingItems;
+        private long mClaimedId;
 
-        public LazyShortcutsProvider(Context context, ArrayList<PendingInstallShortcutInfo> items) {
+        public LazyShortcutsProvider(Context context) {
             mContext = context;
-            mPendingItems = items;
         }
 
         /**
@@ -618,9 +639,17 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         @Override
         public ArrayList<Pair<ItemInfo, Object>> get() {
             Preconditions.assertNonUiThread();
+            ArrayList<String> strings = new ArrayList<>();
+            mClaimedId = getQueue(mContext).claim(strings);
+            if (DBG) Log.d(TAG, "Adding " + strings.size() + " queued items");
+
             ArrayList<Pair<ItemInfo, Object>> installQueue = new ArrayList<>();
             LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(mContext);
-            for (PendingInstallShortcutInfo pendingInfo : mPendingItems) {
+            for (String encoded : strings) {
+                PendingInstallShortcutInfo pendingInfo = decode(encoded, mContext);
+                if (pendingInfo == null) {
+                    continue;
+                }
                 // If the intent specifies a package, make sure the package exists
                 String packageName = getIntentPackage(pendingInfo.launchIntent);
                 if (!TextUtils.isEmpty(packageName) && !launcherApps.isPackageEnabledForProfile(
@@ -635,6 +664,14 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
             }
             return installQueue;
         }
+
+        /**
+         * Called on the background thread once the claimed items are added to the workspace.
+         */
+        @Override
+        public void run() {
+            getQueue(mContext).remove(mClaimedId);
+        }
     }
 
     private static ShortcutInfo createShortcutInfo(Intent data, LauncherAppState app) {
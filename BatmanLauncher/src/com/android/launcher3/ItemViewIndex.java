@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.view.View;
+
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LongArrayMap;
+import com.android.launcher3.util.PackageUserKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Index of the item views bound to the workspace, the hotseat and the folders, by item id,
+ * component and package, so that updating the views of some items does not need to walk all the
+ * pages and folders.
+ *
+ * It is maintained by {@link ShortcutAndWidgetContainer} as views are added and removed. Views
+ * added to a folder are only returned while the folder itself is indexed, as a folder can be
+ * populated before it is bound, or outlive its removal. Must be accessed on the main thread.
+ *
+ * Views are checked against their current tag when looked up: a view is not returned for an item
+ * it is no longer bound to, and is indexed again under its current item. A view which starts
+ * targeting another component is only found under that component once it was looked up, or after
+ * {@link #onItemUpdated(View)}.
+ */
+public class ItemViewIndex {
+
+    private static class Entry {
+        final View view;
+        final boolean inFolder;
+        ItemInfo info;
+        long id;
+        long container;
+        ComponentKey componentKey;
+        PackageUserKey packageKey;
+
+        Entry(View view, boolean inFolder) {
+            this.view = view;
+            this.inFolder = inFolder;
+        }
+    }
+
+    private final HashMap<View, Entry> mEntries = new HashMap<>();
+    // Entries by id, in the order they were indexed.
+    private final LongArrayMap<ArrayList<Entry>> mEntriesById = new LongArrayMap<>();
+    private final HashMap<ComponentKey, ArrayList<Entry>> mEntriesByComponent = new HashMap<>();
+    private final HashMap<PackageUserKey, ArrayList<Entry>> mEntriesByPackage = new HashMap<>();
+
+    /**
+     * Called when {@param view} is added to a workspace, hotseat or folder container.
+     */
+    public void onViewAdded(View view, boolean inFolder) {
+        if (!(view.getTag() instanceof ItemInfo) || mEntries.containsKey(view)) {
+            return;
+        }
+        Entry entry = new Entry(view, inFolder);
+        mEntries.put(view, entry);
+        addKeys(entry);
+    }
+
+    /**
+     * Called when {@param view} is removed from its container.
+     */
+    public void onViewRemoved(View view) {
+        Entry entry = mEntries.remove(view);
+        if (entry != null) {
+            removeKeys(entry);
+        }
+    }
+
+    /**
+     * Called when the item bound to {@param view} changed, as its component may have changed.
+     */
+    public void onItemUpdated(View view) {
+        Entry entry = mEntries.get(view);
+        if (entry != null) {
+            reindex(entry);
+        }
+    }
+
+    /**
+     * @param includeFolderItems whether the items in folders are included, or only the items on
+     *                           the workspace and the hotseat.
+     * @return the most recently added view bound to the item {@param id}, or null.
+     */
+    public View getView(long id, boolean includeFolderItems) {
+        Entry entry = getEntry(id, includeFolderItems);
+        if (entry == null && id != ItemInfo.NO_ID) {
+            // Items are assigned an id when added to the DB, which can be after their view.
+            entry = findEntry(mEntriesById.get(ItemInfo.NO_ID), id, includeFolderItems);
+        }
+        return entry == null ? null : entry.view;
+    }
+
+    /**
+     * Adds the views of the items targeting {@param key} to {@param out}.
+     */
+    public void collectViews(PackageUserKey key, ArrayList<View> out) {
+        ArrayList<Entry> entries = mEntriesByPackage.get(key);
+        if (entries == null) {
+            return;
+        }
+        // Iterate backwards, as validating an entry can move it out of the list or to its end.
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (validate(entry) && key.equals(entry.packageKey) && isBound(entry)) {
+                out.add(entry.view);
+            }
+        }
+    }
+
+    /**
+     * Adds the views of the items targeting {@param key} to {@param out}.
+     */
+    public void collectViews(ComponentKey key, ArrayList<View> out) {
+        ArrayList<Entry> entries = mEntriesByComponent.get(key);
+        if (entries == null) {
+            return;
+        }
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (validate(entry) && key.equals(entry.componentKey) && isBound(entry)) {
+                out.add(entry.view);
+            }
+        }
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    private Entry getEntry(long id, boolean includeFolderItems) {
+        return findEntry(mEntriesById.get(id), id, includeFolderItems);
+    }
+
+    private Entry findEntry(ArrayList<Entry> entries, long id, boolean includeFolderItems) {
+        if (entries == null) {
+            return null;
+        }
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (validate(entry) && entry.id == id && (includeFolderItems || !entry.inFolder)
+                    && isBound(entry)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private boolean isBound(Entry entry) {
+        return !entry.inFolder || getEntry(entry.container, false) != null;
+    }
+
+    /**
+     * Indexes the entry again if its view is bound to another item, or its item changed, since
+     * the entry was indexed.
+     *
+     * @return whether the view is still bound to an item.
+     */
+    private boolean validate(Entry entry) {
+        Object tag = entry.view.getTag();
+        if (tag == entry.info && entry.info.id == entry.id
+                && entry.info.container == entry.container
+                && (entry.componentKey == null || entry.componentKey.componentName.equals(
+                        entry.info.getTargetComponent()))) {
+            return true;
+        }
+        return reindex(entry);
+    }
+
+    private boolean reindex(Entry entry) {
+        removeKeys(entry);
+        if (entry.view.getTag() instanceof ItemInfo) {
+            addKeys(entry);
+            return true;
+        }
+        mEntries.remove(entry.view);
+        return false;
+    }
+
+    private void addKeys(Entry entry) {
+        ItemInfo info = (ItemInfo) entry.view.getTag();
+        entry.info = info;
+        entry.id = info.id;
+        entry.container = info.container;
+        ArrayList<Entry> entries = mEntriesById.get(entry.id);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            mEntriesById.put(entry.id, entries);
+        }
+        entries.add(entry);
+
+        ComponentName cn = info.getTargetComponent();
+        if (cn != null && info.user != null) {
+            entry.componentKey = new ComponentKey(cn, info.user);
+            entry.packageKey = new PackageUserKey(cn.getPackageName(), info.user);
+            addTo(mEntriesByComponent, entry.componentKey, entry);
+            addTo(mEntriesByPackage, entry.packageKey, entry);
+        }
+    }
+
+    private void removeKeys(Entry entry) {
+        ArrayList<Entry> entries = mEntriesById.get(entry.id);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                mEntriesById.remove(entry.id);
+            }
+        }
+        if (entry.componentKey != null) {
+            removeFrom(mEntriesByComponent, entry.componentKey, entry);
+            removeFrom(mEntriesByPackage, entry.packageKey, entry);
+            entry.componentKey = null;
+            entry.packageKey = null;
+        }
+    }
+
+    private static <K> void addTo(HashMap<K, ArrayList<Entry>> map, K key, Entry entry) {
+        ArrayList<Entry> entries = map.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            map.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static <K> void removeFrom(HashMap<K, ArrayList<Entry>> map, K key, Entry entry) {
+        ArrayList<Entry> entries = map.get(key);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
@@ -104,6 +104,7 @@ import com.android.launcher3.dynamicui.ExtractedColors;
 import com.android.launcher3.dynamicui.WallpaperColorInfo;
 import com.android.launcher3.folder.Folder;
 import com.android.launcher3.folder.FolderIcon;
+import com.android.launcher3.graphics.IconRenderContext;
 import com.android.launcher3.keyboard.CustomActionsPopup;
 import com.android.launcher3.keyboard.ViewGroupFocusHelper;
 import com.android.launcher3.logging.FileLog;
@@ -229,6 +230,7 @@ public class Launcher extends BaseActivity
     private final ExtractedColors mExtractedColors = new ExtractedColors();
 
     @Thunk Workspace mWorkspace;
+    private final ItemViewIndex mItemViewIndex = new ItemViewIndex();
     private View mLauncherView;
     @Thunk DragLayer mDragLayer;
     private DragController mDragController;
@@ -1025,6 +1027,7 @@ public class Launcher extends BaseActivity
         // orientation.
         if (!isWorkspaceLoading()) {
             getWorkspace().reinflateWidgetsIfNecessary();
+            mPopupDataProvider.schedulePrefetch();
         }
 
         if (DEBUG_RESUME_TIME) {
@@ -1656,6 +1659,13 @@ public class Launcher extends BaseActivity
         return mWorkspace;
     }
 
+    /**
+     * Returns the index of the item views bound to the workspace, the hotseat and the folders.
+     */
+    public ItemViewIndex getItemViewIndex() {
+        return mItemViewIndex;
+    }
+
     public Hotseat getHotseat() {
         return mHotseat;
     }
@@ -2836,6 +2846,8 @@ public class Launcher extends BaseActivity
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
         }
+        mIconCache.onTrimMemory(level);
+        IconRenderContext.onTrimMemory();
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
         }
@@ -3955,6 +3967,7 @@ public class Launcher extends BaseActivity
         writer.println(" mPendingActivityResult=" + mPendingActivityResult);
 
         mModel.dumpState(prefix, fd, writer, args);
+        mPopupDataProvider.dump(prefix, writer);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.dump(prefix, fd, writer, args);
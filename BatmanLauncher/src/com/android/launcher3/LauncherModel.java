@@ -41,6 +41,7 @@ import com.android.launcher3.dynamicui.ExtractionUtils;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.AddWorkspaceItemsTask;
 import com.android.launcher3.model.BgDataModel;
+import com.android.launcher3.model.BindChunker;
 import com.android.launcher3.model.CacheDataUpdatedTask;
 import com.android.launcher3.model.BaseModelUpdateTask;
 import com.android.launcher3.model.LoaderResults;
@@ -111,6 +112,12 @@ public class LauncherModel extends BroadcastReceiver
 
     @Thunk WeakReference<Callbacks> mCallbacks;
 
+    // Incremented for every package update, see getPackageUpdateCount().
+    private int mPackageUpdateCount;
+
+    // Sizes the bind chunks from the costs measured during the previous binds.
+    private final BindChunker mBindChunker;
+
     // < only access in worker thread >
     private final AllAppsList mBgAllAppsList;
 
@@ -163,6 +170,7 @@ public class LauncherModel extends BroadcastReceiver
     LauncherModel(LauncherAppState app, IconCache iconCache, AppFilter appFilter) {
         mApp = app;
         mBgAllAppsList = new AllAppsList(iconCache, appFilter);
+        mBindChunker = new BindChunker(app.getContext());
     }
 
     /** Runs the specified runnable immediately if called from the worker thread, otherwise it is
@@ -198,6 +206,15 @@ public class LauncherModel extends BroadcastReceiver
         enqueueModelUpdateTask(new AddWorkspaceItemsTask(appsProvider));
     }
 
+    /**
+     * Adds the provided items to the workspace, and runs {@param onItemsAdded} on the worker
+     * thread once they are written to the DB.
+     */
+    public void addAndBindAddedWorkspaceItems(
+            Provider<List<Pair<ItemInfo, Object>>> appsProvider, Runnable onItemsAdded) {
+        enqueueModelUpdateTask(new AddWorkspaceItemsTask(appsProvider, onItemsAdded));
+    }
+
     public ModelWriter getWriter(boolean hasVerticalHotseat) {
         return new ModelWriter(mApp.getContext(), sBgDataModel, hasVerticalHotseat);
     }
@@ -314,7 +331,7 @@ public class LauncherModel extends BroadcastReceiver
     @Override
     public void onPackageChanged(String packageName, UserHandle user) {
         int op = PackageUpdatedTask.OP_UPDATE;
-        enqueueModelUpdateTask(new PackageUpdatedTask(op, user, packageName));
+        enqueuePackageUpdatedTask(new PackageUpdatedTask(op, user, packageName));
     }
 
     @Override
@@ -324,19 +341,19 @@ public class LauncherModel extends BroadcastReceiver
 
     public void onPackagesRemoved(UserHandle user, String... packages) {
         int op = PackageUpdatedTask.OP_REMOVE;
-        enqueueModelUpdateTask(new PackageUpdatedTask(op, user, packages));
+        enqueuePackageUpdatedTask(new PackageUpdatedTask(op, user, packages));
     }
 
     @Override
     public void onPackageAdded(String packageName, UserHandle user) {
         int op = PackageUpdatedTask.OP_ADD;
-        enqueueModelUpdateTask(new PackageUpdatedTask(op, user, packageName));
+        enqueuePackageUpdatedTask(new PackageUpdatedTask(op, user, packageName));
     }
 
     @Override
     public void onPackagesAvailable(String[] packageNames, UserHandle user,
             boolean replacing) {
-        enqueueModelUpdateTask(
+        enqueuePackageUpdatedTask(
                 new PackageUpdatedTask(PackageUpdatedTask.OP_UPDATE, user, packageNames));
     }
 
@@ -344,20 +361,20 @@ public class LauncherModel extends BroadcastReceiver
     public void onPackagesUnavailable(String[] packageNames, UserHandle user,
             boolean replacing) {
         if (!replacing) {
-            enqueueModelUpdateTask(new PackageUpdatedTask(
+            enqueuePackageUpdatedTask(new PackageUpdatedTask(
                     PackageUpdatedTask.OP_UNAVAILABLE, user, packageNames));
         }
     }
 
     @Override
     public void onPackagesSuspended(String[] packageNames, UserHandle user) {
-        enqueueModelUpdateTask(new PackageUpdatedTask(
+        enqueuePackageUpdatedTask(new PackageUpdatedTask(
                 PackageUpdatedTask.OP_SUSPEND, user, packageNames));
     }
 
     @Override
     public void onPackagesUnsuspended(String[] packageNames, UserHandle user) {
-        enqueueModelUpdateTask(new PackageUpdatedTask(
+        enqueuePackageUpdatedTask(new PackageUpdatedTask(
                 PackageUpdatedTask.OP_UNSUSPEND, user, packageNames));
     }
 
@@ -395,7 +412,7 @@ public class LauncherModel extends BroadcastReceiver
             if (user != null) {
                 if (Intent.ACTION_MANAGED_PROFILE_AVAILABLE.equals(action) ||
                         Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE.equals(action)) {
-                    enqueueModelUpdateTask(new PackageUpdatedTask(
+                    enqueuePackageUpdatedTask(new PackageUpdatedTask(
                             PackageUpdatedTask.OP_USER_AVAILABILITY_CHANGE, user));
                 }
 
@@ -469,7 +486,7 @@ public class LauncherModel extends BroadcastReceiver
                 // If there is already one running, tell it to stop.
                 stopLoader();
                 LoaderResults loaderResults = new LoaderResults(mApp, sBgDataModel,
-                        mBgAllAppsList, synchronousBindPage, mCallbacks);
+                        mBgAllAppsList, synchronousBindPage, mBindChunker, mCallbacks);
                 if (mModelLoaded && !mIsLoaderTaskRunning) {
                     // Divide the set of loaded items into those that we are binding synchronously,
                     // and everything else that is to be bound normally (asynchronously).
@@ -605,6 +622,23 @@ public class LauncherModel extends BroadcastReceiver
         runOnWorkerThread(task);
     }
 
+    private void enqueuePackageUpdatedTask(PackageUpdatedTask task) {
+        synchronized (mLock) {
+            mPackageUpdateCount++;
+        }
+        enqueueModelUpdateTask(task);
+    }
+
+    /**
+     * Returns the number of package updates received so far. A loader compares it before and
+     * after a query to know whether the query result may be out of date.
+     */
+    public int getPackageUpdateCount() {
+        synchronized (mLock) {
+            return mPackageUpdateCount;
+        }
+    }
+
     /**
      * A task to be executed on the current callbacks on the UI thread.
      * If there is no current callbacks, the task is ignored.
@@ -672,6 +706,9 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
         sBgDataModel.dump(prefix, fd, writer, args);
+        mApp.getIconCache().dump(prefix, writer);
+        mApp.getWidgetCache().dump(prefix, writer);
+        mBindChunker.dump(prefix, writer);
     }
 
     public Callbacks getCallback() {
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.android.launcher3.util.NoLocaleSqliteContext;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Persistent queue of the items waiting to be added to the workspace, in the order they were
+ * queued.
+ *
+ * Each item is a row, so queuing an item does not rewrite the others, and the rows are indexed by
+ * package and user so that removing the items of a package only touches those. An item which is
+ * already queued is not queued again. Items are claimed in batches and only removed once added to
+ * the workspace: if the process dies in between, they are claimed again by the next launch.
+ *
+ * Unlike the cache DBs, the rows are kept across version changes and failed writes.
+ */
+class PendingInstallQueue extends SQLiteOpenHelper {
+
+    private static final String TAG = "PendingInstallQueue";
+
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE_NAME = "pending_installs";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_ITEM_TYPE = "itemType";
+    private static final String COLUMN_PACKAGE = "packageName";
+    private static final String COLUMN_USER = "profileId";
+    private static final String COLUMN_DATA = "data";
+
+    // Last id returned by claim(). Rows up to it are still in the DB until removed, but are
+    // already being added by a pending flush.
+    private long mClaimedId = 0;
+
+    PendingInstallQueue(Context context, String name) {
+        super(new NoLocaleSqliteContext(context), name, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_ITEM_TYPE + " INTEGER NOT NULL, " +
+                COLUMN_PACKAGE + " TEXT, " +
+                COLUMN_USER + " INTEGER NOT NULL, " +
+                COLUMN_DATA + " TEXT NOT NULL UNIQUE" +
+                ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_package ON "
+                + TABLE_NAME + " (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_item_type ON "
+                + TABLE_NAME + " (" + COLUMN_ITEM_TYPE + ");");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) { }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The queued items are kept: the newer versions may only add columns and indexes.
+    }
+
+    static ContentValues newEntry(int itemType, String packageName, long userSerial,
+            String data) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ITEM_TYPE, itemType);
+        values.put(COLUMN_PACKAGE, packageName);
+        values.put(COLUMN_USER, userSerial);
+        values.put(COLUMN_DATA, data);
+        return values;
+    }
+
+    /**
+     * Appends an entry created by {@link #newEntry}, unless the same item is already queued.
+     */
+    void add(ContentValues entry) {
+        try {
+            getWritableDatabase().insertWithOnConflict(
+                    TABLE_NAME, null, entry, SQLiteDatabase.CONFLICT_IGNORE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to queue item", e);
+        }
+    }
+
+    /**
+     * Appends the entries created by {@link #newEntry}, in a single transaction.
+     * @see #add(ContentValues)
+     *
+     * @return false if the entries could not be written.
+     */
+    boolean addAll(List<ContentValues> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (ContentValues entry : entries) {
+                    db.insertWithOnConflict(
+                            TABLE_NAME, null, entry, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to queue items", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds to {@param out} the data of the entries which were not claimed yet, in the order they
+     * were added.
+     *
+     * @return the id to pass to {@link #remove} once the entries are no longer needed.
+     */
+    synchronized long claim(Collection<String> out) {
+        Cursor c = getReadableDatabase().query(TABLE_NAME,
+                new String[] {COLUMN_ID, COLUMN_DATA}, COLUMN_ID + " > ?",
+                new String[] {Long.toString(mClaimedId)}, null, null, COLUMN_ID);
+        try {
+            while (c.moveToNext()) {
+                mClaimedId = c.getLong(0);
+                out.add(c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return mClaimedId;
+    }
+
+    /**
+     * Removes the entries claimed up to {@param claimedId}.
+     */
+    void remove(long claimedId) {
+        delete(COLUMN_ID + " <= ?", new String[] {Long.toString(claimedId)});
+    }
+
+    /**
+     * Removes the entries of the given packages, for the given user.
+     */
+    void removePackages(Collection<String> packageNames, long userSerial) {
+        if (packageNames.isEmpty()) {
+            return;
+        }
+        String[] args = new String[packageNames.size() + 1];
+        StringBuilder selection = new StringBuilder(COLUMN_USER).append(" = ? AND ")
+                .append(COLUMN_PACKAGE).append(" IN (");
+        args[0] = Long.toString(userSerial);
+        int i = 1;
+        for (String packageName : packageNames) {
+            selection.append(i > 1 ? ", ?" : "?");
+            args[i++] = packageName;
+        }
+        delete(selection.append(')').toString(), args);
+    }
+
+    private void delete(String selection, String[] selectionArgs) {
+        try {
+            getWritableDatabase().delete(TABLE_NAME, selection, selectionArgs);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to remove queued items", e);
+        }
+    }
+
+    /**
+     * Adds to {@param out} the data of all the entries of the given item type, including the
+     * claimed ones.
+     */
+    void getEntries(int itemType, Collection<String> out) {
+        Cursor c = getReadableDatabase().query(TABLE_NAME, new String[] {COLUMN_DATA},
+                COLUMN_ITEM_TYPE + " = ?", new String[] {Integer.toString(itemType)},
+                null, null, COLUMN_ID);
+        try {
+            while (c.moveToNext()) {
+                out.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
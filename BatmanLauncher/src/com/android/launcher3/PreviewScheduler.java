@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the preview jobs of {@link WidgetPreviewLoader} on a bounded number of workers.
+ *
+ * Pending jobs are kept here rather than in the executor queue, so that a job can be dropped
+ * before it starts, and so that the next job is picked by priority: the job whose adapter
+ * position is the closest to the most recently requested one goes first, which favors the rows
+ * that just scrolled into view over the ones that already scrolled away. Jobs without a position
+ * go before all the others, as they are not in a scrolling list.
+ */
+class PreviewScheduler {
+
+    static final int NO_POSITION = RecyclerView.NO_POSITION;
+
+    private static class Job {
+        final Runnable runnable;
+        final int position;
+        final long sequence;
+        // Sequence of the most recent job at the same position.
+        long rowSequence;
+
+        Job(Runnable runnable, int position, long sequence) {
+            this.runnable = runnable;
+            this.position = position;
+            this.sequence = sequence;
+            this.rowSequence = sequence;
+        }
+    }
+
+    private final Executor mExecutor;
+    private final int mMaxWorkers;
+
+    // All the fields below are guarded by mPending.
+    private final ArrayList<Job> mPending = new ArrayList<>();
+    private int mWorkers;
+    private long mSequence;
+    private int mLastPosition;
+
+    private long mStarted;
+    private long mDropped;
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            Runnable next;
+            while ((next = poll()) != null) {
+                next.run();
+            }
+        }
+    };
+
+    PreviewScheduler(Executor executor, int maxWorkers) {
+        mExecutor = executor;
+        mMaxWorkers = maxWorkers;
+    }
+
+    /**
+     * Schedules {@param runnable}, for an item at {@param position} in its adapter, or
+     * {@link #NO_POSITION}.
+     */
+    void schedule(Runnable runnable, int position) {
+        synchronized (mPending) {
+            Job job = new Job(runnable, position, mSequence++);
+            for (Job pending : mPending) {
+                if (pending.position == position) {
+                    pending.rowSequence = job.sequence;
+                }
+            }
+            mPending.add(job);
+            if (position != NO_POSITION) {
+                mLastPosition = position;
+            }
+            if (mWorkers >= mMaxWorkers) {
+                return;
+            }
+            mWorkers++;
+        }
+        mExecutor.execute(mWorker);
+    }
+
+    /**
+     * Removes a job which has not started yet.
+     *
+     * @return false if the job already started, or was never scheduled.
+     */
+    boolean remove(Runnable runnable) {
+        synchronized (mPending) {
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                if (mPending.get(i).runnable == runnable) {
+                    mPending.remove(i);
+                    mDropped++;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Runnable poll() {
+        synchronized (mPending) {
+            int count = mPending.size();
+            if (count == 0) {
+                mWorkers--;
+                return null;
+            }
+            int best = 0;
+            for (int i = 1; i < count; i++) {
+                if (isBefore(mPending.get(i), mPending.get(best))) {
+                    best = i;
+                }
+            }
+            mStarted++;
+            return mPending.remove(best).runnable;
+        }
+    }
+
+    private boolean isBefore(Job lhs, Job rhs) {
+        int lhsDistance = distance(lhs);
+        int rhsDistance = distance(rhs);
+        if (lhsDistance != rhsDistance) {
+            return lhsDistance < rhsDistance;
+        }
+        // The most recently requested row wins, and the cells of a row are loaded in order.
+        if (lhs.rowSequence != rhs.rowSequence) {
+            return lhs.rowSequence > rhs.rowSequence;
+        }
+        return lhs.sequence < rhs.sequence;
+    }
+
+    private int distance(Job job) {
+        return job.position == NO_POSITION ? -1 : Math.abs(job.position - mLastPosition);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mPending) {
+            return "PreviewScheduler: pending=" + mPending.size() + " workers=" + mWorkers
+                    + "/" + mMaxWorkers + " started=" + mStarted + " dropped=" + mDropped;
+        }
+    }
+}
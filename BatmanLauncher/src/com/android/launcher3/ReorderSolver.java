@@ -0,0 +1,803 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import com.android.launcher3.util.GridOccupancy;
+
+import java.util.Arrays;
+
+/**
+ * Finds how to rearrange the items of a {@link CellLayout} so that a dragged item fits in a
+ * given region, by pushing the items in its way or moving them to the nearest vacant areas.
+ *
+ * The items are referred to by their index, and their positions are kept in arrays which are
+ * only reallocated when the number of items grows, so that searching does not allocate while
+ * dragging. The results are cached by cell, span and direction until the layout changes.
+ */
+class ReorderSolver {
+
+    static final int LEFT = 1 << 0;
+    static final int TOP = 1 << 1;
+    static final int RIGHT = 1 << 2;
+    static final int BOTTOM = 1 << 3;
+
+    private static final int CACHE_SIZE = 16;
+
+    private final int mCountX;
+    private final int mCountY;
+
+    // The layout in which to search: the committed position of each item, the dragged item and
+    // the occupancy of the grid without the dragged item.
+    private int mCount;
+    private int mDragIndex = -1;
+    private int[] mItemX = new int[0];
+    private int[] mItemY = new int[0];
+    private int[] mSpanX = new int[0];
+    private int[] mSpanY = new int[0];
+    private boolean[] mCanReorder = new boolean[0];
+    private final long[] mItemOccupied;
+    private boolean mLayoutChanged = true;
+
+    // The state of the search. mCellX and mCellY hold the solution once the search is done.
+    private int[] mCellX = new int[0];
+    private int[] mCellY = new int[0];
+    private int[] mSavedX = new int[0];
+    private int[] mSavedY = new int[0];
+    private int[] mSorted = new int[0];
+    private int[] mIntersecting = new int[0];
+    private int mIntersectingCount;
+    private final GridOccupancy mOccupied;
+    private final GridOccupancy mBlockOccupied;
+
+    // The region in which the dragged item is dropped.
+    private int mDropLeft, mDropTop, mDropRight, mDropBottom;
+
+    // The cluster of items pushed together. Its edges define a fine-grained boundary around the
+    // items -- like a more precise version of a bounding box.
+    private boolean[] mInCluster = new boolean[0];
+    private final int[] mLeftEdge;
+    private final int[] mRightEdge;
+    private final int[] mTopEdge;
+    private final int[] mBottomEdge;
+    private int mDirtyEdges;
+    private int mClusterLeft, mClusterTop, mClusterRight, mClusterBottom;
+
+    private final int[] mTmpPoint = new int[2];
+    private final int[] mTempLocation = new int[2];
+    private final long[] mTmpRows;
+
+    private final CacheEntry[] mCache = new CacheEntry[CACHE_SIZE];
+    private int mCacheSize;
+    private int mNextCacheEntry;
+
+    ReorderSolver(int countX, int countY) {
+        mCountX = countX;
+        mCountY = countY;
+        mItemOccupied = new long[countY];
+        mTmpRows = new long[countY];
+        mOccupied = new GridOccupancy(countX, countY);
+        mBlockOccupied = new GridOccupancy(countX, countY);
+        mLeftEdge = new int[countY];
+        mRightEdge = new int[countY];
+        mTopEdge = new int[countX];
+        mBottomEdge = new int[countX];
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            mCache[i] = new CacheEntry();
+        }
+    }
+
+    /**
+     * Starts updating the layout to search in, which is followed by a call to {@link #setItem}
+     * for each item and a call to {@link #setOccupied}. The cached results are kept if the
+     * layout is unchanged.
+     *
+     * @param dragIndex the index of the dragged item, or -1 if it is not one of the items.
+     */
+    void setLayout(int count, int dragIndex) {
+        if (count > mItemX.length) {
+            mItemX = Arrays.copyOf(mItemX, count);
+            mItemY = Arrays.copyOf(mItemY, count);
+            mSpanX = Arrays.copyOf(mSpanX, count);
+            mSpanY = Arrays.copyOf(mSpanY, count);
+            mCanReorder = Arrays.copyOf(mCanReorder, count);
+            mCellX = new int[count];
+            mCellY = new int[count];
+            mSavedX = new int[count];
+            mSavedY = new int[count];
+            mSorted = new int[count];
+            mIntersecting = new int[count];
+            mInCluster = new boolean[count];
+        }
+        if (count != mCount || dragIndex != mDragIndex) {
+            mCount = count;
+            mDragIndex = dragIndex;
+            mLayoutChanged = true;
+        }
+    }
+
+    void setItem(int index, int cellX, int cellY, int spanX, int spanY, boolean canReorder) {
+        if (mItemX[index] != cellX || mItemY[index] != cellY || mSpanX[index] != spanX
+                || mSpanY[index] != spanY || mCanReorder[index] != canReorder) {
+            mItemX[index] = cellX;
+            mItemY[index] = cellY;
+            mSpanX[index] = spanX;
+            mSpanY[index] = spanY;
+            mCanReorder[index] = canReorder;
+            mLayoutChanged = true;
+        }
+    }
+
+    /**
+     * Sets the occupancy of the grid, in which the dragged item is not marked.
+     */
+    void setOccupied(GridOccupancy occupied) {
+        occupied.snapshot(mTmpRows);
+        if (!Arrays.equals(mTmpRows, mItemOccupied)) {
+            System.arraycopy(mTmpRows, 0, mItemOccupied, 0, mCountY);
+            mLayoutChanged = true;
+        }
+    }
+
+    int getCellX(int index) {
+        return mCellX[index];
+    }
+
+    int getCellY(int index) {
+        return mCellY[index];
+    }
+
+    /**
+     * Returns the number of items which intersected the drop region in the last search.
+     */
+    int getIntersectingCount() {
+        return mIntersectingCount;
+    }
+
+    int getIntersecting(int i) {
+        return mIntersecting[i];
+    }
+
+    /**
+     * Returns true if the items can be rearranged so that the dragged item fits at the given
+     * cell and span, in which case {@link #getCellX} and {@link #getCellY} give the new
+     * positions of the items.
+     */
+    boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY, int[] direction) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+
+        if (mLayoutChanged) {
+            mCacheSize = 0;
+            mNextCacheEntry = 0;
+            mLayoutChanged = false;
+        }
+        for (int i = 0; i < mCacheSize; i++) {
+            CacheEntry entry = mCache[i];
+            if (entry.matches(cellX, cellY, spanX, spanY, direction)) {
+                System.arraycopy(entry.cellXs, 0, mCellX, 0, mCount);
+                System.arraycopy(entry.cellYs, 0, mCellY, 0, mCount);
+                System.arraycopy(entry.intersecting, 0, mIntersecting, 0,
+                        entry.intersectingCount);
+                mIntersectingCount = entry.intersectingCount;
+                return entry.success;
+            }
+        }
+
+        // Start from the committed positions of the items.
+        System.arraycopy(mItemX, 0, mCellX, 0, mCount);
+        System.arraycopy(mItemY, 0, mCellY, 0, mCount);
+        mOccupied.restore(mItemOccupied);
+        for (int i = 0; i < mCount; i++) {
+            mSorted[i] = i;
+        }
+
+        CacheEntry entry = mCache[mNextCacheEntry];
+        entry.set(cellX, cellY, spanX, spanY, direction);
+        entry.success = search(cellX, cellY, spanX, spanY, direction);
+        entry.save(this);
+        mNextCacheEntry = (mNextCacheEntry + 1) % CACHE_SIZE;
+        mCacheSize = Math.min(mCacheSize + 1, CACHE_SIZE);
+        return entry.success;
+    }
+
+    private boolean search(int cellX, int cellY, int spanX, int spanY, int[] direction) {
+        mIntersectingCount = 0;
+        mDropLeft = cellX;
+        mDropTop = cellY;
+        mDropRight = cellX + spanX;
+        mDropBottom = cellY + spanY;
+
+        // Mark the desired location of the view currently being dragged.
+        if (mDragIndex >= 0) {
+            mCellX[mDragIndex] = cellX;
+            mCellY[mDragIndex] = cellY;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (i == mDragIndex) continue;
+            if (mDropLeft < mCellX[i] + mSpanX[i] && mCellX[i] < mDropRight
+                    && mDropTop < mCellY[i] + mSpanY[i] && mCellY[i] < mDropBottom) {
+                if (!mCanReorder[i]) {
+                    return false;
+                }
+                mIntersecting[mIntersectingCount++] = i;
+            }
+        }
+
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(direction)) {
+            return true;
+        }
+
+        // Next we try moving the views as a block, but without requiring the push mechanic.
+        if (addViewsToTempLocation(direction)) {
+            return true;
+        }
+
+        // Ok, they couldn't move as a block, let's move them individually
+        for (int i = 0; i < mIntersectingCount; i++) {
+            if (!addViewToTempLocation(mIntersecting[i], direction)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // This method tries to find a reordering solution which satisfies the push mechanic by trying
+    // to push items in each of the cardinal directions, in an order based on the direction vector
+    // passed.
+    private boolean attemptPushInDirection(int[] direction) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components.
+            int temp = direction[1];
+            direction[1] = 0;
+
+            if (pushViewsToTempLocation(direction)) {
+                direction[1] = temp;
+                return true;
+            }
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+
+            if (pushViewsToTempLocation(direction)) {
+                direction[0] = temp;
+                return true;
+            }
+            // Revert the direction
+            direction[0] = temp;
+
+            // Now we try pushing in each component of the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            temp = direction[1];
+            direction[1] = 0;
+            if (pushViewsToTempLocation(direction)) {
+                direction[1] = -temp;
+                direction[0] *= -1;
+                return true;
+            }
+
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+            if (pushViewsToTempLocation(direction)) {
+                direction[0] = -temp;
+                direction[1] *= -1;
+                return true;
+            }
+            // revert the direction
+            direction[0] = temp;
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector
+            if (pushViewsToTempLocation(direction)) {
+                return true;
+            }
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            boolean success = pushViewsToTempLocation(direction);
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (success) {
+                return true;
+            }
+
+            // If we have failed to find a push solution with the above, then we try
+            // to find a solution by pushing along the perpendicular axis.
+
+            // Swap the components
+            int temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            success = pushViewsToTempLocation(direction);
+            if (!success) {
+                // Then we try the opposite direction
+                direction[0] *= -1;
+                direction[1] *= -1;
+                success = pushViewsToTempLocation(direction);
+                // Switch the direction back
+                direction[0] *= -1;
+                direction[1] *= -1;
+            }
+
+            // Swap the components back
+            temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            return success;
+        }
+        return false;
+    }
+
+    private boolean pushViewsToTempLocation(int[] direction) {
+        Arrays.fill(mInCluster, 0, mCount, false);
+        for (int i = 0; i < mIntersectingCount; i++) {
+            mInCluster[mIntersecting[i]] = true;
+        }
+        resetEdges();
+        computeClusterRect();
+
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (direction[0] < 0) {
+            whichEdge = LEFT;
+            pushDistance = mClusterRight - mDropLeft;
+        } else if (direction[0] > 0) {
+            whichEdge = RIGHT;
+            pushDistance = mDropRight - mClusterLeft;
+        } else if (direction[1] < 0) {
+            whichEdge = TOP;
+            pushDistance = mClusterBottom - mDropTop;
+        } else {
+            whichEdge = BOTTOM;
+            pushDistance = mDropBottom - mClusterTop;
+        }
+
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+
+        // Mark the occupied state as false for the group of views we want to move.
+        for (int i = 0; i < mIntersectingCount; i++) {
+            markCells(mIntersecting[i], false);
+        }
+
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        System.arraycopy(mCellX, 0, mSavedX, 0, mCount);
+        System.arraycopy(mCellY, 0, mSavedY, 0, mCount);
+
+        // The pushing algorithm is simplified by considering the views in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the views by their right edge, from right to left.
+        sortForEdgePush(whichEdge);
+
+        while (pushDistance > 0 && !fail) {
+            for (int i = 0; i < mCount; i++) {
+                int v = mSorted[i];
+                // For each view that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that view. If so, we add that view to the
+                // cluster.
+                if (!mInCluster[v] && v != mDragIndex && isTouchingEdge(v, whichEdge)) {
+                    if (!mCanReorder[v]) {
+                        // The push solution includes the all apps button, this is not viable.
+                        fail = true;
+                        break;
+                    }
+                    // Adding view to cluster, mark it as not occupied.
+                    mInCluster[v] = true;
+                    resetEdges();
+                    markCells(v, false);
+                }
+            }
+            pushDistance--;
+
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            shiftCluster(whichEdge);
+        }
+
+        boolean foundSolution = false;
+        computeClusterRect();
+
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the cell layout.
+        if (!fail && mClusterLeft >= 0 && mClusterRight <= mCountX && mClusterTop >= 0
+                && mClusterBottom <= mCountY) {
+            foundSolution = true;
+        } else {
+            System.arraycopy(mSavedX, 0, mCellX, 0, mCount);
+            System.arraycopy(mSavedY, 0, mCellY, 0, mCount);
+        }
+
+        // In either case, we set the occupied array as marked for the location of the views
+        for (int i = 0; i < mCount; i++) {
+            if (mInCluster[i]) {
+                markCells(i, true);
+            }
+        }
+        return foundSolution;
+    }
+
+    private boolean addViewsToTempLocation(int[] direction) {
+        if (mIntersectingCount == 0) return true;
+
+        // We construct a rect which represents the entire group of views passed in
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < mIntersectingCount; i++) {
+            int v = mIntersecting[i];
+            left = Math.min(left, mCellX[v]);
+            top = Math.min(top, mCellY[v]);
+            right = Math.max(right, mCellX[v] + mSpanX[v]);
+            bottom = Math.max(bottom, mCellY[v] + mSpanY[v]);
+        }
+
+        // Mark the occupied state as false for the group of views we want to move.
+        for (int i = 0; i < mIntersectingCount; i++) {
+            markCells(mIntersecting[i], false);
+        }
+
+        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+        // for interlocking.
+        mBlockOccupied.clear();
+        for (int i = 0; i < mIntersectingCount; i++) {
+            int v = mIntersecting[i];
+            mBlockOccupied.markCells(mCellX[v] - left, mCellY[v] - top, mSpanX[v], mSpanY[v],
+                    true);
+        }
+
+        markDropRegion();
+
+        findNearestArea(left, top, right - left, bottom - top, direction, mBlockOccupied,
+                mTempLocation);
+
+        // If we successfuly found a location by pushing the block of views, we commit it
+        boolean success = false;
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - left;
+            int deltaY = mTempLocation[1] - top;
+            for (int i = 0; i < mIntersectingCount; i++) {
+                int v = mIntersecting[i];
+                mCellX[v] += deltaX;
+                mCellY[v] += deltaY;
+            }
+            success = true;
+        }
+
+        // In either case, we set the occupied array as marked for the location of the views
+        for (int i = 0; i < mIntersectingCount; i++) {
+            markCells(mIntersecting[i], true);
+        }
+        return success;
+    }
+
+    private boolean addViewToTempLocation(int v, int[] direction) {
+        boolean success = false;
+        markCells(v, false);
+        markDropRegion();
+
+        findNearestArea(mCellX[v], mCellY[v], mSpanX[v], mSpanY[v], direction, null,
+                mTempLocation);
+
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            mCellX[v] = mTempLocation[0];
+            mCellY[v] = mTempLocation[1];
+            success = true;
+        }
+        markCells(v, true);
+        return success;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computers distance based on unit grid distances,
+     * not pixel distances.
+     *
+     * @param cellX The X cell nearest to which you want to search for a vacant area.
+     * @param cellY The Y cell nearest which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param direction The favored direction in which the views should move from x, y
+     * @param blockOccupied The cells which are occupied in the specified block (cellX,
+     *        cellY, spanX, spanY), or null if they all are. This is used when try to move a
+     *        group of views.
+     * @param result Array in which to place the result, set to -1, -1 if no area is found.
+     */
+    private void findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            GridOccupancy blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        float bestDistance = Float.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+
+        for (int y = 0; y < mCountY - (spanY - 1); y++) {
+            for (int x = 0; x < mCountX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? !mOccupied.isRegionVacant(x, y, spanX, spanY)
+                        : mOccupied.intersects(x, y, blockOccupied)) {
+                    continue;
+                }
+
+                float distance = (float) Math.hypot(x - cellX, y - cellY);
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0] +
+                        direction[1] * curDirection[1];
+                if (Float.compare(distance,  bestDistance) < 0 ||
+                        (Float.compare(distance, bestDistance) == 0
+                                && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    result[0] = x;
+                    result[1] = y;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Float.MAX_VALUE) {
+            result[0] = -1;
+            result[1] = -1;
+        }
+    }
+
+    /*
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(deltaY / deltaX);
+
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    private void markCells(int v, boolean value) {
+        mOccupied.markCells(mCellX[v], mCellY[v], mSpanX[v], mSpanY[v], value);
+    }
+
+    private void markDropRegion() {
+        mOccupied.markCells(mDropLeft, mDropTop, mDropRight - mDropLeft, mDropBottom - mDropTop,
+                true);
+    }
+
+    private void computeClusterRect() {
+        boolean first = true;
+        for (int v = 0; v < mCount; v++) {
+            if (!mInCluster[v]) continue;
+            if (first) {
+                mClusterLeft = mCellX[v];
+                mClusterTop = mCellY[v];
+                mClusterRight = mCellX[v] + mSpanX[v];
+                mClusterBottom = mCellY[v] + mSpanY[v];
+                first = false;
+            } else {
+                mClusterLeft = Math.min(mClusterLeft, mCellX[v]);
+                mClusterTop = Math.min(mClusterTop, mCellY[v]);
+                mClusterRight = Math.max(mClusterRight, mCellX[v] + mSpanX[v]);
+                mClusterBottom = Math.max(mClusterBottom, mCellY[v] + mSpanY[v]);
+            }
+        }
+        if (first) {
+            mClusterLeft = mClusterTop = mClusterRight = mClusterBottom = 0;
+        }
+    }
+
+    private void resetEdges() {
+        Arrays.fill(mTopEdge, -1);
+        Arrays.fill(mBottomEdge, -1);
+        Arrays.fill(mLeftEdge, -1);
+        Arrays.fill(mRightEdge, -1);
+        mDirtyEdges = LEFT | TOP | RIGHT | BOTTOM;
+    }
+
+    private void computeEdge(int which) {
+        for (int v = 0; v < mCount; v++) {
+            if (!mInCluster[v]) continue;
+            switch (which) {
+                case LEFT:
+                    int left = mCellX[v];
+                    for (int j = mCellY[v]; j < mCellY[v] + mSpanY[v]; j++) {
+                        if (left < mLeftEdge[j] || mLeftEdge[j] < 0) {
+                            mLeftEdge[j] = left;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    int right = mCellX[v] + mSpanX[v];
+                    for (int j = mCellY[v]; j < mCellY[v] + mSpanY[v]; j++) {
+                        if (right > mRightEdge[j]) {
+                            mRightEdge[j] = right;
+                        }
+                    }
+                    break;
+                case TOP:
+                    int top = mCellY[v];
+                    for (int j = mCellX[v]; j < mCellX[v] + mSpanX[v]; j++) {
+                        if (top < mTopEdge[j] || mTopEdge[j] < 0) {
+                            mTopEdge[j] = top;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    int bottom = mCellY[v] + mSpanY[v];
+                    for (int j = mCellX[v]; j < mCellX[v] + mSpanX[v]; j++) {
+                        if (bottom > mBottomEdge[j]) {
+                            mBottomEdge[j] = bottom;
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    private boolean isTouchingEdge(int v, int whichEdge) {
+        if ((mDirtyEdges & whichEdge) == whichEdge) {
+            computeEdge(whichEdge);
+            mDirtyEdges &= ~whichEdge;
+        }
+
+        switch (whichEdge) {
+            case LEFT:
+                for (int i = mCellY[v]; i < mCellY[v] + mSpanY[v]; i++) {
+                    if (mLeftEdge[i] == mCellX[v] + mSpanX[v]) {
+                        return true;
+                    }
+                }
+                break;
+            case RIGHT:
+                for (int i = mCellY[v]; i < mCellY[v] + mSpanY[v]; i++) {
+                    if (mRightEdge[i] == mCellX[v]) {
+                        return true;
+                    }
+                }
+                break;
+            case TOP:
+                for (int i = mCellX[v]; i < mCellX[v] + mSpanX[v]; i++) {
+                    if (mTopEdge[i] == mCellY[v] + mSpanY[v]) {
+                        return true;
+                    }
+                }
+                break;
+            case BOTTOM:
+                for (int i = mCellX[v]; i < mCellX[v] + mSpanX[v]; i++) {
+                    if (mBottomEdge[i] == mCellY[v]) {
+                        return true;
+                    }
+                }
+                break;
+        }
+        return false;
+    }
+
+    private void shiftCluster(int whichEdge) {
+        for (int v = 0; v < mCount; v++) {
+            if (!mInCluster[v]) continue;
+            switch (whichEdge) {
+                case LEFT:
+                    mCellX[v]--;
+                    break;
+                case RIGHT:
+                    mCellX[v]++;
+                    break;
+                case TOP:
+                    mCellY[v]--;
+                    break;
+                case BOTTOM:
+                default:
+                    mCellY[v]++;
+                    break;
+            }
+        }
+        resetEdges();
+    }
+
+    /**
+     * Sorts the items by the edge facing the push, keeping the previous order of the items with
+     * the same edge.
+     */
+    private void sortForEdgePush(int whichEdge) {
+        for (int i = 1; i < mCount; i++) {
+            int v = mSorted[i];
+            int key = getEdgeSortKey(v, whichEdge);
+            int j = i - 1;
+            while (j >= 0 && getEdgeSortKey(mSorted[j], whichEdge) > key) {
+                mSorted[j + 1] = mSorted[j];
+                j--;
+            }
+            mSorted[j + 1] = v;
+        }
+    }
+
+    private int getEdgeSortKey(int v, int whichEdge) {
+        switch (whichEdge) {
+            case LEFT:
+                return -(mCellX[v] + mSpanX[v]);
+            case RIGHT:
+                return mCellX[v];
+            case TOP:
+                return -(mCellY[v] + mSpanY[v]);
+            case BOTTOM:
+            default:
+                return mCellY[v];
+        }
+    }
+
+    /**
+     * The result of a search from the committed layout.
+     */
+    private static class CacheEntry {
+        int cellX, cellY, spanX, spanY, directionX, directionY;
+        boolean success;
+        int[] cellXs = new int[0];
+        int[] cellYs = new int[0];
+        int[] intersecting = new int[0];
+        int intersectingCount;
+
+        void set(int cellX, int cellY, int spanX, int spanY, int[] direction) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.spanX = spanX;
+            this.spanY = spanY;
+            directionX = direction[0];
+            directionY = direction[1];
+        }
+
+        boolean matches(int cellX, int cellY, int spanX, int spanY, int[] direction) {
+            return this.cellX == cellX && this.cellY == cellY && this.spanX == spanX
+                    && this.spanY == spanY && directionX == direction[0]
+                    && directionY == direction[1];
+        }
+
+        void save(ReorderSolver solver) {
+            int count = solver.mCount;
+            if (cellXs.length < count) {
+                cellXs = new int[count];
+                cellYs = new int[count];
+                intersecting = new int[count];
+            }
+            System.arraycopy(solver.mCellX, 0, cellXs, 0, count);
+            System.arraycopy(solver.mCellY, 0, cellYs, 0, count);
+            System.arraycopy(solver.mIntersecting, 0, intersecting, 0,
+                    solver.mIntersectingCount);
+            intersectingCount = solver.mIntersectingCount;
+        }
+    }
+}
@@ -23,8 +23,12 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.android.launcher3.CellLayout.ContainerType;
+import com.android.launcher3.folder.FolderIcon;
 
-public class ShortcutAndWidgetContainer extends ViewGroup {
+import java.util.ArrayList;
+
+public class ShortcutAndWidgetContainer extends ViewGroup
+        implements ViewGroup.OnHierarchyChangeListener {
     static final String TAG = "ShortcutAndWidgetContainer";
 
     // These are temporary variables to prevent having to allocate a new object just to
@@ -42,11 +46,52 @@ public class ShortcutAndWidgetContainer extends ViewGroup {
     private Launcher mLauncher;
     private boolean mInvertIfRtl = false;
 
+    // The listener set by the users of this container, as it listens to its own hierarchy.
+    private OnHierarchyChangeListener mHierarchyChangeListener;
+
     public ShortcutAndWidgetContainer(Context context, @ContainerType int containerType) {
         super(context);
         mLauncher = Launcher.getLauncher(context);
         mWallpaperManager = WallpaperManager.getInstance(context);
         mContainerType = containerType;
+        super.setOnHierarchyChangeListener(this);
+    }
+
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mHierarchyChangeListener = listener;
+    }
+
+    @Override
+    public void onChildViewAdded(View parent, View child) {
+        ItemViewIndex index = mLauncher.getItemViewIndex();
+        index.onViewAdded(child, mContainerType == CellLayout.FOLDER);
+        if (child instanceof FolderIcon) {
+            // The folder contents may have been removed from the index with the folder icon.
+            ArrayList<View> items = ((FolderIcon) child).getFolder().getItemsInReadingOrder();
+            for (int i = 0; i < items.size(); i++) {
+                index.onViewAdded(items.get(i), true /* inFolder */);
+            }
+        }
+        if (mHierarchyChangeListener != null) {
+            mHierarchyChangeListener.onChildViewAdded(parent, child);
+        }
+    }
+
+    @Override
+    public void onChildViewRemoved(View parent, View child) {
+        ItemViewIndex index = mLauncher.getItemViewIndex();
+        index.onViewRemoved(child);
+        if (child instanceof FolderIcon) {
+            // Do not keep the contents of a folder which may never be bound again.
+            ArrayList<View> items = ((FolderIcon) child).getFolder().getItemsInReadingOrder();
+            for (int i = 0; i < items.size(); i++) {
+                index.onViewRemoved(items.get(i));
+            }
+        }
+        if (mHierarchyChangeListener != null) {
+            mHierarchyChangeListener.onChildViewRemoved(parent, child);
+        }
     }
 
     public void setCellDimensions(int cellWidth, int cellHeight, int countX, int countY) {
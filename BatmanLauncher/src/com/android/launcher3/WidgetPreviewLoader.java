@@ -10,6 +10,8 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
@@ -21,18 +23,20 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.os.UserHandle;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import android.util.LongSparseArray;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.graphics.BitmapPool;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.graphics.ShadowGenerator;
 import com.android.launcher3.model.WidgetItem;
@@ -43,30 +47,46 @@ import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.WidgetCell;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WidgetPreviewLoader {
 
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
 
+    private static final int ACCESS_FLUSH_DELAY_MS = 5000;
+
+    private static final int MAX_PREVIEW_WORKERS = 2;
+    private static final long BITMAP_POOL_BYTES = 4 * 1024 * 1024;
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
     /**
-     * Weak reference objects, do not prevent their referents from being made finalizable,
-     * finalized, and then reclaimed.
-     * Note: synchronized block used for this variable is expensive and the block should always
-     * be posted to a background thread.
+     * Previews which are no longer displayed, reused for the next previews. Bitmaps are only
+     * released on the worker thread, after any pending DB write of their content.
      */
-    @Thunk final Set<Bitmap> mUnusedBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    @Thunk final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_BYTES);
+
+    // Bounded, so that flinging the list does not queue a job for every row it passes by.
+    private final PreviewScheduler mScheduler =
+            new PreviewScheduler(Utilities.THREAD_POOL_EXECUTOR, MAX_PREVIEW_WORKERS);
+
+    // Requests which are pending, running or whose preview is displayed, so that cells showing
+    // the same preview share a single request. Accessed only on the main thread.
+    @Thunk final HashMap<WidgetCacheKey, PreviewLoadTask> mActiveTasks = new HashMap<>();
+    private long mCoalescedRequests;
 
     private final Context mContext;
     private final IconCache mIconCache;
@@ -77,6 +97,22 @@ public class WidgetPreviewLoader {
     private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
     @Thunk final Handler mWorkerHandler;
 
+    // Lookup statistics, reported by dump().
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mDecodeCount = new AtomicLong();
+    private final AtomicLong mDecodeTimeNanos = new AtomicLong();
+
+    private final ConcurrentHashMap<WidgetCacheKey, Long> mPendingAccessTimes =
+            new ConcurrentHashMap<>();
+    private final AtomicBoolean mAccessFlushScheduled = new AtomicBoolean();
+    private final Runnable mFlushAccessTimes = new Runnable() {
+        @Override
+        public void run() {
+            flushAccessTimes();
+        }
+    };
+
     public WidgetPreviewLoader(Context context, IconCache iconCache) {
         mContext = context;
         mIconCache = iconCache;
@@ -87,8 +123,8 @@ public class WidgetPreviewLoader {
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread
+     * Loads or generates the widget preview on a background thread. Must be called on UI thread.
+     * Requests for a preview which is already being loaded or displayed share the same preview.
      *
      * @return a request id which can be used to cancel the request.
      */
@@ -97,74 +133,344 @@ public class WidgetPreviewLoader {
         String size = previewWidth + "x" + previewHeight;
         WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
 
-        PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller,
-                animate);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+        PreviewLoadTask task = mActiveTasks.get(key);
+        if (task == null) {
+            task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
+            mActiveTasks.put(key, task);
+            mScheduler.schedule(task, caller.getAdapterPosition());
+        } else {
+            mCoalescedRequests++;
+        }
+
+        PreviewRequest request = new PreviewRequest(task, caller, animate);
+        task.addRequest(request);
 
         CancellationSignal signal = new CancellationSignal();
-        signal.setOnCancelListener(task);
+        signal.setOnCancelListener(request);
         return signal;
     }
 
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
+     *
+     * The size of the previews is bounded by {@link #MAX_PREVIEW_BYTES}, the least recently used
+     * ones being pruned first. The versions of the packages the previews were generated for are
+     * kept in a separate table, with a row per package and user, so that finding the obsolete
+     * previews does not require scanning all the previews.
      */
-    private static class CacheDb extends SQLiteCacheHelper {
-        private static final int DB_VERSION = 9;
+    @VisibleForTesting
+    static class CacheDb extends SQLiteCacheHelper {
+        private static final int DB_VERSION = 10;
+
+        // Once over budget, previews are pruned down to this fraction of it.
+        private static final long MAX_PREVIEW_BYTES = 8 * 1024 * 1024;
+        private static final float PRUNE_TARGET = 0.75f;
 
         private static final String TABLE_NAME = "shortcut_and_widget_previews";
         private static final String COLUMN_COMPONENT = "componentName";
         private static final String COLUMN_USER = "profileId";
         private static final String COLUMN_SIZE = "size";
         private static final String COLUMN_PACKAGE = "packageName";
+        private static final String COLUMN_LAST_ACCESS = "lastAccess";
+        private static final String COLUMN_PREVIEW_BYTES = "previewBytes";
+        private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
+
+        private static final String PACKAGES_TABLE_NAME = "preview_packages";
         private static final String COLUMN_LAST_UPDATED = "lastUpdated";
         private static final String COLUMN_VERSION = "version";
-        private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
+
+        private static final String PREVIEW_SELECTION = COLUMN_COMPONENT + " = ? AND "
+                + COLUMN_USER + " = ? AND " + COLUMN_SIZE + " = ?";
+        private static final String PACKAGE_SELECTION =
+                COLUMN_PACKAGE + " = ? AND " + COLUMN_USER + " = ?";
+
+        private final long mMaxPreviewBytes;
+
+        // Total size of the preview blobs, or -1 until computed. Only updated on the worker thread.
+        private volatile long mTotalBytes = -1;
+        // Total size as changed by the transaction in progress, applied to mTotalBytes once the
+        // transaction is committed.
+        private long mTransactionBytes;
 
         public CacheDb(Context context) {
-            super(context, LauncherFiles.WIDGET_PREVIEWS_DB, DB_VERSION, TABLE_NAME);
+            this(context, LauncherFiles.WIDGET_PREVIEWS_DB, MAX_PREVIEW_BYTES);
+        }
+
+        @VisibleForTesting
+        CacheDb(Context context, String name, long maxPreviewBytes) {
+            super(context, name, DB_VERSION, TABLE_NAME);
+            mMaxPreviewBytes = maxPreviewBytes;
         }
 
         @Override
         public void onCreateTable(SQLiteDatabase database) {
+            // The primary key is also the index used to look up a preview.
             database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
                     COLUMN_COMPONENT + " TEXT NOT NULL, " +
                     COLUMN_USER + " INTEGER NOT NULL, " +
                     COLUMN_SIZE + " TEXT NOT NULL, " +
                     COLUMN_PACKAGE + " TEXT NOT NULL, " +
-                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
-                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_LAST_ACCESS + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_PREVIEW_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
                     COLUMN_PREVIEW_BITMAP + " BLOB, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ", " + COLUMN_SIZE + ") " +
                     ");");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_package ON "
+                    + TABLE_NAME + " (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ");");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_last_access ON "
+                    + TABLE_NAME + " (" + COLUMN_LAST_ACCESS + ");");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + PACKAGES_TABLE_NAME + " (" +
+                    COLUMN_PACKAGE + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    "PRIMARY KEY (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ") " +
+                    ");");
+        }
+
+        @Override
+        protected void onDropTables(SQLiteDatabase db) {
+            super.onDropTables(db);
+            db.execSQL("DROP TABLE IF EXISTS " + PACKAGES_TABLE_NAME);
+        }
+
+        /**
+         * Returns a file descriptor to the preview blob, or null if there is no such preview.
+         * Reading the blob through the descriptor avoids copying it into a cursor window.
+         */
+        ParcelFileDescriptor openPreview(String component, long userSerial, String size) {
+            SQLiteStatement statement = getReadableDatabase().compileStatement(
+                    "SELECT " + COLUMN_PREVIEW_BITMAP + " FROM " + TABLE_NAME
+                            + " WHERE " + PREVIEW_SELECTION);
+            try {
+                statement.bindString(1, component);
+                statement.bindLong(2, userSerial);
+                statement.bindString(3, size);
+                return statement.simpleQueryForBlobFileDescriptor();
+            } catch (SQLiteDoneException e) {
+                return null;
+            } finally {
+                statement.close();
+            }
+        }
+
+        /**
+         * Writes a preview, and updates the versions of its package. If the package changed since
+         * its other previews were written, they are removed.
+         */
+        void writePreview(final String component, final long userSerial, final String size,
+                final String packageName, final long[] versions, final byte[] data,
+                final long accessTime) {
+            runWrites(new Runnable() {
+                @Override
+                public void run() {
+                    String user = Long.toString(userSerial);
+                    long[] storedVersions = getPackageVersions(packageName, user);
+                    if (!Arrays.equals(storedVersions, versions)) {
+                        if (storedVersions != null) {
+                            deletePackageLocked(packageName, user);
+                        }
+                        ContentValues values = new ContentValues();
+                        values.put(COLUMN_PACKAGE, packageName);
+                        values.put(COLUMN_USER, userSerial);
+                        values.put(COLUMN_VERSION, versions[0]);
+                        values.put(COLUMN_LAST_UPDATED, versions[1]);
+                        insertOrReplace(PACKAGES_TABLE_NAME, values);
+                    }
+
+                    long replacedBytes =
+                            sum(PREVIEW_SELECTION, new String[] {component, user, size});
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_COMPONENT, component);
+                    values.put(COLUMN_USER, userSerial);
+                    values.put(COLUMN_SIZE, size);
+                    values.put(COLUMN_PACKAGE, packageName);
+                    values.put(COLUMN_LAST_ACCESS, accessTime);
+                    values.put(COLUMN_PREVIEW_BYTES, data.length);
+                    values.put(COLUMN_PREVIEW_BITMAP, data);
+                    insertOrReplace(values);
+                    mTransactionBytes += data.length - replacedBytes;
+
+                    if (mTransactionBytes > mMaxPreviewBytes) {
+                        prune((long) (mMaxPreviewBytes * PRUNE_TARGET));
+                    }
+                }
+            });
+        }
+
+        /**
+         * Records a read of the preview. An older access time, read before the preview was last
+         * written or accessed, does not replace the stored one.
+         */
+        void updateLastAccess(String component, long userSerial, String size, long lastAccess) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_LAST_ACCESS, lastAccess);
+            update(values, PREVIEW_SELECTION + " AND " + COLUMN_LAST_ACCESS + " < ?",
+                    new String[] {component, Long.toString(userSerial), size,
+                            Long.toString(lastAccess)});
+        }
+
+        /**
+         * Runs the access time updates in a single transaction.
+         * @return false if the updates were not written.
+         */
+        boolean updateLastAccess(Runnable updates) {
+            return runInTransaction(updates);
+        }
+
+        /**
+         * Removes all the previews of a package, and its versions. If {@param obsoleteVersions}
+         * is not null, the previews are only removed if they are still stored for these versions,
+         * so that the previews written for a newer version since are kept.
+         */
+        void deletePackage(final String packageName, final String user,
+                @Nullable final long[] obsoleteVersions) {
+            runWrites(new Runnable() {
+                @Override
+                public void run() {
+                    if (obsoleteVersions == null || Arrays.equals(obsoleteVersions,
+                            getPackageVersions(packageName, user))) {
+                        deletePackageLocked(packageName, user);
+                    }
+                }
+            });
+        }
+
+        private void deletePackageLocked(String packageName, String user) {
+            String[] args = new String[] {packageName, user};
+            long bytes = sum(PACKAGE_SELECTION, args);
+            delete(PACKAGE_SELECTION, args);
+            delete(PACKAGES_TABLE_NAME, PACKAGE_SELECTION, args);
+            mTransactionBytes -= bytes;
+        }
+
+        /**
+         * Runs {@param writes} in a transaction, in which the total size is tracked by
+         * {@link #mTransactionBytes}. A rolled back transaction leaves the total unchanged.
+         */
+        private void runWrites(Runnable writes) {
+            mTransactionBytes = getTotalBytes();
+            if (runInTransaction(writes)) {
+                mTotalBytes = mTransactionBytes;
+            }
+        }
+
+        /**
+         * Returns the packages which have previews, with their versions.
+         */
+        Cursor queryPackages(String selection, String[] selectionArgs) {
+            return query(PACKAGES_TABLE_NAME,
+                    new String[] {COLUMN_USER, COLUMN_PACKAGE, COLUMN_LAST_UPDATED, COLUMN_VERSION},
+                    selection, selectionArgs, null);
+        }
+
+        long getTotalBytes() {
+            if (mTotalBytes < 0) {
+                mTotalBytes = sum(null, null);
+            }
+            return mTotalBytes;
+        }
+
+        @VisibleForTesting
+        long[] getPackageVersions(String packageName, String user) {
+            Cursor c = query(PACKAGES_TABLE_NAME,
+                    new String[] {COLUMN_VERSION, COLUMN_LAST_UPDATED},
+                    PACKAGE_SELECTION, new String[] {packageName, user}, null);
+            try {
+                return c.moveToNext() ? new long[] {c.getLong(0), c.getLong(1)} : null;
+            } finally {
+                c.close();
+            }
+        }
+
+        private long sum(String selection, String[] selectionArgs) {
+            Cursor c = query(new String[] {"SUM(" + COLUMN_PREVIEW_BYTES + ")"},
+                    selection, selectionArgs);
+            try {
+                return c.moveToNext() ? c.getLong(0) : 0;
+            } finally {
+                c.close();
+            }
+        }
+
+        /**
+         * Removes the least recently used previews until their total size is under
+         * {@param targetBytes}.
+         */
+        private void prune(long targetBytes) {
+            long bytesToFree = mTransactionBytes - targetBytes;
+            long cutoff = -1;
+            Cursor c = query(TABLE_NAME, new String[] {COLUMN_LAST_ACCESS, COLUMN_PREVIEW_BYTES},
+                    null, null, COLUMN_LAST_ACCESS + " ASC");
+            try {
+                while (bytesToFree > 0 && c.moveToNext()) {
+                    cutoff = c.getLong(0);
+                    bytesToFree -= c.getLong(1);
+                }
+            } finally {
+                c.close();
+            }
+            if (cutoff >= 0) {
+                delete(COLUMN_LAST_ACCESS + " <= ?", new String[] {Long.toString(cutoff)});
+                // Previews with the same access time as the cutoff were removed as well.
+                mTransactionBytes = sum(null, null);
+                if (DEBUG) {
+                    Log.d(TAG, "Pruned previews accessed before " + cutoff + ", "
+                            + mTransactionBytes + " bytes left");
+                }
+            }
         }
     }
 
     @Thunk void writeToDb(WidgetCacheKey key, long[] versions, Bitmap preview) {
-        ContentValues values = new ContentValues();
-        values.put(CacheDb.COLUMN_COMPONENT, key.componentName.flattenToShortString());
-        values.put(CacheDb.COLUMN_USER, mUserManager.getSerialNumberForUser(key.user));
-        values.put(CacheDb.COLUMN_SIZE, key.size);
-        values.put(CacheDb.COLUMN_PACKAGE, key.componentName.getPackageName());
-        values.put(CacheDb.COLUMN_VERSION, versions[0]);
-        values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
-        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
-        mDb.insertOrReplace(values);
+        // Writing can prune the previews, make sure it sees the latest access times.
+        flushAccessTimes();
+        try {
+            mDb.writePreview(key.componentName.flattenToShortString(),
+                    mUserManager.getSerialNumberForUser(key.user), key.size,
+                    key.componentName.getPackageName(), versions,
+                    Utilities.flattenBitmap(preview), System.currentTimeMillis());
+        } catch (SQLException e) {
+            Log.e(TAG, "Error writing widget preview", e);
+        }
     }
 
-    public void removePackage(String packageName, UserHandle user) {
-        removePackage(packageName, user, mUserManager.getSerialNumberForUser(user));
+    public void removePackage(final String packageName, final UserHandle user) {
+        removePackage(packageName, mUserManager.getSerialNumberForUser(user), null);
+
+        // Make sure that new requests do not share the previews of the old package.
+        mMainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Iterator<WidgetCacheKey> it = mActiveTasks.keySet().iterator();
+                while (it.hasNext()) {
+                    WidgetCacheKey key = it.next();
+                    if (key.componentName.getPackageName().equals(packageName)
+                            && key.user.equals(user)) {
+                        it.remove();
+                    }
+                }
+            }
+        });
     }
 
-    private void removePackage(String packageName, UserHandle user, long userSerial) {
+    /**
+     * Removes the previews of the package, unless {@param obsoleteVersions} is not null and they
+     * were written for another version since.
+     */
+    private void removePackage(String packageName, long userSerial,
+            @Nullable long[] obsoleteVersions) {
         synchronized(mPackageVersions) {
             mPackageVersions.remove(packageName);
         }
 
-        mDb.delete(
-                CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
-                new String[]{packageName, Long.toString(userSerial)});
+        try {
+            mDb.deletePackage(packageName, Long.toString(userSerial), obsoleteVersions);
+        } catch (SQLException e) {
+            Log.e(TAG, "Error removing widget previews", e);
+        }
     }
 
     /**
@@ -192,50 +498,54 @@ public class WidgetPreviewLoader {
             packages.add(key.componentName.getPackageName());
         }
 
-        LongSparseArray<HashSet<String>> packagesToDelete = new LongSparseArray<>();
-        long passedUserId = packageUser == null ? 0
-                : mUserManager.getSerialNumberForUser(packageUser.mUser);
+        // The stored versions of the packages to delete, by user.
+        LongSparseArray<HashMap<String, long[]>> packagesToDelete = new LongSparseArray<>();
         Cursor c = null;
         try {
-            c = mDb.query(
-                    new String[]{CacheDb.COLUMN_USER, CacheDb.COLUMN_PACKAGE,
-                            CacheDb.COLUMN_LAST_UPDATED, CacheDb.COLUMN_VERSION},
-                    null, null);
+            // The versions are stored per package, so only the packages with previews are checked.
+            if (packageUser == null) {
+                c = mDb.queryPackages(null, null);
+            } else {
+                c = mDb.queryPackages(CacheDb.PACKAGE_SELECTION, new String[] {
+                        packageUser.mPackageName,
+                        Long.toString(mUserManager.getSerialNumberForUser(packageUser.mUser))});
+            }
             while (c.moveToNext()) {
                 long userId = c.getLong(0);
                 String pkg = c.getString(1);
                 long lastUpdated = c.getLong(2);
                 long version = c.getLong(3);
 
-                if (packageUser != null && (!pkg.equals(packageUser.mPackageName)
-                        || userId != passedUserId)) {
-                    // This preview is associated with a different package/user, no need to remove.
-                    continue;
-                }
+                long[] storedVersions = new long[] {version, lastUpdated};
 
                 HashSet<String> packages = validPackages.get(userId);
                 if (packages != null && packages.contains(pkg)) {
-                    long[] versions = getPackageVersion(pkg);
-                    if (versions[0] == version && versions[1] == lastUpdated) {
+                    if (Arrays.equals(getPackageVersion(pkg), storedVersions)) {
                         // Every thing checks out
                         continue;
                     }
+                    // The cached version may predate an update, check it again.
+                    synchronized (mPackageVersions) {
+                        mPackageVersions.remove(pkg);
+                    }
+                    if (Arrays.equals(getPackageVersion(pkg), storedVersions)) {
+                        continue;
+                    }
                 }
 
                 // We need to delete this package.
-                packages = packagesToDelete.get(userId);
-                if (packages == null) {
-                    packages = new HashSet<>();
-                    packagesToDelete.put(userId, packages);
+                HashMap<String, long[]> userPackages = packagesToDelete.get(userId);
+                if (userPackages == null) {
+                    userPackages = new HashMap<>();
+                    packagesToDelete.put(userId, userPackages);
                 }
-                packages.add(pkg);
+                userPackages.put(pkg, storedVersions);
             }
 
             for (int i = 0; i < packagesToDelete.size(); i++) {
                 long userId = packagesToDelete.keyAt(i);
-                UserHandle user = mUserManager.getUserForSerialNumber(userId);
-                for (String pkg : packagesToDelete.valueAt(i)) {
-                    removePackage(pkg, user, userId);
+                for (Map.Entry<String, long[]> e : packagesToDelete.valueAt(i).entrySet()) {
+                    removePackage(e.getKey(), userId, e.getValue());
                 }
             }
         } catch (SQLException e) {
@@ -251,43 +561,105 @@ public class WidgetPreviewLoader {
      * Reads the preview bitmap from the DB or null if the preview is not in the DB.
      */
     @Thunk Bitmap readFromDb(WidgetCacheKey key, Bitmap recycle, PreviewLoadTask loadTask) {
-        Cursor cursor = null;
+        ParcelFileDescriptor fd = null;
         try {
-            cursor = mDb.query(
-                    new String[]{CacheDb.COLUMN_PREVIEW_BITMAP},
-                    CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER + " = ? AND "
-                            + CacheDb.COLUMN_SIZE + " = ?",
-                    new String[]{
-                            key.componentName.flattenToShortString(),
-                            Long.toString(mUserManager.getSerialNumberForUser(key.user)),
-                            key.size
-                    });
-            // If cancelled, skip getting the blob and decoding it into a bitmap
+            fd = mDb.openPreview(key.componentName.flattenToShortString(),
+                    mUserManager.getSerialNumberForUser(key.user), key.size);
+            if (fd == null) {
+                mMisses.incrementAndGet();
+                return null;
+            }
+            mHits.incrementAndGet();
+            onPreviewAccessed(key);
+
+            // If cancelled, skip decoding the blob into a bitmap
             if (loadTask.isCancelled()) {
                 return null;
             }
-            if (cursor.moveToNext()) {
-                byte[] blob = cursor.getBlob(0);
-                BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inBitmap = recycle;
-                try {
-                    if (!loadTask.isCancelled()) {
-                        return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
-                    }
-                } catch (Exception e) {
-                    return null;
-                }
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inBitmap = recycle;
+            long start = System.nanoTime();
+            try {
+                return BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor(), null, opts);
+            } catch (Exception e) {
+                return null;
+            } finally {
+                mDecodeCount.incrementAndGet();
+                mDecodeTimeNanos.addAndGet(System.nanoTime() - start);
             }
         } catch (SQLException e) {
             Log.w(TAG, "Error loading preview from DB", e);
         } finally {
-            if (cursor != null) {
-                cursor.close();
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
             }
         }
         return null;
     }
 
+    /**
+     * Records the access time of a preview read from the DB. Access times are written to the DB
+     * in batches, rather than on every read.
+     */
+    private void onPreviewAccessed(WidgetCacheKey key) {
+        mPendingAccessTimes.put(key, System.currentTimeMillis());
+        if (mAccessFlushScheduled.compareAndSet(false, true)) {
+            mWorkerHandler.postDelayed(mFlushAccessTimes, ACCESS_FLUSH_DELAY_MS);
+        }
+    }
+
+    @Thunk void flushAccessTimes() {
+        mWorkerHandler.removeCallbacks(mFlushAccessTimes);
+        mAccessFlushScheduled.set(false);
+        if (mPendingAccessTimes.isEmpty()) {
+            return;
+        }
+        try {
+            boolean written = mDb.updateLastAccess(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<WidgetCacheKey, Long> e : mPendingAccessTimes.entrySet()) {
+                        WidgetCacheKey key = e.getKey();
+                        long lastAccess = e.getValue();
+                        mDb.updateLastAccess(key.componentName.flattenToShortString(),
+                                mUserManager.getSerialNumberForUser(key.user), key.size,
+                                lastAccess);
+                        // Keep any access recorded meanwhile for the next flush.
+                        mPendingAccessTimes.remove(key, lastAccess);
+                    }
+                }
+            });
+            if (!written) {
+                // Also when the writes are ignored, drop the access times instead of keeping
+                // every preview read since.
+                mPendingAccessTimes.clear();
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "Error updating preview access times", e);
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        long hits = mHits.get();
+        long lookups = hits + mMisses.get();
+        long decodes = mDecodeCount.get();
+        writer.println(prefix + "Widget preview cache: dbFileBytes="
+                + mContext.getDatabasePath(LauncherFiles.WIDGET_PREVIEWS_DB).length()
+                + " previewBytes=" + mDb.mTotalBytes + "/" + mDb.mMaxPreviewBytes
+                + " hits=" + hits
+                + " misses=" + mMisses.get()
+                + " hitRatio=" + (lookups == 0 ? 0 : (100 * hits / lookups)) + "%"
+                + " decodes=" + decodes
+                + " avgDecodeTime="
+                + (decodes == 0 ? 0 : mDecodeTimeNanos.get() / decodes / 1000) + "us");
+        writer.println(prefix + "  " + mScheduler + " coalesced=" + mCoalescedRequests);
+        writer.println(prefix + "  " + mBitmapPool);
+    }
+
     private Bitmap generatePreview(BaseActivity launcher, WidgetItem item, Bitmap recycle,
             int previewWidth, int previewHeight) {
         if (item.widgetInfo != null) {
@@ -520,62 +892,77 @@ public class WidgetPreviewLoader {
         }
     }
 
-    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap>
-            implements CancellationSignal.OnCancelListener {
+    /**
+     * Loads the preview for one {@link WidgetCacheKey}, on behalf of all the cells requesting it.
+     * Its lifecycle is managed on the main thread, only {@link #run} is on a background thread.
+     */
+    public class PreviewLoadTask implements Runnable {
         @Thunk final WidgetCacheKey mKey;
         private final WidgetItem mInfo;
         private final int mPreviewHeight;
         private final int mPreviewWidth;
-        private final WidgetCell mCaller;
-        private final boolean mAnimatePreviewIn;
         private final BaseActivity mActivity;
+
+        // Cells waiting for or displaying the preview.
+        private final ArrayList<PreviewRequest> mRequests = new ArrayList<>();
+        private volatile boolean mCancelled;
         @Thunk long[] mVersions;
-        @Thunk Bitmap mBitmapToRecycle;
+        private Bitmap mPreview;
+        private boolean mLoaded;
 
         PreviewLoadTask(WidgetCacheKey key, WidgetItem info, int previewWidth,
-                int previewHeight, WidgetCell caller, boolean animate) {
+                int previewHeight, WidgetCell caller) {
             mKey = key;
             mInfo = info;
             mPreviewHeight = previewHeight;
             mPreviewWidth = previewWidth;
-            mCaller = caller;
-            mAnimatePreviewIn = animate;
-            mActivity = BaseActivity.fromContext(mCaller.getContext());
+            mActivity = BaseActivity.fromContext(caller.getContext());
             if (DEBUG) {
                 Log.d(TAG, String.format("%s, %s, %d, %d",
                         mKey, mInfo, mPreviewHeight, mPreviewWidth));
             }
         }
 
-        @Override
-        protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
+        public boolean isCancelled() {
+            return mCancelled;
+        }
 
-            // If already cancelled before this gets to run in the background, then return early
-            if (isCancelled()) {
-                return null;
-            }
-            synchronized (mUnusedBitmaps) {
-                // Check if we can re-use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        mUnusedBitmaps.remove(unusedBitmap);
-                        break;
-                    }
-                }
+        void addRequest(PreviewRequest request) {
+            mRequests.add(request);
+            if (mLoaded) {
+                request.apply(mPreview);
             }
+        }
 
-            // creating a bitmap is expensive. Do not do this inside synchronized block.
-            if (unusedBitmap == null) {
-                unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
+        /**
+         * Called when a cell no longer needs the preview. Once no cell needs it, the job is
+         * dropped if it did not start yet, and the preview goes back to the pool otherwise.
+         */
+        void removeRequest(PreviewRequest request) {
+            if (!mRequests.remove(request) || !mRequests.isEmpty()) {
+                return;
+            }
+            mCancelled = true;
+            if (mActiveTasks.get(mKey) == this) {
+                mActiveTasks.remove(mKey);
+            }
+            if (mScheduler.remove(this)) {
+                return;
             }
-            // If cancelled now, don't bother reading the preview from the DB
+            if (mLoaded) {
+                recycle(mPreview);
+                mPreview = null;
+            }
+            // Otherwise the preview is recycled when it is loaded.
+        }
+
+        @Override
+        public void run() {
+            // If already cancelled before this gets to run in the background, then return early
             if (isCancelled()) {
-                return unusedBitmap;
+                return;
             }
+            Bitmap unusedBitmap = mBitmapPool.acquire(mPreviewWidth, mPreviewHeight);
             Bitmap preview = readFromDb(mKey, unusedBitmap, this);
             // Only consider generating the preview if we have not cancelled the task already
             if (!isCancelled() && preview == null) {
@@ -590,79 +977,86 @@ public class WidgetPreviewLoader {
                 // it's not in the db... we need to generate it
                 preview = generatePreview(mActivity, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
             }
-            return preview;
+            if (preview != unusedBitmap) {
+                recycle(unusedBitmap);
+            }
+            final Bitmap result = preview;
+            mMainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onPreviewLoaded(result);
+                }
+            });
         }
 
-        @Override
-        protected void onPostExecute(final Bitmap preview) {
-            mCaller.applyPreview(preview, mAnimatePreviewIn);
+        @Thunk void onPreviewLoaded(final Bitmap preview) {
+            if (isCancelled()) {
+                // No cell needs the preview anymore, skip writing it to the DB.
+                recycle(preview);
+                return;
+            }
+            mLoaded = true;
+            mPreview = preview;
+            if (preview == null && mActiveTasks.get(mKey) == this) {
+                // Let the next request try again, rather than sharing the failure.
+                mActiveTasks.remove(mKey);
+            }
+            for (PreviewRequest request : mRequests) {
+                request.apply(preview);
+            }
 
-            // Write the generated preview to the DB in the worker thread
-            if (mVersions != null) {
+            // Write the generated preview to the DB in the worker thread. Since the preview is
+            // only recycled on the worker thread as well, it is not reused before the write.
+            if (mVersions != null && preview != null) {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        if (!isCancelled()) {
-                            // If we are still using this preview, then write it to the DB and then
-                            // let the normal clear mechanism recycle the bitmap
-                            writeToDb(mKey, mVersions, preview);
-                            mBitmapToRecycle = preview;
-                        } else {
-                            // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
-                        }
+                        writeToDb(mKey, mVersions, preview);
                     }
                 });
-            } else {
-                // If we don't need to write to disk, then ensure the preview gets recycled by
-                // the normal clear mechanism
-                mBitmapToRecycle = preview;
             }
         }
+    }
 
-        @Override
-        protected void onCancelled(final Bitmap preview) {
-            // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
-            // to disk.
-            if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
-            }
+    /**
+     * A cell waiting for or displaying a preview.
+     */
+    private class PreviewRequest implements CancellationSignal.OnCancelListener {
+        private final PreviewLoadTask mTask;
+        private final WidgetCell mCaller;
+        private final boolean mAnimatePreviewIn;
+
+        PreviewRequest(PreviewLoadTask task, WidgetCell caller, boolean animate) {
+            mTask = task;
+            mCaller = caller;
+            mAnimatePreviewIn = animate;
+        }
+
+        void apply(Bitmap preview) {
+            mCaller.applyPreview(preview, mAnimatePreviewIn);
         }
 
         @Override
         public void onCancel() {
-            cancel(true);
-
-            // This only handles the case where the PreviewLoadTask is cancelled after the task has
-            // successfully completed (including having written to disk when necessary).  In the
-            // other cases where it is cancelled while the task is running, it will be cleaned up
-            // in the tasks's onCancelled() call, and if cancelled while the task is writing to
-            // disk, it will be cancelled in the task's onPostExecute() call.
-            if (mBitmapToRecycle != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mBitmapToRecycle);
-                        }
-                        mBitmapToRecycle = null;
-                    }
-                });
-            }
+            mTask.removeRequest(this);
         }
     }
 
+    /**
+     * Returns a bitmap which is no longer used to the pool, after any pending DB write.
+     */
+    @Thunk void recycle(final Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBitmapPool.release(bitmap);
+            }
+        });
+    }
+
     private static final class WidgetCacheKey extends ComponentKey {
 
         @Thunk final String size;
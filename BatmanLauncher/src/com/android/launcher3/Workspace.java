@@ -122,7 +122,6 @@ public class Workspace extends PagedView
     private static final int ADJACENT_SCREEN_DROP_DURATION = 300;
 
     private static final boolean MAP_NO_RECURSE = false;
-    private static final boolean MAP_RECURSE = true;
 
     // The screen id used for the empty screen always present to the right.
     public static final long EXTRA_EMPTY_SCREEN_ID = -201;
@@ -1306,6 +1305,7 @@ public class Workspace extends PagedView
             stripEmptyScreens();
             mStripScreensOnPageStopMoving = false;
         }
+        mLauncher.getPopupDataProvider().schedulePrefetch();
 
         //((PageIndicatorLineCaret)mPageIndicator).hideAfterDelay();
         //((PageIndicatorBatmanCaret)mPageIndicator).hideAfterDelay();
@@ -3700,23 +3700,15 @@ public class Workspace extends PagedView
     }
 
     public View getHomescreenIconByItemId(final long id) {
-        return getFirstMatch(new ItemOperator() {
-
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                return info != null && info.id == id;
-            }
-        });
+        return mLauncher.getItemViewIndex().getView(id, false /* includeFolderItems */);
     }
 
     public View getViewForTag(final Object tag) {
-        return getFirstMatch(new ItemOperator() {
-
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                return info == tag;
-            }
-        });
+        if (!(tag instanceof ItemInfo)) {
+            return null;
+        }
+        View v = getHomescreenIconByItemId(((ItemInfo) tag).id);
+        return v != null && v.getTag() == tag ? v : null;
     }
 
     public LauncherAppWidgetHostView getWidgetForAppWidgetId(final int appWidgetId) {
@@ -3854,81 +3846,67 @@ public class Workspace extends PagedView
     }
 
     void updateShortcuts(ArrayList<ShortcutInfo> shortcuts) {
+        ItemViewIndex index = mLauncher.getItemViewIndex();
         int total  = shortcuts.size();
-        final HashSet<ShortcutInfo> updates = new HashSet<>(total);
         final HashSet<Long> folderIds = new HashSet<>();
 
         for (int i = 0; i < total; i++) {
-            ShortcutInfo s = shortcuts.get(i);
-            updates.add(s);
-            folderIds.add(s.container);
-        }
-
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof ShortcutInfo && v instanceof BubbleTextView &&
-                        updates.contains(info)) {
-                    ShortcutInfo si = (ShortcutInfo) info;
-                    BubbleTextView shortcut = (BubbleTextView) v;
-                    Drawable oldIcon = shortcut.getIcon();
-                    boolean oldPromiseState = (oldIcon instanceof PreloadIconDrawable)
-                            && ((PreloadIconDrawable) oldIcon).hasNotCompleted();
-                    shortcut.applyFromShortcutInfo(si, si.isPromise() != oldPromiseState);
-                }
-                // process all the shortcuts
-                return false;
+            ShortcutInfo si = shortcuts.get(i);
+            folderIds.add(si.container);
+
+            View v = index.getView(si.id, true /* includeFolderItems */);
+            if (v instanceof BubbleTextView && v.getTag() == si) {
+                BubbleTextView shortcut = (BubbleTextView) v;
+                Drawable oldIcon = shortcut.getIcon();
+                boolean oldPromiseState = (oldIcon instanceof PreloadIconDrawable)
+                        && ((PreloadIconDrawable) oldIcon).hasNotCompleted();
+                shortcut.applyFromShortcutInfo(si, si.isPromise() != oldPromiseState);
+                // The target component changes when a promise icon is restored.
+                index.onItemUpdated(v);
             }
-        });
+        }
 
         // Update folder icons
-        mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof FolderInfo && folderIds.contains(info.id)) {
-                    ((FolderInfo) info).itemsChanged(false);
-                }
-                // process all the shortcuts
-                return false;
+        for (long folderId : folderIds) {
+            View v = index.getView(folderId, false /* includeFolderItems */);
+            if (v != null && v.getTag() instanceof FolderInfo) {
+                ((FolderInfo) v.getTag()).itemsChanged(false);
             }
-        });
+        }
     }
 
     public void updateIconBadges(final Set<PackageUserKey> updatedBadges) {
+        ItemViewIndex index = mLauncher.getItemViewIndex();
+        ArrayList<View> views = new ArrayList<>();
+        for (PackageUserKey key : updatedBadges) {
+            index.collectViews(key, views);
+        }
+
         final PackageUserKey packageUserKey = new PackageUserKey(null, null);
         final HashSet<Long> folderIds = new HashSet<>();
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof ShortcutInfo && v instanceof BubbleTextView
-                        && packageUserKey.updateFromItemInfo(info)) {
-                    if (updatedBadges.contains(packageUserKey)) {
-                        ((BubbleTextView) v).applyBadgeState(info, true /* animate */);
-                        folderIds.add(info.container);
-                    }
+        for (View v : views) {
+            ItemInfo info = (ItemInfo) v.getTag();
+            if (info instanceof ShortcutInfo && v instanceof BubbleTextView
+                    && packageUserKey.updateFromItemInfo(info)) {
+                if (updatedBadges.contains(packageUserKey)) {
+                    ((BubbleTextView) v).applyBadgeState(info, true /* animate */);
+                    folderIds.add(info.container);
                 }
-                // process all the shortcuts
-                return false;
             }
-        });
+        }
 
         // Update folder icons
-        mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof FolderInfo && folderIds.contains(info.id)
-                        && v instanceof FolderIcon) {
-                    FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
-                    for (ShortcutInfo si : ((FolderInfo) info).contents) {
-                        folderBadgeInfo.addBadgeInfo(mLauncher.getPopupDataProvider()
-                                .getBadgeInfoForItem(si));
-                    }
-                    ((FolderIcon) v).setBadgeInfo(folderBadgeInfo);
+        for (long folderId : folderIds) {
+            View v = index.getView(folderId, false /* includeFolderItems */);
+            if (v instanceof FolderIcon && v.getTag() instanceof FolderInfo) {
+                FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
+                for (ShortcutInfo si : ((FolderInfo) v.getTag()).contents) {
+                    folderBadgeInfo.addBadgeInfo(mLauncher.getPopupDataProvider()
+                            .getBadgeInfoForItem(si));
                 }
-                // process all the shortcuts
-                return false;
+                ((FolderIcon) v).setBadgeInfo(folderBadgeInfo);
             }
-        });
+        }
     }
 
     public void removeAbandonedPromise(String packageName, UserHandle user) {
@@ -3940,21 +3918,19 @@ public class Workspace extends PagedView
     }
 
     public void updateRestoreItems(final HashSet<ItemInfo> updates) {
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof ShortcutInfo && v instanceof BubbleTextView
-                        && updates.contains(info)) {
-                    ((BubbleTextView) v).applyPromiseState(false /* promiseStateChanged */);
-                } else if (v instanceof PendingAppWidgetHostView
-                        && info instanceof LauncherAppWidgetInfo
-                        && updates.contains(info)) {
-                    ((PendingAppWidgetHostView) v).applyState();
-                }
-                // process all the shortcuts
-                return false;
+        ItemViewIndex index = mLauncher.getItemViewIndex();
+        for (ItemInfo info : updates) {
+            View v = index.getView(info.id, true /* includeFolderItems */);
+            if (v == null || v.getTag() != info) {
+                continue;
             }
-        });
+            if (info instanceof ShortcutInfo && v instanceof BubbleTextView) {
+                ((BubbleTextView) v).applyPromiseState(false /* promiseStateChanged */);
+            } else if (v instanceof PendingAppWidgetHostView
+                    && info instanceof LauncherAppWidgetInfo) {
+                ((PendingAppWidgetHostView) v).applyState();
+            }
+        }
     }
 
     public void widgetsRestored(final ArrayList<LauncherAppWidgetInfo> changedInfo) {
@@ -3978,18 +3954,13 @@ public class Workspace extends PagedView
             } else {
                 // widgetRefresh will automatically run when the packages are updated.
                 // For now just update the progress bars
-                mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-                    @Override
-                    public boolean evaluate(ItemInfo info, View view) {
-                        if (view instanceof PendingAppWidgetHostView
-                                && changedInfo.contains(info)) {
-                            ((LauncherAppWidgetInfo) info).installProgress = 100;
-                            ((PendingAppWidgetHostView) view).applyState();
-                        }
-                        // process all the shortcuts
-                        return false;
+                for (LauncherAppWidgetInfo info : changedInfo) {
+                    View view = getViewForTag(info);
+                    if (view instanceof PendingAppWidgetHostView) {
+                        info.installProgress = 100;
+                        ((PendingAppWidgetHostView) view).applyState();
                     }
-                });
+                }
             }
         }
     }
@@ -4116,17 +4087,13 @@ public class Workspace extends PagedView
 
             mRefreshPending = false;
 
-            mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-                @Override
-                public boolean evaluate(ItemInfo info, View view) {
-                    if (view instanceof PendingAppWidgetHostView && mInfos.contains(info)) {
-                        mLauncher.removeItem(view, info, false /* deleteFromDb */);
-                        mLauncher.bindAppWidget((LauncherAppWidgetInfo) info);
-                    }
-                    // process all the shortcuts
-                    return false;
+            for (LauncherAppWidgetInfo info : mInfos) {
+                View view = getViewForTag(info);
+                if (view instanceof PendingAppWidgetHostView) {
+                    mLauncher.removeItem(view, info, false /* deleteFromDb */);
+                    mLauncher.bindAppWidget(info);
                 }
-            });
+            }
         }
 
         @Override
@@ -19,10 +19,11 @@ import android.content.Context;
 import android.os.Process;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 
 import com.android.launcher3.AppInfo;
-import com.android.launcher3.Launcher;
+import com.android.launcher3.allapps.search.AppsSearchIndex;
 import com.android.launcher3.compat.AlphabeticIndexCompat;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.discovery.AppDiscoveryAppInfo;
@@ -52,6 +53,10 @@ public class AlphabeticalAppsList {
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION = 0;
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS = 1;
 
+    // Above this number of apps added, updated or removed at once, the list is rebuilt instead
+    // of being updated app by app.
+    private static final int MAX_INCREMENTAL_UPDATES = 16;
+
     private final int mFastScrollDistributionMode = FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS;
 
     private AppDiscoveryUpdateState mAppDiscoveryUpdateState;
@@ -161,11 +166,13 @@ public class AlphabeticalAppsList {
         }
     }
 
-    private final Launcher mLauncher;
+    private final Context mContext;
 
     // The set of apps from the system not including predictions
     private final List<AppInfo> mApps = new ArrayList<>();
     private final HashMap<ComponentKey, AppInfo> mComponentToAppMap = new HashMap<>();
+    // Search index over mApps
+    private final AppsSearchIndex mSearchIndex = new AppsSearchIndex();
 
     // The set of filtered apps with the current filter
     private final List<AppInfo> mFilteredApps = new ArrayList<>();
@@ -182,7 +189,7 @@ public class AlphabeticalAppsList {
     // The of ordered component names as a result of a search query
     private ArrayList<ComponentKey> mSearchResults;
     private HashMap<CharSequence, String> mCachedSectionNames = new HashMap<>();
-    private AllAppsGridAdapter mAdapter;
+    private RecyclerView.Adapter mAdapter;
     private AlphabeticIndexCompat mIndexer;
     private AppInfoComparator mAppNameComparator;
     private int mNumAppsPerRow;
@@ -190,7 +197,7 @@ public class AlphabeticalAppsList {
     private int mNumAppRowsInAdapter;
 
     public AlphabeticalAppsList(Context context) {
-        mLauncher = Launcher.getLauncher(context);
+        mContext = context;
         mIndexer = new AlphabeticIndexCompat(context);
         mAppNameComparator = new AppInfoComparator(context);
     }
@@ -208,7 +215,7 @@ public class AlphabeticalAppsList {
     /**
      * Sets the adapter to notify when this dataset changes.
      */
-    public void setAdapter(AllAppsGridAdapter adapter) {
+    public void setAdapter(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
     }
 
@@ -219,6 +226,13 @@ public class AlphabeticalAppsList {
         return mApps;
     }
 
+    /**
+     * Returns the search index over all the apps, kept in sync with {@link #getApps()}.
+     */
+    public AppsSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
     /**
      * Returns the predicted apps.
      */
@@ -362,11 +376,12 @@ public class AlphabeticalAppsList {
         int size = apps.size();
         for (int i = 0; i < size; ++i) {
             AppInfo info = apps.get(i);
-            AdapterItem appItem = AdapterItem.asPredictedApp(i, "", info, i);
-            appItem.rowAppIndex = i;
-            mAdapterItems.set(i, appItem);
+            // Keep the item, which the prediction section scrolls to.
+            mAdapterItems.get(i).appInfo = info;
             mFilteredApps.set(i, info);
-            mAdapter.notifyItemChanged(i);
+            if (mAdapter != null) {
+                mAdapter.notifyItemChanged(i);
+            }
         }
     }
 
@@ -375,27 +390,277 @@ public class AlphabeticalAppsList {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
-        addOrUpdateApps(apps);
+        for (AppInfo app : apps) {
+            mComponentToAppMap.put(app.toComponentKey(), app);
+        }
+        onAppsUpdated();
     }
 
     /**
      * Adds or updates existing apps in the list
      */
     public void addOrUpdateApps(List<AppInfo> apps) {
-        for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+        if (!canUpdateIncrementally(apps.size())) {
+            for (AppInfo app : apps) {
+                mComponentToAppMap.put(app.toComponentKey(), app);
+            }
+            onAppsUpdated();
+            return;
         }
-        onAppsUpdated();
+
+        int count = apps.size();
+        AppInfo[] previousApps = new AppInfo[count];
+        for (int i = 0; i < count; i++) {
+            AppInfo app = apps.get(i);
+            previousApps[i] = mComponentToAppMap.put(app.toComponentKey(), app);
+        }
+        if (!updatePredictedApps()) {
+            onAppsUpdated();
+            return;
+        }
+        // The titles can be updated in place, so the list is only sorted again once all the
+        // changed apps are out of it. Remove them all before inserting any.
+        int firstAppPosition = getFirstAppPosition();
+        for (int i = 0; i < count; i++) {
+            int index = previousApps[i] == null ? -1 : indexOfApp(previousApps[i]);
+            if (index >= 0) {
+                removeAppAt(index);
+                if (mAdapter != null) {
+                    mAdapter.notifyItemRemoved(firstAppPosition + index);
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int index = addApp(apps.get(i));
+            if (mAdapter != null) {
+                mAdapter.notifyItemInserted(firstAppPosition + index);
+            }
+        }
+        mSearchIndex.setApps(mApps);
     }
 
     /**
      * Removes some apps from the list.
      */
     public void removeApps(List<AppInfo> apps) {
+        if (!canUpdateIncrementally(apps.size())) {
+            for (AppInfo app : apps) {
+                mComponentToAppMap.remove(app.toComponentKey());
+            }
+            onAppsUpdated();
+            return;
+        }
+
+        ArrayList<AppInfo> removedApps = new ArrayList<>(apps.size());
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            AppInfo removed = mComponentToAppMap.remove(app.toComponentKey());
+            if (removed != null) {
+                removedApps.add(removed);
+            }
         }
-        onAppsUpdated();
+        if (!updatePredictedApps()) {
+            onAppsUpdated();
+            return;
+        }
+        for (AppInfo app : removedApps) {
+            int index = indexOfApp(app);
+            if (index >= 0) {
+                removeAppAt(index);
+                if (mAdapter != null) {
+                    mAdapter.notifyItemRemoved(getFirstAppPosition() + index);
+                }
+            }
+        }
+        mSearchIndex.setApps(mApps);
+    }
+
+    /**
+     * Returns whether the adapter items can be updated in place for a change of
+     * {@param numChangedApps} apps, which is only supported when all the apps are listed without
+     * a filter.
+     */
+    private boolean canUpdateIncrementally(int numChangedApps) {
+        return numChangedApps <= MAX_INCREMENTAL_UPDATES
+                && !mApps.isEmpty()
+                && !hasFilter()
+                && mNumAppsPerRow != 0
+                && !requiresSectionSorting()
+                && mAdapterItems.size() == getFirstAppPosition() + mApps.size();
+    }
+
+    /**
+     * Updates the predicted apps after the set of apps changed.
+     *
+     * @return false if the number of predicted apps changed, in which case all the adapter items
+     *         need to be rebuilt.
+     */
+    private boolean updatePredictedApps() {
+        if (mPredictedAppComponents.isEmpty()) {
+            return mPredictedApps.isEmpty();
+        }
+        List<AppInfo> predictedApps = processPredictedAppComponents(mPredictedAppComponents);
+        if (predictedApps.equals(mPredictedApps)) {
+            return true;
+        }
+        if (predictedApps.size() != mPredictedApps.size()) {
+            return false;
+        }
+        swapInNewPredictedApps(predictedApps);
+        return true;
+    }
+
+    /**
+     * Returns the index of {@param app} in {@link #mApps}, or -1 if it is not in the list.
+     */
+    private int indexOfApp(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mAppNameComparator);
+        if (index >= 0 && mApps.get(index) == app) {
+            return index;
+        }
+        // The title of the app may have been updated in place, in which case the list is not
+        // sorted anymore around it.
+        return mApps.indexOf(app);
+    }
+
+    /**
+     * Inserts {@param app} in {@link #mApps} and its adapter item, and returns its index.
+     */
+    private int addApp(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mAppNameComparator);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        int position = getFirstAppPosition() + index;
+        mApps.add(index, app);
+        mFilteredApps.add(mPredictedApps.size() + index, app);
+        AdapterItem item = AdapterItem.asApp(position,
+                getAndUpdateCachedSectionName(app.title), app, 0);
+        mAdapterItems.add(position, item);
+
+        onAppItemInserted(position);
+        updateAppItems(index);
+        updateFastScrollFractions();
+        return index;
+    }
+
+    /**
+     * Removes the app at {@param index} in {@link #mApps} and its adapter item.
+     */
+    private void removeAppAt(int index) {
+        int position = getFirstAppPosition() + index;
+        mApps.remove(index);
+        mFilteredApps.remove(mPredictedApps.size() + index);
+        AdapterItem item = mAdapterItems.remove(position);
+
+        onAppItemRemoved(item, position);
+        updateAppItems(index);
+        updateFastScrollFractions();
+    }
+
+    /**
+     * Returns the position of the first app item, after the predicted apps and their divider.
+     */
+    private int getFirstAppPosition() {
+        return mPredictedApps.isEmpty() ? 0 : mPredictedApps.size() + 1;
+    }
+
+    /**
+     * Updates the positions and rows of the app items, starting with the app at {@param index}.
+     */
+    private void updateAppItems(int index) {
+        int firstAppPosition = getFirstAppPosition();
+        int numPredictedApps = mPredictedApps.size();
+        int numPredictionRows = (numPredictedApps + mNumAppsPerRow - 1) / mNumAppsPerRow;
+        int numApps = mApps.size();
+        for (int i = index; i < numApps; i++) {
+            AdapterItem item = mAdapterItems.get(firstAppPosition + i);
+            item.position = firstAppPosition + i;
+            item.appIndex = numPredictedApps + i;
+            item.rowIndex = numPredictionRows + i / mNumAppsPerRow;
+            item.rowAppIndex = i % mNumAppsPerRow;
+        }
+        mNumAppRowsInAdapter = numPredictionRows + (numApps + mNumAppsPerRow - 1) / mNumAppsPerRow;
+    }
+
+    /**
+     * Updates the fast scroller sections after an app item was inserted at {@param position}.
+     * Like in {@link #refillAdapterItems()}, a section starts at each app whose section name
+     * differs from the one of the previous app.
+     */
+    private void onAppItemInserted(int position) {
+        AdapterItem item = mAdapterItems.get(position);
+        AdapterItem prev = position > getFirstAppPosition() ? mAdapterItems.get(position - 1) : null;
+        AdapterItem next = position + 1 < mAdapterItems.size()
+                ? mAdapterItems.get(position + 1) : null;
+
+        if (prev != null && prev.sectionName.equals(item.sectionName)) {
+            // Part of the section of the previous app.
+            return;
+        }
+        if (next != null && next.sectionName.equals(item.sectionName)) {
+            // Now the first item of the section of the next app.
+            mFastScrollerSections.get(indexOfFastScrollSection(next)).fastScrollToItem = item;
+            return;
+        }
+
+        int sectionIndex = prev != null ? findFastScrollSection(position - 1) + 1
+                : (mPredictedApps.isEmpty() ? 0 : 1);
+        FastScrollSectionInfo info = new FastScrollSectionInfo(item.sectionName);
+        info.fastScrollToItem = item;
+        mFastScrollerSections.add(sectionIndex, info);
+        if (prev != null && next != null && prev.sectionName.equals(next.sectionName)) {
+            // The item splits the section of the previous and next apps in two.
+            FastScrollSectionInfo nextInfo = new FastScrollSectionInfo(next.sectionName);
+            nextInfo.fastScrollToItem = next;
+            mFastScrollerSections.add(sectionIndex + 1, nextInfo);
+        }
+    }
+
+    /**
+     * Updates the fast scroller sections after {@param item} was removed from {@param position}.
+     */
+    private void onAppItemRemoved(AdapterItem item, int position) {
+        AdapterItem prev = position > getFirstAppPosition() ? mAdapterItems.get(position - 1) : null;
+        AdapterItem next = position < mAdapterItems.size() ? mAdapterItems.get(position) : null;
+
+        if (prev != null && prev.sectionName.equals(item.sectionName)) {
+            // The item was not the first of its section.
+            return;
+        }
+        int sectionIndex = indexOfFastScrollSection(item);
+        if (next != null && next.sectionName.equals(item.sectionName)) {
+            mFastScrollerSections.get(sectionIndex).fastScrollToItem = next;
+            return;
+        }
+
+        mFastScrollerSections.remove(sectionIndex);
+        if (prev != null && next != null && prev.sectionName.equals(next.sectionName)) {
+            // The sections of the previous and next apps are now one.
+            mFastScrollerSections.remove(indexOfFastScrollSection(next));
+        }
+    }
+
+    /**
+     * Returns the index of the fast scroller section containing the app item at
+     * {@param position}.
+     */
+    private int findFastScrollSection(int position) {
+        int firstAppPosition = getFirstAppPosition();
+        String sectionName = mAdapterItems.get(position).sectionName;
+        while (position > firstAppPosition
+                && mAdapterItems.get(position - 1).sectionName.equals(sectionName)) {
+            position--;
+        }
+        return indexOfFastScrollSection(mAdapterItems.get(position));
+    }
+
+    private int indexOfFastScrollSection(AdapterItem firstItem) {
+        for (int i = mFastScrollerSections.size() - 1; i >= 0; i--) {
+            if (mFastScrollerSections.get(i).fastScrollToItem == firstItem) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -407,11 +672,7 @@ public class AlphabeticalAppsList {
         mApps.addAll(mComponentToAppMap.values());
         Collections.sort(mApps, mAppNameComparator);
 
-        // As a special case for some languages (currently only Simplified Chinese), we may need to
-        // coalesce sections
-        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
-        boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
-        if (localeRequiresSectionSorting) {
+        if (requiresSectionSorting()) {
             // Compute the section headers. We use a TreeMap with the section name comparator to
             // ensure that the sections are ordered when we iterate over it later
             TreeMap<String, ArrayList<AppInfo>> sectionMap = new TreeMap<>(new LabelComparator());
@@ -440,11 +701,21 @@ public class AlphabeticalAppsList {
                 getAndUpdateCachedSectionName(info.title);
             }
         }
+        mSearchIndex.setApps(mApps);
 
         // Recompose the set of adapter items from the current set of apps
         updateAdapterItems();
     }
 
+    /**
+     * As a special case for some languages (currently only Simplified Chinese), we may need to
+     * coalesce sections.
+     */
+    private boolean requiresSectionSorting() {
+        Locale curLocale = mContext.getResources().getConfiguration().locale;
+        return curLocale.equals(Locale.SIMPLIFIED_CHINESE);
+    }
+
     /**
      * Updates the set of filtered apps with the current filter.  At this point, we expect
      * mCachedSectionNames to have been calculated for the set of all apps in mApps.
@@ -576,35 +847,41 @@ public class AlphabeticalAppsList {
             }
             mNumAppRowsInAdapter = rowIndex + 1;
 
-            // Pre-calculate all the fast scroller fractions
-            switch (mFastScrollDistributionMode) {
-                case FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION:
-                    float rowFraction = 1f / mNumAppRowsInAdapter;
-                    for (FastScrollSectionInfo info : mFastScrollerSections) {
-                        AdapterItem item = info.fastScrollToItem;
-                        if (!AllAppsGridAdapter.isIconViewType(item.viewType)) {
-                            info.touchFraction = 0f;
-                            continue;
-                        }
-
-                        float subRowFraction = item.rowAppIndex * (rowFraction / mNumAppsPerRow);
-                        info.touchFraction = item.rowIndex * rowFraction + subRowFraction;
+            updateFastScrollFractions();
+        }
+    }
+
+    /**
+     * Pre-calculates all the fast scroller fractions.
+     */
+    private void updateFastScrollFractions() {
+        switch (mFastScrollDistributionMode) {
+            case FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION:
+                float rowFraction = 1f / mNumAppRowsInAdapter;
+                for (FastScrollSectionInfo info : mFastScrollerSections) {
+                    AdapterItem item = info.fastScrollToItem;
+                    if (!AllAppsGridAdapter.isIconViewType(item.viewType)) {
+                        info.touchFraction = 0f;
+                        continue;
                     }
-                    break;
-                case FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS:
-                    float perSectionTouchFraction = 1f / mFastScrollerSections.size();
-                    float cumulativeTouchFraction = 0f;
-                    for (FastScrollSectionInfo info : mFastScrollerSections) {
-                        AdapterItem item = info.fastScrollToItem;
-                        if (!AllAppsGridAdapter.isIconViewType(item.viewType)) {
-                            info.touchFraction = 0f;
-                            continue;
-                        }
-                        info.touchFraction = cumulativeTouchFraction;
-                        cumulativeTouchFraction += perSectionTouchFraction;
+
+                    float subRowFraction = item.rowAppIndex * (rowFraction / mNumAppsPerRow);
+                    info.touchFraction = item.rowIndex * rowFraction + subRowFraction;
+                }
+                break;
+            case FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS:
+                float perSectionTouchFraction = 1f / mFastScrollerSections.size();
+                float cumulativeTouchFraction = 0f;
+                for (FastScrollSectionInfo info : mFastScrollerSections) {
+                    AdapterItem item = info.fastScrollToItem;
+                    if (!AllAppsGridAdapter.isIconViewType(item.viewType)) {
+                        info.touchFraction = 0f;
+                        continue;
                     }
-                    break;
-            }
+                    info.touchFraction = cumulativeTouchFraction;
+                    cumulativeTouchFraction += perSectionTouchFraction;
+                }
+                break;
         }
     }
 
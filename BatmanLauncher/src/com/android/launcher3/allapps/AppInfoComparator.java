@@ -54,7 +54,9 @@ public class AppInfoComparator implements Comparator<AppInfo> {
             return result;
         }
 
-        if (mMyUser.equals(a.user)) {
+        if (a.user.equals(b.user)) {
+            return 0;
+        } else if (mMyUser.equals(a.user)) {
             return -1;
         } else {
             Long aUserSerial = mUserManager.getSerialNumberForUser(a.user);
@@ -130,7 +130,9 @@ public class AppsSearchContainerLayout extends FrameLayout implements SearchUiMa
         mAppsRecyclerView = recyclerView;
         mAppsRecyclerView.addOnScrollListener(mElevationController);
         mAdapter = (AllAppsGridAdapter) mAppsRecyclerView.getAdapter();
-        mSearchBarController.initialize(new DefaultAppSearchAlgorithm(appsList.getApps()), mSearchInput, mLauncher, this);
+        mSearchBarController.initialize(
+                new BackgroundAppSearchAlgorithm(appsList.getSearchIndex()), mSearchInput,
+                mLauncher, this);
     }
 
     @Override
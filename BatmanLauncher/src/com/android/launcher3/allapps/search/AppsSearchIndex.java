@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.StringMatcher;
+import com.android.launcher3.util.ComponentKey;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Precomputed index over the app titles, used by {@link DefaultAppSearchAlgorithm}.
+ *
+ * Every word break of every title (as defined by {@link DefaultAppSearchAlgorithm#isBreak}) is
+ * stored as the collation key of the title from that break onwards, in a sorted list. A query then
+ * matches the contiguous range of keys between the query and the query followed by the largest
+ * unicode character, which is found with a binary search instead of comparing every title.
+ *
+ * The index is updated lazily: {@link #setApps} only publishes the new list, without waiting for
+ * a running search, and the next search re-tokenizes the apps which were added or renamed since
+ * the last search.
+ */
+public class AppsSearchIndex {
+
+    private static final char MAX_UNICODE = '\uFFFF';
+
+    // Number of candidates checked between two polls of the cancellation check.
+    private static final int CANCELLATION_CHECK_INTERVAL = 32;
+
+    /**
+     * Polled while searching, to abandon a search whose result is no longer needed.
+     */
+    public interface CancellationCheck {
+        boolean isCancelled();
+    }
+
+    private static final CancellationCheck NEVER_CANCELLED = new CancellationCheck() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private static class Entry {
+        final ComponentKey key;
+        final String title;
+        // Position in the sorted list of apps, used to return results in the all apps order.
+        int rank;
+        // Id of the last search which matched this entry, to report it only once per search.
+        int lastMatch;
+
+        Entry(ComponentKey key, String title) {
+            this.key = key;
+            this.title = title;
+        }
+    }
+
+    private static class Token implements Comparable<Token> {
+        final CollationKey key;
+        final Entry entry;
+        // Offset of the word break in the title.
+        final int offset;
+
+        Token(CollationKey key, Entry entry, int offset) {
+            this.key = key;
+            this.entry = entry;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(Token another) {
+            return key.compareTo(another.key);
+        }
+    }
+
+    private static final Comparator<Entry> RANK_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.rank - rhs.rank;
+        }
+    };
+
+    private final StringMatcher mMatcher = StringMatcher.getInstance();
+
+    private HashMap<ComponentKey, Entry> mEntries = new HashMap<>();
+    private ArrayList<Token> mTokens = new ArrayList<>();
+
+    // Apps set since the last search, or null if the index is up to date. Set without holding
+    // the lock of the index, so that the UI thread does not wait for a background search.
+    private final AtomicReference<ArrayList<AppInfo>> mPendingApps = new AtomicReference<>();
+
+    private int mSearchId;
+    private String mLastQuery;
+    private ArrayList<Entry> mLastResult;
+
+    // Counters for tests and benchmarks.
+    private int mTokenizedCount;
+
+    /**
+     * Sets the apps to index, in the order in which the search results should be returned.
+     */
+    public void setApps(List<AppInfo> apps) {
+        mPendingApps.set(new ArrayList<>(apps));
+    }
+
+    /**
+     * Returns the apps matching {@param query}, in the order they were set.
+     */
+    public ArrayList<ComponentKey> search(String query) {
+        return search(query, NEVER_CANCELLED);
+    }
+
+    /**
+     * Same as {@link #search(String)}, but returns null as soon as {@param check} reports that
+     * the search is cancelled.
+     */
+    public synchronized ArrayList<ComponentKey> search(String query, CancellationCheck check) {
+        applyPendingApps();
+
+        ArrayList<Entry> matches;
+        if (mLastQuery != null && query.startsWith(mLastQuery)) {
+            // The new query can only match a subset of the last full lookup.
+            matches = new ArrayList<>();
+            int count = mLastResult.size();
+            for (int i = 0; i < count; i++) {
+                if (i % CANCELLATION_CHECK_INTERVAL == 0 && check.isCancelled()) {
+                    return null;
+                }
+                Entry entry = mLastResult.get(i);
+                if (DefaultAppSearchAlgorithm.matches(entry.title, query, mMatcher)) {
+                    matches.add(entry);
+                }
+            }
+        } else {
+            matches = lookup(query, check);
+            if (matches == null) {
+                return null;
+            }
+            // Longer queries are narrowed from the result of a full lookup only. A blank query
+            // matches nothing, which is not a superset of anything.
+            if (query.trim().isEmpty()) {
+                mLastQuery = null;
+                mLastResult = null;
+            } else {
+                mLastQuery = query;
+                mLastResult = matches;
+            }
+        }
+
+        ArrayList<ComponentKey> result = new ArrayList<>(matches.size());
+        for (Entry entry : matches) {
+            result.add(entry.key);
+        }
+        return result;
+    }
+
+    private ArrayList<Entry> lookup(String query, CancellationCheck check) {
+        ArrayList<Entry> matches = new ArrayList<>();
+        int queryLength = query.length();
+        if (queryLength == 0) {
+            return matches;
+        }
+        int searchId = ++mSearchId;
+        CollationKey high = mMatcher.getCollationKey(query + MAX_UNICODE);
+        int size = mTokens.size();
+        int start = lowerBound(mMatcher.getCollationKey(query));
+        for (int i = start; i < size; i++) {
+            if ((i - start) % CANCELLATION_CHECK_INTERVAL == 0 && check.isCancelled()) {
+                return null;
+            }
+            Token token = mTokens.get(i);
+            if (token.key.compareTo(high) > 0) {
+                break;
+            }
+            Entry entry = token.entry;
+            // The range is computed on the whole remainder of the title, confirm the match on the
+            // same substring as a linear scan would.
+            if (entry.lastMatch != searchId
+                    && token.offset + queryLength <= entry.title.length()
+                    && mMatcher.matches(query,
+                            entry.title.substring(token.offset, token.offset + queryLength))) {
+                entry.lastMatch = searchId;
+                matches.add(entry);
+            }
+        }
+        Collections.sort(matches, RANK_COMPARATOR);
+        return matches;
+    }
+
+    /**
+     * Returns the index of the first token not smaller than {@param key}.
+     */
+    private int lowerBound(CollationKey key) {
+        int low = 0;
+        int high = mTokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTokens.get(mid).key.compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Brings the index up to date with the pending apps. Only the apps which are new or whose
+     * title changed are tokenized, and their tokens are merged into the existing sorted list.
+     */
+    private void applyPendingApps() {
+        ArrayList<AppInfo> apps = mPendingApps.getAndSet(null);
+        if (apps == null) {
+            return;
+        }
+        HashMap<ComponentKey, Entry> entries = new HashMap<>(apps.size());
+        ArrayList<Token> added = new ArrayList<>();
+        boolean changed = apps.size() != mEntries.size();
+        int count = apps.size();
+        for (int i = 0; i < count; i++) {
+            AppInfo app = apps.get(i);
+            ComponentKey key = app.toComponentKey();
+            String title = app.title == null ? "" : app.title.toString();
+            Entry entry = mEntries.get(key);
+            if (entry == null || !entry.title.equals(title)) {
+                entry = new Entry(key, title);
+                addTokens(entry, added);
+                changed = true;
+            } else if (entry.rank != i) {
+                changed = true;
+            }
+            entry.rank = i;
+            entries.put(key, entry);
+        }
+        if (!changed) {
+            // Same apps in the same order, the previous result can still be narrowed.
+            return;
+        }
+        Collections.sort(added);
+
+        // Merge the new tokens with the ones of the entries which are still current.
+        ArrayList<Token> tokens = new ArrayList<>(mTokens.size() + added.size());
+        int addedIndex = 0;
+        for (Token token : mTokens) {
+            if (entries.get(token.entry.key) != token.entry) {
+                continue;
+            }
+            while (addedIndex < added.size() && added.get(addedIndex).compareTo(token) < 0) {
+                tokens.add(added.get(addedIndex++));
+            }
+            tokens.add(token);
+        }
+        while (addedIndex < added.size()) {
+            tokens.add(added.get(addedIndex++));
+        }
+
+        mEntries = entries;
+        mTokens = tokens;
+        mLastQuery = null;
+        mLastResult = null;
+    }
+
+    private void addTokens(Entry entry, ArrayList<Token> out) {
+        String title = entry.title;
+        int titleLength = title.length();
+        if (titleLength == 0) {
+            return;
+        }
+        mTokenizedCount++;
+
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = Character.getType(title.codePointAt(0));
+        for (int i = 0; i < titleLength; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (titleLength - 1) ?
+                    Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (DefaultAppSearchAlgorithm.isBreak(thisType, lastType, nextType)) {
+                out.add(new Token(mMatcher.getCollationKey(title.substring(i)), entry, i));
+            }
+        }
+    }
+
+    synchronized int getTokenCount() {
+        return mTokens.size();
+    }
+
+    synchronized int getTokenizedCount() {
+        return mTokenizedCount;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LatencyHistogram;
+import com.android.launcher3.util.LogConfig;
+import com.android.launcher3.util.Thunk;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Search implementation which matches the apps on a background thread.
+ *
+ * Every request gets a new generation. A search polls the generation while scanning the index,
+ * and stops as soon as a newer request was made, so that only the result of the latest request
+ * is ever delivered to the callback. Requests made in quick succession are coalesced, the search
+ * running at most {@link #DEBOUNCE_MS} after the first one.
+ *
+ * Enable latency logging with: adb shell setprop log.tag.SearchLatency VERBOSE
+ */
+public class BackgroundAppSearchAlgorithm implements SearchAlgorithm {
+
+    private static final String TAG = LogConfig.SEARCH_LATENCY;
+
+    // Requests made within this delay of the previous one wait for the typing to settle.
+    private static final int DEBOUNCE_MS = 50;
+
+    private static final Object sLock = new Object();
+    private static Handler sSearchHandler;
+
+    @Thunk final AppsSearchIndex mIndex;
+    @Thunk final Handler mResultHandler;
+    @Thunk final AtomicInteger mGeneration = new AtomicInteger();
+    @Thunk final LatencyHistogram mLatency =
+            new LatencyHistogram("Search latency", 8, 16, 33, 66, 133, 266);
+    @Thunk final boolean mLogLatency = Utilities.isPropertyEnabled(LogConfig.SEARCH_LATENCY);
+
+    // Accessed only on the main thread
+    private SearchTask mPendingTask;
+    private long mLastRequestTime;
+
+    public BackgroundAppSearchAlgorithm(AppsSearchIndex index) {
+        mIndex = index;
+        mResultHandler = new Handler();
+    }
+
+    @Override
+    public void doSearch(String query, AllAppsSearchBarController.Callbacks callback) {
+        long now = SystemClock.uptimeMillis();
+        Handler handler = getSearchHandler();
+
+        long runAt = now;
+        if (mPendingTask != null && !mPendingTask.mStarted) {
+            // Replace the pending request, without pushing it back further.
+            handler.removeCallbacks(mPendingTask);
+            runAt = mPendingTask.mRunAt;
+        } else if (now - mLastRequestTime < DEBOUNCE_MS) {
+            runAt = now + DEBOUNCE_MS;
+        }
+        mLastRequestTime = now;
+
+        mPendingTask = new SearchTask(query, callback, mGeneration.incrementAndGet(), now, runAt);
+        handler.postAtTime(mPendingTask, runAt);
+    }
+
+    @Override
+    public void cancel(boolean interruptActiveRequests) {
+        // A new request always supersedes the previous ones, there is nothing else to cancel.
+        if (interruptActiveRequests) {
+            mGeneration.incrementAndGet();
+            if (mPendingTask != null) {
+                getSearchHandler().removeCallbacks(mPendingTask);
+                mPendingTask = null;
+            }
+            mResultHandler.removeCallbacksAndMessages(null);
+
+            if (mLogLatency && mLatency.getCount() > 0) {
+                Log.d(TAG, mLatency.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the distribution of the time from a request to the delivery of its result.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return mLatency;
+    }
+
+    private static Handler getSearchHandler() {
+        synchronized (sLock) {
+            if (sSearchHandler == null) {
+                HandlerThread thread = new HandlerThread("launcher-search",
+                        Process.THREAD_PRIORITY_FOREGROUND);
+                thread.start();
+                sSearchHandler = new Handler(thread.getLooper());
+            }
+        }
+        return sSearchHandler;
+    }
+
+    private class SearchTask implements Runnable, AppsSearchIndex.CancellationCheck {
+
+        private final String mQuery;
+        private final AllAppsSearchBarController.Callbacks mCallback;
+        private final int mTaskGeneration;
+        private final long mRequestTime;
+        @Thunk final long mRunAt;
+        @Thunk volatile boolean mStarted;
+
+        SearchTask(String query, AllAppsSearchBarController.Callbacks callback, int generation,
+                long requestTime, long runAt) {
+            mQuery = query;
+            mCallback = callback;
+            mTaskGeneration = generation;
+            mRequestTime = requestTime;
+            mRunAt = runAt;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mGeneration.get() != mTaskGeneration;
+        }
+
+        @Override
+        public void run() {
+            mStarted = true;
+            if (isCancelled()) {
+                return;
+            }
+            final ArrayList<ComponentKey> result = mIndex.search(mQuery.toLowerCase(), this);
+            if (result == null) {
+                // Pre-empted by a newer request.
+                return;
+            }
+            mResultHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    long latency = SystemClock.uptimeMillis() - mRequestTime;
+                    mLatency.record(latency);
+                    if (mLogLatency) {
+                        Log.d(TAG, mQuery.length() + " chars query: " + result.size()
+                                + " results in " + latency + "ms");
+                    }
+                    mCallback.onSearchResult(mQuery, result);
+                }
+            });
+        }
+    }
+}
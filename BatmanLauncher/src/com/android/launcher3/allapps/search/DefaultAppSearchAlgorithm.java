@@ -20,6 +20,7 @@ import android.os.Handler;
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.util.ComponentKey;
 
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,10 +31,29 @@ import java.util.List;
 public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
 
     private final List<AppInfo> mApps;
+    private final AppsSearchIndex mIndex;
     protected final Handler mResultHandler;
 
+    // The apps and titles last set on the index, to detect changes to mApps.
+    private AppInfo[] mIndexedApps;
+    private CharSequence[] mIndexedTitles;
+
+    /**
+     * Creates an algorithm searching the given list of apps. Since changes to the list are not
+     * reported, the list is compared with the indexed apps on every search.
+     */
     public DefaultAppSearchAlgorithm(List<AppInfo> apps) {
         mApps = apps;
+        mIndex = new AppsSearchIndex();
+        mResultHandler = new Handler();
+    }
+
+    /**
+     * Creates an algorithm searching an index which is kept up to date by its owner.
+     */
+    public DefaultAppSearchAlgorithm(AppsSearchIndex index) {
+        mApps = null;
+        mIndex = index;
         mResultHandler = new Handler();
     }
 
@@ -58,23 +78,45 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
     }
 
     private ArrayList<ComponentKey> getTitleMatchResult(String query) {
-        // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
-        final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        StringMatcher matcher = StringMatcher.getInstance();
-        for (AppInfo info : mApps) {
-            if (matches(info, queryTextLower, matcher)) {
-                result.add(info.toComponentKey());
+        if (mApps != null && appsChanged()) {
+            int count = mApps.size();
+            mIndexedApps = mApps.toArray(new AppInfo[count]);
+            mIndexedTitles = new CharSequence[count];
+            for (int i = 0; i < count; i++) {
+                mIndexedTitles[i] = mIndexedApps[i].title;
+            }
+            mIndex.setApps(mApps);
+        }
+        return mIndex.search(query.toLowerCase());
+    }
+
+    /**
+     * Returns true if an app was added, removed or retitled since the apps were last indexed.
+     */
+    private boolean appsChanged() {
+        int count = mApps.size();
+        if (mIndexedApps == null || mIndexedApps.length != count) {
+            return true;
+        }
+        for (int i = 0; i < count; i++) {
+            AppInfo app = mApps.get(i);
+            if (app != mIndexedApps[i] || app.title != mIndexedTitles[i]) {
+                return true;
             }
         }
-        return result;
+        return false;
     }
 
     public static boolean matches(AppInfo info, String query, StringMatcher matcher) {
-        int queryLength = query.length();
+        return matches(info.title.toString(), query, matcher);
+    }
 
-        String title = info.title.toString();
+    /**
+     * Returns true if {@param query} is a prefix of the part of {@param title} starting at any of
+     * its break points.
+     */
+    static boolean matches(String title, String query, StringMatcher matcher) {
+        int queryLength = query.length();
         int titleLength = title.length();
 
         if (titleLength < queryLength || queryLength <= 0) {
@@ -107,7 +149,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
      *      3) Any capital character after a digit or small character
      *      4) Any capital character before a small character
      */
-    private static boolean isBreak(int thisType, int prevType, int nextType) {
+    static boolean isBreak(int thisType, int prevType, int nextType) {
         switch (prevType) {
             case Character.UNASSIGNED:
             case Character.SPACE_SEPARATOR:
@@ -177,6 +219,14 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
             }
         }
 
+        /**
+         * Returns the key of {@param source} with the same ordering as {@link #matches}, to
+         * compare a string against many others without repeating its decomposition.
+         */
+        CollationKey getCollationKey(String source) {
+            return mCollator.getCollationKey(source);
+        }
+
         public static StringMatcher getInstance() {
             return new StringMatcher();
         }
@@ -115,6 +115,10 @@ public class BadgeInfo {
         mNotificationIcon = null;
     }
 
+    public @Nullable NotificationInfo getNotificationToShow() {
+        return mNotificationInfo;
+    }
+
     public boolean hasNotificationToShow() {
         return mNotificationInfo != null;
     }
@@ -35,6 +35,10 @@ abstract class BaseFlags {
     public static boolean LAUNCHER3_LEGACY_FOLDER_ICON = false;
     public static boolean LAUNCHER3_DISABLE_PINCH_TO_OVERVIEW = false;
     public static boolean LAUNCHER3_NEW_FOLDER_ANIMATION = true;
+    // When enabled, the loader runs its independent system queries on a background pool.
+    public static boolean LAUNCHER3_PARALLEL_LOADER = true;
+    // When enabled, user events are also written to a binary ring file, see BinaryEventSink.
+    public static boolean LAUNCHER3_USER_EVENT_FILE = false;
     // When enabled allows to use any point on the fast scrollbar to start dragging.
     public static final boolean LAUNCHER3_DIRECT_SCROLL = true;
     // When enabled while all-apps open, the soft input will be set to adjust resize .
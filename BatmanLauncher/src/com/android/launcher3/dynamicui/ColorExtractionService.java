@@ -30,6 +30,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.v7.graphics.Palette;
 import android.util.Log;
 
@@ -40,6 +41,7 @@ import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 
 import java.io.IOException;
+import java.util.Locale;
 
 /**
  * Extracts colors from the wallpaper, and saves results to {@link LauncherProvider}.
@@ -52,6 +54,12 @@ public class ColorExtractionService extends JobService {
     /** The fraction of the wallpaper to extract colors for use on the hotseat. */
     private static final float HOTSEAT_FRACTION = 1f / 4;
 
+    /**
+     * The maximum number of pixels of the wallpaper used for extraction. The wallpaper is
+     * downsampled at decode time, while keeping a few rows for the status bar.
+     */
+    private static final int MAX_EXTRACTION_AREA = 256 * 256;
+
     private HandlerThread mWorkerThread;
     private Handler mWorkerHandler;
 
@@ -88,16 +96,37 @@ public class ColorExtractionService extends JobService {
                         extractedColors.updateWallpaperThemePalette(null);
                     }
                 } else {
+                    long startTime = SystemClock.uptimeMillis();
+                    int[] sourceSize = new int[2];
+                    Bitmap wallpaper = loadWallpaperSample(wallpaperManager, sourceSize);
+
                     // We extract colors for the hotseat and status bar separately,
                     // since they only consider part of the wallpaper.
-                    extractedColors.updateHotseatPalette(getHotseatPalette());
+                    extractedColors.updateHotseatPalette(
+                            wallpaper == null ? null : getHotseatPalette(wallpaper));
 
                     if (FeatureFlags.LIGHT_STATUS_BAR) {
-                        extractedColors.updateStatusBarPalette(getStatusBarPalette());
+                        extractedColors.updateStatusBarPalette(wallpaper == null ? null
+                                : getStatusBarPalette(wallpaper,
+                                        (float) wallpaper.getHeight() / sourceSize[1]));
                     }
 
                     if (FeatureFlags.QSB_IN_HOTSEAT || FeatureFlags.LAUNCHER3_GRADIENT_ALL_APPS) {
-                        extractedColors.updateWallpaperThemePalette(getWallpaperPalette());
+                        extractedColors.updateWallpaperThemePalette(
+                                wallpaper == null ? null : getWallpaperPalette(wallpaper));
+                    }
+
+                    if (wallpaper != null) {
+                        // The decoded bitmap is the largest allocation of the job, Palette only
+                        // adds a copy of the pixels of the region it is working on.
+                        Log.d(TAG, String.format(Locale.US,
+                                "Extracted colors from %dx%d wallpaper at %dx%d in %dms, "
+                                        + "decoded %dkb",
+                                sourceSize[0], sourceSize[1],
+                                wallpaper.getWidth(), wallpaper.getHeight(),
+                                SystemClock.uptimeMillis() - startTime,
+                                wallpaper.getByteCount() / 1024));
+                        wallpaper.recycle();
                     }
                 }
 
@@ -124,81 +153,77 @@ public class ColorExtractionService extends JobService {
         return true;
     }
 
+    /**
+     * Returns a copy of the wallpaper of at most {@link #MAX_EXTRACTION_AREA} pixels, decoded once
+     * and shared by all the palettes, or null if the wallpaper could not be loaded.
+     *
+     * @param outSourceSize set to the width and height of the original wallpaper.
+     */
     @TargetApi(Build.VERSION_CODES.N)
-    private Palette getHotseatPalette() {
-        WallpaperManager wallpaperManager = WallpaperManager.getInstance(this);
+    private Bitmap loadWallpaperSample(WallpaperManager wallpaperManager, int[] outSourceSize) {
         if (Utilities.ATLEAST_NOUGAT) {
             try (ParcelFileDescriptor fd = wallpaperManager
                     .getWallpaperFile(WallpaperManager.FLAG_SYSTEM)) {
                 BitmapRegionDecoder decoder = BitmapRegionDecoder
                         .newInstance(fd.getFileDescriptor(), false);
-                int height = decoder.getHeight();
-                Rect decodeRegion = new Rect(0, (int) (height * (1f - HOTSEAT_FRACTION)),
-                        decoder.getWidth(), height);
-                Bitmap bitmap = decoder.decodeRegion(decodeRegion, null);
+                outSourceSize[0] = decoder.getWidth();
+                outSourceSize[1] = decoder.getHeight();
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = ExtractionUtils.getSampleSize(
+                        outSourceSize[0], outSourceSize[1], MAX_EXTRACTION_AREA);
+                Bitmap bitmap = decoder.decodeRegion(
+                        new Rect(0, 0, outSourceSize[0], outSourceSize[1]), options);
                 decoder.recycle();
                 if (bitmap != null) {
-                    return Palette.from(bitmap).clearFilters().generate();
+                    return bitmap;
                 }
             } catch (IOException | NullPointerException e) {
                 Log.e(TAG, "Fetching partial bitmap failed, trying old method", e);
             }
         }
 
-        Bitmap wallpaper = ((BitmapDrawable) wallpaperManager.getDrawable()).getBitmap();
-        return Palette.from(wallpaper)
+        BitmapDrawable drawable = (BitmapDrawable) wallpaperManager.getDrawable();
+        if (drawable == null) {
+            return null;
+        }
+        // The wallpaper is already in memory, only scale it down once for all the palettes.
+        Bitmap wallpaper = drawable.getBitmap();
+        outSourceSize[0] = wallpaper.getWidth();
+        outSourceSize[1] = wallpaper.getHeight();
+        int sampleSize = ExtractionUtils.getSampleSize(
+                outSourceSize[0], outSourceSize[1], MAX_EXTRACTION_AREA);
+        if (sampleSize == 1) {
+            return wallpaper.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        return Bitmap.createScaledBitmap(wallpaper, Math.max(1, outSourceSize[0] / sampleSize),
+                Math.max(1, outSourceSize[1] / sampleSize), true);
+    }
+
+    private Palette getHotseatPalette(Bitmap wallpaper) {
+        return newPalette(wallpaper)
                 .setRegion(0, (int) (wallpaper.getHeight() * (1f - HOTSEAT_FRACTION)),
                         wallpaper.getWidth(), wallpaper.getHeight())
-                .clearFilters()
                 .generate();
     }
 
-    @TargetApi(Build.VERSION_CODES.N)
-    private Palette getStatusBarPalette() {
-        WallpaperManager wallpaperManager = WallpaperManager.getInstance(this);
+    /**
+     * @param scale the ratio between the size of {@param wallpaper} and the original wallpaper.
+     */
+    private Palette getStatusBarPalette(Bitmap wallpaper, float scale) {
         int statusBarHeight = getResources()
                 .getDimensionPixelSize(R.dimen.status_bar_height);
-
-        if (Utilities.ATLEAST_NOUGAT) {
-            try (ParcelFileDescriptor fd = wallpaperManager
-                    .getWallpaperFile(WallpaperManager.FLAG_SYSTEM)) {
-                BitmapRegionDecoder decoder = BitmapRegionDecoder
-                        .newInstance(fd.getFileDescriptor(), false);
-                Rect decodeRegion = new Rect(0, 0,
-                        decoder.getWidth(), statusBarHeight);
-                Bitmap bitmap = decoder.decodeRegion(decodeRegion, null);
-                decoder.recycle();
-                if (bitmap != null) {
-                    return Palette.from(bitmap).clearFilters().generate();
-                }
-            } catch (IOException | NullPointerException e) {
-                Log.e(TAG, "Fetching partial bitmap failed, trying old method", e);
-            }
-        }
-
-        Bitmap wallpaper = ((BitmapDrawable) wallpaperManager.getDrawable()).getBitmap();
-        return Palette.from(wallpaper)
-                .setRegion(0, 0, wallpaper.getWidth(), statusBarHeight)
-                .clearFilters()
+        int regionHeight = Math.min(wallpaper.getHeight(),
+                Math.max(1, (int) Math.ceil(statusBarHeight * scale)));
+        return newPalette(wallpaper)
+                .setRegion(0, 0, wallpaper.getWidth(), regionHeight)
                 .generate();
     }
 
-    @TargetApi(Build.VERSION_CODES.N)
-    private Palette getWallpaperPalette() {
-        WallpaperManager wallpaperManager = WallpaperManager.getInstance(this);
-        if (Utilities.ATLEAST_NOUGAT) {
-            try (ParcelFileDescriptor fd = wallpaperManager
-                    .getWallpaperFile(WallpaperManager.FLAG_SYSTEM)) {
-                Bitmap bitmap = BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor());
-                if (bitmap != null) {
-                    return Palette.from(bitmap).clearFilters().generate();
-                }
-            } catch (IOException | NullPointerException e) {
-                Log.e(TAG, "Fetching partial bitmap failed, trying old method", e);
-            }
-        }
+    private Palette getWallpaperPalette(Bitmap wallpaper) {
+        return newPalette(wallpaper).generate();
+    }
 
-        Bitmap wallpaper = ((BitmapDrawable) wallpaperManager.getDrawable()).getBitmap();
-        return Palette.from(wallpaper).clearFilters().generate();
+    private static Palette.Builder newPalette(Bitmap wallpaper) {
+        return Palette.from(wallpaper).clearFilters();
     }
 }
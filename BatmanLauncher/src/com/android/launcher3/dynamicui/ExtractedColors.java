@@ -153,7 +153,11 @@ public class ExtractedColors {
         setColorAtIndex(HOTSEAT_INDEX, hotseatColor);
     }
 
-    public void updateStatusBarPalette(Palette statusBarPalette) {
+    public void updateStatusBarPalette(@Nullable Palette statusBarPalette) {
+        if (statusBarPalette == null) {
+            setColorAtIndex(STATUS_BAR_INDEX, DEFAULT_VALUES[STATUS_BAR_INDEX]);
+            return;
+        }
         setColorAtIndex(STATUS_BAR_INDEX, ExtractionUtils.isSuperLight(statusBarPalette) ?
                 DEFAULT_LIGHT : DEFAULT_DARK);
     }
@@ -91,6 +91,18 @@ public class ExtractionUtils {
                 wallpaperManager.getWallpaperId(WallpaperManager.FLAG_SYSTEM) : -1;
     }
 
+    /**
+     * Returns the smallest power of 2 sample size at which an image of the given size fits in
+     * {@param maxArea} pixels, to be used as {@link android.graphics.BitmapFactory.Options#inSampleSize}.
+     */
+    public static int getSampleSize(int width, int height, int maxArea) {
+        int sampleSize = 1;
+        while ((long) (width / sampleSize) * (height / sampleSize) > maxArea) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     public static boolean isSuperLight(Palette p) {
         return !isLegibleOnWallpaper(Color.WHITE, p.getSwatches());
     }
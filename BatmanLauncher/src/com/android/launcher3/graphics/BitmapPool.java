@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of mutable bitmaps which are no longer displayed, to be reused instead of allocating new
+ * ones. The pool is bounded by the size of its bitmaps, the least recently released ones being
+ * dropped first.
+ */
+public class BitmapPool {
+
+    private final long mMaxBytes;
+    // Most recently released bitmaps last.
+    private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+    private long mBytes;
+
+    private long mHits;
+    private long mMisses;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a pooled ARGB_8888 bitmap of the given size, or a new one if there is none. A
+     * pooled bitmap of a different size is reconfigured if its allocation is large enough, but
+     * not wastefully large. The returned bitmap is not cleared.
+     */
+    public Bitmap acquire(int width, int height) {
+        int requiredBytes = width * height * 4;
+        synchronized (mBitmaps) {
+            Bitmap candidate = null;
+            Iterator<Bitmap> it = mBitmaps.descendingIterator();
+            while (it.hasNext()) {
+                Bitmap bitmap = it.next();
+                if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                    continue;
+                }
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    candidate = bitmap;
+                    break;
+                }
+                int bytes = bitmap.getAllocationByteCount();
+                if (candidate == null && bytes >= requiredBytes && bytes <= 2 * requiredBytes) {
+                    candidate = bitmap;
+                }
+            }
+            if (candidate != null) {
+                mBitmaps.remove(candidate);
+                mBytes -= candidate.getAllocationByteCount();
+                mHits++;
+                if (candidate.getWidth() != width || candidate.getHeight() != height) {
+                    candidate.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                }
+                return candidate;
+            }
+            mMisses++;
+        }
+        // Creating a bitmap is expensive, do not do this while holding the lock.
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a bitmap to the pool. The caller must not use it afterwards.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        if (bytes > mMaxBytes) {
+            return;
+        }
+        synchronized (mBitmaps) {
+            if (mBitmaps.contains(bitmap)) {
+                return;
+            }
+            mBitmaps.addLast(bitmap);
+            mBytes += bytes;
+            while (mBytes > mMaxBytes) {
+                mBytes -= mBitmaps.removeFirst().getAllocationByteCount();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (mBitmaps) {
+            mBitmaps.clear();
+            mBytes = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mBitmaps) {
+            return "BitmapPool: bitmaps=" + mBitmaps.size() + " bytes=" + mBytes + "/" + mMaxBytes
+                    + " hits=" + mHits + " misses=" + mMisses;
+        }
+    }
+}
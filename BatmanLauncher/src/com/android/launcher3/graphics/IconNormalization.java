@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.graphics.RectF;
+import android.os.Build;
+import android.text.TextUtils;
+
+/**
+ * The result of the {@link IconNormalizer} passes made for an icon, so that they can be reused
+ * when the same icon is generated again.
+ */
+public class IconNormalization {
+
+    private static final String SEPARATOR = ",";
+
+    /** The scale of the original drawable, 0 if it was not computed. */
+    public float scale;
+    /** The fraction distance of the visible icon from each edge. */
+    public final RectF bounds = new RectF();
+    /** Whether the original drawable has the same shape as the adaptive icon mask. */
+    public boolean isMaskShape;
+    /**
+     * The scale of the adaptive icon wrapping the original drawable, 0 if it was not wrapped.
+     */
+    public float wrappedScale;
+
+    public boolean isValid() {
+        return scale > 0;
+    }
+
+    /**
+     * Returns a string which can be used with {@link #unflattenFromString}. It includes the
+     * platform version, as a different platform may treat the icons differently.
+     */
+    public String flattenToString() {
+        return TextUtils.join(SEPARATOR, new Object[] {
+                Build.VERSION.SDK_INT, scale, wrappedScale, isMaskShape ? 1 : 0,
+                bounds.left, bounds.top, bounds.right, bounds.bottom});
+    }
+
+    /**
+     * @return the normalization in {@param str}, or null if it is malformed or was computed on a
+     *         different platform version.
+     */
+    public static IconNormalization unflattenFromString(String str) {
+        if (TextUtils.isEmpty(str)) {
+            return null;
+        }
+        String[] parts = str.split(SEPARATOR);
+        if (parts.length != 8) {
+            return null;
+        }
+        try {
+            if (Integer.parseInt(parts[0]) != Build.VERSION.SDK_INT) {
+                return null;
+            }
+            IconNormalization normalization = new IconNormalization();
+            normalization.scale = Float.parseFloat(parts[1]);
+            normalization.wrappedScale = Float.parseFloat(parts[2]);
+            normalization.isMaskShape = Integer.parseInt(parts[3]) != 0;
+            normalization.bounds.set(Float.parseFloat(parts[4]), Float.parseFloat(parts[5]),
+                    Float.parseFloat(parts[6]), Float.parseFloat(parts[7]));
+            return normalization.isValid() ? normalization : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -32,13 +32,16 @@ import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
-import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.Utilities;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Random;
 
+/**
+ * Computes the scale to apply to an icon so that it is visually normalized with other icons.
+ * Instances hold scratch buffers and are not thread safe, see {@link IconRenderContext}.
+ */
 public class IconNormalizer {
 
     private static final String TAG = "IconNormalizer";
@@ -61,9 +64,6 @@ public class IconNormalizer {
     private static final float PIXEL_DIFF_PERCENTAGE_THRESHOLD = 0.005f;
     private static final float SCALE_NOT_INITIALIZED = 0;
 
-    private static final Object LOCK = new Object();
-    private static IconNormalizer sIconNormalizer;
-
     private final int mMaxSize;
     private final Bitmap mBitmap;
     private final Bitmap mBitmapARGB;
@@ -79,6 +79,8 @@ public class IconNormalizer {
     // for each y, stores the position of the leftmost x and the rightmost x
     private final float[] mLeftBorder;
     private final float[] mRightBorder;
+    // The tangent at each pixel, used by convertToConvexArray
+    private final float[] mAngles;
     private final Rect mBounds;
     private final Matrix mMatrix;
 
@@ -89,15 +91,16 @@ public class IconNormalizer {
     private int mFileId;
     private final Random mRandom;
 
-    private IconNormalizer(Context context) {
+    IconNormalizer(Context context, int iconBitmapSize) {
         // Use twice the icon size as maximum size to avoid scaling down twice.
-        mMaxSize = LauncherAppState.getIDP(context).iconBitmapSize * 2;
+        mMaxSize = iconBitmapSize * 2;
         mBitmap = Bitmap.createBitmap(mMaxSize, mMaxSize, Bitmap.Config.ALPHA_8);
         mCanvas = new Canvas(mBitmap);
         mPixels = new byte[mMaxSize * mMaxSize];
         mPixelsARGB = new int[mMaxSize * mMaxSize];
         mLeftBorder = new float[mMaxSize];
         mRightBorder = new float[mMaxSize];
+        mAngles = new float[mMaxSize - 1];
         mBounds = new Rect();
         mAdaptiveIconBounds = new Rect();
 
@@ -229,7 +232,7 @@ public class IconNormalizer {
      *
      * @param outBounds optional rect to receive the fraction distance from each edge.
      */
-    public synchronized float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
+    public float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
             @Nullable Path path, @Nullable boolean[] outMaskShape) {
         if (Utilities.ATLEAST_OREO && d instanceof AdaptiveIconDrawable &&
                 mAdaptiveIconScale != SCALE_NOT_INITIALIZED) {
@@ -307,8 +310,8 @@ public class IconNormalizer {
             return 1;
         }
 
-        convertToConvexArray(mLeftBorder, 1, topY, bottomY);
-        convertToConvexArray(mRightBorder, -1, topY, bottomY);
+        convertToConvexArray(mLeftBorder, mAngles, 1, topY, bottomY);
+        convertToConvexArray(mRightBorder, mAngles, -1, topY, bottomY);
 
         // Area of the convex hull
         float area = 0;
@@ -359,16 +362,13 @@ public class IconNormalizer {
      * Modifies {@param xCoordinates} to represent a convex border. Fills in all missing values
      * (except on either ends) with appropriate values.
      * @param xCoordinates map of x coordinate per y.
+     * @param angles scratch buffer, at least as large as {@param xCoordinates} minus one.
      * @param direction 1 for left border and -1 for right border.
      * @param topY the first Y position (inclusive) with a valid value.
      * @param bottomY the last Y position (inclusive) with a valid value.
      */
     private static void convertToConvexArray(
-            float[] xCoordinates, int direction, int topY, int bottomY) {
-        int total = xCoordinates.length;
-        // The tangent at each pixel.
-        float[] angles = new float[total - 1];
-
+            float[] xCoordinates, float[] angles, int direction, int topY, int bottomY) {
         int first = topY; // First valid y coordinate
         int last = -1;    // Last valid y coordinate which didn't have a missing value
 
@@ -408,13 +408,4 @@ public class IconNormalizer {
             last = i;
         }
     }
-
-    public static IconNormalizer getInstance(Context context) {
-        synchronized (LOCK) {
-            if (sIconNormalizer == null) {
-                sIconNormalizer = new IconNormalizer(context);
-            }
-        }
-        return sIconNormalizer;
-    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.Rect;
+import android.os.Looper;
+
+import com.android.launcher3.LauncherAppState;
+
+import java.util.ArrayList;
+
+/**
+ * The objects needed to render an icon: a canvas, an {@link IconNormalizer} and a
+ * {@link ShadowGenerator}, along with their scratch buffers.
+ *
+ * A context is confined to the thread which obtained it until it is recycled, so that icons can
+ * be rendered on several threads at once without sharing any lock. Contexts are pooled, as the
+ * normalizer buffers are too large to be allocated for every icon, and the normalizer and shadow
+ * generator are only created once a context needs them. The UI thread keeps a context of its
+ * own, so that it never allocates one while the background threads hold the pooled ones.
+ */
+public class IconRenderContext {
+
+    // Enough for the threads which render icons at the same time, others allocate a new context.
+    private static final int MAX_POOL_SIZE = 2;
+
+    private static final ArrayList<IconRenderContext> sPool = new ArrayList<>();
+
+    // Only accessed on the UI thread.
+    private static IconRenderContext sUiContext;
+
+    public final int iconBitmapSize;
+    public final Canvas canvas;
+    public final Rect oldBounds = new Rect();
+
+    private final Context mContext;
+    private IconNormalizer mNormalizer;
+    private ShadowGenerator mShadowGenerator;
+    private boolean mInUse;
+
+    private IconRenderContext(Context context, int iconBitmapSize) {
+        this.iconBitmapSize = iconBitmapSize;
+        mContext = context.getApplicationContext();
+        canvas = new Canvas();
+        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                Paint.FILTER_BITMAP_FLAG));
+    }
+
+    public IconNormalizer getNormalizer() {
+        if (mNormalizer == null) {
+            mNormalizer = new IconNormalizer(mContext, iconBitmapSize);
+        }
+        return mNormalizer;
+    }
+
+    public ShadowGenerator getShadowGenerator() {
+        if (mShadowGenerator == null) {
+            mShadowGenerator = new ShadowGenerator(iconBitmapSize);
+        }
+        return mShadowGenerator;
+    }
+
+    /**
+     * Returns a context for the current icon size. It must be given back with {@link #recycle}
+     * once the icon is rendered, and not be used afterwards.
+     */
+    public static IconRenderContext obtain(Context context) {
+        int iconBitmapSize = LauncherAppState.getIDP(context).iconBitmapSize;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            if (sUiContext == null || sUiContext.iconBitmapSize != iconBitmapSize) {
+                sUiContext = new IconRenderContext(context, iconBitmapSize);
+            }
+            // Nested renders on the UI thread fall back to the pool.
+            if (!sUiContext.mInUse) {
+                sUiContext.mInUse = true;
+                return sUiContext;
+            }
+        }
+        synchronized (sPool) {
+            while (!sPool.isEmpty()) {
+                IconRenderContext renderContext = sPool.remove(sPool.size() - 1);
+                // Contexts created for a previous icon size are dropped.
+                if (renderContext.iconBitmapSize == iconBitmapSize) {
+                    return renderContext;
+                }
+            }
+        }
+        return new IconRenderContext(context, iconBitmapSize);
+    }
+
+    public void recycle() {
+        canvas.setBitmap(null);
+        if (this == sUiContext) {
+            mInUse = false;
+            return;
+        }
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOL_SIZE) {
+                sPool.add(this);
+            }
+        }
+    }
+
+    /**
+     * Drops the pooled contexts and the UI thread one, along with their scratch buffers. They are
+     * created again when icons are rendered. Must be called on the UI thread.
+     */
+    public static void onTrimMemory() {
+        synchronized (sPool) {
+            sPool.clear();
+        }
+        if (sUiContext != null && !sUiContext.mInUse) {
+            sUiContext = null;
+        }
+    }
+}
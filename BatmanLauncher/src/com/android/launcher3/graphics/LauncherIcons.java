@@ -24,8 +24,6 @@ import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.PaintFlagsDrawFilter;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.AdaptiveIconDrawable;
@@ -50,18 +48,11 @@ import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.util.Provider;
 
 /**
- * Helper methods for generating various launcher icons
+ * Helper methods for generating various launcher icons. Each icon is rendered with an
+ * {@link IconRenderContext} of its own, so these can be called on several threads at once.
  */
 public class LauncherIcons {
 
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
-
-    static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-    }
-
     /**
      * Returns a bitmap suitable for the all apps view. If the package or the resource do not
      * exist, it returns null.
@@ -99,35 +90,78 @@ public class LauncherIcons {
      */
     public static Bitmap createBadgedIconBitmap(
             Drawable icon, UserHandle user, Context context, int iconAppTargetSdk) {
+        return createBadgedIconBitmap(icon, user, context, iconAppTargetSdk, null);
+    }
 
-        IconNormalizer normalizer;
+    /**
+     * Same as {@link #createBadgedIconBitmap(Drawable, UserHandle, Context, int)}, reusing the
+     * previous normalization of the same icon.
+     *
+     * @param normalization if valid, it is applied instead of normalizing the icon again.
+     *                      Otherwise it receives the result of the normalization.
+     */
+    public static Bitmap createBadgedIconBitmap(Drawable icon, UserHandle user, Context context,
+            int iconAppTargetSdk, @Nullable IconNormalization normalization) {
+        IconRenderContext renderContext = IconRenderContext.obtain(context);
+        Bitmap bitmap;
+        try {
+            bitmap = createNormalizedIconBitmap(icon, context, iconAppTargetSdk, renderContext,
+                    normalization);
+        } finally {
+            renderContext.recycle();
+        }
+        return badgeIconForUser(bitmap, user, context);
+    }
+
+    private static Bitmap createNormalizedIconBitmap(Drawable icon, Context context,
+            int iconAppTargetSdk, IconRenderContext renderContext,
+            @Nullable IconNormalization normalization) {
         float scale = 1f;
         if (!FeatureFlags.LAUNCHER3_DISABLE_ICON_NORMALIZATION) {
-            normalizer = IconNormalizer.getInstance(context);
-            if (Utilities.ATLEAST_OREO && iconAppTargetSdk >= Build.VERSION_CODES.O) {
-                boolean[] outShape = new boolean[1];
-                AdaptiveIconDrawable dr = (AdaptiveIconDrawable)
-                        context.getDrawable(R.drawable.adaptive_icon_drawable_wrapper).mutate();
-                dr.setBounds(0, 0, 1, 1);
-                scale = normalizer.getScale(icon, null, dr.getIconMask(), outShape);
-                if (FeatureFlags.LEGACY_ICON_TREATMENT &&
-                        !outShape[0]){
+            if (normalization != null && normalization.isValid()) {
+                scale = normalization.scale;
+                if (normalization.wrappedScale > 0) {
                     Drawable wrappedIcon = wrapToAdaptiveIconDrawable(context, icon, scale);
                     if (wrappedIcon != icon) {
                         icon = wrappedIcon;
-                        scale = normalizer.getScale(icon, null, null, null);
+                        scale = normalization.wrappedScale;
                     }
                 }
             } else {
-                scale = normalizer.getScale(icon, null, null, null);
+                if (normalization == null) {
+                    normalization = new IconNormalization();
+                }
+                IconNormalizer normalizer = renderContext.getNormalizer();
+                RectF bounds = normalization.bounds;
+                if (Utilities.ATLEAST_OREO && iconAppTargetSdk >= Build.VERSION_CODES.O) {
+                    boolean[] outShape = new boolean[1];
+                    AdaptiveIconDrawable dr = (AdaptiveIconDrawable)
+                            context.getDrawable(R.drawable.adaptive_icon_drawable_wrapper).mutate();
+                    dr.setBounds(0, 0, 1, 1);
+                    scale = normalizer.getScale(icon, bounds, dr.getIconMask(), outShape);
+                    normalization.scale = scale;
+                    normalization.isMaskShape = outShape[0];
+                    if (FeatureFlags.LEGACY_ICON_TREATMENT &&
+                            !outShape[0]){
+                        Drawable wrappedIcon = wrapToAdaptiveIconDrawable(context, icon, scale);
+                        if (wrappedIcon != icon) {
+                            icon = wrappedIcon;
+                            scale = normalizer.getScale(icon, null, null, null);
+                            normalization.wrappedScale = scale;
+                        }
+                    }
+                } else {
+                    scale = normalizer.getScale(icon, bounds, null, null);
+                    normalization.scale = scale;
+                }
             }
         }
-        Bitmap bitmap = createIconBitmap(icon, context, scale);
+        Bitmap bitmap = createIconBitmap(icon, context, scale, renderContext);
         if (FeatureFlags.ADAPTIVE_ICON_SHADOW && Utilities.ATLEAST_OREO &&
                 icon instanceof AdaptiveIconDrawable) {
-            bitmap = ShadowGenerator.getInstance(context).recreateIcon(bitmap);
+            bitmap = renderContext.getShadowGenerator().recreateIcon(bitmap);
         }
-        return badgeIconForUser(bitmap, user, context);
+        return bitmap;
     }
 
     /**
@@ -153,11 +187,22 @@ public class LauncherIcons {
      * normalized with other icons and has enough spacing to add shadow.
      */
     public static Bitmap createScaledBitmapWithoutShadow(Drawable icon, Context context, int iconAppTargetSdk) {
+        IconRenderContext renderContext = IconRenderContext.obtain(context);
+        try {
+            return createScaledBitmapWithoutShadow(icon, context, iconAppTargetSdk,
+                    renderContext);
+        } finally {
+            renderContext.recycle();
+        }
+    }
+
+    private static Bitmap createScaledBitmapWithoutShadow(Drawable icon, Context context,
+            int iconAppTargetSdk, IconRenderContext renderContext) {
         RectF iconBounds = new RectF();
         IconNormalizer normalizer;
         float scale = 1f;
         if (!FeatureFlags.LAUNCHER3_DISABLE_ICON_NORMALIZATION) {
-            normalizer = IconNormalizer.getInstance(context);
+            normalizer = renderContext.getNormalizer();
             if (Utilities.ATLEAST_OREO && iconAppTargetSdk >= Build.VERSION_CODES.O) {
                 boolean[] outShape = new boolean[1];
                 AdaptiveIconDrawable dr = (AdaptiveIconDrawable)
@@ -178,7 +223,7 @@ public class LauncherIcons {
 
         }
         scale = Math.min(scale, ShadowGenerator.getScaleForBounds(iconBounds));
-        return createIconBitmap(icon, context, scale);
+        return createIconBitmap(icon, context, scale, renderContext);
     }
 
     /**
@@ -186,7 +231,12 @@ public class LauncherIcons {
      * {@link #createScaledBitmapWithoutShadow(Drawable, Context, int)}
      */
     public static Bitmap addShadowToIcon(Bitmap icon, Context context) {
-        return ShadowGenerator.getInstance(context).recreateIcon(icon);
+        IconRenderContext renderContext = IconRenderContext.obtain(context);
+        try {
+            return renderContext.getShadowGenerator().recreateIcon(icon);
+        } finally {
+            renderContext.recycle();
+        }
     }
 
     /**
@@ -198,12 +248,15 @@ public class LauncherIcons {
 
     public static Bitmap badgeWithDrawable(Bitmap srcTgt, Drawable badge, Context context) {
         int badgeSize = context.getResources().getDimensionPixelSize(R.dimen.profile_badge_size);
-        synchronized (sCanvas) {
-            sCanvas.setBitmap(srcTgt);
+        IconRenderContext renderContext = IconRenderContext.obtain(context);
+        try {
+            Canvas canvas = renderContext.canvas;
+            canvas.setBitmap(srcTgt);
             int iconSize = srcTgt.getWidth();
             badge.setBounds(iconSize - badgeSize, iconSize - badgeSize, iconSize, iconSize);
-            badge.draw(sCanvas);
-            sCanvas.setBitmap(null);
+            badge.draw(canvas);
+        } finally {
+            renderContext.recycle();
         }
         return srcTgt;
     }
@@ -217,77 +270,91 @@ public class LauncherIcons {
                 icon instanceof AdaptiveIconDrawable) {
             scale = ShadowGenerator.getScaleForBounds(new RectF(0, 0, 0, 0));
         }
-        Bitmap bitmap =  createIconBitmap(icon, context, scale);
-        if (FeatureFlags.ADAPTIVE_ICON_SHADOW && Utilities.ATLEAST_OREO &&
-                icon instanceof AdaptiveIconDrawable) {
-            bitmap = ShadowGenerator.getInstance(context).recreateIcon(bitmap);
+        IconRenderContext renderContext = IconRenderContext.obtain(context);
+        try {
+            Bitmap bitmap = createIconBitmap(icon, context, scale, renderContext);
+            if (FeatureFlags.ADAPTIVE_ICON_SHADOW && Utilities.ATLEAST_OREO &&
+                    icon instanceof AdaptiveIconDrawable) {
+                bitmap = renderContext.getShadowGenerator().recreateIcon(bitmap);
+            }
+            return bitmap;
+        } finally {
+            renderContext.recycle();
         }
-        return bitmap;
     }
 
     /**
      * @param scale the scale to apply before drawing {@param icon} on the canvas
      */
     public static Bitmap createIconBitmap(Drawable icon, Context context, float scale) {
-        synchronized (sCanvas) {
-            final int iconBitmapSize = LauncherAppState.getIDP(context).iconBitmapSize;
-            int width = iconBitmapSize;
-            int height = iconBitmapSize;
-
-            if (icon instanceof PaintDrawable) {
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                // Ensure the bitmap has a density.
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap != null && bitmap.getDensity() == Bitmap.DENSITY_NONE) {
-                    bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-                }
-            }
+        IconRenderContext renderContext = IconRenderContext.obtain(context);
+        try {
+            return createIconBitmap(icon, context, scale, renderContext);
+        } finally {
+            renderContext.recycle();
+        }
+    }
 
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                // Scale the icon proportionally to the icon dimensions
-                final float ratio = (float) sourceWidth / sourceHeight;
-                if (sourceWidth > sourceHeight) {
-                    height = (int) (width / ratio);
-                } else if (sourceHeight > sourceWidth) {
-                    width = (int) (height * ratio);
-                }
+    private static Bitmap createIconBitmap(Drawable icon, Context context, float scale,
+            IconRenderContext renderContext) {
+        final int iconBitmapSize = renderContext.iconBitmapSize;
+        int width = iconBitmapSize;
+        int height = iconBitmapSize;
+
+        if (icon instanceof PaintDrawable) {
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            // Ensure the bitmap has a density.
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap != null && bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
             }
-            // no intrinsic size --> use default size
-            int textureWidth = iconBitmapSize;
-            int textureHeight = iconBitmapSize;
-
-            Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            final int left = (textureWidth-width) / 2;
-            final int top = (textureHeight-height) / 2;
-
-            sOldBounds.set(icon.getBounds());
-            if (Utilities.ATLEAST_OREO && icon instanceof AdaptiveIconDrawable) {
-                int offset = Math.max((int)(ShadowGenerator.BLUR_FACTOR * iconBitmapSize),
-                        Math.min(left, top));
-                int size = Math.max(width, height);
-                icon.setBounds(offset, offset, size, size);
-            } else {
-                icon.setBounds(left, top, left+width, top+height);
-            }
-            canvas.save(Canvas.MATRIX_SAVE_FLAG);
-            canvas.scale(scale, scale, textureWidth / 2, textureHeight / 2);
-            icon.draw(canvas);
-            canvas.restore();
-            icon.setBounds(sOldBounds);
-            canvas.setBitmap(null);
+        }
 
-            return bitmap;
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            // Scale the icon proportionally to the icon dimensions
+            final float ratio = (float) sourceWidth / sourceHeight;
+            if (sourceWidth > sourceHeight) {
+                height = (int) (width / ratio);
+            } else if (sourceHeight > sourceWidth) {
+                width = (int) (height * ratio);
+            }
+        }
+        // no intrinsic size --> use default size
+        int textureWidth = iconBitmapSize;
+        int textureHeight = iconBitmapSize;
+
+        Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = renderContext.canvas;
+        canvas.setBitmap(bitmap);
+
+        final int left = (textureWidth-width) / 2;
+        final int top = (textureHeight-height) / 2;
+
+        final Rect oldBounds = renderContext.oldBounds;
+        oldBounds.set(icon.getBounds());
+        if (Utilities.ATLEAST_OREO && icon instanceof AdaptiveIconDrawable) {
+            int offset = Math.max((int)(ShadowGenerator.BLUR_FACTOR * iconBitmapSize),
+                    Math.min(left, top));
+            int size = Math.max(width, height);
+            icon.setBounds(offset, offset, size, size);
+        } else {
+            icon.setBounds(left, top, left+width, top+height);
         }
+        canvas.save(Canvas.MATRIX_SAVE_FLAG);
+        canvas.scale(scale, scale, textureWidth / 2, textureHeight / 2);
+        icon.draw(canvas);
+        canvas.restore();
+        icon.setBounds(oldBounds);
+        canvas.setBitmap(null);
+
+        return bitmap;
     }
 
     /**
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.userevent.nano.LauncherLogProto.Action;
+import com.android.launcher3.userevent.nano.LauncherLogProto.LauncherEvent;
+
+import com.google.protobuf.nano.CodedInputByteBufferNano;
+import com.google.protobuf.nano.CodedOutputByteBufferNano;
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link UserEventSink} which serializes the events and writes them in batches to an
+ * {@link EventRingFile}.
+ *
+ * The events are written as length-delimited {@link LauncherEvent} protos into a pool of
+ * preallocated buffers, so that logging an event does not allocate. A buffer is handed to a
+ * background thread once full, or after {@link #FLUSH_DELAY}, and its content is written as one
+ * batch of the ring file. If all the buffers are waiting to be written, events are dropped, and
+ * their number is logged by the background thread.
+ *
+ * Events can be sampled per action, see {@link #setSamplingRate}.
+ */
+public class BinaryEventSink implements UserEventSink {
+
+    private static final String TAG = "BinaryEventSink";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int BUFFER_COUNT = 4;
+    // The ring file keeps the last 64 batches, up to 1 mb.
+    private static final int SLOT_COUNT = 64;
+
+    private static final long FLUSH_DELAY = 10000;
+
+    private static final int MSG_WRITE = 1;
+    private static final int MSG_FLUSH = 2;
+
+    private static BinaryEventSink sInstance;
+
+    public static synchronized BinaryEventSink getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread("user-event-sink",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            File file = new File(context.getApplicationContext().getFilesDir(),
+                    LauncherFiles.USER_EVENTS_FILE);
+            sInstance = new BinaryEventSink(thread.getLooper(),
+                    new EventRingFile(file, SLOT_COUNT, BUFFER_SIZE));
+        }
+        return sInstance;
+    }
+
+    private static class Buffer {
+        final byte[] data = new byte[BUFFER_SIZE];
+        final CodedOutputByteBufferNano out = CodedOutputByteBufferNano.newInstance(data);
+    }
+
+    private final EventRingFile mFile;
+    private final Handler mHandler;
+
+    // All the fields below are guarded by mLock.
+    private final Object mLock = new Object();
+    private final Buffer[] mFreeBuffers = new Buffer[BUFFER_COUNT];
+    private int mFreeCount;
+    private Buffer mCurrent;
+
+    // Keyed by getActionKey, a missing key meaning that all the events are kept.
+    private final SparseIntArray mSamplingRates = new SparseIntArray();
+    private final SparseIntArray mSampleCounts = new SparseIntArray();
+
+    private int mDroppedCount;
+
+    BinaryEventSink(Looper looper, EventRingFile file) {
+        mFile = file;
+        mHandler = new Handler(looper, new WriterCallback());
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeBuffers[mFreeCount++] = new Buffer();
+        }
+    }
+
+    /**
+     * Keeps only one in {@param oneInN} events with the given action.
+     *
+     * @param actionType one of {@link Action.Type}
+     * @param action one of {@link Action.Touch} for touch actions, or {@link Action.Command} for
+     *               commands. Ignored for other action types.
+     */
+    public void setSamplingRate(int actionType, int action, int oneInN) {
+        synchronized (mLock) {
+            int key = getActionKey(actionType, action);
+            mSamplingRates.put(key, Math.max(oneInN, 1));
+            mSampleCounts.put(key, 0);
+        }
+    }
+
+    @Override
+    public void onUserEvent(LauncherEvent event) {
+        synchronized (mLock) {
+            if (!isSampled(event.action)) {
+                return;
+            }
+            // Also computes the size of the nested messages, which writeTo uses.
+            int size = event.getSerializedSize();
+            int recordSize = CodedOutputByteBufferNano.computeRawVarint32Size(size) + size;
+            if (recordSize > BUFFER_SIZE) {
+                mDroppedCount++;
+                return;
+            }
+            if (mCurrent != null && mCurrent.out.spaceLeft() < recordSize) {
+                sendCurrentLocked();
+            }
+            if (mCurrent == null) {
+                if (mFreeCount == 0) {
+                    mDroppedCount++;
+                    return;
+                }
+                mCurrent = mFreeBuffers[--mFreeCount];
+                mHandler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY);
+            }
+            try {
+                mCurrent.out.writeRawVarint32(size);
+                event.writeTo(mCurrent.out);
+            } catch (IOException e) {
+                // Can not happen as the space left was checked, but a partially written event
+                // would corrupt the whole buffer.
+                Log.e(TAG, "Error serializing event", e);
+                mCurrent.out.reset();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered events, without waiting for the buffer to be full.
+     */
+    public void flush() {
+        mHandler.removeMessages(MSG_FLUSH);
+        mHandler.sendEmptyMessage(MSG_FLUSH);
+    }
+
+    /**
+     * Returns the number of events dropped since the last call, because they were too large or
+     * all the buffers were waiting to be written.
+     */
+    int getAndResetDroppedCount() {
+        synchronized (mLock) {
+            int count = mDroppedCount;
+            mDroppedCount = 0;
+            return count;
+        }
+    }
+
+    private boolean isSampled(Action action) {
+        int key = getActionKey(action.type,
+                action.type == Action.Type.COMMAND ? action.command : action.touch);
+        int rate = mSamplingRates.get(key, 1);
+        if (rate == 1) {
+            return true;
+        }
+        int count = mSampleCounts.get(key);
+        mSampleCounts.put(key, (count + 1) % rate);
+        return count == 0;
+    }
+
+    private static int getActionKey(int actionType, int action) {
+        if (actionType != Action.Type.TOUCH && actionType != Action.Type.COMMAND) {
+            action = 0;
+        }
+        return (actionType << 16) | action;
+    }
+
+    private void sendCurrentLocked() {
+        mHandler.removeMessages(MSG_FLUSH);
+        mHandler.obtainMessage(MSG_WRITE, mCurrent).sendToTarget();
+        mCurrent = null;
+    }
+
+    /**
+     * Parses the events of a batch read from the ring file.
+     */
+    static void readEvents(byte[] batch, List<LauncherEvent> out) throws IOException {
+        CodedInputByteBufferNano in = CodedInputByteBufferNano.newInstance(batch);
+        while (!in.isAtEnd()) {
+            int size = in.readRawVarint32();
+            int start = in.getPosition();
+            out.add(MessageNano.mergeFrom(new LauncherEvent(), batch, start, size));
+            in.skipRawBytes(size);
+        }
+    }
+
+    private class WriterCallback implements Handler.Callback {
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            Buffer buffer = null;
+            switch (msg.what) {
+                case MSG_WRITE:
+                    buffer = (Buffer) msg.obj;
+                    break;
+                case MSG_FLUSH:
+                    synchronized (mLock) {
+                        buffer = mCurrent;
+                        mCurrent = null;
+                    }
+                    break;
+            }
+            if (buffer == null) {
+                return true;
+            }
+
+            int length = buffer.out.position();
+            if (length > 0) {
+                try {
+                    mFile.append(buffer.data, length);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error writing events", e);
+                    mFile.close();
+                }
+            }
+            buffer.out.reset();
+            synchronized (mLock) {
+                mFreeBuffers[mFreeCount++] = buffer;
+            }
+
+            int dropped = getAndResetDroppedCount();
+            if (dropped > 0) {
+                Log.w(TAG, dropped + " events dropped");
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import com.android.launcher3.Utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A file of fixed size, made of a ring of slots which each hold one batch of data. Once all the
+ * slots are used, new batches replace the oldest ones.
+ *
+ * Each slot starts with a header holding the sequence number of its batch, its length and its
+ * CRC. The header is written after the data, and a slot whose data does not match its CRC, like
+ * one partially written when the process died, is ignored.
+ */
+final class EventRingFile {
+
+    private static final int HEADER_SIZE = 16;
+
+    private final File mFile;
+    private final int mSlotCount;
+    private final int mSlotSize;
+
+    private final byte[] mHeader = new byte[HEADER_SIZE];
+    private final ByteBuffer mHeaderBuffer = ByteBuffer.wrap(mHeader);
+    private final CRC32 mCrc = new CRC32();
+
+    private RandomAccessFile mRaf;
+    private int mNextSlot;
+    // Sequence number of the next batch, 0 marks an unused slot.
+    private long mNextSequence;
+
+    /**
+     * @param slotCount number of batches kept in the file
+     * @param slotSize maximum size of a batch
+     */
+    EventRingFile(File file, int slotCount, int slotSize) {
+        mFile = file;
+        mSlotCount = slotCount;
+        mSlotSize = slotSize;
+    }
+
+    /**
+     * Writes {@param length} bytes of {@param data} in the slot after the last written one.
+     */
+    synchronized void append(byte[] data, int length) throws IOException {
+        if (length > mSlotSize) {
+            throw new IllegalArgumentException("Batch too large: " + length);
+        }
+        open();
+        long offset = getSlotOffset(mNextSlot);
+        mRaf.seek(offset + HEADER_SIZE);
+        mRaf.write(data, 0, length);
+
+        mCrc.reset();
+        mCrc.update(data, 0, length);
+        mHeaderBuffer.clear();
+        mHeaderBuffer.putLong(mNextSequence).putInt(length).putInt((int) mCrc.getValue());
+        mRaf.seek(offset);
+        mRaf.write(mHeader);
+
+        mNextSequence++;
+        mNextSlot = (mNextSlot + 1) % mSlotCount;
+    }
+
+    /**
+     * Returns the valid batches, from the oldest to the most recent one.
+     */
+    synchronized List<byte[]> readAll() throws IOException {
+        open();
+        ArrayList<byte[]> batches = new ArrayList<>();
+        // The slot after the most recent batch holds the oldest one.
+        for (int i = 0; i < mSlotCount; i++) {
+            int slot = (mNextSlot + i) % mSlotCount;
+            if (readHeader(slot) <= 0) {
+                continue;
+            }
+            int length = mHeaderBuffer.getInt();
+            int crc = mHeaderBuffer.getInt();
+            byte[] data = new byte[length];
+            mRaf.readFully(data);
+            mCrc.reset();
+            mCrc.update(data, 0, length);
+            if ((int) mCrc.getValue() == crc) {
+                batches.add(data);
+            }
+        }
+        return batches;
+    }
+
+    synchronized void close() {
+        Utilities.closeSilently(mRaf);
+        mRaf = null;
+    }
+
+    /**
+     * Opens the file, and finds the slot after the most recent batch.
+     */
+    private void open() throws IOException {
+        if (mRaf != null) {
+            return;
+        }
+        mRaf = new RandomAccessFile(mFile, "rw");
+        long lastSequence = 0;
+        int lastSlot = -1;
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            long sequence = readHeader(slot);
+            if (sequence > lastSequence) {
+                lastSequence = sequence;
+                lastSlot = slot;
+            }
+        }
+        mNextSequence = lastSequence + 1;
+        mNextSlot = (lastSlot + 1) % mSlotCount;
+    }
+
+    /**
+     * Reads the header of {@param slot} in {@link #mHeaderBuffer}, positioned after the sequence
+     * number, and the file after the header.
+     *
+     * @return the sequence number of the slot, or 0 if the slot is unused or invalid.
+     */
+    private long readHeader(int slot) throws IOException {
+        long offset = getSlotOffset(slot);
+        if (offset + HEADER_SIZE > mRaf.length()) {
+            return 0;
+        }
+        mRaf.seek(offset);
+        mRaf.readFully(mHeader);
+        mHeaderBuffer.clear();
+        long sequence = mHeaderBuffer.getLong();
+        int length = mHeaderBuffer.getInt(HEADER_SIZE - 8);
+        if (length < 0 || length > mSlotSize
+                || offset + HEADER_SIZE + length > mRaf.length()) {
+            return 0;
+        }
+        return sequence;
+    }
+
+    private long getSlotOffset(int slot) {
+        return (long) slot * (HEADER_SIZE + mSlotSize);
+    }
+}
@@ -3,6 +3,7 @@ package com.android.launcher3.logging;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 import android.util.Pair;
 
@@ -10,20 +11,28 @@ import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Wrapper around {@link Log} to allow writing to a file.
  * This class can safely be called from main thread.
  *
+ * The records are added to a bounded buffer without locking, and are formatted and written in
+ * batches on a separate thread. If that thread falls behind, new records are dropped and the
+ * number of dropped records is written instead.
+ *
  * Note: This should only be used for logging errors which have a persistent effect on user's data,
  * but whose effect may not be visible immediately.
  */
@@ -31,26 +40,46 @@ public final class FileLog {
 
     protected static final boolean ENABLED =
             FeatureFlags.IS_DOGFOOD_BUILD || Utilities.IS_DEBUG_DEVICE;
+    private static final String TAG = "FileLog";
     private static final String FILE_NAME_PREFIX = "log-";
+    private static final String ROTATED_FILE_SUFFIX = ".old";
+    // Only used on the writer thread
     private static final DateFormat DATE_FORMAT =
             DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
 
-    private static final long MAX_LOG_FILE_SIZE = 4 << 20;  // 4 mb
+    // Each of the two daily files is rotated once over this size, so that the logs take at most
+    // 8 mb, including the rotated files.
+    private static final long MAX_LOG_FILE_SIZE = 2 << 20;  // 2 mb
+    @VisibleForTesting static long sMaxLogFileSize = MAX_LOG_FILE_SIZE;
+
+    // Number of records waiting to be written, beyond which new records are dropped.
+    private static final int BUFFER_CAPACITY = 512;
 
-    private static Handler sHandler = null;
+    private static final Object sLock = new Object();
+    private static final LogBuffer sBuffer = new LogBuffer(BUFFER_CAPACITY);
+    // Whether a MSG_WRITE is pending, which will pick up the new records.
+    private static final AtomicBoolean sWriteScheduled = new AtomicBoolean();
+
+    private static volatile Handler sHandler = null;
     private static File sLogsDirectory = null;
 
     public static void setDir(File logsDir) {
         if (ENABLED) {
-            synchronized (DATE_FORMAT) {
+            synchronized (sLock) {
                 // If the target directory changes, stop any active thread.
                 if (sHandler != null && !logsDir.equals(sLogsDirectory)) {
                     ((HandlerThread) sHandler.getLooper().getThread()).quit();
                     sHandler = null;
+                    sWriteScheduled.set(false);
                 }
             }
         }
         sLogsDirectory = logsDir;
+        if (ENABLED) {
+            // The write scheduled on the previous thread is lost, and once the buffer is full no
+            // new record schedules one.
+            scheduleWriteIfNeeded();
+        }
     }
 
     public static void d(String tag, String msg, Exception e) {
@@ -81,22 +110,36 @@ public final class FileLog {
         if (!ENABLED) {
             return;
         }
-        String out = String.format("%s %s %s", DATE_FORMAT.format(new Date()), tag, msg);
-        if (e != null) {
-            out += "\n" + Log.getStackTraceString(e);
+        // The record is formatted on the writer thread. When it is dropped, the buffer is full
+        // and a write is already pending.
+        if (sBuffer.offer(System.currentTimeMillis(), tag, msg, e)
+                && sWriteScheduled.compareAndSet(false, true)) {
+            getHandler().sendEmptyMessage(LogWriterCallback.MSG_WRITE);
+        }
+    }
+
+    /**
+     * Schedules a write of the buffered records, unless there are none or a write is pending.
+     */
+    private static void scheduleWriteIfNeeded() {
+        if (!sBuffer.isEmpty() && sWriteScheduled.compareAndSet(false, true)) {
+            getHandler().sendEmptyMessage(LogWriterCallback.MSG_WRITE);
         }
-        Message.obtain(getHandler(), LogWriterCallback.MSG_WRITE, out).sendToTarget();
     }
 
     private static Handler getHandler() {
-        synchronized (DATE_FORMAT) {
-            if (sHandler == null) {
-                HandlerThread thread = new HandlerThread("file-logger");
-                thread.start();
-                sHandler = new Handler(thread.getLooper(), new LogWriterCallback());
+        Handler handler = sHandler;
+        if (handler == null) {
+            synchronized (sLock) {
+                if (sHandler == null) {
+                    HandlerThread thread = new HandlerThread("file-logger");
+                    thread.start();
+                    sHandler = new Handler(thread.getLooper(), new LogWriterCallback());
+                }
+                handler = sHandler;
             }
         }
-        return sHandler;
+        return handler;
     }
 
     /**
@@ -117,7 +160,8 @@ public final class FileLog {
     /**
      * Writes logs to the file.
      * Log files are named log-0 for even days of the year and log-1 for odd days of the year.
-     * Logs older than 36 hours are purged.
+     * Once a file reaches {@link #sMaxLogFileSize}, it is moved to log-0.old or log-1.old,
+     * replacing the previous one. Logs older than 36 hours are purged.
      */
     private static class LogWriterCallback implements Handler.Callback {
 
@@ -127,8 +171,11 @@ public final class FileLog {
         private static final int MSG_CLOSE = 2;
         private static final int MSG_FLUSH = 3;
 
+        private final Date mDate = new Date();
+
         private String mCurrentFileName = null;
-        private PrintWriter mCurrentWriter = null;
+        private File mCurrentFile = null;
+        private Writer mCurrentWriter = null;
 
         private void closeWriter() {
             Utilities.closeSilently(mCurrentWriter);
@@ -142,44 +189,9 @@ public final class FileLog {
             }
             switch (msg.what) {
                 case MSG_WRITE: {
-                    Calendar cal = Calendar.getInstance();
-                    // suffix with 0 or 1 based on the day of the year.
-                    String fileName = FILE_NAME_PREFIX + (cal.get(Calendar.DAY_OF_YEAR) & 1);
-
-                    if (!fileName.equals(mCurrentFileName)) {
-                        closeWriter();
-                    }
-
-                    try {
-                        if (mCurrentWriter == null) {
-                            mCurrentFileName = fileName;
-
-                            boolean append = false;
-                            File logFile = new File(sLogsDirectory, fileName);
-                            if (logFile.exists()) {
-                                Calendar modifiedTime = Calendar.getInstance();
-                                modifiedTime.setTimeInMillis(logFile.lastModified());
-
-                                // If the file was modified more that 36 hours ago, purge the file.
-                                // We use instead of 24 to account for day-365 followed by day-1
-                                modifiedTime.add(Calendar.HOUR, 36);
-                                append = cal.before(modifiedTime)
-                                        && logFile.length() < MAX_LOG_FILE_SIZE;
-                            }
-                            mCurrentWriter = new PrintWriter(new FileWriter(logFile, append));
-                        }
-
-                        mCurrentWriter.println((String) msg.obj);
-                        mCurrentWriter.flush();
-
-                        // Auto close file stream after some time.
-                        sHandler.removeMessages(MSG_CLOSE);
-                        sHandler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY);
-                    } catch (Exception e) {
-                        Log.e("FileLog", "Error writing logs to file", e);
-                        // Close stream, will try reopening during next log
-                        closeWriter();
-                    }
+                    // Cleared first, so that a record added while writing schedules a new write.
+                    sWriteScheduled.set(false);
+                    writeRecords();
                     return true;
                 }
                 case MSG_CLOSE: {
@@ -187,13 +199,16 @@ public final class FileLog {
                     return true;
                 }
                 case MSG_FLUSH: {
+                    writeRecords();
                     closeWriter();
                     Pair<PrintWriter, CountDownLatch> p =
                             (Pair<PrintWriter, CountDownLatch>) msg.obj;
 
                     if (p.first != null) {
-                        dumpFile(p.first, FILE_NAME_PREFIX + 0);
-                        dumpFile(p.first, FILE_NAME_PREFIX + 1);
+                        for (int i = 0; i <= 1; i++) {
+                            dumpFile(p.first, FILE_NAME_PREFIX + i + ROTATED_FILE_SUFFIX);
+                            dumpFile(p.first, FILE_NAME_PREFIX + i);
+                        }
                     }
                     p.second.countDown();
                     return true;
@@ -201,6 +216,110 @@ public final class FileLog {
             }
             return true;
         }
+
+        /**
+         * Writes all the buffered records in one batch.
+         */
+        private void writeRecords() {
+            // The buffer is read by a single thread at a time, including when the logs directory
+            // changed and the previous thread is still writing.
+            synchronized (sBuffer) {
+                LogBuffer.Record record = sBuffer.peek();
+                int dropped = sBuffer.getAndResetDropped();
+                if (record == null && dropped == 0) {
+                    return;
+                }
+
+                Calendar cal = Calendar.getInstance();
+                // suffix with 0 or 1 based on the day of the year.
+                String fileName = FILE_NAME_PREFIX + (cal.get(Calendar.DAY_OF_YEAR) & 1);
+
+                if (!fileName.equals(mCurrentFileName)) {
+                    closeWriter();
+                }
+
+                try {
+                    if (mCurrentWriter == null) {
+                        openWriter(fileName, cal);
+                    }
+                    for (; record != null; record = sBuffer.peek()) {
+                        writeRecord(record.time, record.tag, record.msg, record.error);
+                        sBuffer.release(record);
+                    }
+                    dropped += sBuffer.getAndResetDropped();
+                    if (dropped > 0) {
+                        // The dropped records were added after the ones written above.
+                        writeRecord(cal.getTimeInMillis(), TAG,
+                                dropped + " log records dropped", null);
+                    }
+                    mCurrentWriter.flush();
+
+                    if (mCurrentFile.length() >= sMaxLogFileSize) {
+                        closeWriter();
+                        rotate(mCurrentFile);
+                    }
+
+                    // Auto close file stream after some time.
+                    Handler handler = sHandler;
+                    if (handler != null) {
+                        handler.removeMessages(MSG_CLOSE);
+                        handler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error writing logs to file", e);
+                    // Close stream, will try reopening during next log
+                    closeWriter();
+                    // Skip the records of the batch, so that a failing write is not retried
+                    // forever.
+                    while ((record = sBuffer.peek()) != null) {
+                        sBuffer.release(record);
+                    }
+                }
+            }
+        }
+
+        private void openWriter(String fileName, Calendar cal) throws IOException {
+            mCurrentFileName = fileName;
+            mCurrentFile = new File(sLogsDirectory, fileName);
+            if (mCurrentFile.exists()) {
+                Calendar modifiedTime = Calendar.getInstance();
+                modifiedTime.setTimeInMillis(mCurrentFile.lastModified());
+
+                // If the file was modified more that 36 hours ago, purge the file.
+                // We use instead of 24 to account for day-365 followed by day-1
+                modifiedTime.add(Calendar.HOUR, 36);
+                if (!cal.before(modifiedTime)) {
+                    mCurrentFile.delete();
+                    new File(sLogsDirectory, fileName + ROTATED_FILE_SUFFIX).delete();
+                } else if (mCurrentFile.length() >= sMaxLogFileSize) {
+                    rotate(mCurrentFile);
+                }
+            }
+            mCurrentWriter = new BufferedWriter(new FileWriter(mCurrentFile, true));
+        }
+
+        private void writeRecord(long time, String tag, String msg, Throwable error)
+                throws IOException {
+            mDate.setTime(time);
+            mCurrentWriter.write(DATE_FORMAT.format(mDate));
+            mCurrentWriter.write(' ');
+            mCurrentWriter.write(String.valueOf(tag));
+            mCurrentWriter.write(' ');
+            mCurrentWriter.write(String.valueOf(msg));
+            mCurrentWriter.write('\n');
+            if (error != null) {
+                mCurrentWriter.write(Log.getStackTraceString(error));
+                mCurrentWriter.write('\n');
+            }
+        }
+
+        private static void rotate(File logFile) {
+            File rotatedFile = new File(logFile.getPath() + ROTATED_FILE_SUFFIX);
+            rotatedFile.delete();
+            if (!logFile.renameTo(rotatedFile)) {
+                logFile.delete();
+            }
+        }
     }
 
     private static void dumpFile(PrintWriter out, String fileName) {
@@ -0,0 +1,116 @@
+package com.android.launcher3.logging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded buffer of log records, which any thread can add to without locking, and which is read
+ * by a single thread at a time.
+ *
+ * The records are preallocated slots, each with a sequence number telling whether the slot is
+ * free for the producer at a given position, or filled for the consumer. When the buffer is
+ * full, new records are dropped and counted instead of blocking the caller.
+ */
+final class LogBuffer {
+
+    static final class Record {
+        // position + 1 once filled for the consumer at position, and
+        // position + capacity once free for the producer of the next round.
+        volatile long sequence;
+
+        long time;
+        String tag;
+        String msg;
+        Throwable error;
+    }
+
+    private final Record[] mRecords;
+    private final int mMask;
+
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    // Only accessed by the consumer
+    private long mHead = 0;
+
+    /**
+     * @param capacity the maximum number of pending records, a power of 2
+     */
+    LogBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+        mRecords = new Record[capacity];
+        mMask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            mRecords[i] = new Record();
+            mRecords[i].sequence = i;
+        }
+    }
+
+    /**
+     * Adds a record, unless the buffer is full.
+     * @return false if the record was dropped
+     */
+    boolean offer(long time, String tag, String msg, Throwable error) {
+        long pos = mTail.get();
+        while (true) {
+            Record record = mRecords[(int) pos & mMask];
+            long diff = record.sequence - pos;
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    record.time = time;
+                    record.tag = tag;
+                    record.msg = msg;
+                    record.error = error;
+                    // Publishes the fields above to the consumer.
+                    record.sequence = pos + 1;
+                    return true;
+                }
+                pos = mTail.get();
+            } else if (diff < 0) {
+                // The slot still holds the record from the previous round.
+                mDropped.incrementAndGet();
+                return false;
+            } else {
+                // Another producer took the slot.
+                pos = mTail.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the oldest record, which must be passed to {@link #release} once read, or null if
+     * there is no record to read.
+     */
+    Record peek() {
+        Record record = mRecords[(int) mHead & mMask];
+        return record.sequence == mHead + 1 ? record : null;
+    }
+
+    /**
+     * Returns true if there is no record to read. Can be called from any thread, in which case
+     * it may return false for a buffer which was just emptied.
+     */
+    boolean isEmpty() {
+        return mTail.get() == mHead;
+    }
+
+    /**
+     * Frees the record returned by {@link #peek}.
+     */
+    void release(Record record) {
+        record.tag = null;
+        record.msg = null;
+        record.error = null;
+        record.sequence = mHead + mRecords.length;
+        mHead++;
+    }
+
+    /**
+     * Returns the number of records dropped since the last call.
+     */
+    int getAndResetDropped() {
+        return mDropped.getAndSet(0);
+    }
+}
@@ -77,6 +77,9 @@ public class UserEventDispatcher {
         ued.mIsInLandscapeMode = isInLandscapeMode;
         ued.mIsInMultiWindowMode = isInMultiWindowMode;
         ued.mUuidStr = uuidStr;
+        if (FeatureFlags.LAUNCHER3_USER_EVENT_FILE) {
+            ued.mEventSink = BinaryEventSink.getInstance(context);
+        }
         return ued;
     }
 
@@ -125,6 +128,7 @@ public class UserEventDispatcher {
     private boolean mIsInMultiWindowMode;
     private boolean mIsInLandscapeMode;
     private String mUuidStr;
+    private UserEventSink mEventSink;
 
     //                      APP_ICON    SHORTCUT    WIDGET
     // --------------------------------------------------------------
@@ -302,11 +306,21 @@ public class UserEventDispatcher {
         mActionDurationMillis = SystemClock.uptimeMillis();
     }
 
+    /**
+     * Sets the sink which receives all the dispatched events, or null to only log them.
+     */
+    public void setEventSink(@Nullable UserEventSink sink) {
+        mEventSink = sink;
+    }
+
     public void dispatchUserEvent(LauncherEvent ev, Intent intent) {
         ev.isInLandscapeMode = mIsInLandscapeMode;
         ev.isInMultiWindowMode = mIsInMultiWindowMode;
         ev.elapsedContainerMillis = SystemClock.uptimeMillis() - mElapsedContainerMillis;
         ev.elapsedSessionMillis = SystemClock.uptimeMillis() - mElapsedSessionMillis;
+        if (mEventSink != null) {
+            mEventSink.onUserEvent(ev);
+        }
 
         if (!IS_VERBOSE) {
             return;
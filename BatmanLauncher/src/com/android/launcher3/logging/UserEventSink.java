@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import com.android.launcher3.userevent.nano.LauncherLogProto.LauncherEvent;
+
+/**
+ * Receives the events dispatched by {@link UserEventDispatcher}.
+ */
+public interface UserEventSink {
+
+    /**
+     * Called on the thread which logged the event, usually the UI thread. The event must not be
+     * kept after this call, as the caller may reuse it.
+     */
+    void onUserEvent(LauncherEvent event);
+}
@@ -48,16 +48,35 @@ import java.util.List;
 public class AddWorkspaceItemsTask extends BaseModelUpdateTask {
 
     private final Provider<List<Pair<ItemInfo, Object>>> mAppsProvider;
+    private final Runnable mOnItemsAdded;
 
     /**
      * @param appsProvider items to add on the workspace
      */
     public AddWorkspaceItemsTask(Provider<List<Pair<ItemInfo, Object>>> appsProvider) {
+        this(appsProvider, null);
+    }
+
+    /**
+     * @param appsProvider items to add on the workspace
+     * @param onItemsAdded optional callback, run on the worker thread once the items are written
+     *                     to the DB
+     */
+    public AddWorkspaceItemsTask(Provider<List<Pair<ItemInfo, Object>>> appsProvider,
+            Runnable onItemsAdded) {
         mAppsProvider = appsProvider;
+        mOnItemsAdded = onItemsAdded;
     }
 
     @Override
     public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList apps) {
+        addItems(app, dataModel);
+        if (mOnItemsAdded != null) {
+            mOnItemsAdded.run();
+        }
+    }
+
+    private void addItems(LauncherAppState app, BgDataModel dataModel) {
         List<Pair<ItemInfo, Object>> workspaceApps = mAppsProvider.get();
         if (workspaceApps.isEmpty()) {
             return;
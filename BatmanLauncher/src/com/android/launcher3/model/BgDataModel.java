@@ -105,6 +105,11 @@ public class BgDataModel {
      */
     public final WidgetsModel widgetsModel = new WidgetsModel();
 
+    /**
+     * The item updates not yet written to the DB by the {@link ModelWriter}s of this model.
+     */
+    final ModelWriter.PendingBatch pendingUpdates = new ModelWriter.PendingBatch();
+
     /**
      * Clears all the data
      */
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherModel.Callbacks;
+import com.android.launcher3.LauncherSettings;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.util.LatencyHistogram;
+import com.android.launcher3.util.LogConfig;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the items bound on the workspace into chunks which are expected to fit in a frame
+ * budget, based on the bind cost measured for each type of item. Cheap icons are then bound in
+ * a few large chunks, while an expensive widget gets a frame of its own.
+ *
+ * The costs are kept across loads. The chunk sizes and durations, and the frames missed while
+ * binding, are recorded for {@link #dump} so that the budget can be tuned.
+ *
+ * Enable logging with: adb shell setprop log.tag.LoaderTimings VERBOSE
+ */
+public class BindChunker implements Choreographer.FrameCallback {
+
+    private static final String TAG = LogConfig.LOADER_TIMINGS;
+
+    // Part of the frame spent binding, the rest is left to measure, layout and draw.
+    private static final float FRAME_BUDGET_FRACTION = 0.5f;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    // Weight of a new measurement in the moving average of the cost of an item type.
+    private static final float COST_SMOOTHING = 0.3f;
+    // Limits how much a single measurement can change a cost, eg. if the bind was deferred.
+    private static final float MAX_COST_RATIO = 4f;
+
+    @VisibleForTesting static final int TYPE_ICON = 0;
+    @VisibleForTesting static final int TYPE_FOLDER = 1;
+    @VisibleForTesting static final int TYPE_WIDGET = 2;
+    private static final String[] TYPE_NAMES = {"icon", "folder", "widget"};
+    // Costs used until the item types are measured, in nanoseconds.
+    private static final long[] DEFAULT_COSTS = {300000, 1000000, 8000000};
+
+    // Upper bounds of the chunk size buckets.
+    private static final int[] CHUNK_SIZE_BOUNDS = {2, 4, 8, 16, 32};
+
+    private final boolean mLogEnabled = Utilities.isPropertyEnabled(LogConfig.LOADER_TIMINGS);
+    private final long mFrameIntervalNanos;
+    private final long mBudgetNanos;
+
+    // Guarded by this, as the chunks are planned on the loader thread.
+    private final long[] mCosts = DEFAULT_COSTS.clone();
+    private final int[] mChunkSizeCounts = new int[CHUNK_SIZE_BOUNDS.length + 1];
+    private final LatencyHistogram mChunkDurations =
+            new LatencyHistogram("Bind chunk duration", 2, 4, 8, 16, 32);
+    private int mBudgetOverruns;
+    private int mMissedFrames;
+
+    // Main thread only.
+    private boolean mWatchingFrames;
+    private boolean mBoundSinceLastFrame;
+    private long mLastFrameTimeNanos;
+
+    public BindChunker(Context context) {
+        this(getFrameIntervalNanos(context));
+    }
+
+    @VisibleForTesting
+    BindChunker(long frameIntervalNanos) {
+        mFrameIntervalNanos = frameIntervalNanos;
+        mBudgetNanos = (long) (frameIntervalNanos * FRAME_BUDGET_FRACTION);
+    }
+
+    private static long getFrameIntervalNanos(Context context) {
+        Display display = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay();
+        float refreshRate = display.getRefreshRate();
+        if (refreshRate < 1) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        return (long) (1000000000L / refreshRate);
+    }
+
+    public long getBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    /**
+     * Splits {@param items} into consecutive chunks whose estimated bind cost fits in the frame
+     * budget. A chunk has at least one item, even if that item is over the budget.
+     */
+    public synchronized ArrayList<List<ItemInfo>> split(List<ItemInfo> items) {
+        ArrayList<List<ItemInfo>> chunks = new ArrayList<>();
+        int count = items.size();
+        int start = 0;
+        long chunkCost = 0;
+        for (int i = 0; i < count; i++) {
+            long cost = mCosts[getType(items.get(i))];
+            if (i > start && chunkCost + cost > mBudgetNanos) {
+                chunks.add(items.subList(start, i));
+                start = i;
+                chunkCost = 0;
+            }
+            chunkCost += cost;
+        }
+        if (start < count) {
+            chunks.add(items.subList(start, count));
+        }
+        return chunks;
+    }
+
+    /**
+     * Binds {@param chunk} and updates the costs of its item types with the time it took.
+     * Must be called on the main thread.
+     */
+    public void bindChunk(Callbacks callbacks, List<ItemInfo> chunk) {
+        long start = System.nanoTime();
+        callbacks.bindItems(chunk, false);
+        long duration = System.nanoTime() - start;
+
+        onChunkBound(chunk, duration);
+
+        mBoundSinceLastFrame = true;
+        if (!mWatchingFrames) {
+            mWatchingFrames = true;
+            mLastFrameTimeNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void onChunkBound(List<ItemInfo> chunk, long durationNanos) {
+        int size = chunk.size();
+        int bucket = 0;
+        while (bucket < CHUNK_SIZE_BOUNDS.length && size >= CHUNK_SIZE_BOUNDS[bucket]) {
+            bucket++;
+        }
+        mChunkSizeCounts[bucket]++;
+        mChunkDurations.record(durationNanos / 1000000);
+
+        long estimate = 0;
+        long[] typeEstimates = new long[mCosts.length];
+        for (int i = 0; i < size; i++) {
+            int type = getType(chunk.get(i));
+            typeEstimates[type] += mCosts[type];
+            estimate += mCosts[type];
+        }
+        if (durationNanos > mBudgetNanos && size > 1) {
+            // A single item over the budget could not have been split any further.
+            mBudgetOverruns++;
+        }
+        if (mLogEnabled) {
+            Log.d(TAG, String.format("Bound %d items in %.2fms, estimated %.2fms", size,
+                    durationNanos / 1e6f, estimate / 1e6f));
+        }
+        if (estimate <= 0) {
+            return;
+        }
+
+        // Spread the error between the item types, based on their share of the estimate.
+        float ratio = Math.min(MAX_COST_RATIO,
+                Math.max(1 / MAX_COST_RATIO, (float) durationNanos / estimate));
+        for (int type = 0; type < mCosts.length; type++) {
+            if (typeEstimates[type] > 0) {
+                float share = (float) typeEstimates[type] / estimate;
+                mCosts[type] = Math.max(1,
+                        (long) (mCosts[type] * (1 + COST_SMOOTHING * share * (ratio - 1))));
+            }
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mLastFrameTimeNanos > 0) {
+            long missed = (frameTimeNanos - mLastFrameTimeNanos - mFrameIntervalNanos / 2)
+                    / mFrameIntervalNanos;
+            if (missed > 0) {
+                synchronized (this) {
+                    mMissedFrames += missed;
+                }
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        // Keep watching until a frame goes by without any bind.
+        if (mBoundSinceLastFrame) {
+            mBoundSinceLastFrame = false;
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            mWatchingFrames = false;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized long getCost(int type) {
+        return mCosts[type];
+    }
+
+    @VisibleForTesting
+    static int getType(ItemInfo info) {
+        switch (info.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                return TYPE_FOLDER;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+            case LauncherSettings.Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
+                return TYPE_WIDGET;
+            default:
+                return TYPE_ICON;
+        }
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "BindChunker: budget=" + mBudgetNanos / 1000 + "us"
+                + " budgetOverruns=" + mBudgetOverruns + " missedFrames=" + mMissedFrames);
+        StringBuilder costs = new StringBuilder(prefix).append("  costs:");
+        for (int type = 0; type < mCosts.length; type++) {
+            costs.append(' ').append(TYPE_NAMES[type]).append('=')
+                    .append(mCosts[type] / 1000).append("us");
+        }
+        writer.println(costs);
+        StringBuilder sizes = new StringBuilder(prefix).append("  chunk sizes:");
+        for (int i = 0; i < mChunkSizeCounts.length; i++) {
+            sizes.append(' ').append(i < CHUNK_SIZE_BOUNDS.length
+                    ? "<" + CHUNK_SIZE_BOUNDS[i] : ">=" + CHUNK_SIZE_BOUNDS[i - 1])
+                    .append(": ").append(mChunkSizeCounts[i]);
+        }
+        writer.println(sizes);
+        mChunkDurations.dump(prefix + "  ", writer);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.pm.LauncherActivityInfo;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+
+import com.android.launcher3.compat.AppWidgetManagerCompat;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.shortcuts.ShortcutInfoCompat;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues the independent system queries needed by {@link LoaderTask} up front, so that they run
+ * on a small bounded pool while the loader thread is busy with the favorites cursor and binding.
+ *
+ * The loader thread still consumes the results in the original order, so binding to
+ * {@link LoaderResults} is unchanged. When {@link FeatureFlags#LAUNCHER3_PARALLEL_LOADER} is
+ * disabled, every query is deferred and executed inline when first requested, which reproduces
+ * the sequential loader for comparison.
+ */
+class LoaderPrefetch {
+
+    private static final int POOL_SIZE = 3;
+    private static final int KEEP_ALIVE_SECONDS = 1;
+
+    private static final ThreadPoolExecutor sPool = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private int mCount = 0;
+
+                @Override
+                public synchronized Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "launcher-loader-pool-" + (mCount++));
+                }
+            });
+
+    static {
+        sPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Result of the deep shortcut query. {@link #shortcuts} is null when the launcher does not
+     * hold the shortcut host permission.
+     */
+    static class DeepShortcutsResult {
+        HashMap<UserHandle, List<ShortcutInfoCompat>> shortcuts;
+    }
+
+    final Future<HashMap<ComponentKey, AppWidgetProviderInfo>> widgetProviders;
+    final HashMap<UserHandle, Future<List<LauncherActivityInfo>>> activities = new HashMap<>();
+    final Future<DeepShortcutsResult> deepShortcuts;
+
+    private final boolean mParallel;
+    private final LoaderTimings mTimings;
+    private final ArrayList<StageTask<?>> mTasks = new ArrayList<>();
+
+    LoaderPrefetch(final LauncherAppsCompat launcherApps, final UserManagerCompat userManager,
+            final DeepShortcutManager shortcutManager,
+            final AppWidgetManagerCompat appWidgetManager, LoaderTimings timings) {
+        mParallel = FeatureFlags.LAUNCHER3_PARALLEL_LOADER;
+        mTimings = timings;
+
+        final List<UserHandle> profiles = userManager.getUserProfiles();
+        for (final UserHandle user : profiles) {
+            activities.put(user, submit("getActivityList " + user,
+                    new Callable<List<LauncherActivityInfo>>() {
+                        @Override
+                        public List<LauncherActivityInfo> call() {
+                            return launcherApps.getActivityList(null, user);
+                        }
+                    }));
+        }
+
+        widgetProviders = submit("getAllProvidersMap",
+                new Callable<HashMap<ComponentKey, AppWidgetProviderInfo>>() {
+                    @Override
+                    public HashMap<ComponentKey, AppWidgetProviderInfo> call() {
+                        return appWidgetManager.getAllProvidersMap();
+                    }
+                });
+
+        deepShortcuts = submit("queryForAllShortcuts", new Callable<DeepShortcutsResult>() {
+            @Override
+            public DeepShortcutsResult call() {
+                DeepShortcutsResult result = new DeepShortcutsResult();
+                if (shortcutManager.hasHostPermission()) {
+                    result.shortcuts = new HashMap<>();
+                    for (UserHandle user : profiles) {
+                        if (userManager.isUserUnlocked(user)) {
+                            result.shortcuts.put(user,
+                                    shortcutManager.queryForAllShortcuts(user));
+                        }
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    private <T> Future<T> submit(String name, Callable<T> callable) {
+        StageTask<T> task = new StageTask<>(name, callable);
+        mTasks.add(task);
+        if (mParallel) {
+            sPool.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Returns the result of a prefetched query, waiting for it if necessary. In sequential mode
+     * the query runs on the calling thread.
+     *
+     * @throws CancellationException if the prefetch was cancelled while waiting.
+     */
+    <T> T get(Future<T> future) throws CancellationException {
+        if (!mParallel) {
+            ((StageTask<T>) future).run();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new CancellationException("Interrupted while waiting for " + future);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Cancels all the pending queries. Queries already running are interrupted, and any thread
+     * blocked in {@link #get} gets a {@link CancellationException}.
+     */
+    void cancel() {
+        for (StageTask<?> task : mTasks) {
+            task.cancel(true);
+        }
+    }
+
+    private class StageTask<T> extends FutureTask<T> {
+
+        private final String mName;
+
+        StageTask(String name, final Callable<T> callable) {
+            super(callable);
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.uptimeMillis();
+            super.run();
+            if (isDone() && !isCancelled()) {
+                mTimings.addStage(mName, start, SystemClock.uptimeMillis());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import com.android.launcher3.PagedView;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.LooperIdleLock;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.ViewOnDrawExecutor;
@@ -43,6 +44,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -53,7 +55,6 @@ public class LoaderResults {
 
     private static final String TAG = "LoaderResults";
     private static final long INVALID_SCREEN_ID = -1L;
-    private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
 
     private final Executor mUiExecutor;
 
@@ -61,16 +62,19 @@ public class LoaderResults {
     private final BgDataModel mBgDataModel;
     private final AllAppsList mBgAllAppsList;
     private final int mPageToBindFirst;
+    private final BindChunker mBindChunker;
 
     private final WeakReference<Callbacks> mCallbacks;
 
     public LoaderResults(LauncherAppState app, BgDataModel dataModel,
-            AllAppsList allAppsList, int pageToBindFirst, WeakReference<Callbacks> callbacks) {
+            AllAppsList allAppsList, int pageToBindFirst, BindChunker bindChunker,
+            WeakReference<Callbacks> callbacks) {
         mUiExecutor = new MainThreadExecutor();
         mApp = app;
         mBgDataModel = dataModel;
         mBgAllAppsList = allAppsList;
         mPageToBindFirst = pageToBindFirst;
+        mBindChunker = bindChunker;
         mCallbacks = callbacks == null ? new WeakReference<Callbacks>(null) : callbacks;
     }
 
@@ -124,8 +128,12 @@ public class LoaderResults {
                 otherWorkspaceItems);
         filterCurrentWorkspaceItems(currentScreenId, appWidgets, currentAppWidgets,
                 otherAppWidgets);
+        // The widgets are bound along with the icons of their page.
+        currentWorkspaceItems.addAll(currentAppWidgets);
+        otherWorkspaceItems.addAll(otherAppWidgets);
         sortWorkspaceItemsSpatially(currentWorkspaceItems);
         sortWorkspaceItemsSpatially(otherWorkspaceItems);
+        sortWorkspaceItemsByPage(otherWorkspaceItems, orderedScreenIds, currentScreen);
 
         // Tell the workspace that we're about to start binding items
         r = new Runnable() {
@@ -152,7 +160,7 @@ public class LoaderResults {
 
         Executor mainExecutor = mUiExecutor;
         // Load items on the current page.
-        bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+        bindWorkspaceItems(currentWorkspaceItems, mainExecutor);
 
         // In case of validFirstPage, only bind the first screen, and defer binding the
         // remaining screens after first onDraw (and an optional the fade animation whichever
@@ -173,7 +181,7 @@ public class LoaderResults {
             }
         });
 
-        bindWorkspaceItems(otherWorkspaceItems, otherAppWidgets, deferredExecutor);
+        bindWorkspaceItems(otherWorkspaceItems, deferredExecutor);
 
         // Tell the workspace that we're done binding items
         r = new Runnable() {
@@ -291,36 +299,40 @@ public class LoaderResults {
         });
     }
 
-    private void bindWorkspaceItems(final ArrayList<ItemInfo> workspaceItems,
-            final ArrayList<LauncherAppWidgetInfo> appWidgets,
-            final Executor executor) {
+    /** Sorts the set of items by the distance of their page to {@param currentScreen}, so that
+     * the pages the user can scroll to first are bound first. The order within a page is kept. */
+    private void sortWorkspaceItemsByPage(ArrayList<ItemInfo> workspaceItems,
+            ArrayList<Long> orderedScreenIds, int currentScreen) {
+        final LongArrayMap<Integer> distances = new LongArrayMap<>();
+        int screenCount = orderedScreenIds.size();
+        for (int i = 0; i < screenCount; i++) {
+            distances.put(orderedScreenIds.get(i), Math.abs(i - Math.max(0, currentScreen)));
+        }
+        Collections.sort(workspaceItems, new Comparator<ItemInfo>() {
+            @Override
+            public int compare(ItemInfo lhs, ItemInfo rhs) {
+                return Utilities.longCompare(getDistance(lhs), getDistance(rhs));
+            }
 
-        // Bind the workspace items
-        int N = workspaceItems.size();
-        for (int i = 0; i < N; i += ITEMS_CHUNK) {
-            final int start = i;
-            final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
-            final Runnable r = new Runnable() {
-                @Override
-                public void run() {
-                    Callbacks callbacks = mCallbacks.get();
-                    if (callbacks != null) {
-                        callbacks.bindItems(workspaceItems.subList(start, start+chunkSize), false);
-                    }
+            private int getDistance(ItemInfo info) {
+                if (info.container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                    return -1;
                 }
-            };
-            executor.execute(r);
-        }
+                Integer distance = distances.get(info.screenId);
+                return distance == null ? Integer.MAX_VALUE : distance;
+            }
+        });
+    }
 
-        // Bind the widgets, one at a time
-        N = appWidgets.size();
-        for (int i = 0; i < N; i++) {
-            final ItemInfo widget = appWidgets.get(i);
+    private void bindWorkspaceItems(ArrayList<ItemInfo> workspaceItems, Executor executor) {
+        // Bind the workspace items and widgets, in chunks sized to fit the frame budget
+        for (final List<ItemInfo> chunk : mBindChunker.split(workspaceItems)) {
             final Runnable r = new Runnable() {
+                @Override
                 public void run() {
                     Callbacks callbacks = mCallbacks.get();
                     if (callbacks != null) {
-                        callbacks.bindItems(Collections.singletonList(widget), false);
+                        mBindChunker.bindChunk(callbacks, chunk);
                     }
                 }
             };
@@ -75,6 +75,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 /**
  * Runnable for the thread that loads the contents of the launcher:
@@ -101,6 +102,8 @@ public class LoaderTask implements Runnable {
     private final IconCache mIconCache;
 
     private boolean mStopped;
+    private LoaderPrefetch mPrefetch;
+    private int mPrefetchPackageUpdateCount;
 
     public LoaderTask(LauncherAppState app, AllAppsList bgAllAppsList, BgDataModel dataModel,
             LoaderResults results) {
@@ -134,21 +137,30 @@ public class LoaderTask implements Runnable {
     }
 
     public void run() {
+        final LoaderTimings timings = new LoaderTimings();
         synchronized (this) {
             // Skip fast if we are already stopped.
             if (mStopped) {
                 return;
             }
+            // Start the queries which do not depend on the workspace, so that they overlap with
+            // the workspace load below.
+            mPrefetchPackageUpdateCount = mApp.getModel().getPackageUpdateCount();
+            mPrefetch = new LoaderPrefetch(mLauncherApps, mUserManager, mShortcutManager,
+                    mAppWidgetManager, timings);
         }
 
+        boolean completed = false;
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
             long now = 0;
             if (DEBUG_LOADERS) Log.d(TAG, "step 1.1: loading workspace");
             loadWorkspace();
+            timings.addSplit("loadWorkspace");
 
             verifyNotStopped();
             if (DEBUG_LOADERS) Log.d(TAG, "step 1.2: bind workspace workspace");
             mResults.bindWorkspace();
+            timings.addSplit("bindWorkspace");
 
             // Take a break
             if (DEBUG_LOADERS) {
@@ -157,19 +169,23 @@ public class LoaderTask implements Runnable {
             }
             waitForIdle();
             if (DEBUG_LOADERS) Log.d(TAG, "Waited " + (SystemClock.uptimeMillis() - now) + "ms");
+            timings.addSplit("waitForIdle");
             verifyNotStopped();
 
             // second step
             if (DEBUG_LOADERS) Log.d(TAG, "step 2.1: loading all apps");
             loadAllApps();
+            timings.addSplit("loadAllApps");
 
             if (DEBUG_LOADERS) Log.d(TAG, "step 2.2: Binding all apps");
             verifyNotStopped();
             mResults.bindAllApps();
+            timings.addSplit("bindAllApps");
 
             verifyNotStopped();
             if (DEBUG_LOADERS) Log.d(TAG, "step 2.3: Update icon cache");
             updateIconCache();
+            timings.addSplit("updateIconCache");
 
             // Take a break
             if (DEBUG_LOADERS) {
@@ -178,40 +194,53 @@ public class LoaderTask implements Runnable {
             }
             waitForIdle();
             if (DEBUG_LOADERS) Log.d(TAG, "Waited " + (SystemClock.uptimeMillis() - now) + "ms");
+            timings.addSplit("waitForIdle");
             verifyNotStopped();
 
             // third step
             if (DEBUG_LOADERS) Log.d(TAG, "step 3.1: loading deep shortcuts");
             loadDeepShortcuts();
+            timings.addSplit("loadDeepShortcuts");
 
             verifyNotStopped();
             if (DEBUG_LOADERS) Log.d(TAG, "step 3.2: bind deep shortcuts");
             mResults.bindDeepShortcuts();
+            timings.addSplit("bindDeepShortcuts");
 
             // Take a break
             if (DEBUG_LOADERS) Log.d(TAG, "step 3 completed, wait for idle");
             waitForIdle();
+            timings.addSplit("waitForIdle");
             verifyNotStopped();
 
             // fourth step
             if (DEBUG_LOADERS) Log.d(TAG, "step 4.1: loading widgets");
-            mBgDataModel.widgetsModel.update(mApp, null);
+            mBgDataModel.widgetsModel.update(mApp, null, getPrefetchedWidgetProviders());
+            timings.addSplit("loadWidgets");
 
             verifyNotStopped();
             if (DEBUG_LOADERS) Log.d(TAG, "step 4.2: Binding widgets");
             mResults.bindWidgets();
+            timings.addSplit("bindWidgets");
 
             transaction.commit();
+            completed = true;
         } catch (CancellationException e) {
             // Loader stopped, ignore
             if (DEBUG_LOADERS) {
                 Log.d(TAG, "Loader cancelled", e);
             }
+        } finally {
+            mPrefetch.cancel();
+            timings.dump(completed);
         }
     }
 
     public synchronized void stopLocked() {
         mStopped = true;
+        if (mPrefetch != null) {
+            mPrefetch.cancel();
+        }
         this.notify();
     }
 
@@ -574,7 +603,7 @@ public class LoaderTask implements Runnable {
                                     LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY);
 
                             if (widgetProvidersMap == null) {
-                                widgetProvidersMap = mAppWidgetManager.getAllProvidersMap();
+                                widgetProvidersMap = mPrefetch.get(mPrefetch.widgetProviders);
                             }
                             final AppWidgetProviderInfo provider = widgetProvidersMap.get(
                                     new ComponentKey(
@@ -799,11 +828,13 @@ public class LoaderTask implements Runnable {
         // Clear the list of apps
         mBgAllAppsList.clear();
         for (UserHandle user : profiles) {
-            // Query for the set of apps
+            // Query for the set of apps, started by the prefetch
             final long qiaTime = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
-            final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            Future<List<LauncherActivityInfo>> appsFuture = mPrefetch.activities.get(user);
+            final List<LauncherActivityInfo> apps = appsFuture != null
+                    ? mPrefetch.get(appsFuture) : mLauncherApps.getActivityList(null, user);
             if (DEBUG_LOADERS) {
-                Log.d(TAG, "getActivityList took "
+                Log.d(TAG, "getActivityList waited "
                         + (SystemClock.uptimeMillis()-qiaTime) + "ms for user " + user);
                 Log.d(TAG, "getActivityList got " + apps.size() + " apps for user " + user);
             }
@@ -839,16 +870,35 @@ public class LoaderTask implements Runnable {
         }
     }
 
+    /**
+     * Returns the widget providers queried by the prefetch, or null if the query failed or a
+     * package was updated since the prefetch started, in which case {@link WidgetsModel} runs
+     * (and handles the failure of) the query itself.
+     */
+    private List<AppWidgetProviderInfo> getPrefetchedWidgetProviders() {
+        if (mApp.getModel().getPackageUpdateCount() != mPrefetchPackageUpdateCount) {
+            if (DEBUG_LOADERS) Log.d(TAG, "Packages updated since the prefetch, re-query widgets");
+            return null;
+        }
+        try {
+            return new ArrayList<>(mPrefetch.get(mPrefetch.widgetProviders).values());
+        } catch (CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to prefetch widget providers", e);
+            return null;
+        }
+    }
+
     private void loadDeepShortcuts() {
         mBgDataModel.deepShortcutMap.clear();
-        mBgDataModel.hasShortcutHostPermission = mShortcutManager.hasHostPermission();
+        mShortcutManager.clearShortcutCache();
+        LoaderPrefetch.DeepShortcutsResult result = mPrefetch.get(mPrefetch.deepShortcuts);
+        mBgDataModel.hasShortcutHostPermission = result.shortcuts != null;
         if (mBgDataModel.hasShortcutHostPermission) {
-            for (UserHandle user : mUserManager.getUserProfiles()) {
-                if (mUserManager.isUserUnlocked(user)) {
-                    List<ShortcutInfoCompat> shortcuts =
-                            mShortcutManager.queryForAllShortcuts(user);
-                    mBgDataModel.updateDeepShortcutMap(null, user, shortcuts);
-                }
+            for (Map.Entry<UserHandle, List<ShortcutInfoCompat>> entry
+                    : result.shortcuts.entrySet()) {
+                mBgDataModel.updateDeepShortcutMap(null, entry.getKey(), entry.getValue());
             }
         }
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.util.LogConfig;
+
+import java.util.ArrayList;
+
+/**
+ * Collects the start and end time of each stage of a {@link LoaderTask} run, including the
+ * queries running on the prefetch pool, and prints them once the run is over.
+ *
+ * Enable with: adb shell setprop log.tag.LoaderTimings VERBOSE
+ */
+class LoaderTimings {
+
+    private static final String TAG = LogConfig.LOADER_TIMINGS;
+
+    private final boolean mEnabled = Utilities.isPropertyEnabled(LogConfig.LOADER_TIMINGS);
+    private final long mStartTime = SystemClock.uptimeMillis();
+    private final ArrayList<String> mStages = new ArrayList<>();
+
+    private long mSplitTime = mStartTime;
+
+    /**
+     * Records a stage that ran on the loader thread, starting where the previous split ended.
+     */
+    void addSplit(String name) {
+        if (!mEnabled) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        addStage(name, mSplitTime, now);
+        mSplitTime = now;
+    }
+
+    /**
+     * Records a stage with explicit bounds. Safe to call from any thread.
+     */
+    void addStage(String name, long start, long end) {
+        if (!mEnabled) {
+            return;
+        }
+        String thread = Thread.currentThread().getName();
+        synchronized (mStages) {
+            mStages.add(String.format("%-28s [%s] +%dms, took %dms",
+                    name, thread, start - mStartTime, end - start));
+        }
+    }
+
+    void dump(boolean completed) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (mStages) {
+            Log.d(TAG, (FeatureFlags.LAUNCHER3_PARALLEL_LOADER ? "Parallel" : "Sequential")
+                    + (completed ? " loader completed" : " loader cancelled") + " in "
+                    + (SystemClock.uptimeMillis() - mStartTime) + "ms");
+            for (String stage : mStages) {
+                Log.d(TAG, "  " + stage);
+            }
+        }
+    }
+}
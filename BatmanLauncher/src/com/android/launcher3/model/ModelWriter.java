@@ -18,7 +18,6 @@ package com.android.launcher3.model;
 
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
@@ -32,16 +31,24 @@ import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.LauncherSettings.Settings;
 import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LooperExecutor;
+import com.android.launcher3.util.Thunk;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.concurrent.Executor;
 
 /**
  * Class for handling model updates.
+ *
+ * Item updates are not written one by one: the updates made until the worker thread gets to them
+ * are merged by item id and written in a single transaction. Any other write starts a new batch,
+ * so that the writes to the DB keep the order in which they were made. The pending batch is shared
+ * by all the writers of a {@link BgDataModel}.
  */
 public class ModelWriter {
 
@@ -51,10 +58,12 @@ public class ModelWriter {
     private final BgDataModel mBgDataModel;
     private final Executor mWorkerExecutor;
     private final boolean mHasVerticalHotseat;
+    private final PendingBatch mPendingBatch;
 
     public ModelWriter(Context context, BgDataModel dataModel, boolean hasVerticalHotseat) {
         mContext = context;
         mBgDataModel = dataModel;
+        mPendingBatch = dataModel.pendingUpdates;
         mWorkerExecutor = new LooperExecutor(LauncherModel.getWorkerLooper());
         mHasVerticalHotseat = hasVerticalHotseat;
     }
@@ -140,7 +149,7 @@ public class ModelWriter {
                 .put(Favorites.RANK, item.rank)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -148,23 +157,21 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, long container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
         int count = items.size();
 
         for (int i = 0; i < count; i++) {
             ItemInfo item = items.get(i);
             updateItemInfoProps(item, container, screen, item.cellX, item.cellY);
 
-            final ContentValues values = new ContentValues();
-            values.put(Favorites.CONTAINER, item.container);
-            values.put(Favorites.CELLX, item.cellX);
-            values.put(Favorites.CELLY, item.cellY);
-            values.put(Favorites.RANK, item.rank);
-            values.put(Favorites.SCREEN, item.screenId);
+            final ContentWriter writer = new ContentWriter(mContext)
+                    .put(Favorites.CONTAINER, item.container)
+                    .put(Favorites.CELLX, item.cellX)
+                    .put(Favorites.CELLY, item.cellY)
+                    .put(Favorites.RANK, item.rank)
+                    .put(Favorites.SCREEN, item.screenId);
 
-            contentValues.add(values);
+            enqueueUpdate(item, writer);
         }
-        mWorkerExecutor.execute(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -185,7 +192,7 @@ public class ModelWriter {
                 .put(Favorites.SPANY, item.spanY)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -194,7 +201,42 @@ public class ModelWriter {
     public void updateItemInDatabase(ItemInfo item) {
         ContentWriter writer = new ContentWriter(mContext);
         item.onAddToDatabase(writer);
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
+    }
+
+    /**
+     * Adds the update of {@param item} to the pending batch, merging it with any pending update
+     * of the same item.
+     */
+    private void enqueueUpdate(ItemInfo item, ContentWriter writer) {
+        UpdateBatch newBatch = null;
+        synchronized (mPendingBatch) {
+            if (mPendingBatch.batch == null) {
+                mPendingBatch.batch = newBatch = new UpdateBatch();
+            }
+            mPendingBatch.batch.add(item, writer, getStackTrace());
+        }
+        if (newBatch != null) {
+            mWorkerExecutor.execute(newBatch);
+        }
+    }
+
+    /**
+     * Makes the next updates go to a new batch, so that they are written after the writes
+     * posted since the pending batch.
+     */
+    private void sealPendingBatch() {
+        synchronized (mPendingBatch) {
+            mPendingBatch.batch = null;
+        }
+    }
+
+    /**
+     * The stack trace is only used to report inconsistencies, capturing it for every write
+     * generates too much garbage outside of debug builds.
+     */
+    private static StackTraceElement[] getStackTrace() {
+        return FeatureFlags.IS_DOGFOOD_BUILD ? new Throwable().getStackTrace() : null;
     }
 
     /**
@@ -212,7 +254,8 @@ public class ModelWriter {
         item.id = Settings.call(cr, Settings.METHOD_NEW_ITEM_ID).getLong(Settings.EXTRA_VALUE);
         writer.put(Favorites._ID, item.id);
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        final StackTraceElement[] stackTrace = getStackTrace();
+        sealPendingBatch();
         mWorkerExecutor.execute(new Runnable() {
             public void run() {
                 cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
@@ -243,6 +286,7 @@ public class ModelWriter {
      * Removes the specified items from the database
      */
     public void deleteItemsFromDatabase(final Iterable<? extends ItemInfo> items) {
+        sealPendingBatch();
         mWorkerExecutor.execute(new Runnable() {
             public void run() {
                 for (ItemInfo item : items) {
@@ -259,6 +303,7 @@ public class ModelWriter {
      * Remove the specified folder and all its contents from the database.
      */
     public void deleteFolderAndContentsFromDatabase(final FolderInfo info) {
+        sealPendingBatch();
         mWorkerExecutor.execute(new Runnable() {
             public void run() {
                 ContentResolver cr = mContext.getContentResolver();
@@ -273,101 +318,113 @@ public class ModelWriter {
         });
     }
 
-    private class UpdateItemRunnable extends UpdateItemBaseRunnable {
-        private final ItemInfo mItem;
-        private final ContentWriter mWriter;
-        private final long mItemId;
+    @Thunk void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
+        // Lock on mBgLock *after* the db operation
+        synchronized (mBgDataModel) {
+            checkItemInfoLocked(itemId, item, stackTrace);
+
+            if (item.container != Favorites.CONTAINER_DESKTOP &&
+                    item.container != Favorites.CONTAINER_HOTSEAT) {
+                // Item is in a folder, make sure this folder exists
+                if (!mBgDataModel.folders.containsKey(item.container)) {
+                    // An items container is being set to a that of an item which is not in
+                    // the list of Folders.
+                    String msg = "item: " + item + " container being set to: " +
+                            item.container + ", not in the list of folders";
+                    Log.e(TAG, msg);
+                }
+            }
 
-        UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
-            mItem = item;
-            mWriter = writer;
-            mItemId = item.id;
+            // Items are added/removed from the corresponding FolderInfo elsewhere, such
+            // as in Workspace.onDrop. Here, we just add/remove them from the list of items
+            // that are on the desktop, as appropriate
+            ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
+            if (modelItem != null &&
+                    (modelItem.container == Favorites.CONTAINER_DESKTOP ||
+                            modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
+                switch (modelItem.itemType) {
+                    case Favorites.ITEM_TYPE_APPLICATION:
+                    case Favorites.ITEM_TYPE_SHORTCUT:
+                    case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
+                    case Favorites.ITEM_TYPE_FOLDER:
+                        if (!mBgDataModel.workspaceItems.contains(modelItem)) {
+                            mBgDataModel.workspaceItems.add(modelItem);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else {
+                mBgDataModel.workspaceItems.remove(modelItem);
+            }
         }
+    }
 
-        @Override
-        public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
-            updateItemArrays(mItem, mItemId);
-        }
+    /**
+     * Holds the batch which receives the new updates of a model, guarded by itself.
+     */
+    static class PendingBatch {
+        private UpdateBatch batch;
     }
 
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
+    private static class PendingUpdate {
+        ItemInfo item;
+        final long itemId;
+        final ContentWriter writer;
+        StackTraceElement[] stackTrace;
+
+        PendingUpdate(ItemInfo item, ContentWriter writer, StackTraceElement[] stackTrace) {
+            this.item = item;
+            this.itemId = item.id;
+            this.writer = writer;
+            this.stackTrace = stackTrace;
+        }
+    }
 
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
+    private class UpdateBatch implements Runnable {
+        // Updates by item id, in the order the items were first updated. Guarded by mPendingBatch
+        // until the batch is sealed.
+        private final LinkedHashMap<Long, PendingUpdate> mUpdates = new LinkedHashMap<>();
+
+        void add(ItemInfo item, ContentWriter writer, StackTraceElement[] stackTrace) {
+            PendingUpdate update = mUpdates.get(item.id);
+            if (update == null) {
+                mUpdates.put(item.id, new PendingUpdate(item, writer, stackTrace));
+            } else {
+                // The latest values win.
+                update.writer.putAll(writer);
+                update.item = item;
+                update.stackTrace = stackTrace;
+            }
         }
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
-            for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final long itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
+            synchronized (mPendingBatch) {
+                if (mPendingBatch.batch == this) {
+                    mPendingBatch.batch = null;
+                }
+            }
+
+            ArrayList<ContentProviderOperation> ops = new ArrayList<>(mUpdates.size());
+            for (PendingUpdate update : mUpdates.values()) {
+                Uri uri = Favorites.getContentUri(update.itemId);
+                ops.add(ContentProviderOperation.newUpdate(uri)
+                        .withValues(update.writer.getValues(mContext)).build());
             }
             try {
                 mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
             } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-    private abstract class UpdateItemBaseRunnable implements Runnable {
-        private final StackTraceElement[] mStackTrace;
-
-        UpdateItemBaseRunnable() {
-            mStackTrace = new Throwable().getStackTrace();
-        }
-
-        protected void updateItemArrays(ItemInfo item, long itemId) {
-            // Lock on mBgLock *after* the db operation
-            synchronized (mBgDataModel) {
-                checkItemInfoLocked(itemId, item, mStackTrace);
-
-                if (item.container != Favorites.CONTAINER_DESKTOP &&
-                        item.container != Favorites.CONTAINER_HOTSEAT) {
-                    // Item is in a folder, make sure this folder exists
-                    if (!mBgDataModel.folders.containsKey(item.container)) {
-                        // An items container is being set to a that of an item which is not in
-                        // the list of Folders.
-                        String msg = "item: " + item + " container being set to: " +
-                                item.container + ", not in the list of folders";
-                        Log.e(TAG, msg);
-                    }
-                }
-
-                // Items are added/removed from the corresponding FolderInfo elsewhere, such
-                // as in Workspace.onDrop. Here, we just add/remove them from the list of items
-                // that are on the desktop, as appropriate
-                ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
-                if (modelItem != null &&
-                        (modelItem.container == Favorites.CONTAINER_DESKTOP ||
-                                modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
-                    switch (modelItem.itemType) {
-                        case Favorites.ITEM_TYPE_APPLICATION:
-                        case Favorites.ITEM_TYPE_SHORTCUT:
-                        case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
-                        case Favorites.ITEM_TYPE_FOLDER:
-                            if (!mBgDataModel.workspaceItems.contains(modelItem)) {
-                                mBgDataModel.workspaceItems.add(modelItem);
-                            }
-                            break;
-                        default:
-                            break;
-                    }
-                } else {
-                    mBgDataModel.workspaceItems.remove(modelItem);
+                Log.e(TAG, "Failed to update " + ops.size() + " items", e);
+                // The items in memory no longer match the DB, reload them from it.
+                LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+                if (app != null) {
+                    app.getModel().forceReload();
                 }
+                return;
+            }
+            for (PendingUpdate update : mUpdates.values()) {
+                updateItemArrays(update.item, update.itemId, update.stackTrace);
             }
         }
     }
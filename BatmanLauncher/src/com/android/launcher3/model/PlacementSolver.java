@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.android.launcher3.model.GridSizeMigrationTask.DbEntry;
+import com.android.launcher3.util.GridOccupancy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Finds the placement of a set of items on a partially occupied grid which loses the least item
+ * weight and then moves the items the least, for {@link GridSizeMigrationTask}.
+ *
+ * This is a depth first branch and bound search over the same moves as the original recursive
+ * solution: every position and single step resize of the widgets, and the nearest free cell of
+ * the 1x1 items. The candidates of a widget are tried from the cheapest, a branch is abandoned
+ * when a lower bound of its weight loss can not beat the best placement found so far, and an
+ * occupancy state already reached at a lower cost is not searched again. If the search runs out
+ * of time, the best placement found so far is kept.
+ */
+class PlacementSolver {
+
+    // Number of search nodes between two checks of the time budget.
+    private static final int TIME_CHECK_INTERVAL = 256;
+    // Limits the memory used to remember the visited occupancy states.
+    private static final int MAX_VISITED_STATES = 50000;
+    // Tolerance for comparing sums of float weights.
+    private static final float EPSILON = 0.0001f;
+
+    private static final int RESIZE_NONE = 0;
+    private static final int RESIZE_X = 1;
+    private static final int RESIZE_Y = 2;
+    private static final int RESIZE_XY = 3;
+
+    private final GridOccupancy mOccupied;
+    private final ArrayList<DbEntry> mItems;
+    private final int mCountX;
+    private final int mCountY;
+    private final int mStartY;
+    // If set to true, item movement are not considered in move cost, leading to a more
+    // linear placement.
+    private final boolean mIgnoreMove;
+    private final long mTimeBudgetNanos;
+
+    // Snapshot of the grid occupancy, used to identify the visited states.
+    private final long[] mRows;
+    private int mFreeCells;
+
+    // Current placement of each item, and the best one found.
+    private final int[] mCellX, mCellY, mSpanX, mSpanY;
+    private final boolean[] mPlaced;
+    private final int[] mBestCellX, mBestCellY, mBestSpanX, mBestSpanY;
+    private final boolean[] mBestPlaced;
+
+    // Item indices sorted by weight per cell, to compute the lower bound of the weight loss.
+    private final Integer[] mByWeightDensity;
+    private final int[] mMinArea;
+
+    // Candidate buffers, one per depth, to avoid allocating while searching.
+    private final int[][] mCandidates;
+
+    private final HashMap<State, float[]> mVisited = new HashMap<>();
+    private final State mProbe;
+
+    private long mDeadline;
+    private int mNodeCount;
+    private boolean mTimedOut;
+
+    float lowestWeightLoss = Float.MAX_VALUE;
+    float lowestMoveCost = Float.MAX_VALUE;
+    ArrayList<DbEntry> finalPlacedItems;
+
+    /**
+     * @param occupied the grid, with the cells which can not be used marked. It is restored to
+     *                 the same state once the search is done.
+     * @param itemsToPlace the items to place, sorted in place by {@link DbEntry#compareTo}.
+     * @param startY the first row in the grid from where the placement should start.
+     * @param timeBudgetNanos the time after which the best placement found so far is used.
+     */
+    PlacementSolver(GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace, int countX,
+            int countY, int startY, boolean ignoreMove, long timeBudgetNanos) {
+        mOccupied = occupied;
+        mItems = itemsToPlace;
+        mCountX = countX;
+        mCountY = countY;
+        mStartY = startY;
+        mIgnoreMove = ignoreMove;
+        mTimeBudgetNanos = timeBudgetNanos;
+
+        // Sort the items such that larger widgets appear first followed by 1x1 items
+        Collections.sort(mItems);
+
+        int n = mItems.size();
+        mCellX = new int[n];
+        mCellY = new int[n];
+        mSpanX = new int[n];
+        mSpanY = new int[n];
+        mPlaced = new boolean[n];
+        mBestCellX = new int[n];
+        mBestCellY = new int[n];
+        mBestSpanX = new int[n];
+        mBestSpanY = new int[n];
+        mBestPlaced = new boolean[n];
+        mCandidates = new int[n][];
+
+        mMinArea = new int[n];
+        mByWeightDensity = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            DbEntry item = mItems.get(i);
+            mMinArea[i] = Math.max(1, getMinSpan(item.spanX, item.minSpanX))
+                    * Math.max(1, getMinSpan(item.spanY, item.minSpanY));
+            mByWeightDensity[i] = i;
+        }
+        Arrays.sort(mByWeightDensity, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Float.compare(mItems.get(lhs).weight / mMinArea[lhs],
+                        mItems.get(rhs).weight / mMinArea[rhs]);
+            }
+        });
+
+        mRows = new long[countY];
+        for (int x = 0; x < countX; x++) {
+            for (int y = 0; y < countY; y++) {
+                if (!occupied.isOccupied(x, y)) {
+                    mFreeCells++;
+                }
+            }
+        }
+        mProbe = new State(0, mRows);
+    }
+
+    /**
+     * The search only tries to shrink a widget by one cell in each direction.
+     */
+    private static int getMinSpan(int span, int minSpan) {
+        return span > minSpan ? span - 1 : span;
+    }
+
+    public void find() {
+        mDeadline = System.nanoTime() + mTimeBudgetNanos;
+        find(0, 0, 0);
+
+        finalPlacedItems = new ArrayList<>();
+        for (int i = 0; i < mItems.size(); i++) {
+            if (mBestPlaced[i]) {
+                DbEntry entry = mItems.get(i).copy();
+                entry.cellX = mBestCellX[i];
+                entry.cellY = mBestCellY[i];
+                entry.spanX = mBestSpanX[i];
+                entry.spanY = mBestSpanY[i];
+                finalPlacedItems.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the time budget ran out before the search completed, in which case the
+     * placement is the best one found in time.
+     */
+    public boolean isTimedOut() {
+        return mTimedOut;
+    }
+
+    /**
+     * Returns the number of search nodes visited, including the ones pruned.
+     */
+    @VisibleForTesting
+    int getNodeCount() {
+        return mNodeCount;
+    }
+
+    private void find(int index, float weightLoss, float moveCost) {
+        if (mTimedOut || shouldPrune(index, weightLoss, moveCost)) {
+            return;
+        }
+        if (index >= mItems.size()) {
+            // All the items have been considered, and this placement is better.
+            lowestWeightLoss = weightLoss;
+            lowestMoveCost = moveCost;
+            System.arraycopy(mCellX, 0, mBestCellX, 0, index);
+            System.arraycopy(mCellY, 0, mBestCellY, 0, index);
+            System.arraycopy(mSpanX, 0, mBestSpanX, 0, index);
+            System.arraycopy(mSpanY, 0, mBestSpanY, 0, index);
+            System.arraycopy(mPlaced, 0, mBestPlaced, 0, index);
+            return;
+        }
+
+        DbEntry me = mItems.get(index);
+        if (me.spanX > 1 || me.spanY > 1) {
+            findWidget(index, me, weightLoss, moveCost);
+        } else {
+            findIcon(index, me, weightLoss, moveCost);
+        }
+    }
+
+    /**
+     * Tries to place a widget at all the possible positions and sizes, as a widget placed at one
+     * position can affect the placement of a different widget.
+     */
+    private void findWidget(int index, DbEntry me, float weightLoss, float moveCost) {
+        int[] candidates = mCandidates[index];
+        if (candidates == null) {
+            candidates = mCandidates[index] = new int[mCountX * mCountY * 4];
+        }
+        int cellCount = mCountX * mCountY;
+        int count = 0;
+        for (int y = mStartY; y < mCountY; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                int moveCostDelta = mIgnoreMove ? 0
+                        : (x != me.cellX ? 1 : 0) + (y != me.cellY ? 1 : 0);
+                for (int resize = RESIZE_NONE; resize <= RESIZE_XY; resize++) {
+                    int spanX = (resize & RESIZE_X) != 0 ? me.spanX - 1 : me.spanX;
+                    int spanY = (resize & RESIZE_Y) != 0 ? me.spanY - 1 : me.spanY;
+                    if ((spanX < me.spanX && me.spanX <= me.minSpanX)
+                            || (spanY < me.spanY && me.spanY <= me.minSpanY)
+                            || !mOccupied.isRegionVacant(x, y, spanX, spanY)) {
+                        continue;
+                    }
+                    // Each resized direction costs one extra move.
+                    int cost = moveCostDelta + Integer.bitCount(resize);
+                    // Order by cost, then by position and resize as in a row major scan.
+                    candidates[count++] = (cost * cellCount + y * mCountX + x) * 4 + resize;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, count);
+
+        for (int i = 0; i < count && !mTimedOut; i++) {
+            int candidate = candidates[i];
+            int resize = candidate % 4;
+            int position = (candidate / 4) % cellCount;
+            int cost = candidate / 4 / cellCount;
+            int x = position % mCountX;
+            int y = position / mCountX;
+            int spanX = (resize & RESIZE_X) != 0 ? me.spanX - 1 : me.spanX;
+            int spanY = (resize & RESIZE_Y) != 0 ? me.spanY - 1 : me.spanY;
+
+            place(index, x, y, spanX, spanY);
+            find(index + 1, weightLoss, moveCost + cost);
+            unplace(index);
+        }
+
+        // Finally also try a solution when this item is not included. Trying it in the end
+        // causes it to get skipped in most cases due to higher weight loss.
+        mPlaced[index] = false;
+        find(index + 1, weightLoss + me.weight, moveCost);
+    }
+
+    /**
+     * Since this is a 1x1 item and all the following items are also 1x1, just place it at the
+     * free cell with the least straight line distance.
+     */
+    private void findIcon(int index, DbEntry me, float weightLoss, float moveCost) {
+        int newDistance = Integer.MAX_VALUE;
+        int newX = -1, newY = -1;
+        for (int y = mStartY; y < mCountY && newDistance > 0; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                if (!mOccupied.isOccupied(x, y)) {
+                    int dist = mIgnoreMove ? 0 : ((me.cellX - x) * (me.cellX - x)
+                            + (me.cellY - y) * (me.cellY - y));
+                    if (dist < newDistance) {
+                        newX = x;
+                        newY = y;
+                        newDistance = dist;
+                        if (dist == 0) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (newX >= 0) {
+            int cost = mIgnoreMove ? 0 : (newX != me.cellX ? 1 : 0) + (newY != me.cellY ? 1 : 0);
+            place(index, newX, newY, 1, 1);
+            find(index + 1, weightLoss, moveCost + cost);
+            unplace(index);
+
+            // Try to find a solution without this item, only if
+            //  1) there was at least one space, i.e., we were able to place this item
+            //  2) if the next item has the same weight (all items are already sorted), as
+            //     if it has lower weight, that solution will automatically get discarded.
+            //  3) ignoreMove false otherwise, move cost is ignored and the weight will
+            //      anyway be same.
+            if (index + 1 < mItems.size()
+                    && mItems.get(index + 1).weight >= me.weight && !mIgnoreMove) {
+                mPlaced[index] = false;
+                find(index + 1, weightLoss + me.weight, moveCost);
+            }
+        } else {
+            // No more space. Jump to the end.
+            for (int i = index; i < mItems.size(); i++) {
+                weightLoss += mItems.get(i).weight;
+                mPlaced[i] = false;
+            }
+            find(mItems.size(), weightLoss, moveCost);
+        }
+    }
+
+    /**
+     * Returns true if no placement reachable from the current state can be strictly better than
+     * the best one found so far.
+     */
+    private boolean shouldPrune(int index, float weightLoss, float moveCost) {
+        if (++mNodeCount % TIME_CHECK_INTERVAL == 0 && hasPlacement()
+                && System.nanoTime() > mDeadline) {
+            mTimedOut = true;
+            return true;
+        }
+
+        // The weight loss and the move cost only grow further down the search.
+        float minWeightLoss = weightLoss + getWeightLossLowerBound(index);
+        if (minWeightLoss > lowestWeightLoss + EPSILON
+                || (minWeightLoss >= lowestWeightLoss - EPSILON && moveCost >= lowestMoveCost)) {
+            return true;
+        }
+
+        if (index >= mItems.size()) {
+            return false;
+        }
+        // Skip the states already reached at a lower cost, they have been searched with a
+        // looser bound than the current one.
+        mOccupied.snapshot(mRows);
+        mProbe.set(index, mRows);
+        float[] visitedCost = mVisited.get(mProbe);
+        if (visitedCost != null) {
+            if (visitedCost[0] < weightLoss - EPSILON || (visitedCost[0] <= weightLoss + EPSILON
+                    && visitedCost[1] <= moveCost)) {
+                return true;
+            }
+            visitedCost[0] = weightLoss;
+            visitedCost[1] = moveCost;
+        } else if (mVisited.size() < MAX_VISITED_STATES) {
+            mVisited.put(new State(index, mRows.clone()), new float[] {weightLoss, moveCost});
+        }
+        return false;
+    }
+
+    private boolean hasPlacement() {
+        return lowestWeightLoss != Float.MAX_VALUE;
+    }
+
+    /**
+     * Returns the least weight lost by the items from {@param index}, if they can not all fit in
+     * the free cells: at least their extra area must be dropped, starting with the items with
+     * the least weight per cell.
+     */
+    @VisibleForTesting
+    float getWeightLossLowerBound(int index) {
+        int area = 0;
+        for (int i = index; i < mItems.size(); i++) {
+            area += mMinArea[i];
+        }
+        int excess = area - mFreeCells;
+        float loss = 0;
+        for (int i = 0; i < mByWeightDensity.length && excess > 0; i++) {
+            int item = mByWeightDensity[i];
+            if (item < index) {
+                continue;
+            }
+            int dropped = Math.min(excess, mMinArea[item]);
+            loss += mItems.get(item).weight * dropped / mMinArea[item];
+            excess -= dropped;
+        }
+        return loss;
+    }
+
+    private void place(int index, int x, int y, int spanX, int spanY) {
+        mCellX[index] = x;
+        mCellY[index] = y;
+        mSpanX[index] = spanX;
+        mSpanY[index] = spanY;
+        mPlaced[index] = true;
+        mark(x, y, spanX, spanY, true);
+    }
+
+    private void unplace(int index) {
+        mark(mCellX[index], mCellY[index], mSpanX[index], mSpanY[index], false);
+        mPlaced[index] = false;
+    }
+
+    private void mark(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        mOccupied.markCells(cellX, cellY, spanX, spanY, value);
+        mFreeCells += value ? -spanX * spanY : spanX * spanY;
+    }
+
+    /**
+     * An item index and the grid occupancy when reaching it.
+     */
+    private static class State {
+        int index;
+        long[] bits;
+        int hash;
+
+        State(int index, long[] bits) {
+            set(index, bits);
+        }
+
+        void set(int index, long[] bits) {
+            this.index = index;
+            this.bits = bits;
+            hash = 31 * index + Arrays.hashCode(bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof State)) {
+                return false;
+            }
+            State other = (State) obj;
+            return index == other.index && Arrays.equals(bits, other.bits);
+        }
+    }
+}
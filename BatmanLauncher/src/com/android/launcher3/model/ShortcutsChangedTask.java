@@ -56,7 +56,7 @@ public class ShortcutsChangedTask extends BaseModelUpdateTask {
     public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList apps) {
         final Context context = app.getContext();
         DeepShortcutManager deepShortcutManager = DeepShortcutManager.getInstance(context);
-        deepShortcutManager.onShortcutsChanged(mShortcuts);
+        deepShortcutManager.onShortcutsChanged(mPackageName, mUser);
 
         // Find ShortcutInfo's that have changed on the workspace.
         HashSet<ShortcutKey> removedKeys = new HashSet<>();
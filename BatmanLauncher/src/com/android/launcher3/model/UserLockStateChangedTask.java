@@ -53,6 +53,7 @@ public class UserLockStateChangedTask extends BaseModelUpdateTask {
         Context context = app.getContext();
         boolean isUserUnlocked = UserManagerCompat.getInstance(context).isUserUnlocked(mUser);
         DeepShortcutManager deepShortcutManager = DeepShortcutManager.getInstance(context);
+        deepShortcutManager.onShortcutsChanged(null, mUser);
 
         HashMap<ShortcutKey, ShortcutInfoCompat> pinnedShortcuts = new HashMap<>();
         if (isUserUnlocked) {
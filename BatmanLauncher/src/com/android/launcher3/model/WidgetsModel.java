@@ -3,10 +3,12 @@ package com.android.launcher3.model;
 
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Process;
 import android.os.UserHandle;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.launcher3.AppFilter;
@@ -15,17 +17,22 @@ import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.WidgetPreviewLoader;
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Widgets data model that is used by the adapters of the widget views and controllers.
@@ -37,13 +44,41 @@ public class WidgetsModel {
     private static final String TAG = "WidgetsModel";
     private static final boolean DEBUG = false;
 
-    /* Map of widgets and shortcuts that are tracked per package. */
+    /**
+     * Map of widgets and shortcuts that are tracked per package. The list of a package is
+     * replaced, and never modified, when the package changes: the lists are shared with
+     * {@link #getWidgetsMap()}, whose callers can compare them by identity to find the packages
+     * which changed between two updates. The keys are shared as well, and are replaced rather
+     * than modified when their title, icon or user changes.
+     */
     private final MultiHashMap<PackageItemInfo, WidgetItem> mWidgetsList = new MultiHashMap<>();
 
+    /* Keys of mWidgetsList, indexed by package name. */
+    private final HashMap<String, PackageItemInfo> mPackageItemInfos = new HashMap<>();
+
+    /* Items of the previous updates, reused as long as their package is not updated. */
+    private final HashMap<ComponentKey, WidgetItem> mItemsCache = new HashMap<>();
+    /* Last update time of the packages, when their cached items were created. */
+    private final HashMap<PackageUserKey, Long> mPackageVersions = new HashMap<>();
+    // The labels and spans of the cached items depend on the locale and the grid size.
+    private Locale mCacheLocale;
+    private int mCacheNumRows;
+    private int mCacheNumColumns;
+
+    // Whether the previews of all the packages were checked, which is done on the first full
+    // update since packages may have changed while the launcher was dead.
+    private boolean mAllPreviewsChecked;
+
     private AppFilter mAppFilter;
 
+    /**
+     * Returns the widgets and shortcuts per package. The lists are shared with the model and
+     * must not be modified.
+     */
     public synchronized MultiHashMap<PackageItemInfo, WidgetItem> getWidgetsMap() {
-        return mWidgetsList.clone();
+        MultiHashMap<PackageItemInfo, WidgetItem> widgets = new MultiHashMap<>(mWidgetsList.size());
+        widgets.putAll(mWidgetsList);
+        return widgets;
     }
 
     /**
@@ -51,6 +86,15 @@ public class WidgetsModel {
      *                    only widgets and shortcuts associated with the package/user are.
      */
     public void update(LauncherAppState app, @Nullable PackageUserKey packageUser) {
+        update(app, packageUser, null);
+    }
+
+    /**
+     * Same as {@link #update(LauncherAppState, PackageUserKey)}, but uses the given widget
+     * providers if they have already been queried.
+     */
+    public void update(LauncherAppState app, @Nullable PackageUserKey packageUser,
+            @Nullable List<AppWidgetProviderInfo> providers) {
         Preconditions.assertWorkerThread();
 
         Context context = app.getContext();
@@ -58,20 +102,47 @@ public class WidgetsModel {
         try {
             PackageManager pm = context.getPackageManager();
             InvariantDeviceProfile idp = app.getInvariantDeviceProfile();
+            invalidateItemsCacheIfNeeded(idp);
+            // A full update looks up the versions of most packages, query them all at once.
+            HashMap<String, Long> versions;
+            if (packageUser == null) {
+                versions = getInstalledPackageVersions(pm);
+            } else {
+                versions = new HashMap<>();
+                versions.put(packageUser.mPackageName,
+                        getPackageVersion(pm, packageUser.mPackageName));
+            }
 
             // Widgets
-            AppWidgetManagerCompat widgetManager = AppWidgetManagerCompat.getInstance(context);
-            for (AppWidgetProviderInfo widgetInfo : widgetManager.getAllProviders(packageUser)) {
-                widgetsAndShortcuts.add(new WidgetItem(LauncherAppWidgetProviderInfo
-                        .fromProviderInfo(context, widgetInfo), pm, idp));
+            if (providers == null) {
+                providers = AppWidgetManagerCompat.getInstance(context)
+                        .getAllProviders(packageUser);
+            }
+            for (AppWidgetProviderInfo widgetInfo : providers) {
+                WidgetItem item = getCachedItem(versions,
+                        new ComponentKey(widgetInfo.provider, widgetInfo.getProfile()), true);
+                if (item == null) {
+                    item = new WidgetItem(LauncherAppWidgetProviderInfo
+                            .fromProviderInfo(context, widgetInfo), pm, idp);
+                }
+                widgetsAndShortcuts.add(item);
             }
 
             // Shortcuts
             for (ShortcutConfigActivityInfo info : LauncherAppsCompat.getInstance(context)
                     .getCustomShortcutActivityList(packageUser)) {
-                widgetsAndShortcuts.add(new WidgetItem(info));
+                WidgetItem item = getCachedItem(versions,
+                        new ComponentKey(info.getComponent(), info.getUser()), false);
+                if (item == null) {
+                    item = new WidgetItem(info);
+                }
+                widgetsAndShortcuts.add(item);
             }
-            setWidgetsAndShortcuts(widgetsAndShortcuts, app, packageUser);
+            HashSet<PackageUserKey> changedPackages =
+                    setWidgetsAndShortcuts(widgetsAndShortcuts, app, packageUser);
+            updateItemsCache(widgetsAndShortcuts, packageUser, versions);
+            removeObsoletePreviews(app.getWidgetCache(), widgetsAndShortcuts, packageUser,
+                    changedPackages);
         } catch (Exception e) {
             if (!FeatureFlags.IS_DOGFOOD_BUILD && Utilities.isBinderSizeError(e)) {
                 // the returned value may be incomplete and will not be refreshed until the next
@@ -82,52 +153,102 @@ public class WidgetsModel {
                 throw e;
             }
         }
+    }
 
-        app.getWidgetCache().removeObsoletePreviews(widgetsAndShortcuts, packageUser);
+    private void invalidateItemsCacheIfNeeded(InvariantDeviceProfile idp) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mCacheLocale) || idp.numRows != mCacheNumRows
+                || idp.numColumns != mCacheNumColumns) {
+            mItemsCache.clear();
+            mPackageVersions.clear();
+            mCacheLocale = locale;
+            mCacheNumRows = idp.numRows;
+            mCacheNumColumns = idp.numColumns;
+        }
     }
 
-    private synchronized void setWidgetsAndShortcuts(ArrayList<WidgetItem> rawWidgetsShortcuts,
-            LauncherAppState app, @Nullable PackageUserKey packageUser) {
-        if (DEBUG) {
-            Log.d(TAG, "addWidgetsAndShortcuts, widgetsShortcuts#=" + rawWidgetsShortcuts.size());
+    /**
+     * Returns the item created for {@param key} by a previous update, if its package was not
+     * updated since, or null.
+     */
+    private WidgetItem getCachedItem(HashMap<String, Long> versions, ComponentKey key,
+            boolean isWidget) {
+        String packageName = key.componentName.getPackageName();
+        Long packageVersion = versions.get(packageName);
+        long version = packageVersion == null ? -1 : packageVersion;
+        WidgetItem item = mItemsCache.get(key);
+        if (item == null || (item.widgetInfo != null) != isWidget || version < 0) {
+            return null;
+        }
+        Long cachedVersion = mPackageVersions.get(new PackageUserKey(packageName, key.user));
+        return cachedVersion != null && cachedVersion == version ? item : null;
+    }
+
+    /**
+     * Returns the last update time of the package, or -1 if unknown.
+     */
+    private static long getPackageVersion(PackageManager pm, String packageName) {
+        try {
+            // The package may only be installed for another user.
+            return pm.getPackageInfo(packageName,
+                    PackageManager.GET_UNINSTALLED_PACKAGES).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return -1;
         }
+    }
 
-        // Temporary list for {@link PackageItemInfos} to avoid having to go through
-        // {@link mPackageItemInfos} to locate the key to be used for {@link #mWidgetsList}
-        HashMap<String, PackageItemInfo> tmpPackageItemInfos = new HashMap<>();
+    /**
+     * Returns the last update time of all the packages, including the ones only installed for
+     * another user.
+     */
+    private static HashMap<String, Long> getInstalledPackageVersions(PackageManager pm) {
+        List<PackageInfo> packages =
+                pm.getInstalledPackages(PackageManager.GET_UNINSTALLED_PACKAGES);
+        HashMap<String, Long> versions = new HashMap<>(packages.size());
+        for (PackageInfo info : packages) {
+            versions.put(info.packageName, info.lastUpdateTime);
+        }
+        return versions;
+    }
 
-        // clear the lists.
+    private void updateItemsCache(ArrayList<WidgetItem> widgetsAndShortcuts,
+            @Nullable PackageUserKey packageUser, HashMap<String, Long> versions) {
         if (packageUser == null) {
-            mWidgetsList.clear();
+            mItemsCache.clear();
+            mPackageVersions.clear();
         } else {
-            // Only clear the widgets for the given package/user.
-            PackageItemInfo packageItem = null;
-            for (PackageItemInfo item : mWidgetsList.keySet()) {
-                if (item.packageName.equals(packageUser.mPackageName)) {
-                    packageItem = item;
-                    break;
-                }
-            }
-            if (packageItem != null) {
-                // We want to preserve the user that was on the packageItem previously,
-                // so add it to tmpPackageItemInfos here to avoid creating a new entry.
-                tmpPackageItemInfos.put(packageItem.packageName, packageItem);
-
-                Iterator<WidgetItem> widgetItemIterator = mWidgetsList.get(packageItem).iterator();
-                while (widgetItemIterator.hasNext()) {
-                    WidgetItem nextWidget = widgetItemIterator.next();
-                    if (nextWidget.componentName.getPackageName().equals(packageUser.mPackageName)
-                            && nextWidget.user.equals(packageUser.mUser)) {
-                        widgetItemIterator.remove();
-                    }
+            Iterator<WidgetItem> iterator = mItemsCache.values().iterator();
+            while (iterator.hasNext()) {
+                WidgetItem item = iterator.next();
+                if (item.componentName.getPackageName().equals(packageUser.mPackageName)
+                        && item.user.equals(packageUser.mUser)) {
+                    iterator.remove();
                 }
             }
+            mPackageVersions.remove(packageUser);
+        }
+        for (WidgetItem item : widgetsAndShortcuts) {
+            String packageName = item.componentName.getPackageName();
+            mItemsCache.put(item, item);
+            mPackageVersions.put(new PackageUserKey(packageName, item.user),
+                    versions.get(packageName));
         }
+    }
 
-        InvariantDeviceProfile idp = app.getInvariantDeviceProfile();
-        UserHandle myUser = Process.myUserHandle();
+    /**
+     * Updates the widget lists of the updated packages.
+     *
+     * @return the packages/users whose widgets or shortcuts were added, removed or recreated.
+     */
+    private synchronized HashSet<PackageUserKey> setWidgetsAndShortcuts(
+            ArrayList<WidgetItem> rawWidgetsShortcuts, LauncherAppState app,
+            @Nullable PackageUserKey packageUser) {
+        if (DEBUG) {
+            Log.d(TAG, "addWidgetsAndShortcuts, widgetsShortcuts#=" + rawWidgetsShortcuts.size());
+        }
 
-        // add and update.
+        InvariantDeviceProfile idp = app.getInvariantDeviceProfile();
+        MultiHashMap<String, WidgetItem> newItems = new MultiHashMap<>();
         for (WidgetItem item : rawWidgetsShortcuts) {
             if (item.widgetInfo != null) {
                 // Ensure that all widgets we show can be added on a workspace of this size
@@ -153,24 +274,142 @@ public class WidgetsModel {
                 }
                 continue;
             }
+            newItems.addToList(item.componentName.getPackageName(), item);
+        }
 
-            String packageName = item.componentName.getPackageName();
-            PackageItemInfo pInfo = tmpPackageItemInfos.get(packageName);
-            if (pInfo == null) {
-                pInfo = new PackageItemInfo(packageName);
-                pInfo.user = item.user;
-                tmpPackageItemInfos.put(packageName,  pInfo);
-            } else if (!myUser.equals(pInfo.user)) {
-                // Keep updating the user, until we get the primary user.
-                pInfo.user = item.user;
-            }
-            mWidgetsList.addToList(pInfo, item);
+        // A full update goes through all the packages, including the ones which have no
+        // widgets anymore, otherwise only the given package is updated.
+        HashSet<String> packages = new HashSet<>(newItems.keySet());
+        if (packageUser == null) {
+            packages.addAll(mPackageItemInfos.keySet());
+        } else {
+            packages.add(packageUser.mPackageName);
         }
 
-        // Update each package entry
+        HashSet<PackageUserKey> changedPackages = new HashSet<>();
         IconCache iconCache = app.getIconCache();
-        for (PackageItemInfo p : tmpPackageItemInfos.values()) {
-            iconCache.getTitleAndIconForApp(p, true /* userLowResIcon */);
+        UserHandle myUser = Process.myUserHandle();
+        for (String packageName : packages) {
+            PackageItemInfo pInfo = mPackageItemInfos.get(packageName);
+            ArrayList<WidgetItem> oldItems = pInfo == null ? null : mWidgetsList.get(pInfo);
+            ArrayList<WidgetItem> items = newItems.get(packageName);
+            if (items == null) {
+                items = new ArrayList<>();
+            }
+            if (packageUser != null && oldItems != null) {
+                // Keep the widgets of the other users.
+                for (WidgetItem item : oldItems) {
+                    if (!item.user.equals(packageUser.mUser)) {
+                        items.add(item);
+                    }
+                }
+            }
+
+            // Items are reused while their package is unchanged, so they are compared by
+            // identity.
+            int changedCount = changedPackages.size();
+            addChangedPackages(packageName, items, oldItems, changedPackages);
+            addChangedPackages(packageName, oldItems, items, changedPackages);
+            boolean changed = changedPackages.size() != changedCount;
+
+            if (items.isEmpty()) {
+                if (pInfo != null) {
+                    mWidgetsList.remove(pInfo);
+                    mPackageItemInfos.remove(packageName);
+                }
+                continue;
+            }
+
+            // Use the primary user if the package has widgets for it.
+            UserHandle user = items.get(items.size() - 1).user;
+            for (WidgetItem item : items) {
+                if (myUser.equals(item.user)) {
+                    user = myUser;
+                    break;
+                }
+            }
+            // The published infos are not modified, a new one replaces the current one if its
+            // title, icon or user changed.
+            PackageItemInfo newInfo = new PackageItemInfo(packageName);
+            newInfo.user = user;
+            iconCache.getTitleAndIconForApp(newInfo, true /* userLowResIcon */);
+            if (pInfo == null || !user.equals(pInfo.user) || newInfo.iconBitmap != pInfo.iconBitmap
+                    || !TextUtils.equals(newInfo.title, pInfo.title)) {
+                if (pInfo != null) {
+                    mWidgetsList.remove(pInfo);
+                }
+                pInfo = newInfo;
+                mPackageItemInfos.put(packageName, pInfo);
+                changed = true;
+            }
+
+            if (changed) {
+                mWidgetsList.put(pInfo, items);
+            }
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "setWidgetsAndShortcuts, changedPackages=" + changedPackages);
+        }
+        return changedPackages;
+    }
+
+    /**
+     * Adds to {@param out} the package/user of the items of {@param items} which are not in
+     * {@param others}.
+     */
+    private static void addChangedPackages(String packageName,
+            @Nullable ArrayList<WidgetItem> items, @Nullable ArrayList<WidgetItem> others,
+            HashSet<PackageUserKey> out) {
+        if (items == null) {
+            return;
+        }
+        for (WidgetItem item : items) {
+            if (!containsSameItem(others, item)) {
+                out.add(new PackageUserKey(packageName, item.user));
+            }
+        }
+    }
+
+    private static boolean containsSameItem(@Nullable ArrayList<WidgetItem> items,
+            WidgetItem item) {
+        if (items != null) {
+            for (WidgetItem other : items) {
+                if (other == item) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the previews of the packages which changed. The first full update checks all the
+     * packages instead.
+     */
+    private void removeObsoletePreviews(WidgetPreviewLoader widgetCache,
+            ArrayList<WidgetItem> widgetsAndShortcuts, @Nullable PackageUserKey packageUser,
+            HashSet<PackageUserKey> changedPackages) {
+        if (packageUser != null) {
+            widgetCache.removeObsoletePreviews(widgetsAndShortcuts, packageUser);
+        } else if (!mAllPreviewsChecked) {
+            widgetCache.removeObsoletePreviews(widgetsAndShortcuts, null);
+            mAllPreviewsChecked = true;
+        } else if (!changedPackages.isEmpty()) {
+            MultiHashMap<PackageUserKey, WidgetItem> changedItems = new MultiHashMap<>();
+            for (PackageUserKey key : changedPackages) {
+                changedItems.put(key, new ArrayList<WidgetItem>());
+            }
+            for (WidgetItem item : widgetsAndShortcuts) {
+                ArrayList<WidgetItem> items = changedItems.get(
+                        new PackageUserKey(item.componentName.getPackageName(), item.user));
+                if (items != null) {
+                    items.add(item);
+                }
+            }
+            for (PackageUserKey key : changedPackages) {
+                widgetCache.removeObsoletePreviews(changedItems.get(key), key);
+            }
         }
     }
-}
\ No newline at end of file
+}
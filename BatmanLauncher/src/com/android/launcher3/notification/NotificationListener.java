@@ -40,6 +40,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.android.launcher3.SettingsActivity.NOTIFICATION_BADGING;
 
@@ -62,6 +63,8 @@ public class NotificationListener extends NotificationListenerService {
     private static NotificationsChangedListener sNotificationsChangedListener;
     private static boolean sIsConnected;
     private static boolean sIsCreated;
+    // Number of binder calls made to query the active notifications.
+    private static final AtomicInteger sActiveNotificationQueries = new AtomicInteger();
 
     private final Handler mWorkerHandler;
     private final Handler mUiHandler;
@@ -83,6 +86,7 @@ public class NotificationListener extends NotificationListenerService {
                     List<StatusBarNotification> activeNotifications;
                     if (sIsConnected) {
                         try {
+                            sActiveNotificationQueries.incrementAndGet();
                             activeNotifications = filterNotifications(getActiveNotifications());
                         } catch (SecurityException ex) {
                             Log.e(TAG, "SecurityException: failed to fetch notifications");
@@ -108,7 +112,7 @@ public class NotificationListener extends NotificationListenerService {
                     if (sNotificationsChangedListener != null) {
                         NotificationPostedMsg msg = (NotificationPostedMsg) message.obj;
                         sNotificationsChangedListener.onNotificationPosted(msg.packageUserKey,
-                                msg.notificationKey, msg.shouldBeFilteredOut);
+                                msg.notificationKey, msg.sbn, msg.shouldBeFilteredOut);
                     }
                     break;
                 case MSG_NOTIFICATION_REMOVED:
@@ -158,6 +162,10 @@ public class NotificationListener extends NotificationListenerService {
         mNotificationBadgingObserver.unregister();
     }
 
+    public static int getActiveNotificationQueryCount() {
+        return sActiveNotificationQueries.get();
+    }
+
     public static @Nullable NotificationListener getInstanceIfConnected() {
         return sIsConnected ? sNotificationListenerInstance : null;
     }
@@ -210,9 +218,11 @@ public class NotificationListener extends NotificationListenerService {
     private class NotificationPostedMsg {
         final PackageUserKey packageUserKey;
         final NotificationKeyData notificationKey;
+        final StatusBarNotification sbn;
         final boolean shouldBeFilteredOut;
 
         NotificationPostedMsg(StatusBarNotification sbn) {
+            this.sbn = sbn;
             packageUserKey = PackageUserKey.fromNotification(sbn);
             notificationKey = NotificationKeyData.fromNotification(sbn);
             shouldBeFilteredOut = shouldBeFilteredOut(sbn);
@@ -231,6 +241,7 @@ public class NotificationListener extends NotificationListenerService {
 
     /** This makes a potentially expensive binder call and should be run on a background thread. */
     public List<StatusBarNotification> getNotificationsForKeys(List<NotificationKeyData> keys) {
+        sActiveNotificationQueries.incrementAndGet();
         StatusBarNotification[] notifications = NotificationListener.this
                 .getActiveNotifications(NotificationKeyData.extractKeysOnly(keys)
                         .toArray(new String[keys.size()]));
@@ -284,7 +295,8 @@ public class NotificationListener extends NotificationListenerService {
 
     public interface NotificationsChangedListener {
         void onNotificationPosted(PackageUserKey postedPackageUserKey,
-                NotificationKeyData notificationKey, boolean shouldBeFilteredOut);
+                NotificationKeyData notificationKey, StatusBarNotification sbn,
+                boolean shouldBeFilteredOut);
         void onNotificationRemoved(PackageUserKey removedPackageUserKey,
                 NotificationKeyData notificationKey);
         void onNotificationFullRefresh(List<StatusBarNotification> activeNotifications);
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.notification;
+
+import android.content.Context;
+import android.service.notification.StatusBarNotification;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Local copy of the active notifications shown in badges, by notification key. It is kept up
+ * to date with the notifications posted to and removed from {@link NotificationListener}, so
+ * that the badges can be updated without querying the active notifications again.
+ *
+ * Must be accessed on the main thread.
+ */
+public class NotificationStore {
+
+    private static class Entry {
+        final StatusBarNotification sbn;
+        NotificationInfo info;
+
+        Entry(StatusBarNotification sbn) {
+            this.sbn = sbn;
+        }
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    public void put(StatusBarNotification sbn) {
+        mEntries.put(sbn.getKey(), new Entry(sbn));
+    }
+
+    public void remove(String notificationKey) {
+        mEntries.remove(notificationKey);
+    }
+
+    /**
+     * Replaces the content of the store with {@param notifications}. The notifications which
+     * were not updated since they were stored keep their {@link NotificationInfo}.
+     */
+    public void replaceAll(List<StatusBarNotification> notifications) {
+        HashMap<String, Entry> oldEntries = new HashMap<>(mEntries);
+        mEntries.clear();
+        for (StatusBarNotification sbn : notifications) {
+            Entry entry = oldEntries.get(sbn.getKey());
+            if (entry == null || entry.sbn.getPostTime() != sbn.getPostTime()) {
+                entry = new Entry(sbn);
+            }
+            mEntries.put(sbn.getKey(), entry);
+        }
+    }
+
+    public @Nullable StatusBarNotification get(String notificationKey) {
+        Entry entry = mEntries.get(notificationKey);
+        return entry == null ? null : entry.sbn;
+    }
+
+    /**
+     * Returns the {@link NotificationInfo} of a stored notification, which is only created once
+     * per posted notification as it loads the notification icon.
+     */
+    public @Nullable NotificationInfo getInfo(Context context, String notificationKey) {
+        Entry entry = mEntries.get(notificationKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.info == null) {
+            entry.info = new NotificationInfo(context, entry.sbn);
+        }
+        return entry.info;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+}
@@ -35,6 +35,7 @@ import android.graphics.drawable.ShapeDrawable;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.IntDef;
 import android.util.AttributeSet;
 import android.view.Gravity;
@@ -181,6 +182,7 @@ public class PopupContainerWithArrow extends AbstractFloatingView implements Dra
 
     public void populateAndShow(final BubbleTextView originalIcon, final List<String> shortcutIds,
             final List<NotificationKeyData> notificationKeys, List<SystemShortcut> systemShortcuts) {
+        final long startTime = SystemClock.uptimeMillis();
         final Resources resources = getResources();
         final int arrowWidth = resources.getDimensionPixelSize(R.dimen.popup_arrow_width);
         final int arrowHeight = resources.getDimensionPixelSize(R.dimen.popup_arrow_height);
@@ -250,7 +252,7 @@ public class PopupContainerWithArrow extends AbstractFloatingView implements Dra
         new Handler(workerLooper).postAtFrontOfQueue(PopupPopulator.createUpdateRunnable(
                 mLauncher, originalItemInfo, new Handler(Looper.getMainLooper()),
                 this, shortcutIds, shortcutViews, notificationKeys, mNotificationItemView,
-                systemShortcuts, systemShortcutViews));
+                systemShortcuts, systemShortcutViews, startTime));
     }
 
     private void addDummyViews(PopupPopulator.Item[] itemTypesToPopulate, int numNotifications) {
@@ -17,34 +17,48 @@
 package com.android.launcher3.popup;
 
 import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.UserHandle;
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.ViewGroup;
 
+import com.android.launcher3.CellLayout;
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
-import com.android.launcher3.Utilities;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.Workspace;
 import com.android.launcher3.badge.BadgeInfo;
 import com.android.launcher3.notification.NotificationInfo;
 import com.android.launcher3.notification.NotificationKeyData;
 import com.android.launcher3.notification.NotificationListener;
+import com.android.launcher3.notification.NotificationStore;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LatencyHistogram;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Provides data for the popup menu that appears after long-clicking on apps.
  */
-public class PopupDataProvider implements NotificationListener.NotificationsChangedListener {
+public class PopupDataProvider implements NotificationListener.NotificationsChangedListener,
+        Choreographer.FrameCallback {
 
     private static final boolean LOGD = false;
     private static final String TAG = "PopupDataProvider";
@@ -61,6 +75,32 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
     private MultiHashMap<ComponentKey, String> mDeepShortcutMap = new MultiHashMap<>();
     /** Maps packages to their BadgeInfo's . */
     private Map<PackageUserKey, BadgeInfo> mPackageUserToBadgeInfos = new HashMap<>();
+    /** The active notifications, from which the badge icons are derived. */
+    private final NotificationStore mNotificationStore = new NotificationStore();
+    /** The badges changed during this frame, with how they looked before the first change. */
+    private final HashMap<PackageUserKey, BadgeState> mPendingBadges = new HashMap<>();
+    private boolean mBadgeUpdateScheduled;
+
+    /** Prefetches the shortcuts of the visible icons the next time the UI thread is idle. */
+    private final MessageQueue.IdleHandler mPrefetchHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mPrefetchScheduled = false;
+            prefetchShortcuts();
+            return false;
+        }
+    };
+    private boolean mPrefetchScheduled;
+
+    /** The time from opening a popup until its shortcuts are bound. */
+    private final LatencyHistogram mPopupLatency =
+            new LatencyHistogram("Popup shortcuts latency", 16, 33, 66, 133, 266);
+
+    // Stats for dump.
+    private int mNotificationUpdates;
+    private long mNotificationUpdateNanos;
+    private int mBadgesUpdated;
+    private int mBadgesUnchanged;
 
     public PopupDataProvider(Launcher launcher) {
         mLauncher = launcher;
@@ -68,52 +108,65 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
 
     @Override
     public void onNotificationPosted(PackageUserKey postedPackageUserKey,
-            NotificationKeyData notificationKey, boolean shouldBeFilteredOut) {
+            NotificationKeyData notificationKey, StatusBarNotification sbn,
+            boolean shouldBeFilteredOut) {
+        long startTime = System.nanoTime();
+        if (shouldBeFilteredOut) {
+            mNotificationStore.remove(notificationKey.notificationKey);
+        } else {
+            mNotificationStore.put(sbn);
+        }
+        markBadgeChanged(postedPackageUserKey);
+
         BadgeInfo badgeInfo = mPackageUserToBadgeInfos.get(postedPackageUserKey);
-        boolean badgeShouldBeRefreshed;
         if (badgeInfo == null) {
             if (!shouldBeFilteredOut) {
                 BadgeInfo newBadgeInfo = new BadgeInfo(postedPackageUserKey);
                 newBadgeInfo.addOrUpdateNotificationKey(notificationKey);
                 mPackageUserToBadgeInfos.put(postedPackageUserKey, newBadgeInfo);
-                badgeShouldBeRefreshed = true;
-            } else {
-                badgeShouldBeRefreshed = false;
             }
         } else {
-            badgeShouldBeRefreshed = shouldBeFilteredOut
-                    ? badgeInfo.removeNotificationKey(notificationKey)
-                    : badgeInfo.addOrUpdateNotificationKey(notificationKey);
+            if (shouldBeFilteredOut) {
+                badgeInfo.removeNotificationKey(notificationKey);
+            } else {
+                badgeInfo.addOrUpdateNotificationKey(notificationKey);
+            }
             if (badgeInfo.getNotificationKeys().size() == 0) {
                 mPackageUserToBadgeInfos.remove(postedPackageUserKey);
             }
         }
-        updateLauncherIconBadges(Utilities.singletonHashSet(postedPackageUserKey),
-                badgeShouldBeRefreshed);
+        onNotificationsUpdated(1, startTime);
     }
 
     @Override
     public void onNotificationRemoved(PackageUserKey removedPackageUserKey,
             NotificationKeyData notificationKey) {
+        long startTime = System.nanoTime();
+        mNotificationStore.remove(notificationKey.notificationKey);
+        markBadgeChanged(removedPackageUserKey);
+
         BadgeInfo oldBadgeInfo = mPackageUserToBadgeInfos.get(removedPackageUserKey);
         if (oldBadgeInfo != null && oldBadgeInfo.removeNotificationKey(notificationKey)) {
             if (oldBadgeInfo.getNotificationKeys().size() == 0) {
                 mPackageUserToBadgeInfos.remove(removedPackageUserKey);
             }
-            updateLauncherIconBadges(Utilities.singletonHashSet(removedPackageUserKey));
 
             PopupContainerWithArrow openContainer = PopupContainerWithArrow.getOpen(mLauncher);
             if (openContainer != null) {
                 openContainer.trimNotifications(mPackageUserToBadgeInfos);
             }
         }
+        onNotificationsUpdated(1, startTime);
     }
 
     @Override
     public void onNotificationFullRefresh(List<StatusBarNotification> activeNotifications) {
         if (activeNotifications == null) return;
-        // This will contain the PackageUserKeys which have updated badges.
-        HashMap<PackageUserKey, BadgeInfo> updatedBadges = new HashMap<>(mPackageUserToBadgeInfos);
+        long startTime = System.nanoTime();
+        for (PackageUserKey packageUserKey : mPackageUserToBadgeInfos.keySet()) {
+            markBadgeChanged(packageUserKey);
+        }
+        mNotificationStore.replaceAll(activeNotifications);
         mPackageUserToBadgeInfos.clear();
         for (StatusBarNotification notification : activeNotifications) {
             PackageUserKey packageUserKey = PackageUserKey.fromNotification(notification);
@@ -121,97 +174,153 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
             if (badgeInfo == null) {
                 badgeInfo = new BadgeInfo(packageUserKey);
                 mPackageUserToBadgeInfos.put(packageUserKey, badgeInfo);
+                if (!mPendingBadges.containsKey(packageUserKey)) {
+                    // There was no badge for this package before the refresh.
+                    mPendingBadges.put(packageUserKey, BadgeState.NONE);
+                }
             }
             badgeInfo.addOrUpdateNotificationKey(NotificationKeyData
                     .fromNotification(notification));
         }
-
-        // Add and remove from updatedBadges so it contains the PackageUserKeys of updated badges.
-        for (PackageUserKey packageUserKey : mPackageUserToBadgeInfos.keySet()) {
-            BadgeInfo prevBadge = updatedBadges.get(packageUserKey);
-            BadgeInfo newBadge = mPackageUserToBadgeInfos.get(packageUserKey);
-            if (prevBadge == null) {
-                updatedBadges.put(packageUserKey, newBadge);
-            } else {
-                if (!prevBadge.shouldBeInvalidated(newBadge)) {
-                    updatedBadges.remove(packageUserKey);
-                }
-            }
-        }
-
-        if (!updatedBadges.isEmpty()) {
-            updateLauncherIconBadges(updatedBadges.keySet());
-        }
+        scheduleBadgeUpdate();
 
         PopupContainerWithArrow openContainer = PopupContainerWithArrow.getOpen(mLauncher);
         if (openContainer != null) {
-            openContainer.trimNotifications(updatedBadges);
+            openContainer.trimNotifications(mPackageUserToBadgeInfos);
         }
+        onNotificationsUpdated(activeNotifications.size(), startTime);
     }
 
-    private void updateLauncherIconBadges(Set<PackageUserKey> updatedBadges) {
-        updateLauncherIconBadges(updatedBadges, true);
+    /**
+     * Records the state of the badge of {@param packageUserKey} before it is changed, unless it
+     * already changed during this frame, so that the launcher icons are only updated if the
+     * badge looks different once all the changes of the frame are applied.
+     */
+    private void markBadgeChanged(PackageUserKey packageUserKey) {
+        if (!mPendingBadges.containsKey(packageUserKey)) {
+            mPendingBadges.put(packageUserKey,
+                    new BadgeState(mPackageUserToBadgeInfos.get(packageUserKey)));
+        }
+        scheduleBadgeUpdate();
+    }
+
+    private void scheduleBadgeUpdate() {
+        if (!mBadgeUpdateScheduled && !mPendingBadges.isEmpty()) {
+            mBadgeUpdateScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
     }
 
     /**
-     * Updates the icons on launcher (workspace, folders, all apps) to refresh their badges.
-     * @param updatedBadges The packages whose badges should be refreshed (either a notification was
-     *                      added or removed, or the badge should show the notification icon).
-     * @param shouldRefresh An optional parameter that will allow us to only refresh badges that
-     *                      have actually changed. If a notification updated its content but not
-     *                      its count or icon, then the badge doesn't change.
+     * Updates the icons on launcher (workspace, folders, all apps) whose badges changed during
+     * the last frame, ie. whose notification count or notification icon is different.
      */
-    private void updateLauncherIconBadges(Set<PackageUserKey> updatedBadges,
-            boolean shouldRefresh) {
-        Iterator<PackageUserKey> iterator = updatedBadges.iterator();
-        while (iterator.hasNext()) {
-            BadgeInfo badgeInfo = mPackageUserToBadgeInfos.get(iterator.next());
-            if (badgeInfo != null && !updateBadgeIcon(badgeInfo) && !shouldRefresh) {
-                // The notification icon isn't used, and the badge hasn't changed
-                // so there is no update to be made.
-                iterator.remove();
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long startTime = System.nanoTime();
+        mBadgeUpdateScheduled = false;
+        HashSet<PackageUserKey> updatedBadges = new HashSet<>();
+        for (Map.Entry<PackageUserKey, BadgeState> entry : mPendingBadges.entrySet()) {
+            BadgeInfo badgeInfo = mPackageUserToBadgeInfos.get(entry.getKey());
+            if (badgeInfo != null) {
+                updateBadgeIcon(badgeInfo);
+            }
+            if (!entry.getValue().matches(badgeInfo)) {
+                updatedBadges.add(entry.getKey());
             }
         }
+        mBadgesUnchanged += mPendingBadges.size() - updatedBadges.size();
+        mBadgesUpdated += updatedBadges.size();
+        mPendingBadges.clear();
+
         if (!updatedBadges.isEmpty()) {
             mLauncher.updateIconBadges(updatedBadges);
         }
+        mNotificationUpdateNanos += System.nanoTime() - startTime;
     }
 
     /**
      * Determines whether the badge should show a notification icon rather than a number,
-     * and sets that icon on the BadgeInfo if so.
+     * and sets that icon on the BadgeInfo if so. The icons come from {@link #mNotificationStore},
+     * so that no binder call is needed.
      * @param badgeInfo The badge to update with an icon (null if it shouldn't show one).
-     * @return Whether the badge icon potentially changed (true unless it stayed null).
      */
-    private boolean updateBadgeIcon(BadgeInfo badgeInfo) {
-        boolean hadNotificationToShow = badgeInfo.hasNotificationToShow();
+    private void updateBadgeIcon(BadgeInfo badgeInfo) {
         NotificationInfo notificationInfo = null;
-        NotificationListener notificationListener = NotificationListener.getInstanceIfConnected();
-        if (notificationListener != null && badgeInfo.getNotificationKeys().size() >= 1) {
-            // Look for the most recent notification that has an icon that should be shown in badge.
-            for (NotificationKeyData notificationKeyData : badgeInfo.getNotificationKeys()) {
-                String notificationKey = notificationKeyData.notificationKey;
-                StatusBarNotification[] activeNotifications = notificationListener
-                        .getActiveNotifications(new String[]{notificationKey});
-                if (activeNotifications.length == 1) {
-                    notificationInfo = new NotificationInfo(mLauncher, activeNotifications[0]);
-                    if (notificationInfo.shouldShowIconInBadge()) {
-                        // Found an appropriate icon.
-                        break;
-                    } else {
-                        // Keep looking.
-                        notificationInfo = null;
-                    }
-                }
+        // Look for the most recent notification that has an icon that should be shown in badge.
+        for (NotificationKeyData notificationKeyData : badgeInfo.getNotificationKeys()) {
+            NotificationInfo info = mNotificationStore.getInfo(mLauncher,
+                    notificationKeyData.notificationKey);
+            if (info != null && info.shouldShowIconInBadge()) {
+                // Found an appropriate icon.
+                notificationInfo = info;
+                break;
             }
         }
-        badgeInfo.setNotificationToShow(notificationInfo);
-        return hadNotificationToShow || badgeInfo.hasNotificationToShow();
+        if (notificationInfo != badgeInfo.getNotificationToShow()) {
+            badgeInfo.setNotificationToShow(notificationInfo);
+        }
+    }
+
+    private void onNotificationsUpdated(int count, long startTime) {
+        mNotificationUpdates += count;
+        mNotificationUpdateNanos += System.nanoTime() - startTime;
     }
 
     public void setDeepShortcutMap(MultiHashMap<ComponentKey, String> deepShortcutMapCopy) {
         mDeepShortcutMap = deepShortcutMapCopy;
         if (LOGD) Log.d(TAG, "bindDeepShortcutMap: " + mDeepShortcutMap);
+        schedulePrefetch();
+    }
+
+    /**
+     * Loads the shortcuts of the hotseat and current page icons in the shortcut cache once the
+     * UI thread is idle, so that their popups can be populated without waiting on the system.
+     */
+    public void schedulePrefetch() {
+        if (!mPrefetchScheduled && !mDeepShortcutMap.isEmpty()) {
+            mPrefetchScheduled = true;
+            Looper.myQueue().addIdleHandler(mPrefetchHandler);
+        }
+    }
+
+    private void prefetchShortcuts() {
+        LinkedHashMap<ComponentKey, List<String>> activities = new LinkedHashMap<>();
+        addShortcutIds(mLauncher.getHotseat().getLayout().getShortcutsAndWidgets(), activities);
+        Workspace workspace = mLauncher.getWorkspace();
+        View page = workspace.getPageAt(workspace.getCurrentPage());
+        if (page instanceof CellLayout) {
+            addShortcutIds(((CellLayout) page).getShortcutsAndWidgets(), activities);
+        }
+
+        // Posted one activity at a time, so that model tasks and popups don't wait on all of them.
+        final Context context = mLauncher.getApplicationContext();
+        Handler workerHandler = new Handler(LauncherModel.getWorkerLooper());
+        for (Map.Entry<ComponentKey, List<String>> entry : activities.entrySet()) {
+            final ComponentName activity = entry.getKey().componentName;
+            final UserHandle user = entry.getKey().user;
+            final List<String> shortcutIds = entry.getValue();
+            workerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    PopupPopulator.prefetchShortcuts(context, activity, shortcutIds, user);
+                }
+            });
+        }
+    }
+
+    private void addShortcutIds(ViewGroup layout, Map<ComponentKey, List<String>> outActivities) {
+        for (int i = 0; i < layout.getChildCount(); i++) {
+            Object tag = layout.getChildAt(i).getTag();
+            if (!(tag instanceof ItemInfo)) {
+                continue;
+            }
+            ItemInfo info = (ItemInfo) tag;
+            List<String> ids = getShortcutIdsForItem(info);
+            if (!ids.isEmpty()) {
+                outActivities.put(new ComponentKey(info.getTargetComponent(), info.user), ids);
+            }
+        }
     }
 
     public List<String> getShortcutIdsForItem(ItemInfo info) {
@@ -258,6 +367,13 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
         return systemShortcuts;
     }
 
+    /**
+     * Returns the distribution of the time from opening a popup until its shortcuts are bound.
+     */
+    public LatencyHistogram getPopupLatencyHistogram() {
+        return mPopupLatency;
+    }
+
     public void cancelNotification(String notificationKey) {
         NotificationListener notificationListener = NotificationListener.getInstanceIfConnected();
         if (notificationListener == null) {
@@ -265,4 +381,36 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
         }
         notificationListener.cancelNotification(notificationKey);
     }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "PopupDataProvider: notifications=" + mNotificationStore.size()
+                + " updates=" + mNotificationUpdates
+                + " avgUiTimePerUpdate=" + (mNotificationUpdates == 0 ? 0
+                        : mNotificationUpdateNanos / mNotificationUpdates / 1000) + "us"
+                + " badgesUpdated=" + mBadgesUpdated
+                + " badgesUnchanged=" + mBadgesUnchanged
+                + " activeNotificationQueries="
+                + NotificationListener.getActiveNotificationQueryCount());
+        mPopupLatency.dump(prefix + "  ", writer);
+    }
+
+    /**
+     * What a badge looks like on the launcher icons.
+     */
+    private static class BadgeState {
+        static final BadgeState NONE = new BadgeState(null);
+
+        final int count;
+        final NotificationInfo notificationToShow;
+
+        BadgeState(BadgeInfo badgeInfo) {
+            count = badgeInfo == null ? 0 : badgeInfo.getNotificationCount();
+            notificationToShow = badgeInfo == null ? null : badgeInfo.getNotificationToShow();
+        }
+
+        boolean matches(BadgeInfo badgeInfo) {
+            BadgeState other = badgeInfo == null ? NONE : new BadgeState(badgeInfo);
+            return count == other.count && notificationToShow == other.notificationToShow;
+        }
+    }
 }
@@ -19,6 +19,7 @@ package com.android.launcher3.popup;
 import android.content.ComponentName;
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.NonNull;
@@ -31,7 +32,6 @@ import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.R;
 import com.android.launcher3.ShortcutInfo;
-import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.notification.NotificationInfo;
 import com.android.launcher3.notification.NotificationItemView;
 import com.android.launcher3.notification.NotificationKeyData;
@@ -181,7 +181,7 @@ public class PopupPopulator {
             final List<String> shortcutIds, final List<DeepShortcutView> shortcutViews,
             final List<NotificationKeyData> notificationKeys,
             final NotificationItemView notificationView, final List<SystemShortcut> systemShortcuts,
-            final List<View> systemShortcutViews) {
+            final List<View> systemShortcutViews, final long startTime) {
         final ComponentName activity = originalInfo.getTargetComponent();
         final UserHandle user = originalInfo.user;
         return new Runnable() {
@@ -198,8 +198,9 @@ public class PopupPopulator {
                     uiHandler.post(new UpdateNotificationChild(notificationView, infos));
                 }
 
-                List<ShortcutInfoCompat> shortcuts = DeepShortcutManager.getInstance(launcher)
-                        .queryForShortcutsContainer(activity, shortcutIds, user);
+                DeepShortcutManager shortcutManager = DeepShortcutManager.getInstance(launcher);
+                List<ShortcutInfoCompat> shortcuts = shortcutManager.getShortcutsForContainer(
+                        activity, shortcutIds, user);
                 String shortcutIdToDeDupe = notificationKeys.isEmpty() ? null
                         : notificationKeys.get(0).shortcutId;
                 shortcuts = PopupPopulator.sortAndFilterShortcuts(shortcuts, shortcutIdToDeDupe);
@@ -207,8 +208,7 @@ public class PopupPopulator {
                     final ShortcutInfoCompat shortcut = shortcuts.get(i);
                     ShortcutInfo si = new ShortcutInfo(shortcut, launcher);
                     // Use unbadged icon for the menu.
-                    si.iconBitmap = LauncherIcons.createShortcutIcon(
-                            shortcut, launcher, false /* badged */);
+                    si.iconBitmap = shortcutManager.getShortcutIconForContainer(shortcut, launcher);
                     si.rank = i;
                     uiHandler.post(new UpdateShortcutChild(container, shortcutViews.get(i),
                             si, shortcut));
@@ -224,6 +224,9 @@ public class PopupPopulator {
                 uiHandler.post(new Runnable() {
                     @Override
                     public void run() {
+                        // The shortcuts are bound by now, as they were posted before.
+                        launcher.getPopupDataProvider().getPopupLatencyHistogram()
+                                .record(SystemClock.uptimeMillis() - startTime);
                         launcher.refreshAndBindWidgetsForPackageUser(
                                 PackageUserKey.fromItemInfo(originalInfo));
                     }
@@ -232,6 +235,21 @@ public class PopupPopulator {
         };
     }
 
+    /**
+     * Loads the shortcuts that the popup of the activity would show, and their icons, into the
+     * shortcut cache, so that the popup doesn't wait on the shortcut service when opened.
+     * (Runs on background thread)
+     */
+    public static void prefetchShortcuts(Context context, ComponentName activity,
+            List<String> shortcutIds, UserHandle user) {
+        DeepShortcutManager shortcutManager = DeepShortcutManager.getInstance(context);
+        List<ShortcutInfoCompat> shortcuts = sortAndFilterShortcuts(
+                shortcutManager.getShortcutsForContainer(activity, shortcutIds, user), null);
+        for (int i = 0; i < shortcuts.size(); i++) {
+            shortcutManager.getShortcutIconForContainer(shortcuts.get(i), context);
+        }
+    }
+
     /** Updates the shortcut child of this container based on the given shortcut info. */
     private static class UpdateShortcutChild implements Runnable {
         private final PopupContainerWithArrow mContainer;
@@ -22,15 +22,19 @@ import android.content.Context;
 import android.content.pm.LauncherApps;
 import android.content.pm.LauncherApps.ShortcutQuery;
 import android.content.pm.ShortcutInfo;
+import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.UserHandle;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.Utilities;
+import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.util.ComponentKey;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -58,7 +62,9 @@ public class DeepShortcutManager {
     }
 
     private final LauncherApps mLauncherApps;
-    private boolean mWasLastCallSuccess;
+    private final ShortcutCache mShortcutCache = new ShortcutCache();
+    // Tracked per thread, as the loader queries shortcuts from more than one thread.
+    private final ThreadLocal<Boolean> mWasLastCallSuccess = new ThreadLocal<>();
 
     private DeepShortcutManager(Context context) {
         mLauncherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
@@ -72,11 +78,19 @@ public class DeepShortcutManager {
     }
 
     public boolean wasLastCallSuccess() {
-        return mWasLastCallSuccess;
+        return Boolean.TRUE.equals(mWasLastCallSuccess.get());
     }
 
-    public void onShortcutsChanged(List<ShortcutInfoCompat> shortcuts) {
-        // mShortcutCache.removeShortcuts(shortcuts);
+    /**
+     * Removes the cached shortcuts of the package, or of all the packages of the user if
+     * {@param packageName} is null, as the system only gives us their "key" fields.
+     */
+    public void onShortcutsChanged(@Nullable String packageName, UserHandle user) {
+        mShortcutCache.removeShortcuts(packageName, user);
+    }
+
+    public void clearShortcutCache() {
+        mShortcutCache.clear();
     }
 
     /**
@@ -100,6 +114,48 @@ public class DeepShortcutManager {
                 activity.getPackageName(), activity, ids, user);
     }
 
+    /**
+     * Same as {@link #queryForShortcutsContainer}, but the shortcuts of the activity are kept in
+     * the shortcut cache until they change, so that only the first long press needs an RPC.
+     * (Runs on background thread)
+     */
+    public List<ShortcutInfoCompat> getShortcutsForContainer(ComponentName activity,
+            List<String> ids, UserHandle user) {
+        ComponentKey key = new ComponentKey(activity, user);
+        List<ShortcutInfoCompat> shortcuts = mShortcutCache.getShortcuts(key);
+        if (shortcuts == null) {
+            shortcuts = queryForShortcutsContainer(activity, null, user);
+            if (!wasLastCallSuccess()) {
+                return shortcuts;
+            }
+            mShortcutCache.putShortcuts(key, shortcuts);
+        }
+        List<ShortcutInfoCompat> result = new ArrayList<>(ids.size());
+        for (ShortcutInfoCompat shortcut : shortcuts) {
+            if (ids.contains(shortcut.getId())) {
+                result.add(shortcut);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the unbadged icon of the shortcut, as shown in the shortcuts container, creating it
+     * if it isn't in the shortcut cache.
+     * (Runs on background thread)
+     */
+    public Bitmap getShortcutIconForContainer(ShortcutInfoCompat shortcut, Context context) {
+        ShortcutKey key = ShortcutKey.fromInfo(shortcut);
+        Bitmap icon = mShortcutCache.getIcon(key);
+        if (icon == null) {
+            icon = LauncherIcons.createShortcutIcon(shortcut, context, false /* badged */);
+            if (wasLastCallSuccess()) {
+                mShortcutCache.putIcon(key, icon);
+            }
+        }
+        return icon;
+    }
+
     /**
      * Removes the given shortcut from the current list of pinned shortcuts.
      * (Runs on background thread)
@@ -114,10 +170,10 @@ public class DeepShortcutManager {
             pinnedIds.remove(id);
             try {
                 mLauncherApps.pinShortcuts(packageName, pinnedIds, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.w(TAG, "Failed to unpin shortcut", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
     }
@@ -136,10 +192,10 @@ public class DeepShortcutManager {
             pinnedIds.add(id);
             try {
                 mLauncherApps.pinShortcuts(packageName, pinnedIds, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.w(TAG, "Failed to pin shortcut", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
     }
@@ -151,10 +207,10 @@ public class DeepShortcutManager {
             try {
                 mLauncherApps.startShortcut(packageName, id, sourceBounds,
                         startActivityOptions, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.e(TAG, "Failed to start shortcut", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
     }
@@ -165,11 +221,11 @@ public class DeepShortcutManager {
             try {
                 Drawable icon = mLauncherApps.getShortcutIconDrawable(
                         shortcutInfo.getShortcutInfo(), density);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
                 return icon;
             } catch (SecurityException|IllegalStateException e) {
                 Log.e(TAG, "Failed to get shortcut icon", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
         return null;
@@ -199,8 +255,6 @@ public class DeepShortcutManager {
     /**
      * Query the system server for all the shortcuts matching the given parameters.
      * If packageName == null, we query for all shortcuts with the passed flags, regardless of app.
-     *
-     * TODO: Use the cache to optimize this so we don't make an RPC every time.
      */
     @TargetApi(25)
     private List<ShortcutInfoCompat> query(int flags, String packageName,
@@ -216,10 +270,10 @@ public class DeepShortcutManager {
             List<ShortcutInfo> shortcutInfos = null;
             try {
                 shortcutInfos = mLauncherApps.getShortcuts(q, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.e(TAG, "Failed to query for shortcuts", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
             if (shortcutInfos == null) {
                 return Collections.EMPTY_LIST;
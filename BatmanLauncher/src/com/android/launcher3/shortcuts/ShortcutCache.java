@@ -17,57 +17,93 @@
 package com.android.launcher3.shortcuts;
 
 import android.annotation.TargetApi;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.UserHandle;
-import android.util.ArrayMap;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.LruCache;
+
+import com.android.launcher3.util.ComponentKey;
+
 import java.util.List;
 
 /**
- * Loads {@link ShortcutInfoCompat}s on demand (e.g. when launcher
- * loads for pinned shortcuts and on long-press for dynamic shortcuts), and caches them
- * for handful of apps in an LruCache while launcher lives.
+ * Caches the shortcuts shown in the popup of launcher activities, and their icons, so that a
+ * long press doesn't have to wait on the shortcut service. The shortcuts are kept for a handful
+ * of activities, and their icons within a byte budget, until the shortcuts of their package
+ * change.
  */
 @TargetApi(Build.VERSION_CODES.N)
 public class ShortcutCache {
-    private static final int CACHE_SIZE = 30; // Max number shortcuts we cache.
+    private static final int CACHE_SIZE = 30; // Max number of activities we cache shortcuts for.
+    private static final int ICON_CACHE_BYTES = 4 * 1024 * 1024;
 
-    private final LruCache<ShortcutKey, ShortcutInfoCompat> mCachedShortcuts;
-    // We always keep pinned shortcuts in the cache.
-    private final ArrayMap<ShortcutKey, ShortcutInfoCompat> mPinnedShortcuts;
+    private final LruCache<ComponentKey, List<ShortcutInfoCompat>> mShortcuts;
+    private final LruCache<ShortcutKey, Bitmap> mIcons;
 
     public ShortcutCache() {
-        mCachedShortcuts = new LruCache<>(CACHE_SIZE);
-        mPinnedShortcuts = new ArrayMap<>();
+        this(CACHE_SIZE, ICON_CACHE_BYTES);
+    }
+
+    @VisibleForTesting
+    ShortcutCache(int maxActivities, int maxIconBytes) {
+        mShortcuts = new LruCache<>(maxActivities);
+        mIcons = new LruCache<ShortcutKey, Bitmap>(maxIconBytes) {
+            @Override
+            protected int sizeOf(ShortcutKey key, Bitmap icon) {
+                return icon.getByteCount();
+            }
+        };
     }
 
     /**
-     * Removes shortcuts from the cache when shortcuts change for a given package.
-     *
-     * Returns a map of ids to their evicted shortcuts.
+     * Returns the manifest and dynamic shortcuts of the activity, or null if they are not cached.
+     * The list must not be modified.
+     */
+    public List<ShortcutInfoCompat> getShortcuts(ComponentKey activity) {
+        return mShortcuts.get(activity);
+    }
+
+    public void putShortcuts(ComponentKey activity, List<ShortcutInfoCompat> shortcuts) {
+        mShortcuts.put(activity, shortcuts);
+    }
+
+    public Bitmap getIcon(ShortcutKey key) {
+        return mIcons.get(key);
+    }
+
+    public void putIcon(ShortcutKey key, Bitmap icon) {
+        mIcons.put(key, icon);
+    }
+
+    /**
+     * Removes the shortcuts of the package from the cache, or the ones of all the packages of
+     * the user if {@param packageName} is null.
      *
      * @see android.content.pm.LauncherApps.Callback#onShortcutsChanged(String, List, UserHandle).
      */
-    public void removeShortcuts(List<ShortcutInfoCompat> shortcuts) {
-        for (ShortcutInfoCompat shortcut : shortcuts) {
-            ShortcutKey key = ShortcutKey.fromInfo(shortcut);
-            mCachedShortcuts.remove(key);
-            mPinnedShortcuts.remove(key);
+    public void removeShortcuts(@Nullable String packageName, UserHandle user) {
+        for (ComponentKey key : mShortcuts.snapshot().keySet()) {
+            if (matches(key, packageName, user)) {
+                mShortcuts.remove(key);
+            }
+        }
+        for (ShortcutKey key : mIcons.snapshot().keySet()) {
+            if (matches(key, packageName, user)) {
+                mIcons.remove(key);
+            }
         }
     }
 
-    public ShortcutInfoCompat get(ShortcutKey key) {
-        if (mPinnedShortcuts.containsKey(key)) {
-            return mPinnedShortcuts.get(key);
-        }
-        return mCachedShortcuts.get(key);
+    public void clear() {
+        mShortcuts.evictAll();
+        mIcons.evictAll();
     }
 
-    public void put(ShortcutKey key, ShortcutInfoCompat shortcut) {
-        if (shortcut.isPinned()) {
-            mPinnedShortcuts.put(key, shortcut);
-        } else {
-            mCachedShortcuts.put(key, shortcut);
-        }
+    private static boolean matches(ComponentKey key, @Nullable String packageName,
+            UserHandle user) {
+        return key.user.equals(user)
+                && (packageName == null || key.componentName.getPackageName().equals(packageName));
     }
 }
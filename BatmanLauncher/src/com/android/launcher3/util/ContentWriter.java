@@ -89,6 +89,18 @@ public class ContentWriter {
         return put(key, UserManagerCompat.getInstance(mContext).getSerialNumberForUser(user));
     }
 
+    /**
+     * Adds all the values of {@param other}, replacing the existing values with the same keys.
+     */
+    public ContentWriter putAll(ContentWriter other) {
+        mValues.putAll(other.mValues);
+        if (other.mIcon != null) {
+            mIcon = other.mIcon;
+            mUser = other.mUser;
+        }
+        return this;
+    }
+
     /**
      * Commits any pending validation and returns the final values.
      * Must not be called on UI thread.
@@ -4,22 +4,67 @@ import android.graphics.Rect;
 
 import com.android.launcher3.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * Each row is stored as a bit mask, with bit x set if the cell (x, y) is occupied, so that the
+ * span queries check a whole row of a region at once. The cells are written through
+ * {@link #setOccupied} or the span methods.
  */
 public class GridOccupancy {
 
+    public static final int MAX_COUNT_X = Long.SIZE;
+
     private final int mCountX;
     private final int mCountY;
 
+    private final long[] mRows;
+
+    /**
+     * Copy of the occupancy indexed by x then y, kept for the existing readers. It is read-only:
+     * writing to it does not change the occupancy.
+     */
     public final boolean[][] cells;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Grid is too wide: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
+        mRows = new long[countY];
         cells = new boolean[countX][countY];
     }
 
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
+    }
+
+    /**
+     * Marks the cell (x, y), same as writing {@code cells[x][y]} used to.
+     */
+    public void setOccupied(int x, int y, boolean occupied) {
+        if (x < 0 || x >= mCountX) {
+            throw new ArrayIndexOutOfBoundsException(x);
+        }
+        if (occupied) {
+            mRows[y] |= 1L << x;
+        } else {
+            mRows[y] &= ~(1L << x);
+        }
+        cells[x][y] = occupied;
+    }
+
     /**
      * Find the first vacant cell, if there is one.
      *
@@ -30,31 +75,51 @@ public class GridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0 || spanX > mCountX) {
+            return false;
+        }
         for (int y = 0; (y + spanY) <= mCountY; y++) {
-            for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            long occupied = 0;
+            for (int j = y; j < y + spanY; j++) {
+                occupied |= mRows[j];
+            }
+            // Bit x of vacant is set if spanX cells are vacant from x, in all the rows.
+            long vacant = ~occupied & mask(0, mCountX);
+            for (int i = 1; i < spanX && vacant != 0; i++) {
+                vacant &= ~occupied >>> i;
+            }
+            vacant &= mask(0, mCountX - spanX + 1);
+            if (vacant != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(vacant);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
+        dest.restore(mRows);
+    }
+
+    /**
+     * Returns a copy of the occupancy, which can be put back with {@link #restore}.
+     */
+    public long[] snapshot() {
+        return mRows.clone();
+    }
+
+    /**
+     * Copies the occupancy to {@param out}, which must have {@link #getCountY} entries.
+     */
+    public void snapshot(long[] out) {
+        System.arraycopy(mRows, 0, out, 0, mCountY);
+    }
+
+    public void restore(long[] snapshot) {
+        System.arraycopy(snapshot, 0, mRows, 0, mCountY);
+        for (int y = 0; y < mCountY; y++) {
+            updateCells(y, 0, mCountX);
         }
     }
 
@@ -64,22 +129,40 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = mask(x, spanX);
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
             }
         }
         return true;
     }
 
+    /**
+     * Returns true if {@param block}, placed with its top left corner at (x, y), covers an
+     * occupied cell of this grid with one of its occupied cells. The cells of the block which
+     * fall outside of the grid are ignored.
+     */
+    public boolean intersects(int x, int y, GridOccupancy block) {
+        for (int j = 0; j < block.mCountY && y + j < mCountY; j++) {
+            if ((mRows[y + j] & (block.mRows[j] << x)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
-        if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        if (cellX < 0 || cellY < 0 || cellX >= mCountX) return;
+        int endX = cellX + Math.min(spanX, mCountX - cellX);
+        long mask = mask(cellX, endX - cellX);
+        for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
+            updateCells(y, cellX, endX);
         }
     }
 
@@ -96,6 +179,30 @@ public class GridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
+        for (boolean[] column : cells) {
+            Arrays.fill(column, false);
+        }
+    }
+
+    /**
+     * Copies the cells of row {@param y} from {@param startX} to {@param endX} (exclusive) to
+     * {@link #cells}.
+     */
+    private void updateCells(int y, int startX, int endX) {
+        long row = mRows[y];
+        for (int x = startX; x < endX; x++) {
+            cells[x][y] = (row & (1L << x)) != 0;
+        }
+    }
+
+    /**
+     * Returns a mask of {@param span} bits starting at bit {@param x}.
+     */
+    private static long mask(int x, int span) {
+        if (span <= 0) {
+            return 0;
+        }
+        return (span >= Long.SIZE ? -1L : (1L << span) - 1) << x;
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts durations in a fixed set of buckets, to report the distribution of a latency without
+ * keeping every sample.
+ */
+public class LatencyHistogram {
+
+    private final String mName;
+    // Upper bound (exclusive) of each bucket, the last bucket has no upper bound.
+    private final long[] mBounds;
+    private final long[] mCounts;
+
+    private long mTotalCount;
+    private long mTotalDuration;
+    private long mMaxDuration;
+
+    /**
+     * @param bounds increasing upper bounds of the buckets, in milliseconds.
+     */
+    public LatencyHistogram(String name, long... bounds) {
+        mName = name;
+        mBounds = bounds;
+        mCounts = new long[bounds.length + 1];
+    }
+
+    public synchronized void record(long duration) {
+        int bucket = 0;
+        while (bucket < mBounds.length && duration >= mBounds[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mTotalCount++;
+        mTotalDuration += duration;
+        mMaxDuration = Math.max(mMaxDuration, duration);
+    }
+
+    public synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the number of samples in the bucket at {@param index}, the last bucket being the
+     * one above all the bounds.
+     */
+    public synchronized long getBucketCount(int index) {
+        return mCounts[index];
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the {@param percentile}th sample, or the
+     * max duration if it falls in the last bucket.
+     */
+    public synchronized long getPercentile(int percentile) {
+        long target = (mTotalCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < mBounds.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return mBounds[i];
+            }
+        }
+        return mMaxDuration;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mTotalDuration = 0;
+        mMaxDuration = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(mName)
+                .append(": count=").append(mTotalCount)
+                .append(" avg=").append(mTotalCount == 0 ? 0 : mTotalDuration / mTotalCount)
+                .append("ms max=").append(mMaxDuration).append("ms [");
+        for (int i = 0; i < mCounts.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(i < mBounds.length ? "<" + mBounds[i] : ">=" + mBounds[i - 1])
+                    .append("ms: ").append(mCounts[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + toString());
+    }
+}
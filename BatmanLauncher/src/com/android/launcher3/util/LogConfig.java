@@ -28,4 +28,15 @@ public class LogConfig {
      * When turned on, icon cache is only fetched from memory and not disk.
      */
     public static final String MEMORY_ONLY_ICON_CACHE = "MemoryOnlyIconCache";
+
+    /**
+     * When turned on, the loader prints the duration of each of its stages to logcat.
+     */
+    public static final String LOADER_TIMINGS = "LoaderTimings";
+
+    /**
+     * When turned on, all apps search logs the time from each keystroke to its results, and a
+     * histogram of these latencies when the search is cleared.
+     */
+    public static final String SEARCH_LATENCY = "SearchLatency";
 }
@@ -12,6 +12,8 @@ import android.util.Log;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 
+import java.util.List;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
@@ -41,15 +43,22 @@ public abstract class SQLiteCacheHelper {
      * @see SQLiteDatabase#delete(String, String, String[])
      */
     public void delete(String whereClause, String[] whereArgs) {
+        delete(mTableName, whereClause, whereArgs);
+    }
+
+    /**
+     * Same as {@link #delete(String, String[])} for another table created by the subclass.
+     */
+    protected void delete(String table, String whereClause, String[] whereArgs) {
         if (mIgnoreWrites) {
             return;
         }
+        SQLiteDatabase db = null;
         try {
-            mOpenHelper.getWritableDatabase().delete(mTableName, whereClause, whereArgs);
-        } catch (SQLiteFullException e) {
-            onDiskFull(e);
+            db = mOpenHelper.getWritableDatabase();
+            db.delete(table, whereClause, whereArgs);
         } catch (SQLiteException e) {
-            Log.d(TAG, "Ignoring sqlite exception", e);
+            onWriteFailed(db, e);
         }
     }
 
@@ -57,30 +66,125 @@ public abstract class SQLiteCacheHelper {
      * @see SQLiteDatabase#insertWithOnConflict(String, String, ContentValues, int)
      */
     public void insertOrReplace(ContentValues values) {
+        insertOrReplace(mTableName, values);
+    }
+
+    /**
+     * Same as {@link #insertOrReplace(ContentValues)} for another table created by the subclass.
+     */
+    protected void insertOrReplace(String table, ContentValues values) {
         if (mIgnoreWrites) {
             return;
         }
+        SQLiteDatabase db = null;
         try {
-            mOpenHelper.getWritableDatabase().insertWithOnConflict(
-                    mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-        } catch (SQLiteFullException e) {
-            onDiskFull(e);
+            db = mOpenHelper.getWritableDatabase();
+            db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
         } catch (SQLiteException e) {
-            Log.d(TAG, "Ignoring sqlite exception", e);
+            onWriteFailed(db, e);
+        }
+    }
+
+    /**
+     * Inserts or replaces all the {@param valuesList} in a single transaction.
+     * @see #insertOrReplace(ContentValues)
+     */
+    public void insertOrReplace(final List<ContentValues> valuesList) {
+        if (valuesList.isEmpty()) {
+            return;
         }
+        runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (ContentValues values : valuesList) {
+                    insertOrReplace(mTableName, values);
+                }
+            }
+        });
     }
 
-    private void onDiskFull(SQLiteFullException e) {
-        Log.e(TAG, "Disk full, all write operations will be ignored", e);
-        mIgnoreWrites = true;
+    /**
+     * @see SQLiteDatabase#update(String, ContentValues, String, String[])
+     */
+    public void update(ContentValues values, String whereClause, String[] whereArgs) {
+        if (mIgnoreWrites) {
+            return;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = mOpenHelper.getWritableDatabase();
+            db.update(mTableName, values, whereClause, whereArgs);
+        } catch (SQLiteException e) {
+            onWriteFailed(db, e);
+        }
+    }
+
+    /**
+     * Runs {@param writes} in a single transaction, so that the rows they read can not change
+     * before they are written. The helpers above join the transaction when called from it, and
+     * a failure of any of them rolls back the whole transaction.
+     *
+     * @return true if the transaction was committed.
+     */
+    protected boolean runInTransaction(Runnable writes) {
+        if (mIgnoreWrites) {
+            return false;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                writes.run();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return true;
+        } catch (SQLiteException e) {
+            onWriteFailed(db, e);
+            return false;
+        }
+    }
+
+    /**
+     * Ignores a failed write, unless it is part of a transaction which must then be rolled back.
+     */
+    private void onWriteFailed(SQLiteDatabase db, SQLiteException e) {
+        if (db != null && db.inTransaction()) {
+            throw e;
+        }
+        if (e instanceof SQLiteFullException) {
+            Log.e(TAG, "Disk full, all write operations will be ignored", e);
+            mIgnoreWrites = true;
+        } else {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
     }
 
     /**
      * @see SQLiteDatabase#query(String, String[], String, String[], String, String, String)
      */
     public Cursor query(String[] columns, String selection, String[] selectionArgs) {
+        return query(mTableName, columns, selection, selectionArgs, null);
+    }
+
+    /**
+     * Same as {@link #query(String[], String, String[])} for any table created by the subclass,
+     * with an optional ordering.
+     */
+    protected Cursor query(String table, String[] columns, String selection,
+            String[] selectionArgs, String orderBy) {
         return mOpenHelper.getReadableDatabase().query(
-                mTableName, columns, selection, selectionArgs, null, null, null);
+                table, columns, selection, selectionArgs, null, null, orderBy);
+    }
+
+    /**
+     * Returns the DB for reads which the helpers above can not express, like compiled statements.
+     * Writes should still go through the helpers, which handle a full disk.
+     */
+    protected SQLiteDatabase getReadableDatabase() {
+        return mOpenHelper.getReadableDatabase();
     }
 
     public void clear() {
@@ -89,6 +193,14 @@ public abstract class SQLiteCacheHelper {
 
     protected abstract void onCreateTable(SQLiteDatabase db);
 
+    /**
+     * Drops all the tables, when the DB is reset. Subclasses creating more than one table should
+     * drop them as well.
+     */
+    protected void onDropTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + mTableName);
+    }
+
     /**
      * A private inner class to prevent direct DB access.
      */
@@ -118,7 +230,7 @@ public abstract class SQLiteCacheHelper {
         }
 
         private void clearDB(SQLiteDatabase db) {
-            db.execSQL("DROP TABLE IF EXISTS " + mTableName);
+            onDropTables(db);
             onCreate(db);
         }
     }
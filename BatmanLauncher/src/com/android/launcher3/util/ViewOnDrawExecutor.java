@@ -29,6 +29,7 @@ import java.util.concurrent.Executor;
 
 /**
  * An executor which runs all the tasks after the first onDraw is called on the target view.
+ * The tasks are run one per message, so that frames can be drawn between them.
  */
 public class ViewOnDrawExecutor implements Executor, OnDrawListener, Runnable,
         OnAttachStateChangeListener {
@@ -40,6 +41,7 @@ public class ViewOnDrawExecutor implements Executor, OnDrawListener, Runnable,
     private View mAttachedView;
     private boolean mCompleted;
     private boolean mIsExecuting;
+    private int mNextTask;
 
     private boolean mLoadAnimationCompleted;
     private boolean mFirstDrawCompleted;
@@ -79,19 +81,22 @@ public class ViewOnDrawExecutor implements Executor, OnDrawListener, Runnable,
     @Override
     public void onDraw() {
         mFirstDrawCompleted = true;
-        mAttachedView.post(this);
+        if (!mIsExecuting) {
+            mAttachedView.post(this);
+        }
     }
 
     /**
-     * Returns whether the executor is still queuing tasks and hasn't yet executed them.
+     * Returns whether the executor is still queuing tasks, which will run after the tasks
+     * already queued.
      */
     public boolean canQueue() {
-        return !mIsExecuting && !mCompleted;
+        return !mCompleted;
     }
 
     public void onLoadAnimationCompleted() {
         mLoadAnimationCompleted = true;
-        if (mAttachedView != null) {
+        if (mAttachedView != null && !mIsExecuting) {
             mAttachedView.post(this);
         }
     }
@@ -101,10 +106,19 @@ public class ViewOnDrawExecutor implements Executor, OnDrawListener, Runnable,
         // Post the pending tasks after both onDraw and onLoadAnimationCompleted have been called.
         if (mLoadAnimationCompleted && mFirstDrawCompleted && !mCompleted) {
             mIsExecuting = true;
-            for (final Runnable r : mTasks) {
-                mExecutor.execute(r);
+            if (mNextTask < mTasks.size()) {
+                mExecutor.execute(mTasks.get(mNextTask++));
+            }
+            // The task may have completed this executor, eg. if a new bind started.
+            if (mCompleted) {
+                return;
+            }
+            if (mNextTask < mTasks.size()) {
+                // Let the next frame be drawn before running the next task.
+                mAttachedView.post(this);
+            } else {
+                markCompleted();
             }
-            markCompleted();
         }
     }
 
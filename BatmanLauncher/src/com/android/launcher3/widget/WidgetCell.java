@@ -19,6 +19,7 @@ package com.android.launcher3.widget;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.CancellationSignal;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -74,6 +75,7 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
 
     protected CancellationSignal mActiveRequest;
     private boolean mAnimatePreview = true;
+    private int mAdapterPosition = RecyclerView.NO_POSITION;
 
     protected final BaseActivity mActivity;
 
@@ -146,6 +148,18 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
         }
     }
 
+    /**
+     * Sets the position of the row containing this cell, used to prioritize the previews of the
+     * rows which are on screen.
+     */
+    public void setAdapterPosition(int position) {
+        mAdapterPosition = position;
+    }
+
+    public int getAdapterPosition() {
+        return mAdapterPosition;
+    }
+
     public WidgetImageView getWidgetView() {
         return mWidgetImage;
     }
@@ -81,7 +81,7 @@ public class WidgetsContainerView extends BaseContainerView
         LauncherAppState apps = LauncherAppState.getInstance(context);
         mAdapter = new WidgetsListAdapter(context, LayoutInflater.from(context),
                 apps.getWidgetCache(), new AlphabeticIndexCompat(context), this, this,
-                new WidgetsDiffReporter(apps.getIconCache()));
+                new WidgetsDiffReporter());
         mAdapter.setNotifyListener();
         if (LOGD) {
             Log.d(TAG, "WidgetsContainerView constructor");
@@ -18,8 +18,6 @@ package com.android.launcher3.widget;
 
 import android.util.Log;
 
-import com.android.launcher3.IconCache;
-import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.widget.WidgetsListAdapter.WidgetListRowEntryComparator;
 
 import java.util.ArrayList;
@@ -31,7 +29,6 @@ import java.util.Iterator;
 public class WidgetsDiffReporter {
     private final boolean DEBUG = false;
     private final String TAG = "WidgetsDiffReporter";
-    private final IconCache mIconCache;
     private NotifyListener mListener;
 
     public interface NotifyListener {
@@ -41,10 +38,6 @@ public class WidgetsDiffReporter {
         void notifyItemRemoved(int index);
     }
 
-    public WidgetsDiffReporter(IconCache iconCache) {
-        mIconCache = iconCache;
-    }
-
     public void setListener(NotifyListener listener) {
         mListener = listener;
     }
@@ -55,9 +48,13 @@ public class WidgetsDiffReporter {
             Log.d(TAG, "process oldEntries#=" + currentEntries.size()
                     + " newEntries#=" + newEntries.size());
         }
-        if (currentEntries.size() == 0 && newEntries.size() > 0) {
-            currentEntries.addAll(newEntries);
-            mListener.notifyDataSetChanged();
+        if (currentEntries.size() == 0 || newEntries.size() == 0) {
+            // Packages without widgets are removed from the model, so the list can become empty.
+            if (currentEntries.size() != newEntries.size()) {
+                currentEntries.clear();
+                currentEntries.addAll(newEntries);
+                mListener.notifyDataSetChanged();
+            }
             return;
         }
         ArrayList<WidgetListRowEntry> orgEntries =
@@ -100,8 +97,9 @@ public class WidgetsDiffReporter {
                 // same package name but,
                 // did the icon, title, etc, change?
                 // or did the widget size and desc, span, etc change?
-                if (!isSamePackageItemInfo(orgRowEntry.pkgItem, newRowEntry.pkgItem) ||
-                        !orgRowEntry.widgets.equals(newRowEntry.widgets)) {
+                // The adapter keeps the row of a package as long as the model does not change
+                // any of those, so a different row is a changed one.
+                if (orgRowEntry != newRowEntry) {
                     index = currentEntries.indexOf(orgRowEntry);
                     currentEntries.set(index, newRowEntry);
                     mListener.notifyItemChanged(index);
@@ -133,9 +131,4 @@ public class WidgetsDiffReporter {
         }
         return comparator.compare(curRow, newRow);
     }
-
-    private boolean isSamePackageItemInfo(PackageItemInfo curInfo, PackageItemInfo newInfo) {
-        return curInfo.iconBitmap.equals(newInfo.iconBitmap) &&
-                !mIconCache.isDefaultIcon(curInfo.iconBitmap, curInfo.user);
-    }
 }
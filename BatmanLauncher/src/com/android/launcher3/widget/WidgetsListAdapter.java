@@ -37,6 +37,7 @@ import com.android.launcher3.util.PackageUserKey;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +63,8 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
     private final OnLongClickListener mIconLongClickListener;
     private final int mIndent;
     private ArrayList<WidgetListRowEntry> mEntries = new ArrayList<>();
+    // The widgets of the last update, whose lists are compared to the ones of the next update.
+    private MultiHashMap<PackageItemInfo, WidgetItem> mWidgets;
     private final WidgetsDiffReporter mDiffReporter;
 
     public WidgetsListAdapter(Context context, LayoutInflater layoutInflater,
@@ -105,13 +108,30 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
      * Update the widget list.
      */
     public void setWidgets(MultiHashMap<PackageItemInfo, WidgetItem> widgets) {
-        ArrayList<WidgetListRowEntry> tempEntries = new ArrayList<>();
+        // The model replaces the widget list of a package when the package changes, so the rows
+        // whose list is the same as in the previous update are kept as they are.
+        HashMap<PackageItemInfo, WidgetListRowEntry> unchangedRows = new HashMap<>();
+        if (mWidgets != null) {
+            for (WidgetListRowEntry row : mEntries) {
+                ArrayList<WidgetItem> items = widgets.get(row.pkgItem);
+                if (items != null && items == mWidgets.get(row.pkgItem)) {
+                    unchangedRows.put(row.pkgItem, row);
+                }
+            }
+        }
+        mWidgets = widgets;
 
+        ArrayList<WidgetListRowEntry> tempEntries = new ArrayList<>(widgets.size());
         WidgetItemComparator widgetComparator = new WidgetItemComparator();
         for (Map.Entry<PackageItemInfo, ArrayList<WidgetItem>> entry : widgets.entrySet()) {
-            WidgetListRowEntry row = new WidgetListRowEntry(entry.getKey(), entry.getValue());
-            row.titleSectionName = mIndexer.computeSectionName(row.pkgItem.title);
-            Collections.sort(row.widgets, widgetComparator);
+            WidgetListRowEntry row = unchangedRows.get(entry.getKey());
+            if (row == null) {
+                // The lists of the model are shared, sort a copy.
+                row = new WidgetListRowEntry(entry.getKey(),
+                        new ArrayList<WidgetItem>(entry.getValue()));
+                row.titleSectionName = mIndexer.computeSectionName(row.pkgItem.title);
+                Collections.sort(row.widgets, widgetComparator);
+            }
             tempEntries.add(row);
         }
         WidgetListRowEntryComparator rowComparator = new WidgetListRowEntryComparator();
@@ -194,6 +214,7 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
         for (int i=0; i < infoList.size(); i++) {
             WidgetCell widget = (WidgetCell) row.getChildAt(2*i);
             widget.applyFromCellItem(infoList.get(i), mWidgetPreviewLoader);
+            widget.setAdapterPosition(pos);
             widget.ensurePreview();
             widget.setVisibility(View.VISIBLE);
 
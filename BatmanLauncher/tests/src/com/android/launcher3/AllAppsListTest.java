@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.model.BaseModelUpdateTaskTestCase.MyIconCache;
+import com.android.launcher3.util.FlagOp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AllAppsList}
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class AllAppsListTest {
+
+    private static final String TAG = "AllAppsListTest";
+
+    private UserHandle mMyUser;
+    private UserHandle mOtherUser;
+    private AllAppsList mAllAppsList;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mMyUser = Process.myUserHandle();
+        mOtherUser = UserHandle.getUserHandleForUid(Process.myUid() + 100000);
+        mAllAppsList = new AllAppsList(
+                new MyIconCache(context, new InvariantDeviceProfile()), new AppFilter());
+    }
+
+    @Test
+    public void testAdd_ignoresDuplicates() {
+        addApp("app1", "Activity1", mMyUser);
+        addApp("app1", "Activity1", mMyUser);
+        addApp("app1", "Activity1", mOtherUser);
+        assertEquals(2, mAllAppsList.size());
+    }
+
+    @Test
+    public void testRemovePackage_onlyRemovesPackageOfUser() {
+        AppInfo app1 = addApp("app1", "Activity1", mMyUser);
+        AppInfo app2 = addApp("app1", "Activity2", mMyUser);
+        AppInfo otherUserApp = addApp("app1", "Activity1", mOtherUser);
+        AppInfo otherApp = addApp("app2", "Activity1", mMyUser);
+
+        mAllAppsList.removePackage("app1", mMyUser);
+        assertEquals(Arrays.asList(otherUserApp, otherApp), mAllAppsList.data);
+        assertEquals(new HashSet<>(Arrays.asList(app1, app2)),
+                new HashSet<>(mAllAppsList.removed));
+
+        // The removed apps can be added again.
+        addApp("app1", "Activity1", mMyUser);
+        assertEquals(3, mAllAppsList.size());
+    }
+
+    @Test
+    public void testRemovePromiseApp() {
+        AppInfo app = addApp("app1", "Activity1", mMyUser);
+        mAllAppsList.removePromiseApp(app);
+        assertTrue(mAllAppsList.data.isEmpty());
+
+        mAllAppsList.updateDisabledFlags(Collections.singleton("app1"), mMyUser,
+                FlagOp.addFlag(ShortcutInfo.FLAG_DISABLED_SUSPENDED));
+        assertTrue(mAllAppsList.modified.isEmpty());
+    }
+
+    @Test
+    public void testUpdateDisabledFlags_packages() {
+        AppInfo app1 = addApp("app1", "Activity1", mMyUser);
+        AppInfo otherUserApp = addApp("app1", "Activity1", mOtherUser);
+        AppInfo otherApp = addApp("app2", "Activity1", mMyUser);
+
+        mAllAppsList.updateDisabledFlags(Collections.singleton("app1"), mMyUser,
+                FlagOp.addFlag(ShortcutInfo.FLAG_DISABLED_SUSPENDED));
+        assertEquals(Collections.singletonList(app1), mAllAppsList.modified);
+        assertEquals(ShortcutInfo.FLAG_DISABLED_SUSPENDED, app1.isDisabled);
+        assertEquals(0, otherUserApp.isDisabled);
+        assertEquals(0, otherApp.isDisabled);
+    }
+
+    @Test
+    public void testUpdateIconsAndLabels() {
+        AppInfo app1 = addApp("app1", "Activity1", mMyUser);
+        AppInfo app2 = addApp("app2", "Activity1", mMyUser);
+        addApp("app2", "Activity1", mOtherUser);
+        addApp("app3", "Activity1", mMyUser);
+
+        ArrayList<AppInfo> updates = new ArrayList<>();
+        mAllAppsList.updateIconsAndLabels(new HashSet<>(Arrays.asList("app1", "app2")), mMyUser,
+                updates);
+        assertEquals(new HashSet<>(Arrays.asList(app1, app2)), new HashSet<>(updates));
+    }
+
+    @Test
+    public void testClear() {
+        addApp("app1", "Activity1", mMyUser);
+        mAllAppsList.clear();
+        mAllAppsList.removePackage("app1", mMyUser);
+        assertTrue(mAllAppsList.removed.isEmpty());
+
+        addApp("app1", "Activity1", mMyUser);
+        assertFalse(mAllAppsList.data.isEmpty());
+    }
+
+    @Test
+    public void testPackageOperationsBenchmark() {
+        final int numPackages = 1000;
+        for (int i = 0; i < numPackages; i++) {
+            for (int j = 0; j < 2; j++) {
+                addApp("app" + i, "Activity" + j, mMyUser);
+                addApp("app" + i, "Activity" + j, mOtherUser);
+            }
+        }
+
+        HashSet<String> packages = new HashSet<>();
+        for (int i = 0; i < numPackages; i += 2) {
+            packages.add("app" + i);
+        }
+        long start = SystemClock.elapsedRealtime();
+        mAllAppsList.updateDisabledFlags(packages, mMyUser,
+                FlagOp.addFlag(ShortcutInfo.FLAG_DISABLED_SUSPENDED));
+        long flagsTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(2 * packages.size(), mAllAppsList.modified.size());
+
+        start = SystemClock.elapsedRealtime();
+        for (String packageName : packages) {
+            mAllAppsList.removePackage(packageName, mMyUser);
+        }
+        long removeTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(4 * numPackages - 2 * packages.size(), mAllAppsList.size());
+
+        Log.d(TAG, "Suspending " + packages.size() + " packages out of " + numPackages + ": "
+                + flagsTime + "ms, removing them one by one: " + removeTime + "ms");
+    }
+
+    private AppInfo addApp(String packageName, String className, UserHandle user) {
+        AppInfo info = new AppInfo();
+        info.title = className;
+        info.componentName = new ComponentName(packageName, className);
+        info.user = user;
+        mAllAppsList.add(info, null);
+        return info;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import com.android.launcher3.ui.AbstractLauncherUiTest;
+import com.android.launcher3.util.rule.LauncherActivityRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for the reorder search of {@link CellLayout}, which reuses its solutions across drags.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CellLayoutReorderTest extends AbstractLauncherUiTest {
+
+    private static final int GRID_SIZE = 4;
+    private static final int CELL_SIZE = 100;
+
+    @Rule public LauncherActivityRule mActivityMonitor = new LauncherActivityRule();
+
+    @Test
+    public void testPushAfterLargerVacantDrop() throws Throwable {
+        mActivityMonitor.startLauncher();
+        int[] result = getOnUiThread(new Callable<int[]>() {
+            @Override
+            public int[] call() throws Exception {
+                CellLayout layout = new CellLayout(mActivityMonitor.getActivity());
+                layout.setGridSize(GRID_SIZE, GRID_SIZE);
+                layout.setCellDimensions(CELL_SIZE, CELL_SIZE);
+
+                // A 3x3 item fits in the empty layout without moving anything.
+                accept(layout, 0, 0, 3, 3);
+
+                // Fill all but the first row: a 2x2 item now only fits by moving the items
+                // in its way to that row.
+                for (int y = 1; y < GRID_SIZE; y++) {
+                    for (int x = 0; x < GRID_SIZE; x++) {
+                        layout.addViewToCellLayout(new View(mActivityMonitor.getActivity()), -1,
+                                y * GRID_SIZE + x, new CellLayout.LayoutParams(x, y, 1, 1), true);
+                    }
+                }
+                return accept(layout, 0, 0, 2, 2);
+            }
+        });
+        assertArrayEquals(new int[] {0, 0, 2, 2}, result);
+    }
+
+    /**
+     * Returns the cell and span at which an item dropped on the given cells would be placed.
+     */
+    private static int[] accept(CellLayout layout, int cellX, int cellY, int spanX, int spanY) {
+        int[] pixel = new int[2];
+        layout.regionToCenterPoint(cellX, cellY, spanX, spanY, pixel);
+        int[] result = new int[2];
+        int[] resultSpan = new int[2];
+        layout.performReorder(pixel[0], pixel[1], spanX, spanY, spanX, spanY, null, result,
+                resultSpan, CellLayout.MODE_ACCEPT_DROP);
+        return new int[] {result[0], result[1], resultSpan[0], resultSpan[1]};
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Contention benchmark for {@link IconCache}: measures the lookup throughput with several
+ * concurrent callers, which used to serialize on the cache monitor.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconCacheContentionTest {
+
+    private static final String TAG = "IconCacheContentionTest";
+    private static final int LOOKUPS_PER_THREAD = 2000;
+
+    private IconCache mIconCache;
+    private List<LauncherActivityInfo> mApps;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mIconCache = new IconCache(context, LauncherAppState.getIDP(context));
+        mApps = LauncherAppsCompat.getInstance(context)
+                .getActivityList(null, Process.myUserHandle());
+        assertFalse(mApps.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        // Warm up the cache, so that only the lookups are measured.
+        runLookups(1);
+
+        long singleThreaded = runLookups(1);
+        for (int threads : new int[] {2, 4, 8}) {
+            long throughput = runLookups(threads);
+            Log.d(TAG, String.format("%d threads: %d lookups/s (%.2fx of 1 thread)",
+                    threads, throughput, (float) throughput / singleThreaded));
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesGenerateOnce() throws Exception {
+        final LauncherActivityInfo app = mApps.get(0);
+        mIconCache.remove(app.getComponentName(), app.getUser());
+
+        final int threads = 8;
+        final ArrayList<AppInfo> results = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final AppInfo info = new AppInfo();
+            info.componentName = app.getComponentName();
+            info.intent = AppInfo.makeLaunchIntent(app);
+            info.user = app.getUser();
+            results.add(info);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        mIconCache.getTitleAndIcon(info, app, false);
+                    } catch (InterruptedException e) {
+                        // Ignore, the assertions below fail.
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+
+        // All callers got the same entry, which was only generated once.
+        assertNotNull(results.get(0).iconBitmap);
+        for (AppInfo info : results) {
+            assertSame(results.get(0).iconBitmap, info.iconBitmap);
+        }
+    }
+
+    /**
+     * @return the number of lookups per second, across all the threads.
+     */
+    private long runLookups(int threadCount) throws InterruptedException {
+        final AtomicInteger lookups = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    AppInfo info = new AppInfo();
+                    try {
+                        start.await();
+                        for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                            LauncherActivityInfo app = mApps.get((i + offset) % mApps.size());
+                            info.componentName = app.getComponentName();
+                            info.user = app.getUser();
+                            mIconCache.getTitleAndIcon(info, app, false);
+                            lookups.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // Ignore, the lookup count will be short.
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        start.countDown();
+        done.await();
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        assertEquals(threadCount * LOOKUPS_PER_THREAD, lookups.get());
+        return lookups.get() * 1000L / elapsed;
+    }
+}
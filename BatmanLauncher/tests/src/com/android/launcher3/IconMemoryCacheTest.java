@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.IconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link IconMemoryCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconMemoryCacheTest {
+
+    private static final int ICON_SIZE = 10;
+    private static final int ICON_BYTES = ICON_SIZE * ICON_SIZE * 4;
+    private static final int LOW_RES_BYTES = ICON_BYTES / 4;
+
+    private int mLowResIconsGenerated;
+    private final ArrayList<Runnable> mDemotionTasks = new ArrayList<>();
+    private IconMemoryCache mCache;
+
+    @Before
+    public void setUp() {
+        mLowResIconsGenerated = 0;
+        mDemotionTasks.clear();
+        // Room for two full-res and two low-res icons and a half.
+        mCache = newCache(ICON_BYTES * 5 / 2, LOW_RES_BYTES * 5 / 2);
+    }
+
+    @Test
+    public void testFullResOverBudget_demotesLeastRecentlyUsed() {
+        mCache.put(key(0), newEntry());
+        mCache.put(key(1), newEntry());
+        mCache.get(key(0), false);
+        mCache.put(key(2), newEntry());
+        // The low-res copy is not created by the put itself.
+        assertEquals(0, mLowResIconsGenerated);
+        runDemotions();
+
+        assertNull(mCache.get(key(1), false));
+        CacheEntry demoted = mCache.get(key(1), true);
+        assertNotNull(demoted);
+        assertTrue(demoted.isLowResIcon);
+        assertEquals(ICON_SIZE / 2, demoted.icon.getWidth());
+        assertNotNull(mCache.get(key(0), false));
+        assertNotNull(mCache.get(key(2), false));
+        assertEquals(1, mLowResIconsGenerated);
+    }
+
+    @Test
+    public void testPutWhileDemoting_keepsNewEntry() {
+        mCache.put(key(0), newEntry());
+        mCache.put(key(1), newEntry());
+        mCache.put(key(2), newEntry());
+        CacheEntry entry = newEntry();
+        mCache.put(key(0), entry);
+        runDemotions();
+
+        assertEquals(entry, mCache.get(key(0), false));
+        assertTrue(mCache.get(key(1), true).isLowResIcon);
+    }
+
+    @Test
+    public void testLowResOverBudget_evictsLeastRecentlyUsed() {
+        mCache.put(key(0), newLowResEntry());
+        mCache.put(key(1), newLowResEntry());
+        mCache.get(key(0), true);
+        mCache.put(key(2), newLowResEntry());
+
+        assertNull(mCache.peek(key(1)));
+        assertNotNull(mCache.peek(key(0)));
+        assertNotNull(mCache.peek(key(2)));
+    }
+
+    @Test
+    public void testNonEvictableEntries_kept() {
+        mCache.put(key(0), newEntry(), false /* evictable */);
+        for (int i = 1; i < 10; i++) {
+            mCache.put(key(i), newEntry());
+        }
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertFalse(mCache.peek(key(0)).isLowResIcon);
+        for (int i = 1; i < 10; i++) {
+            assertNull(mCache.peek(key(i)));
+        }
+    }
+
+    @Test
+    public void testTrimMemoryModerate_dropsFullResWithoutDemoting() {
+        mCache.put(key(0), newLowResEntry());
+        mCache.put(key(1), newEntry());
+        mCache.put(key(2), newEntry());
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        assertNotNull(mCache.peek(key(0)));
+        assertNull(mCache.peek(key(1)));
+        assertNull(mCache.peek(key(2)));
+        assertEquals(0, mLowResIconsGenerated);
+    }
+
+    @Test
+    public void testTrimMemoryRunningLow_keepsMostRecentHalf() {
+        mCache = newCache(ICON_BYTES * 4, LOW_RES_BYTES * 4);
+        for (int i = 0; i < 4; i++) {
+            mCache.put(key(i), newEntry());
+        }
+        mCache.get(key(0), false);
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+        assertNotNull(mCache.peek(key(0)));
+        assertNull(mCache.peek(key(1)));
+        assertNull(mCache.peek(key(2)));
+        assertNotNull(mCache.peek(key(3)));
+        assertEquals(0, mLowResIconsGenerated);
+    }
+
+    private void runDemotions() {
+        while (!mDemotionTasks.isEmpty()) {
+            mDemotionTasks.remove(0).run();
+        }
+    }
+
+    private IconMemoryCache newCache(long maxFullResBytes, long maxLowResBytes) {
+        return new IconMemoryCache(maxFullResBytes, maxLowResBytes,
+                new IconMemoryCache.LowResGenerator() {
+                    @Override
+                    public Bitmap generateLowResIcon(Bitmap icon) {
+                        mLowResIconsGenerated++;
+                        return Bitmap.createScaledBitmap(
+                                icon, icon.getWidth() / 2, icon.getHeight() / 2, true);
+                    }
+                }, new Executor() {
+                    @Override
+                    public void execute(Runnable task) {
+                        mDemotionTasks.add(task);
+                    }
+                });
+    }
+
+    private static ComponentKey key(int index) {
+        return new ComponentKey(
+                new ComponentName("com.example", "Activity" + index), Process.myUserHandle());
+    }
+
+    private static CacheEntry newEntry() {
+        CacheEntry entry = new CacheEntry();
+        entry.icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        return entry;
+    }
+
+    private static CacheEntry newLowResEntry() {
+        CacheEntry entry = new CacheEntry();
+        entry.icon = Bitmap.createBitmap(ICON_SIZE / 2, ICON_SIZE / 2, Bitmap.Config.ARGB_8888);
+        entry.isLowResIcon = true;
+        return entry;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.PackageUserKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests and benchmark for {@link ItemViewIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ItemViewIndexTest {
+
+    private static final String TAG = "ItemViewIndexTest";
+    private static final int PACKAGE_COUNT = 50;
+    private static final int ITERATIONS = 200;
+
+    private Context mContext;
+    private ItemViewIndex mIndex;
+    private long mNextId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mIndex = new ItemViewIndex();
+        mNextId = 1;
+    }
+
+    @Test
+    public void testLookupById() {
+        View app = addShortcut("a", Favorites.CONTAINER_DESKTOP, false);
+        assertSame(app, mIndex.getView(((ItemInfo) app.getTag()).id, false));
+        assertNull(mIndex.getView(mNextId, true));
+
+        mIndex.onViewRemoved(app);
+        assertNull(mIndex.getView(((ItemInfo) app.getTag()).id, true));
+        assertEquals(0, mIndex.size());
+    }
+
+    @Test
+    public void testFolderItemsOnlyWhileFolderIsBound() {
+        View folder = addFolder();
+        long folderId = ((ItemInfo) folder.getTag()).id;
+        View child = addShortcut("a", folderId, true);
+        long childId = ((ItemInfo) child.getTag()).id;
+
+        assertSame(child, mIndex.getView(childId, true));
+        assertNull(mIndex.getView(childId, false));
+        assertEquals(Arrays.asList(child), collect("a"));
+
+        mIndex.onViewRemoved(folder);
+        assertNull(mIndex.getView(childId, true));
+        assertTrue(collect("a").isEmpty());
+
+        mIndex.onViewAdded(folder, false);
+        assertSame(child, mIndex.getView(childId, true));
+    }
+
+    @Test
+    public void testLookupByPackageAndComponent() {
+        View a1 = addShortcut("a", Favorites.CONTAINER_DESKTOP, false);
+        View a2 = addShortcut("a", Favorites.CONTAINER_HOTSEAT, false);
+        addShortcut("b", Favorites.CONTAINER_DESKTOP, false);
+
+        assertEquals(new HashSet<>(Arrays.asList(a1, a2)), new HashSet<>(collect("a")));
+        ArrayList<View> out = new ArrayList<>();
+        mIndex.collectViews(new ComponentKey(
+                ((ItemInfo) a1.getTag()).getTargetComponent(), Process.myUserHandle()), out);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    public void testItemUpdated() {
+        View view = addShortcut("a", Favorites.CONTAINER_DESKTOP, false);
+        ShortcutInfo info = (ShortcutInfo) view.getTag();
+        info.intent = makeIntent("b");
+        // The view is not returned for its old component.
+        assertTrue(collect("a").isEmpty());
+
+        mIndex.onItemUpdated(view);
+        assertTrue(collect("a").isEmpty());
+        assertEquals(Arrays.asList(view), collect("b"));
+    }
+
+    @Test
+    public void testTagChanged_lookupUsesCurrentItem() {
+        View view = addShortcut("a", Favorites.CONTAINER_DESKTOP, false);
+        long oldId = ((ItemInfo) view.getTag()).id;
+        ShortcutInfo info = new ShortcutInfo();
+        info.id = mNextId++;
+        info.container = Favorites.CONTAINER_DESKTOP;
+        info.intent = makeIntent("a");
+        info.user = Process.myUserHandle();
+        view.setTag(info);
+
+        assertNull(mIndex.getView(oldId, true));
+        assertSame(view, mIndex.getView(info.id, true));
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void testIdAssignedAfterAdd() {
+        ShortcutInfo info = new ShortcutInfo();
+        info.id = ItemInfo.NO_ID;
+        info.container = Favorites.CONTAINER_DESKTOP;
+        info.intent = makeIntent("a");
+        info.user = Process.myUserHandle();
+        View view = addView(info, false);
+
+        info.id = mNextId++;
+        assertSame(view, mIndex.getView(info.id, false));
+    }
+
+    @Test
+    public void testSeveralViewsForId() {
+        View first = addShortcut("a", Favorites.CONTAINER_DESKTOP, false);
+        View second = addView((ItemInfo) first.getTag(), false);
+        long id = ((ItemInfo) first.getTag()).id;
+        assertSame(second, mIndex.getView(id, false));
+
+        mIndex.onViewRemoved(second);
+        assertSame(first, mIndex.getView(id, false));
+        assertEquals(Arrays.asList(first), collect("a"));
+    }
+
+    @Test
+    public void testBenchmark() {
+        for (int itemCount : new int[] {100, 500, 2000}) {
+            mIndex = new ItemViewIndex();
+            ArrayList<View> views = new ArrayList<>();
+            for (int i = 0; i < itemCount; i++) {
+                views.add(addShortcut("p" + (i % PACKAGE_COUNT), Favorites.CONTAINER_DESKTOP,
+                        false));
+            }
+            PackageUserKey key = new PackageUserKey("p0", Process.myUserHandle());
+            PackageUserKey tmpKey = new PackageUserKey(null, null);
+
+            // Walk all the views, as mapOverItems did.
+            long start = SystemClock.elapsedRealtimeNanos();
+            int scanned = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (View v : views) {
+                    tmpKey.updateFromItemInfo((ItemInfo) v.getTag());
+                    if (tmpKey.equals(key)) {
+                        scanned++;
+                    }
+                }
+            }
+            long scanTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            int indexed = 0;
+            ArrayList<View> out = new ArrayList<>();
+            for (int i = 0; i < ITERATIONS; i++) {
+                out.clear();
+                mIndex.collectViews(key, out);
+                indexed += out.size();
+            }
+            long indexTime = SystemClock.elapsedRealtimeNanos() - start;
+
+            assertEquals(scanned, indexed);
+            Log.d(TAG, String.format("%d items: scan %dus/update, index %dus/update", itemCount,
+                    scanTime / ITERATIONS / 1000, indexTime / ITERATIONS / 1000));
+        }
+    }
+
+    private ArrayList<View> collect(String packageName) {
+        ArrayList<View> out = new ArrayList<>();
+        mIndex.collectViews(new PackageUserKey(packageName, Process.myUserHandle()), out);
+        return out;
+    }
+
+    private View addShortcut(String packageName, long container, boolean inFolder) {
+        ShortcutInfo info = new ShortcutInfo();
+        info.id = mNextId++;
+        info.container = container;
+        info.itemType = Favorites.ITEM_TYPE_APPLICATION;
+        info.intent = makeIntent(packageName);
+        info.user = Process.myUserHandle();
+        return addView(info, inFolder);
+    }
+
+    private View addFolder() {
+        FolderInfo info = new FolderInfo();
+        info.id = mNextId++;
+        info.container = Favorites.CONTAINER_DESKTOP;
+        info.user = Process.myUserHandle();
+        return addView(info, false);
+    }
+
+    private View addView(ItemInfo info, boolean inFolder) {
+        View view = new View(mContext);
+        view.setTag(info);
+        mIndex.onViewAdded(view, inFolder);
+        return view;
+    }
+
+    private static Intent makeIntent(String packageName) {
+        return new Intent(Intent.ACTION_MAIN)
+                .setComponent(new ComponentName(packageName, packageName + ".Activity"));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PendingInstallQueue}
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class PendingInstallQueueTest {
+
+    private static final String TAG = "PendingInstallQueueTest";
+    private static final String DB_NAME = "pending_install_queue_test.db";
+
+    private Context mContext;
+    private PendingInstallQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mQueue = new PendingInstallQueue(mContext, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void testClaim_inQueueOrder() {
+        mQueue.add(newEntry("com.example.b", 0, "b"));
+        mQueue.add(newEntry("com.example.a", 0, "a"));
+        mQueue.add(newEntry("com.example.c", 0, "c"));
+
+        ArrayList<String> claimed = new ArrayList<>();
+        mQueue.claim(claimed);
+        assertEquals(Arrays.asList("b", "a", "c"), claimed);
+    }
+
+    @Test
+    public void testClaim_skipsClaimedEntries() {
+        mQueue.add(newEntry("com.example.a", 0, "a"));
+        ArrayList<String> claimed = new ArrayList<>();
+        long firstId = mQueue.claim(claimed);
+
+        mQueue.add(newEntry("com.example.b", 0, "b"));
+        claimed.clear();
+        long secondId = mQueue.claim(claimed);
+        assertEquals(Collections.singletonList("b"), claimed);
+
+        mQueue.remove(firstId);
+        mQueue.remove(secondId);
+        claimed.clear();
+        mQueue.claim(claimed);
+        assertTrue(claimed.isEmpty());
+    }
+
+    @Test
+    public void testClaimedEntries_keptUntilRemoved() {
+        mQueue.add(newEntry("com.example.a", 0, "a"));
+        mQueue.add(newEntry("com.example.b", 0, "b"));
+        mQueue.claim(new ArrayList<String>());
+
+        // The process died before the entries were added, the next one claims them again.
+        PendingInstallQueue queue = new PendingInstallQueue(mContext, DB_NAME);
+        ArrayList<String> claimed = new ArrayList<>();
+        long claimedId = queue.claim(claimed);
+        assertEquals(Arrays.asList("a", "b"), claimed);
+
+        queue.remove(claimedId);
+        claimed.clear();
+        new PendingInstallQueue(mContext, DB_NAME).claim(claimed);
+        assertTrue(claimed.isEmpty());
+    }
+
+    @Test
+    public void testAdd_ignoresQueuedItems() {
+        mQueue.add(newEntry("com.example.a", 0, "a"));
+        mQueue.add(newEntry("com.example.b", 0, "b"));
+        mQueue.add(newEntry("com.example.a", 0, "a"));
+        mQueue.addAll(Arrays.asList(newEntry("com.example.b", 0, "b"),
+                newEntry("com.example.c", 0, "c")));
+
+        ArrayList<String> claimed = new ArrayList<>();
+        long claimedId = mQueue.claim(claimed);
+        assertEquals(Arrays.asList("a", "b", "c"), claimed);
+
+        // Once added and removed, the same item can be queued again.
+        mQueue.remove(claimedId);
+        mQueue.add(newEntry("com.example.a", 0, "a"));
+        claimed.clear();
+        mQueue.claim(claimed);
+        assertEquals(Collections.singletonList("a"), claimed);
+    }
+
+    @Test
+    public void testRemovePackages() {
+        mQueue.add(newEntry("com.example.a", 0, "a0"));
+        mQueue.add(newEntry("com.example.a", 10, "a10"));
+        mQueue.add(newEntry("com.example.b", 0, "b0"));
+        mQueue.add(newEntry("com.example.c", 0, "c0"));
+        mQueue.add(newEntry(null, 0, "custom"));
+
+        mQueue.removePackages(Arrays.asList("com.example.a", "com.example.c"), 0);
+
+        ArrayList<String> claimed = new ArrayList<>();
+        mQueue.claim(claimed);
+        assertEquals(Arrays.asList("a10", "b0", "custom"), claimed);
+    }
+
+    @Test
+    public void testGetEntries_byItemType() {
+        mQueue.add(newEntry("com.example.a", 0, "app"));
+        mQueue.add(PendingInstallQueue.newEntry(
+                Favorites.ITEM_TYPE_DEEP_SHORTCUT, "com.example.a", 0, "shortcut"));
+        mQueue.claim(new ArrayList<String>());
+
+        // Claimed entries are still pending.
+        ArrayList<String> entries = new ArrayList<>();
+        mQueue.getEntries(Favorites.ITEM_TYPE_DEEP_SHORTCUT, entries);
+        assertEquals(Collections.singletonList("shortcut"), entries);
+    }
+
+    @Test
+    public void testBulkQueueBenchmark() {
+        final int count = 500;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < count; i++) {
+            mQueue.add(newEntry("com.example.app" + i, 0, "app" + i));
+        }
+        long addTime = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < count; i += 2) {
+            mQueue.removePackages(Collections.singletonList("com.example.app" + i), 0);
+        }
+        long removeTime = SystemClock.elapsedRealtime() - start;
+
+        List<String> claimed = new ArrayList<>();
+        mQueue.claim(claimed);
+        assertEquals(count / 2, claimed.size());
+        Log.d(TAG, "Queuing " + count + " items: " + addTime + "ms, removing half of the "
+                + "packages one by one: " + removeTime + "ms");
+    }
+
+    private static ContentValues newEntry(String packageName, long userSerial, String data) {
+        return PendingInstallQueue.newEntry(
+                Favorites.ITEM_TYPE_APPLICATION, packageName, userSerial, data);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for {@link PreviewScheduler}
+ */
+@SmallTest
+public class PreviewSchedulerTest extends TestCase {
+
+    private ArrayList<Runnable> mWorkers;
+    private ArrayList<String> mOrder;
+    private PreviewScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mWorkers = new ArrayList<>();
+        mOrder = new ArrayList<>();
+        // Workers only run when the test says so.
+        mScheduler = new PreviewScheduler(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                mWorkers.add(runnable);
+            }
+        }, 2);
+    }
+
+    public void testWorkersAreBounded() {
+        for (int i = 0; i < 10; i++) {
+            mScheduler.schedule(job("" + i), i);
+        }
+        assertEquals(2, mWorkers.size());
+    }
+
+    public void testClosestToLastPositionFirst() {
+        mScheduler.schedule(job("row0"), 0);
+        mScheduler.schedule(job("row1"), 1);
+        mScheduler.schedule(job("row5"), 5);
+        mScheduler.schedule(job("row4"), 4);
+        mScheduler.schedule(job("sheet"), PreviewScheduler.NO_POSITION);
+        runWorkers();
+        assertEquals(Arrays.asList("sheet", "row4", "row5", "row1", "row0"), mOrder);
+    }
+
+    public void testSameRowInOrder() {
+        mScheduler.schedule(job("row3a"), 3);
+        mScheduler.schedule(job("row5"), 5);
+        mScheduler.schedule(job("row3b"), 3);
+        mScheduler.schedule(job("row2"), 2);
+        mScheduler.schedule(job("row4a"), 4);
+        mScheduler.schedule(job("row4b"), 4);
+        runWorkers();
+        // Rows 3 and 5 are as close to row 4, the most recently requested one goes first.
+        assertEquals(Arrays.asList("row4a", "row4b", "row3a", "row3b", "row5", "row2"), mOrder);
+    }
+
+    public void testRemoveBeforeStart() {
+        Runnable removed = job("removed");
+        mScheduler.schedule(job("kept"), 0);
+        mScheduler.schedule(removed, 1);
+        assertTrue(mScheduler.remove(removed));
+        runWorkers();
+        assertEquals(Arrays.asList("kept"), mOrder);
+        assertFalse(mScheduler.remove(removed));
+    }
+
+    private void runWorkers() {
+        // Workers drain all the pending jobs, running the first one is enough.
+        mWorkers.get(0).run();
+    }
+
+    private Runnable job(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mOrder.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.os.Debug;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.util.GridOccupancy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ReorderSolver}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ReorderSolverTest {
+
+    private static final int COUNT_X = 5;
+    private static final int COUNT_Y = 5;
+
+    private static final int[][] DIRECTIONS = {
+            {1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {-1, 1}, {1, -1}, {-1, -1}};
+
+    private ReorderSolver mSolver;
+    private GridOccupancy mOccupied;
+    private final int[] mDirection = new int[2];
+
+    @Before
+    public void setUp() {
+        mSolver = new ReorderSolver(COUNT_X, COUNT_Y);
+        mOccupied = new GridOccupancy(COUNT_X, COUNT_Y);
+    }
+
+    @Test
+    public void testItemPushedInDirection() {
+        setLayout(-1, new int[][] {{1, 0, 1, 1}});
+
+        assertTrue(rearrangementExists(1, 0, 1, 1, 1, 0));
+        assertEquals(2, mSolver.getCellX(0));
+        assertEquals(0, mSolver.getCellY(0));
+        assertEquals(1, mSolver.getIntersectingCount());
+        assertEquals(0, mSolver.getIntersecting(0));
+    }
+
+    @Test
+    public void testItemsPushedAsCluster() {
+        setLayout(-1, new int[][] {{1, 0, 1, 1}, {2, 0, 1, 1}, {4, 1, 1, 1}});
+
+        // The first item pushes the second one, which is touching it.
+        assertTrue(rearrangementExists(1, 0, 1, 1, 1, 0));
+        assertEquals(2, mSolver.getCellX(0));
+        assertEquals(3, mSolver.getCellX(1));
+        assertEquals(4, mSolver.getCellX(2));
+    }
+
+    @Test
+    public void testPushedInOppositeDirection_whenNoSpace() {
+        setLayout(-1, new int[][] {{1, 0, 1, 1}, {2, 0, 1, 1}, {3, 0, 2, 1}});
+
+        assertTrue(rearrangementExists(1, 0, 1, 1, 1, 0));
+        assertEquals(0, mSolver.getCellX(0));
+        assertEquals(2, mSolver.getCellX(1));
+        assertEquals(3, mSolver.getCellX(2));
+    }
+
+    @Test
+    public void testDraggedItemPlaced() {
+        setLayout(0, new int[][] {{0, 0, 2, 2}, {3, 3, 1, 1}});
+
+        assertTrue(rearrangementExists(2, 2, 2, 2, 1, 0));
+        assertEquals(2, mSolver.getCellX(0));
+        assertEquals(2, mSolver.getCellY(0));
+        // The other item is moved out of the way.
+        assertFalse(mSolver.getCellX(1) >= 2 && mSolver.getCellY(1) >= 2
+                && mSolver.getCellX(1) < 4 && mSolver.getCellY(1) < 4);
+    }
+
+    @Test
+    public void testNoSolution_whenItemCanNotReorder() {
+        mSolver.setLayout(1, -1);
+        mSolver.setItem(0, 1, 1, 1, 1, false);
+        mOccupied.markCells(1, 1, 1, 1, true);
+        mSolver.setOccupied(mOccupied);
+
+        assertFalse(rearrangementExists(1, 1, 1, 1, 1, 0));
+        assertTrue(rearrangementExists(2, 1, 1, 1, 1, 0));
+    }
+
+    @Test
+    public void testResultCachedUntilLayoutChanges() {
+        setLayout(-1, new int[][] {{1, 0, 1, 1}});
+        assertTrue(rearrangementExists(1, 0, 1, 1, 1, 0));
+        assertEquals(2, mSolver.getCellX(0));
+
+        // A different search changes the current positions, the cached one restores them.
+        assertTrue(rearrangementExists(1, 0, 1, 1, -1, 0));
+        assertEquals(0, mSolver.getCellX(0));
+        assertTrue(rearrangementExists(1, 0, 1, 1, 1, 0));
+        assertEquals(2, mSolver.getCellX(0));
+
+        // Once the item moved, the previous result no longer applies.
+        setLayout(-1, new int[][] {{3, 0, 1, 1}});
+        assertTrue(rearrangementExists(1, 0, 1, 1, 1, 0));
+        assertEquals(3, mSolver.getCellX(0));
+        assertEquals(0, mSolver.getIntersectingCount());
+    }
+
+    @Test
+    public void testDirectionRestored() {
+        setLayout(-1, new int[][] {{1, 1, 1, 1}, {2, 1, 1, 1}});
+        for (int[] direction : DIRECTIONS) {
+            mDirection[0] = direction[0];
+            mDirection[1] = direction[1];
+            mSolver.rearrangementExists(1, 1, 2, 1, mDirection);
+            assertEquals(direction[0], mDirection[0]);
+            assertEquals(direction[1], mDirection[1]);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testNoAllocationsPerDragMove() {
+        int[][] items = {{0, 0, 2, 2}, {2, 0, 1, 1}, {3, 0, 2, 1}, {2, 1, 1, 1},
+                {0, 2, 1, 1}, {1, 2, 2, 2}, {3, 2, 1, 1}, {4, 3, 1, 2}, {0, 4, 1, 1}};
+        setLayout(0, items);
+
+        // The first drag moves size the solver and its cache.
+        dragOverAllCells();
+        moveLastItem(items);
+        dragOverAllCells();
+
+        Debug.startAllocCounting();
+        try {
+            // Cached results.
+            Debug.resetThreadAllocCount();
+            dragOverAllCells();
+            assertEquals(0, Debug.getThreadAllocCount());
+
+            // New searches, after the layout changed.
+            Debug.resetThreadAllocCount();
+            moveLastItem(items);
+            dragOverAllCells();
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void moveLastItem(int[][] items) {
+        int[] item = items[items.length - 1];
+        item[0] = (item[0] + 1) % COUNT_X;
+        mOccupied.clear();
+        for (int i = 1; i < items.length; i++) {
+            mOccupied.markCells(items[i][0], items[i][1], items[i][2], items[i][3], true);
+        }
+        mSolver.setItem(items.length - 1, item[0], item[1], item[2], item[3], true);
+        mSolver.setOccupied(mOccupied);
+    }
+
+    private void dragOverAllCells() {
+        for (int[] direction : DIRECTIONS) {
+            for (int x = 0; x < COUNT_X - 1; x++) {
+                for (int y = 0; y < COUNT_Y - 1; y++) {
+                    rearrangementExists(x, y, 2, 2, direction[0], direction[1]);
+                }
+            }
+        }
+    }
+
+    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            int directionX, int directionY) {
+        mDirection[0] = directionX;
+        mDirection[1] = directionY;
+        return mSolver.rearrangementExists(cellX, cellY, spanX, spanY, mDirection);
+    }
+
+    /**
+     * Sets the items, as {cellX, cellY, spanX, spanY}, and marks all of them except the dragged
+     * one as occupied.
+     */
+    private void setLayout(int dragIndex, int[][] items) {
+        mOccupied.clear();
+        mSolver.setLayout(items.length, dragIndex);
+        for (int i = 0; i < items.length; i++) {
+            int[] item = items[i];
+            mSolver.setItem(i, item[0], item[1], item[2], item[3], true);
+            if (i != dragIndex) {
+                mOccupied.markCells(item[0], item[1], item[2], item[3], true);
+            }
+        }
+        mSolver.setOccupied(mOccupied);
+    }
+}
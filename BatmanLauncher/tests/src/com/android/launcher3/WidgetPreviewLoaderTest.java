@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.WidgetPreviewLoader.CacheDb;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the preview DB of {@link WidgetPreviewLoader}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WidgetPreviewLoaderTest {
+
+    private static final int PREVIEW_BYTES = 100;
+    private static final long USER = 0;
+    private static final String SIZE = "10x10";
+
+    private static final long[] VERSION_1 = new long[] {1, 1000};
+    private static final long[] VERSION_2 = new long[] {2, 2000};
+
+    private CacheDb mDb;
+
+    @Before
+    public void setUp() {
+        // An in-memory DB with room for three previews and a half.
+        mDb = new CacheDb(InstrumentationRegistry.getTargetContext(), null,
+                PREVIEW_BYTES * 7 / 2);
+    }
+
+    @Test
+    public void testOverBudget_prunesLeastRecentlyUsed() {
+        write("app1/.Widget1", "app1", VERSION_1, 100);
+        write("app1/.Widget2", "app1", VERSION_1, 200);
+        write("app2/.Widget1", "app2", VERSION_1, 300);
+        mDb.updateLastAccess("app1/.Widget1", USER, SIZE, 400);
+        write("app2/.Widget2", "app2", VERSION_1, 500);
+
+        // Pruned down to 75% of the budget.
+        assertEquals(2 * PREVIEW_BYTES, mDb.getTotalBytes());
+        assertTrue(hasPreview("app1/.Widget1"));
+        assertFalse(hasPreview("app1/.Widget2"));
+        assertFalse(hasPreview("app2/.Widget1"));
+        assertTrue(hasPreview("app2/.Widget2"));
+    }
+
+    @Test
+    public void testUpdateLastAccess_keepsNewerAccess() {
+        // Room for two previews and three quarters, so that a single preview is pruned.
+        mDb = new CacheDb(InstrumentationRegistry.getTargetContext(), null,
+                PREVIEW_BYTES * 11 / 4);
+        write("app1/.Widget1", "app1", VERSION_1, 300);
+        write("app2/.Widget1", "app2", VERSION_1, 200);
+        // Read before the preview was written, it does not make the preview less recently used.
+        mDb.updateLastAccess("app1/.Widget1", USER, SIZE, 100);
+        write("app2/.Widget2", "app2", VERSION_1, 400);
+
+        assertTrue(hasPreview("app1/.Widget1"));
+        assertFalse(hasPreview("app2/.Widget1"));
+        assertTrue(hasPreview("app2/.Widget2"));
+    }
+
+    @Test
+    public void testWritePreview_newVersionDropsOlderPreviews() {
+        write("app1/.Widget1", "app1", VERSION_1, 100);
+        write("app1/.Widget2", "app1", VERSION_1, 200);
+        write("app2/.Widget1", "app2", VERSION_1, 300);
+        write("app1/.Widget1", "app1", VERSION_2, 400);
+
+        assertArrayEquals(VERSION_2, mDb.getPackageVersions("app1", Long.toString(USER)));
+        assertTrue(hasPreview("app1/.Widget1"));
+        assertFalse(hasPreview("app1/.Widget2"));
+        assertTrue(hasPreview("app2/.Widget1"));
+        assertEquals(2 * PREVIEW_BYTES, mDb.getTotalBytes());
+    }
+
+    @Test
+    public void testDeletePackage_keepsPreviewsOfNewerVersion() {
+        write("app1/.Widget1", "app1", VERSION_2, 100);
+        mDb.deletePackage("app1", Long.toString(USER), VERSION_1);
+
+        assertTrue(hasPreview("app1/.Widget1"));
+        assertArrayEquals(VERSION_2, mDb.getPackageVersions("app1", Long.toString(USER)));
+
+        mDb.deletePackage("app1", Long.toString(USER), VERSION_2);
+        assertFalse(hasPreview("app1/.Widget1"));
+        assertEquals(0, mDb.getTotalBytes());
+    }
+
+    private void write(String component, String packageName, long[] versions, long accessTime) {
+        mDb.writePreview(component, USER, SIZE, packageName, versions, new byte[PREVIEW_BYTES],
+                accessTime);
+    }
+
+    private boolean hasPreview(String component) {
+        ParcelFileDescriptor fd = mDb.openPreview(component, USER, SIZE);
+        if (fd == null) {
+            return false;
+        }
+        try {
+            fd.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        return true;
+    }
+}
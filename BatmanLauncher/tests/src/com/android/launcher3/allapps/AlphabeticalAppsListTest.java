@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.AlphabeticalAppsList.AdapterItem;
+import com.android.launcher3.allapps.AlphabeticalAppsList.FastScrollSectionInfo;
+import com.android.launcher3.util.ComponentKeyMapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link AlphabeticalAppsList}
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class AlphabeticalAppsListTest {
+
+    private static final String TAG = "AlphabeticalAppsListTest";
+    private static final int NUM_APPS_PER_ROW = 5;
+
+    private Context mContext;
+    private Random mRandom;
+    private AlphabeticalAppsList mAppsList;
+    private RecordingAdapter mAdapter;
+    private ArrayList<AppInfo> mApps;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mRandom = new Random(42);
+        mApps = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            mApps.add(newApp("app" + i, randomTitle()));
+        }
+        mAppsList = newAppsList(mApps, null);
+        mAdapter = new RecordingAdapter(mAppsList);
+    }
+
+    @Test
+    public void testAddApps() {
+        for (int i = 0; i < 30; i++) {
+            addApp(newApp("new" + i, randomTitle()));
+        }
+        assertSameAsRebuilt(null);
+    }
+
+    @Test
+    public void testRemoveApps() {
+        for (int i = 0; i < 30; i++) {
+            AppInfo app = mApps.remove(mRandom.nextInt(mApps.size()));
+            mAppsList.removeApps(Collections.singletonList(app));
+        }
+        assertSameAsRebuilt(null);
+    }
+
+    @Test
+    public void testUpdateApps() {
+        for (int i = 0; i < 30; i++) {
+            int index = mRandom.nextInt(mApps.size());
+            AppInfo app = newApp(mApps.get(index).componentName.getClassName(), randomTitle());
+            mApps.set(index, app);
+            mAppsList.addOrUpdateApps(Collections.singletonList(app));
+        }
+        // Title updated in place
+        AppInfo app = mApps.get(0);
+        app.title = randomTitle();
+        mAppsList.addOrUpdateApps(Collections.singletonList(app));
+        assertSameAsRebuilt(null);
+    }
+
+    @Test
+    public void testUpdateApps_severalTitlesUpdatedInPlace() {
+        // As by AllAppsList.updatePackage, the apps of the batch are all retitled before the
+        // list is told about any of them.
+        ArrayList<AppInfo> updates = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            AppInfo app = mApps.get(i * 10);
+            app.title = randomTitle();
+            updates.add(app);
+        }
+        mAppsList.addOrUpdateApps(updates);
+        assertSameAsRebuilt(null);
+
+        // Swap the titles of two apps.
+        AppInfo first = mAppsList.getApps().get(0);
+        AppInfo last = mAppsList.getApps().get(mApps.size() - 1);
+        CharSequence title = first.title;
+        first.title = last.title;
+        last.title = title;
+        mAppsList.addOrUpdateApps(Arrays.asList(first, last));
+        assertSameAsRebuilt(null);
+    }
+
+    @Test
+    public void testSectionsSplitAndMerged() {
+        mApps.clear();
+        mApps.add(newApp("a1", "Alpha"));
+        mApps.add(newApp("a2", "Axe"));
+        mApps.add(newApp("c1", "Charlie"));
+        mAppsList = newAppsList(mApps, null);
+        mAdapter = new RecordingAdapter(mAppsList);
+
+        AppInfo bravo = newApp("b1", "Bravo");
+        addApp(bravo);
+        assertSameAsRebuilt(null);
+        assertEquals(3, mAppsList.getFastScrollerSections().size());
+
+        mApps.remove(bravo);
+        mAppsList.removeApps(Collections.singletonList(bravo));
+        assertSameAsRebuilt(null);
+
+        AppInfo alpha = mApps.remove(0);
+        mAppsList.removeApps(Collections.singletonList(alpha));
+        assertSameAsRebuilt(null);
+    }
+
+    @Test
+    public void testUpdatesWithPredictions() {
+        List<ComponentKeyMapper<AppInfo>> predictions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            predictions.add(new ComponentKeyMapper<AppInfo>(mApps.get(i).toComponentKey()));
+        }
+        mAppsList.setPredictedApps(predictions);
+        mAdapter.mNumFullUpdates = 0;
+
+        for (int i = 0; i < 10; i++) {
+            addApp(newApp("new" + i, randomTitle()));
+            AppInfo app = mApps.remove(10 + mRandom.nextInt(mApps.size() - 10));
+            mAppsList.removeApps(Collections.singletonList(app));
+        }
+        // Update of a predicted app
+        AppInfo app = newApp(mApps.get(1).componentName.getClassName(), randomTitle());
+        mApps.set(1, app);
+        mAppsList.addOrUpdateApps(Collections.singletonList(app));
+        assertSameAsRebuilt(predictions);
+    }
+
+    @Test
+    public void testSingleAppUpdatesBenchmark() {
+        mApps.clear();
+        for (int i = 0; i < 500; i++) {
+            mApps.add(newApp("app" + i, randomTitle()));
+        }
+        mAppsList = newAppsList(mApps, null);
+        mAdapter = new RecordingAdapter(mAppsList);
+
+        ArrayList<AppInfo> updates = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int index = mRandom.nextInt(mApps.size());
+            AppInfo app = newApp(mApps.get(index).componentName.getClassName(), randomTitle());
+            mApps.set(index, app);
+            updates.add(app);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (AppInfo app : updates) {
+            mAppsList.addOrUpdateApps(Collections.singletonList(app));
+        }
+        long incrementalTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, mAdapter.mNumFullUpdates);
+
+        // Rebuilding the whole list, as each update used to.
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < updates.size(); i++) {
+            mAppsList.setApps(mApps);
+        }
+        long rebuildTime = SystemClock.elapsedRealtime() - start;
+
+        Log.d(TAG, "50 single app updates of 500 apps: " + incrementalTime
+                + "ms, rebuilding the list: " + rebuildTime + "ms");
+    }
+
+    private void addApp(AppInfo app) {
+        mApps.add(app);
+        mAppsList.addOrUpdateApps(Collections.singletonList(app));
+    }
+
+    /**
+     * Checks that the list, and the adapter items as seen through the notifications, are the
+     * same as the ones of a list built at once from the same apps.
+     */
+    private void assertSameAsRebuilt(List<ComponentKeyMapper<AppInfo>> predictions) {
+        assertEquals(0, mAdapter.mNumFullUpdates);
+        List<AdapterItem> items = mAppsList.getAdapterItems();
+        assertEquals(items.size(), mAdapter.mItems.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertSame(items.get(i).appInfo, mAdapter.mItems.get(i));
+        }
+
+        AlphabeticalAppsList expected = newAppsList(mApps, predictions);
+        assertEquals(expected.getApps(), mAppsList.getApps());
+        assertEquals(expected.getNumAppRows(), mAppsList.getNumAppRows());
+        List<AdapterItem> expectedItems = expected.getAdapterItems();
+        assertEquals(expectedItems.size(), items.size());
+        for (int i = 0; i < items.size(); i++) {
+            AdapterItem expectedItem = expectedItems.get(i);
+            AdapterItem item = items.get(i);
+            assertEquals(expectedItem.viewType, item.viewType);
+            assertEquals(i, item.position);
+            assertSame(expectedItem.appInfo, item.appInfo);
+            assertEquals(expectedItem.sectionName, item.sectionName);
+            assertEquals(expectedItem.appIndex, item.appIndex);
+            assertEquals(expectedItem.rowIndex, item.rowIndex);
+            assertEquals(expectedItem.rowAppIndex, item.rowAppIndex);
+        }
+
+        List<FastScrollSectionInfo> expectedSections = expected.getFastScrollerSections();
+        List<FastScrollSectionInfo> sections = mAppsList.getFastScrollerSections();
+        assertEquals(expectedSections.size(), sections.size());
+        for (int i = 0; i < sections.size(); i++) {
+            assertEquals(expectedSections.get(i).sectionName, sections.get(i).sectionName);
+            assertEquals(expectedSections.get(i).fastScrollToItem.position,
+                    sections.get(i).fastScrollToItem.position);
+            assertSame(items.get(sections.get(i).fastScrollToItem.position),
+                    sections.get(i).fastScrollToItem);
+            assertEquals(expectedSections.get(i).touchFraction, sections.get(i).touchFraction,
+                    0.0001f);
+        }
+    }
+
+    private AlphabeticalAppsList newAppsList(List<AppInfo> apps,
+            List<ComponentKeyMapper<AppInfo>> predictions) {
+        AlphabeticalAppsList appsList = new AlphabeticalAppsList(mContext);
+        appsList.setNumAppsPerRow(NUM_APPS_PER_ROW, NUM_APPS_PER_ROW);
+        appsList.setApps(apps);
+        if (predictions != null) {
+            appsList.setPredictedApps(predictions);
+        }
+        return appsList;
+    }
+
+    private String randomTitle() {
+        StringBuilder title = new StringBuilder();
+        title.append((char) ('A' + mRandom.nextInt(26)));
+        for (int i = 0; i < 6; i++) {
+            title.append((char) ('a' + mRandom.nextInt(26)));
+        }
+        return title.toString();
+    }
+
+    private static AppInfo newApp(String className, String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName("com.example", className);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+
+    /**
+     * Adapter which applies the notifications it receives to its own copy of the items.
+     */
+    private static class RecordingAdapter extends RecyclerView.Adapter {
+
+        final AlphabeticalAppsList mAppsList;
+        final ArrayList<AppInfo> mItems = new ArrayList<>();
+        int mNumFullUpdates;
+
+        RecordingAdapter(AlphabeticalAppsList appsList) {
+            mAppsList = appsList;
+            appsList.setAdapter(this);
+            resetItems();
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mNumFullUpdates++;
+                    resetItems();
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    for (int i = positionStart; i < positionStart + itemCount; i++) {
+                        mItems.set(i, getItem(i));
+                    }
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    for (int i = positionStart; i < positionStart + itemCount; i++) {
+                        mItems.add(i, getItem(i));
+                    }
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    for (int i = 0; i < itemCount; i++) {
+                        mItems.remove(positionStart);
+                    }
+                }
+
+                @Override
+                public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                    mItems.add(toPosition, mItems.remove(fromPosition));
+                }
+            });
+        }
+
+        void resetItems() {
+            mItems.clear();
+            for (AdapterItem item : mAppsList.getAdapterItems()) {
+                mItems.add(item.appInfo);
+            }
+        }
+
+        private AppInfo getItem(int position) {
+            return mAppsList.getAdapterItems().get(position).appInfo;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mAppsList.getAdapterItems().size();
+        }
+    }
+}
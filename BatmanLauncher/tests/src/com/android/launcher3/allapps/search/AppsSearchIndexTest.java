@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.content.ComponentName;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests and benchmark for {@link AppsSearchIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AppsSearchIndexTest {
+
+    private static final String TAG = "AppsSearchIndexTest";
+
+    private static final int APP_COUNT = 1000;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    private static final String[] WORDS = {
+            "Mail", "Maps", "Music", "Camera", "Calendar", "Clock", "Photos", "Play", "Drive",
+            "Cow", "whiteCow", "cats&Dogs", "2048", "Ærø", "Café", "Crème", "Ñandú", "Über",
+            "Søk", "Почта", "Карты", "Музыка", "Χάρτες", "Μουσική", "电子邮件", "地图", "音乐",
+            "相机", "다운로드", "드라이브", "지도", "メール", "カメラ", "البريد", "خرائط", "संगीत"};
+
+    private static final String[] QUERIES = {
+            "m", "ma", "mai", "mail", "c", "ca", "caf", "cafe", "cow", "dog", "20", "ae", "nan",
+            "ub", "по", "χα", "电", "电子", "ㄷ", "다운", "メ", "ال", "सं", "zzz"};
+
+    private final DefaultAppSearchAlgorithm.StringMatcher mMatcher =
+            DefaultAppSearchAlgorithm.StringMatcher.getInstance();
+    private ArrayList<AppInfo> mApps;
+
+    @Before
+    public void setUp() {
+        // Fixed seed, so that every run measures the same titles.
+        Random random = new Random(42);
+        mApps = new ArrayList<>();
+        for (int i = 0; i < APP_COUNT; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)];
+            if (random.nextBoolean()) {
+                title += " " + WORDS[random.nextInt(WORDS.length)];
+            }
+            mApps.add(getInfo(i, title + " " + i));
+        }
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        AppsSearchIndex index = new AppsSearchIndex();
+        index.setApps(mApps);
+        for (String query : QUERIES) {
+            // Search from scratch, without narrowing the previous result.
+            index.setApps(new ArrayList<AppInfo>());
+            index.search(query);
+            index.setApps(mApps);
+            assertEquals(query, linearSearch(query), index.search(query));
+        }
+    }
+
+    @Test
+    public void testNarrowing() {
+        AppsSearchIndex index = new AppsSearchIndex();
+        index.setApps(mApps);
+        for (String query : new String[] {"c", "ca", "caf", "cafe", "cafe 1"}) {
+            assertEquals(query, linearSearch(query), index.search(query));
+        }
+    }
+
+    @Test
+    public void testBlankQuery_notNarrowed() {
+        AppsSearchIndex index = new AppsSearchIndex();
+        index.setApps(mApps);
+        assertEquals(new ArrayList<ComponentKey>(), index.search(""));
+        assertEquals(linearSearch("c"), index.search("c"));
+        assertEquals(new ArrayList<ComponentKey>(), index.search(" "));
+        assertEquals(linearSearch("ca"), index.search("ca"));
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        AppsSearchIndex index = new AppsSearchIndex();
+        index.setApps(mApps);
+        index.search("m");
+        assertEquals(APP_COUNT, index.getTokenizedCount());
+
+        // Rename one app, remove another and add a new one.
+        mApps.set(0, getInfo(0, "Zebra"));
+        mApps.remove(1);
+        mApps.add(getInfo(APP_COUNT, "Zoo"));
+        index.setApps(mApps);
+
+        assertEquals(linearSearch("z"), index.search("z"));
+        assertEquals(linearSearch("m"), index.search("m"));
+        assertEquals(APP_COUNT + 2, index.getTokenizedCount());
+
+        // Setting the same apps again does not tokenize anything.
+        index.setApps(mApps);
+        index.search("ca");
+        assertEquals(APP_COUNT + 2, index.getTokenizedCount());
+    }
+
+    @Test
+    public void testCancellation() {
+        AppsSearchIndex index = new AppsSearchIndex();
+        index.setApps(mApps);
+        AppsSearchIndex.CancellationCheck cancelled = new AppsSearchIndex.CancellationCheck() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertNull(index.search("c", cancelled));
+
+        // A cancelled search does not affect the narrowing of the next ones.
+        assertEquals(linearSearch("ca"), index.search("ca"));
+        assertNull(index.search("cafe", cancelled));
+        assertEquals(linearSearch("c"), index.search("c"));
+    }
+
+    @Test
+    public void testBenchmark() {
+        AppsSearchIndex index = new AppsSearchIndex();
+        long start = SystemClock.elapsedRealtimeNanos();
+        index.setApps(mApps);
+        index.search("a");
+        long buildTime = SystemClock.elapsedRealtimeNanos() - start;
+
+        long linearTime = 0;
+        long indexTime = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            start = SystemClock.elapsedRealtimeNanos();
+            for (String query : QUERIES) {
+                linearSearch(query);
+            }
+            long linearEnd = SystemClock.elapsedRealtimeNanos();
+            for (String query : QUERIES) {
+                index.search(query);
+            }
+            long indexEnd = SystemClock.elapsedRealtimeNanos();
+            if (i >= WARMUP_ITERATIONS) {
+                linearTime += linearEnd - start;
+                indexTime += indexEnd - linearEnd;
+            }
+        }
+        int ops = MEASURED_ITERATIONS * QUERIES.length;
+        Log.d(TAG, String.format("%d titles, %d tokens, index built in %dus",
+                APP_COUNT, index.getTokenCount(), buildTime / 1000));
+        Log.d(TAG, String.format("Linear scan: %dus/query, index: %dus/query",
+                linearTime / ops / 1000, indexTime / ops / 1000));
+    }
+
+    private ArrayList<ComponentKey> linearSearch(String query) {
+        ArrayList<ComponentKey> result = new ArrayList<>();
+        for (AppInfo info : mApps) {
+            if (DefaultAppSearchAlgorithm.matches(info, query, mMatcher)) {
+                result.add(info.toComponentKey());
+            }
+        }
+        return result;
+    }
+
+    private AppInfo getInfo(int id, String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName("Test", "Activity" + id);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+}
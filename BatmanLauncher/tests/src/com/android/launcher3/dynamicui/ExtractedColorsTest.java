@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.dynamicui;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ExtractedColors}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ExtractedColorsTest {
+
+    @Test
+    public void testNoPalette_defaultColors() {
+        ExtractedColors colors = new ExtractedColors();
+        ExtractedColors defaults = new ExtractedColors();
+        colors.setColorAtIndex(ExtractedColors.STATUS_BAR_INDEX, ExtractedColors.DEFAULT_LIGHT);
+
+        // No palette is extracted when the wallpaper can not be decoded.
+        colors.updateHotseatPalette(null);
+        colors.updateStatusBarPalette(null);
+        colors.updateWallpaperThemePalette(null);
+
+        assertEquals(defaults.encodeAsString(), colors.encodeAsString());
+    }
+}
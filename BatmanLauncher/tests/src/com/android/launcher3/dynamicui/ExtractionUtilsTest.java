@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.dynamicui;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ExtractionUtils}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ExtractionUtilsTest {
+
+    private static final int MAX_AREA = 256 * 256;
+
+    @Test
+    public void testGetSampleSize_smallImageNotSampled() {
+        assertEquals(1, ExtractionUtils.getSampleSize(200, 300, MAX_AREA));
+        assertEquals(1, ExtractionUtils.getSampleSize(256, 256, MAX_AREA));
+    }
+
+    @Test
+    public void testGetSampleSize_fitsInArea() {
+        // 4K wallpaper
+        int sampleSize = ExtractionUtils.getSampleSize(3840, 2160, MAX_AREA);
+        assertEquals(16, sampleSize);
+        assertTrue((3840 / sampleSize) * (2160 / sampleSize) <= MAX_AREA);
+
+        // One sample size less does not fit.
+        assertTrue((3840 / 8) * (2160 / 8) > MAX_AREA);
+    }
+
+    @Test
+    public void testGetSampleSize_powerOfTwo() {
+        for (int width = 100; width < 5000; width += 123) {
+            int sampleSize = ExtractionUtils.getSampleSize(width, 2 * width, MAX_AREA);
+            assertEquals(1, Integer.bitCount(sampleSize));
+            assertTrue((width / sampleSize) * (2 * width / sampleSize) <= MAX_AREA);
+        }
+    }
+}
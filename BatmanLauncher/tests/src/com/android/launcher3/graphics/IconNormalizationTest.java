@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.os.Build;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link IconNormalization}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconNormalizationTest {
+
+    @Test
+    public void testRoundTrip() {
+        IconNormalization normalization = new IconNormalization();
+        assertFalse(normalization.isValid());
+        normalization.scale = 0.92f;
+        normalization.wrappedScale = 0.7f;
+        normalization.isMaskShape = true;
+        normalization.bounds.set(0.1f, 0.05f, 0.1f, 0.15f);
+
+        IconNormalization result =
+                IconNormalization.unflattenFromString(normalization.flattenToString());
+        assertTrue(result.isValid());
+        assertEquals(normalization.scale, result.scale, 0);
+        assertEquals(normalization.wrappedScale, result.wrappedScale, 0);
+        assertTrue(result.isMaskShape);
+        assertEquals(normalization.bounds, result.bounds);
+    }
+
+    @Test
+    public void testOtherPlatformVersion() {
+        String str = (Build.VERSION.SDK_INT - 1) + ",0.9,0.0,0,0.0,0.0,0.0,0.0";
+        assertNull(IconNormalization.unflattenFromString(str));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertNull(IconNormalization.unflattenFromString(null));
+        assertNull(IconNormalization.unflattenFromString(""));
+        assertNull(IconNormalization.unflattenFromString(Build.VERSION.SDK_INT + ",0.9"));
+        assertNull(IconNormalization.unflattenFromString(
+                Build.VERSION.SDK_INT + ",abc,0.0,0,0.0,0.0,0.0,0.0"));
+        // Not computed.
+        assertNull(IconNormalization.unflattenFromString(
+                Build.VERSION.SDK_INT + ",0.0,0.0,0,0.0,0.0,0.0,0.0"));
+    }
+}
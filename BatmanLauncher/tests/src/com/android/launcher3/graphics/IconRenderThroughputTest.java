@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.IconCache;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.compat.LauncherAppsCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Throughput benchmark for {@link LauncherIcons}: measures the number of icons rendered per
+ * second with several concurrent threads, which used to serialize on a single global canvas.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconRenderThroughputTest {
+
+    private static final String TAG = "IconRenderThroughputTest";
+    private static final int ICONS_PER_THREAD = 100;
+
+    private Context mContext;
+    private IconCache mIconCache;
+    private List<LauncherActivityInfo> mApps;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mIconCache = LauncherAppState.getInstance(mContext).getIconCache();
+        mApps = LauncherAppsCompat.getInstance(mContext)
+                .getActivityList(null, Process.myUserHandle());
+        assertFalse(mApps.isEmpty());
+    }
+
+    @Test
+    public void testRenderThroughput() throws Exception {
+        // Warm up the render contexts and the resources.
+        runRenders(4);
+
+        long singleThreaded = runRenders(1);
+        Log.d(TAG, String.format("1 thread: %d icons/s", singleThreaded));
+        for (int threads : new int[] {2, 4}) {
+            long throughput = runRenders(threads);
+            Log.d(TAG, String.format("%d threads: %d icons/s (%.2fx of 1 thread)",
+                    threads, throughput, (float) throughput / singleThreaded));
+        }
+    }
+
+    @Test
+    public void testConcurrentRendersMatchSerial() throws Exception {
+        final LauncherActivityInfo app = mApps.get(0);
+        final Bitmap expected = render(app);
+
+        final int threads = 4;
+        final AtomicInteger matches = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (expected.sameAs(render(app))) {
+                            matches.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // Ignore, the match count will be short.
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(threads, matches.get());
+    }
+
+    private Bitmap render(LauncherActivityInfo app) {
+        return LauncherIcons.createBadgedIconBitmap(mIconCache.getFullResIcon(app),
+                app.getUser(), mContext, app.getApplicationInfo().targetSdkVersion);
+    }
+
+    /**
+     * @return the number of icons rendered per second, across all the threads.
+     */
+    private long runRenders(int threadCount) throws InterruptedException {
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < ICONS_PER_THREAD; i++) {
+                            render(mApps.get((i + offset) % mApps.size()));
+                            renders.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // Ignore, the render count will be short.
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        start.countDown();
+        done.await();
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        assertEquals(threadCount * ICONS_PER_THREAD, renders.get());
+        return renders.get() * 1000L / elapsed;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.userevent.nano.LauncherLogProto.Action;
+import com.android.launcher3.userevent.nano.LauncherLogProto.LauncherEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.android.launcher3.logging.LoggerUtils.newCommandAction;
+import static com.android.launcher3.logging.LoggerUtils.newLauncherEvent;
+import static com.android.launcher3.logging.LoggerUtils.newTouchAction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link BinaryEventSink} and {@link EventRingFile}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BinaryEventSinkTest {
+
+    private File mFile;
+    private HandlerThread mThread;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "user-events-test.bin");
+        mFile.delete();
+        mThread = new HandlerThread("sink-test");
+        mThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+        mFile.delete();
+    }
+
+    @Test
+    public void testEventsWrittenInOrder() throws Exception {
+        EventRingFile file = new EventRingFile(mFile, 4, 1024);
+        BinaryEventSink sink = new BinaryEventSink(mThread.getLooper(), file);
+        for (int i = 0; i < 5; i++) {
+            LauncherEvent event = newLauncherEvent(newTouchAction(Action.Touch.TAP));
+            event.elapsedSessionMillis = i;
+            sink.onUserEvent(event);
+        }
+        sink.flush();
+        waitForWriter();
+
+        List<LauncherEvent> events = readEvents(file);
+        assertEquals(5, events.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, events.get(i).elapsedSessionMillis);
+        }
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        EventRingFile file = new EventRingFile(mFile, 4, 1024);
+        BinaryEventSink sink = new BinaryEventSink(mThread.getLooper(), file);
+        sink.setSamplingRate(Action.Type.TOUCH, Action.Touch.TAP, 4);
+        for (int i = 0; i < 8; i++) {
+            sink.onUserEvent(newLauncherEvent(newTouchAction(Action.Touch.TAP)));
+            sink.onUserEvent(newLauncherEvent(newTouchAction(Action.Touch.LONGPRESS)));
+            sink.onUserEvent(newLauncherEvent(newCommandAction(Action.Command.HOME_INTENT)));
+        }
+        sink.flush();
+        waitForWriter();
+
+        int taps = 0, longPresses = 0, commands = 0;
+        for (LauncherEvent event : readEvents(file)) {
+            if (event.action.type == Action.Type.COMMAND) {
+                commands++;
+            } else if (event.action.touch == Action.Touch.TAP) {
+                taps++;
+            } else {
+                longPresses++;
+            }
+        }
+        assertEquals(2, taps);
+        assertEquals(8, longPresses);
+        assertEquals(8, commands);
+    }
+
+    @Test
+    public void testRingFile_keepsMostRecentBatches() throws Exception {
+        EventRingFile file = new EventRingFile(mFile, 4, 16);
+        for (int i = 0; i < 10; i++) {
+            file.append(new byte[] {(byte) i}, 1);
+        }
+        assertBatches(file, 6, 7, 8, 9);
+
+        // Reopening the file continues after the most recent batch.
+        file.close();
+        file = new EventRingFile(mFile, 4, 16);
+        file.append(new byte[] {10}, 1);
+        assertBatches(file, 7, 8, 9, 10);
+        file.close();
+    }
+
+    @Test
+    public void testRingFile_skipsCorruptBatch() throws Exception {
+        EventRingFile file = new EventRingFile(mFile, 4, 16);
+        for (int i = 0; i < 3; i++) {
+            file.append(new byte[] {(byte) i, (byte) i}, 2);
+        }
+        file.close();
+
+        // Corrupt the data of the second slot, as if the process died while writing it.
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek((16 + 16) + 16);
+        raf.write(42);
+        raf.close();
+
+        file = new EventRingFile(mFile, 4, 16);
+        List<byte[]> batches = file.readAll();
+        assertEquals(2, batches.size());
+        assertEquals(0, batches.get(0)[0]);
+        assertEquals(2, batches.get(1)[0]);
+        file.close();
+    }
+
+    @Test
+    public void testDroppedWhenAllBuffersPending() throws Exception {
+        EventRingFile file = new EventRingFile(mFile, 4, 1024);
+        // Block the writer, so that no buffer is returned to the pool.
+        final CountDownLatch blocker = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) { }
+            }
+        });
+
+        BinaryEventSink sink = new BinaryEventSink(mThread.getLooper(), file);
+        LauncherEvent event = newLauncherEvent(newTouchAction(Action.Touch.TAP));
+        int size = event.getSerializedSize() + 1;
+        int count = 5 * (16 * 1024 / size);
+        for (int i = 0; i < count; i++) {
+            sink.onUserEvent(event);
+        }
+        assertTrue(sink.getAndResetDroppedCount() > 0);
+        assertEquals(0, sink.getAndResetDroppedCount());
+        blocker.countDown();
+    }
+
+    private void waitForWriter() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static List<LauncherEvent> readEvents(EventRingFile file) throws Exception {
+        ArrayList<LauncherEvent> events = new ArrayList<>();
+        for (byte[] batch : file.readAll()) {
+            BinaryEventSink.readEvents(batch, events);
+        }
+        return events;
+    }
+
+    private static void assertBatches(EventRingFile file, int... expected) throws Exception {
+        List<byte[]> batches = file.readAll();
+        assertEquals(expected.length, batches.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], batches.get(i)[0]);
+        }
+    }
+}
@@ -2,11 +2,14 @@ package com.android.launcher3.logging;
 
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
 
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Tests for {@link FileLog}
@@ -15,6 +18,7 @@ import java.util.Calendar;
 public class FileLogTest extends AndroidTestCase {
 
     private File mTempDir;
+    private long mMaxLogFileSize;
 
     @Override
     protected void setUp() throws Exception {
@@ -25,13 +29,17 @@ public class FileLogTest extends AndroidTestCase {
         } while(!mTempDir.mkdir());
 
         FileLog.setDir(mTempDir);
+        mMaxLogFileSize = FileLog.sMaxLogFileSize;
     }
 
     @Override
     protected void tearDown() throws Exception {
+        FileLog.sMaxLogFileSize = mMaxLogFileSize;
         // Clear existing logs
         new File(mTempDir, "log-0").delete();
         new File(mTempDir, "log-1").delete();
+        new File(mTempDir, "log-0.old").delete();
+        new File(mTempDir, "log-1.old").delete();
         mTempDir.delete();
         super.tearDown();
     }
@@ -80,4 +88,117 @@ public class FileLogTest extends AndroidTestCase {
         // Old logs have been truncated
         assertFalse(writer.toString().contains("hoolalala"));
     }
+
+    public void testLargeFileRotated() throws Exception {
+        if (!FileLog.ENABLED) {
+            return;
+        }
+        FileLog.sMaxLogFileSize = 200;
+        String padding = new String(new char[300]).replace('\0', '-');
+
+        FileLog.print("Testing", "hoolalala" + padding);
+        FileLog.flushAll(null);
+        FileLog.print("Testing", "abracadabra");
+        StringWriter writer = new StringWriter();
+        FileLog.flushAll(new PrintWriter(writer));
+        // The rotated file is still dumped, before the current one.
+        String logs = writer.toString();
+        assertTrue(logs.contains("hoolalala"));
+        assertTrue(logs.indexOf("hoolalala") < logs.indexOf("abracadabra"));
+
+        FileLog.print("Testing", "simsalabim" + padding);
+        FileLog.flushAll(null);
+        writer = new StringWriter();
+        FileLog.flushAll(new PrintWriter(writer));
+        // Only one rotated file is kept.
+        assertFalse(writer.toString().contains("hoolalala"));
+        assertTrue(writer.toString().contains("abracadabra"));
+        assertTrue(writer.toString().contains("simsalabim"));
+    }
+
+    public void testBuffer_dropsWhenFull() {
+        LogBuffer buffer = new LogBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i < 4, buffer.offer(i, "Testing", "msg" + i, null));
+        }
+        assertEquals(2, buffer.getAndResetDropped());
+        assertEquals(0, buffer.getAndResetDropped());
+
+        for (int i = 0; i < 4; i++) {
+            LogBuffer.Record record = buffer.peek();
+            assertEquals(i, record.time);
+            assertEquals("msg" + i, record.msg);
+            buffer.release(record);
+        }
+        assertNull(buffer.peek());
+
+        // Released slots are reused.
+        assertTrue(buffer.offer(4, "Testing", "msg4", null));
+        assertEquals("msg4", buffer.peek().msg);
+    }
+
+    public void testBuffer_concurrentProducers() throws Exception {
+        final int threadCount = 4;
+        final int recordCount = 5000;
+        final LogBuffer buffer = new LogBuffer(64);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final String tag = Integer.toString(t);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < recordCount; i++) {
+                        // Retry the dropped records, so that all of them are read.
+                        while (!buffer.offer(i, tag, null, null)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        // Records of each thread are read in the order they were added.
+        long[] nextTime = new long[threadCount];
+        int read = 0;
+        while (read < threadCount * recordCount) {
+            LogBuffer.Record record = buffer.peek();
+            if (record == null) {
+                Thread.yield();
+                continue;
+            }
+            int t = Integer.parseInt(record.tag);
+            assertEquals(nextTime[t]++, record.time);
+            buffer.release(record);
+            read++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.peek());
+    }
+
+    public void testPrintBenchmark() throws Exception {
+        if (!FileLog.ENABLED) {
+            return;
+        }
+        final int count = 2000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            FileLog.print("Testing", "benchmark");
+        }
+        long printNanos = System.nanoTime() - start;
+        FileLog.flushAll(null);
+        Log.d("FileLogTest", String.format("print: %.2fus per record",
+                printNanos / 1e3 / count));
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherSettings.Favorites;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BindChunker}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BindChunkerTest {
+
+    private static final long FRAME_INTERVAL = 16000000;
+
+    private BindChunker mChunker;
+
+    @Before
+    public void setUp() {
+        mChunker = new BindChunker(FRAME_INTERVAL);
+    }
+
+    @Test
+    public void testChunksFitBudget() {
+        List<ItemInfo> items = createItems(Favorites.ITEM_TYPE_APPLICATION, 100);
+        ArrayList<List<ItemInfo>> chunks = mChunker.split(items);
+
+        long iconCost = mChunker.getCost(BindChunker.TYPE_ICON);
+        int total = 0;
+        for (List<ItemInfo> chunk : chunks) {
+            assertTrue(chunk.size() * iconCost <= mChunker.getBudgetNanos());
+            total += chunk.size();
+        }
+        assertEquals(items.size(), total);
+        // Much larger than the fixed chunks of 6 icons.
+        assertTrue(chunks.get(0).size() > 6);
+    }
+
+    @Test
+    public void testExpensiveItemsAreAlone() {
+        List<ItemInfo> items = createItems(Favorites.ITEM_TYPE_APPWIDGET, 3);
+        items.addAll(1, createItems(Favorites.ITEM_TYPE_APPLICATION, 2));
+        // Make sure a widget can not share a frame with anything.
+        for (int i = 0; i < 5; i++) {
+            mChunker.onChunkBound(items.subList(0, 1), FRAME_INTERVAL);
+        }
+
+        ArrayList<List<ItemInfo>> chunks = mChunker.split(items);
+        assertEquals(4, chunks.size());
+        assertEquals(1, chunks.get(0).size());
+        assertEquals(2, chunks.get(1).size());
+        assertEquals(1, chunks.get(2).size());
+        assertEquals(1, chunks.get(3).size());
+    }
+
+    @Test
+    public void testCostsFollowMeasurements() {
+        List<ItemInfo> icons = createItems(Favorites.ITEM_TYPE_APPLICATION, 10);
+        long cost = mChunker.getCost(BindChunker.TYPE_ICON);
+        int chunkSize = mChunker.split(icons).get(0).size();
+
+        // Icons twice as expensive as expected.
+        for (int i = 0; i < 20; i++) {
+            mChunker.onChunkBound(icons, cost * icons.size() * 2);
+        }
+        assertEquals(cost * 2, mChunker.getCost(BindChunker.TYPE_ICON), cost / 10);
+        assertTrue(mChunker.split(createItems(Favorites.ITEM_TYPE_APPLICATION, 100)).get(0)
+                .size() < chunkSize);
+
+        // Other types are not affected.
+        long widgetCost = mChunker.getCost(BindChunker.TYPE_WIDGET);
+        mChunker.onChunkBound(icons, 1);
+        assertEquals(widgetCost, mChunker.getCost(BindChunker.TYPE_WIDGET));
+    }
+
+    @Test
+    public void testItemTypes() {
+        assertEquals(BindChunker.TYPE_ICON,
+                BindChunker.getType(createItem(Favorites.ITEM_TYPE_DEEP_SHORTCUT)));
+        assertEquals(BindChunker.TYPE_FOLDER,
+                BindChunker.getType(createItem(Favorites.ITEM_TYPE_FOLDER)));
+        assertEquals(BindChunker.TYPE_WIDGET,
+                BindChunker.getType(createItem(Favorites.ITEM_TYPE_CUSTOM_APPWIDGET)));
+    }
+
+    private static ArrayList<ItemInfo> createItems(int itemType, int count) {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(createItem(itemType));
+        }
+        return items;
+    }
+
+    private static ItemInfo createItem(int itemType) {
+        ItemInfo info = new ItemInfo();
+        info.itemType = itemType;
+        return info;
+    }
+}
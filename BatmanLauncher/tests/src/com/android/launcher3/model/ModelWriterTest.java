@@ -0,0 +1,101 @@
+package com.android.launcher3.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Handler;
+import android.test.ProviderTestCase2;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.LauncherProvider;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.LauncherSettings.Settings;
+import com.android.launcher3.util.TestLauncherProvider;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ModelWriter}
+ */
+@MediumTest
+public class ModelWriterTest extends ProviderTestCase2<TestLauncherProvider> {
+
+    private BgDataModel mBgDataModel;
+    private Handler mWorkerHandler;
+    private ItemInfo mItem;
+
+    public ModelWriterTest() {
+        super(TestLauncherProvider.class, LauncherProvider.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBgDataModel = new BgDataModel();
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+
+        mItem = new ItemInfo();
+        mItem.id = Settings.call(getMockContentResolver(), Settings.METHOD_NEW_ITEM_ID)
+                .getLong(Settings.EXTRA_VALUE);
+        mItem.container = Favorites.CONTAINER_DESKTOP;
+        mItem.itemType = Favorites.ITEM_TYPE_SHORTCUT;
+
+        ContentValues values = new ContentValues();
+        values.put(Favorites._ID, mItem.id);
+        values.put(Favorites.CONTAINER, mItem.container);
+        values.put(Favorites.ITEM_TYPE, mItem.itemType);
+        values.put(Favorites.SCREEN, 0);
+        values.put(Favorites.CELLX, 0);
+        values.put(Favorites.CELLY, 0);
+        values.put(Favorites.SPANX, 1);
+        values.put(Favorites.SPANY, 1);
+        getMockContentResolver().insert(Favorites.CONTENT_URI, values);
+    }
+
+    public void testUpdatesFromSeveralWriters_lastUpdateWins() throws Exception {
+        ModelWriter writer1 = new ModelWriter(getMockContext(), mBgDataModel, false);
+        ModelWriter writer2 = new ModelWriter(getMockContext(), mBgDataModel, false);
+
+        // Keep the worker busy so that all the updates are pending at once.
+        final CountDownLatch blocker = new CountDownLatch(1);
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) { }
+            }
+        });
+        writer1.moveItemInDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 1, 0);
+        writer2.moveItemInDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 2, 0);
+        writer1.moveItemInDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 3, 0);
+        blocker.countDown();
+        waitForWorker();
+
+        assertEquals(3, getCellX(mItem.id));
+    }
+
+    private void waitForWorker() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private int getCellX(long id) {
+        Cursor c = getMockContentResolver().query(Favorites.getContentUri(id),
+                new String[] {Favorites.CELLX}, null, null, null);
+        try {
+            assertTrue(c.moveToNext());
+            return c.getInt(0);
+        } finally {
+            c.close();
+        }
+    }
+}
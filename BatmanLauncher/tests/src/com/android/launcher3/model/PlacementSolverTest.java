@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.model.GridSizeMigrationTask.DbEntry;
+import com.android.launcher3.util.GridOccupancy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PlacementSolver}, comparing it with the exhaustive recursive search
+ * it replaced on randomized dense layouts.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class PlacementSolverTest {
+
+    private static final String TAG = "PlacementSolverTest";
+
+    private static final long NO_TIME_LIMIT = Long.MAX_VALUE / 2;
+    private static final float EPSILON = 0.001f;
+
+    @Test
+    public void testEmptyGrid_allItemsPlaced() {
+        ArrayList<DbEntry> items = new ArrayList<>();
+        items.add(createWidget(0, 0, 2, 2, 1, 1));
+        items.add(createIcon(2, 0));
+        items.add(createIcon(3, 1));
+
+        PlacementSolver solver = solve(new GridOccupancy(4, 4), items, 0, false, NO_TIME_LIMIT);
+        assertEquals(0, solver.lowestWeightLoss, EPSILON);
+        assertEquals(0, solver.lowestMoveCost, EPSILON);
+        assertEquals(3, solver.finalPlacedItems.size());
+    }
+
+    @Test
+    public void testWidgetResized_whenNoSpace() {
+        GridOccupancy occupied = new GridOccupancy(3, 3);
+        occupied.markCells(0, 2, 3, 1, true);
+        ArrayList<DbEntry> items = new ArrayList<>();
+        items.add(createWidget(0, 0, 3, 3, 2, 2));
+
+        PlacementSolver solver = solve(occupied, items, 0, false, NO_TIME_LIMIT);
+        assertEquals(0, solver.lowestWeightLoss, EPSILON);
+        DbEntry widget = solver.finalPlacedItems.get(0);
+        assertEquals(3, widget.spanX);
+        assertEquals(2, widget.spanY);
+        // The occupancy is restored once the search is done.
+        assertTrue(occupied.isRegionVacant(0, 0, 3, 2));
+    }
+
+    @Test
+    public void testRandomLayouts_noWorseThanReference() {
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            ArrayList<DbEntry> items = createDenseLayout(random, 5, 5);
+            GridOccupancy occupied = new GridOccupancy(4, 4);
+            boolean ignoreMove = i % 2 == 1;
+
+            ReferenceSolver reference =
+                    new ReferenceSolver(occupied, deepCopy(items), 4, 4, 0, ignoreMove);
+            reference.find();
+            PlacementSolver solver = solve(occupied, items, 0, ignoreMove, NO_TIME_LIMIT);
+
+            assertFalse(solver.isTimedOut());
+            assertEquals(reference.lowestWeightLoss, solver.lowestWeightLoss, EPSILON);
+            // The reference keeps the first placement with the least weight loss, while the
+            // solver also looks for the least move cost among those.
+            assertTrue(solver.lowestMoveCost <= reference.lowestMoveCost + EPSILON);
+            verifyPlacement(new GridOccupancy(4, 4), solver.finalPlacedItems);
+        }
+    }
+
+    @Test
+    public void testTimeLimit_keepsBestPlacementFound() {
+        Random random = new Random(7);
+        ArrayList<DbEntry> items = createDenseLayout(random, 6, 6);
+        GridOccupancy occupied = new GridOccupancy(4, 4);
+
+        PlacementSolver solver = solve(occupied, items, 0, false, 0);
+        assertNotNull(solver.finalPlacedItems);
+        assertFalse(solver.finalPlacedItems.isEmpty());
+        verifyPlacement(new GridOccupancy(4, 4), solver.finalPlacedItems);
+    }
+
+    @Test
+    public void testBenchmark_denseLayouts() {
+        Random random = new Random(1234);
+        long referenceNanos = 0, solverNanos = 0;
+        long referenceNodes = 0, solverNodes = 0;
+        float referenceLoss = 0, solverLoss = 0;
+        float referenceMoveCost = 0, solverMoveCost = 0;
+        for (int i = 0; i < 20; i++) {
+            ArrayList<DbEntry> items = createDenseLayout(random, 5, 5);
+
+            long start = System.nanoTime();
+            ReferenceSolver reference = new ReferenceSolver(
+                    new GridOccupancy(4, 4), deepCopy(items), 4, 4, 0, false);
+            reference.find();
+            referenceNanos += System.nanoTime() - start;
+            referenceNodes += reference.nodeCount;
+            referenceLoss += reference.lowestWeightLoss;
+            referenceMoveCost += reference.lowestMoveCost;
+
+            start = System.nanoTime();
+            PlacementSolver solver =
+                    solve(new GridOccupancy(4, 4), items, 0, false, NO_TIME_LIMIT);
+            solverNanos += System.nanoTime() - start;
+            solverNodes += solver.getNodeCount();
+            solverLoss += solver.lowestWeightLoss;
+            solverMoveCost += solver.lowestMoveCost;
+
+            assertEquals(reference.lowestWeightLoss, solver.lowestWeightLoss, EPSILON);
+            assertTrue(solver.getWeightLossLowerBound(0) <= solver.lowestWeightLoss + EPSILON);
+        }
+        // The timings are only logged, they depend too much on the device to be asserted on.
+        Log.d(TAG, String.format("reference: %.1fms, %d nodes, loss %.2f, moves %.0f; "
+                        + "solver: %.1fms, %d nodes, loss %.2f, moves %.0f",
+                referenceNanos / 1e6, referenceNodes, referenceLoss, referenceMoveCost,
+                solverNanos / 1e6, solverNodes, solverLoss, solverMoveCost));
+        assertEquals(referenceLoss, solverLoss, EPSILON);
+        assertTrue(solverMoveCost <= referenceMoveCost);
+        assertTrue(solverNodes < referenceNodes);
+    }
+
+    private static PlacementSolver solve(GridOccupancy occupied, ArrayList<DbEntry> items,
+            int startY, boolean ignoreMove, long timeBudgetNanos) {
+        PlacementSolver solver = new PlacementSolver(occupied, items, occupied.getCountX(),
+                occupied.getCountY(), startY, ignoreMove, timeBudgetNanos);
+        solver.find();
+        return solver;
+    }
+
+    private static void verifyPlacement(GridOccupancy occupied, ArrayList<DbEntry> placed) {
+        for (DbEntry entry : placed) {
+            assertTrue(entry.spanX >= entry.minSpanX && entry.spanY >= entry.minSpanY);
+            assertTrue(occupied.isRegionVacant(
+                    entry.cellX, entry.cellY, entry.spanX, entry.spanY));
+            occupied.markCells(entry, true);
+        }
+    }
+
+    /**
+     * Fills most of a countX x countY grid with a few widgets and icons.
+     */
+    private static ArrayList<DbEntry> createDenseLayout(Random random, int countX, int countY) {
+        GridOccupancy occupied = new GridOccupancy(countX, countY);
+        ArrayList<DbEntry> items = new ArrayList<>();
+        int widgets = 2 + random.nextInt(3);
+        for (int attempt = 0; attempt < 40 && widgets > 0; attempt++) {
+            int spanX = 1 + random.nextInt(3);
+            int spanY = 1 + random.nextInt(3);
+            if (spanX * spanY < 2) {
+                continue;
+            }
+            int x = random.nextInt(countX - spanX + 1);
+            int y = random.nextInt(countY - spanY + 1);
+            if (occupied.isRegionVacant(x, y, spanX, spanY)) {
+                occupied.markCells(x, y, spanX, spanY, true);
+                items.add(createWidget(x, y, spanX, spanY,
+                        1 + random.nextInt(spanX), 1 + random.nextInt(spanY)));
+                widgets--;
+            }
+        }
+        for (int x = 0; x < countX; x++) {
+            for (int y = 0; y < countY; y++) {
+                if (!occupied.isOccupied(x, y) && random.nextInt(10) < 8) {
+                    DbEntry icon = createIcon(x, y);
+                    icon.weight = 0.5f + random.nextInt(3) * 0.4f;
+                    items.add(icon);
+                }
+            }
+        }
+        return items;
+    }
+
+    private static DbEntry createIcon(int x, int y) {
+        DbEntry entry = new DbEntry();
+        entry.itemType = Favorites.ITEM_TYPE_APPLICATION;
+        entry.cellX = x;
+        entry.cellY = y;
+        entry.spanX = entry.spanY = entry.minSpanX = entry.minSpanY = 1;
+        entry.weight = 0.8f;
+        return entry;
+    }
+
+    private static DbEntry createWidget(int x, int y, int spanX, int spanY,
+            int minSpanX, int minSpanY) {
+        DbEntry entry = new DbEntry();
+        entry.itemType = Favorites.ITEM_TYPE_APPWIDGET;
+        entry.cellX = x;
+        entry.cellY = y;
+        entry.spanX = spanX;
+        entry.spanY = spanY;
+        entry.minSpanX = minSpanX;
+        entry.minSpanY = minSpanY;
+        entry.weight = Math.max(2, 0.6f * spanX * spanY);
+        return entry;
+    }
+
+    private static ArrayList<DbEntry> deepCopy(ArrayList<DbEntry> src) {
+        ArrayList<DbEntry> dup = new ArrayList<>(src.size());
+        for (DbEntry e : src) {
+            dup.add(e.copy());
+        }
+        return dup;
+    }
+
+    /**
+     * The recursive search previously used by {@link GridSizeMigrationTask}.
+     */
+    private static class ReferenceSolver {
+        private final ArrayList<DbEntry> itemsToPlace;
+        private final GridOccupancy occupied;
+        private final int countX, countY;
+        private final boolean ignoreMove;
+        private final int startY;
+
+        float lowestWeightLoss = Float.MAX_VALUE;
+        float lowestMoveCost = Float.MAX_VALUE;
+        ArrayList<DbEntry> finalPlacedItems;
+        int nodeCount;
+
+        ReferenceSolver(GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace,
+                int countX, int countY, int startY, boolean ignoreMove) {
+            this.occupied = occupied;
+            this.itemsToPlace = itemsToPlace;
+            this.countX = countX;
+            this.countY = countY;
+            this.ignoreMove = ignoreMove;
+            this.startY = startY;
+            Collections.sort(this.itemsToPlace);
+        }
+
+        void find() {
+            find(0, 0, 0, new ArrayList<DbEntry>());
+        }
+
+        void find(int index, float weightLoss, float moveCost, ArrayList<DbEntry> itemsPlaced) {
+            nodeCount++;
+            if ((weightLoss >= lowestWeightLoss) ||
+                    ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
+                return;
+            } else if (index >= itemsToPlace.size()) {
+                lowestWeightLoss = weightLoss;
+                lowestMoveCost = moveCost;
+                finalPlacedItems = deepCopy(itemsPlaced);
+                return;
+            }
+
+            DbEntry me = itemsToPlace.get(index);
+            int myX = me.cellX;
+            int myY = me.cellY;
+
+            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
+            itemsIncludingMe.addAll(itemsPlaced);
+            itemsIncludingMe.add(me);
+
+            if (me.spanX > 1 || me.spanY > 1) {
+                int myW = me.spanX;
+                int myH = me.spanY;
+
+                for (int y = startY; y < countY; y++) {
+                    for (int x = 0; x < countX; x++) {
+                        float newMoveCost = moveCost;
+                        if (x != myX) {
+                            me.cellX = x;
+                            newMoveCost ++;
+                        }
+                        if (y != myY) {
+                            me.cellY = y;
+                            newMoveCost ++;
+                        }
+                        if (ignoreMove) {
+                            newMoveCost = moveCost;
+                        }
+
+                        if (occupied.isRegionVacant(x, y, myW, myH)) {
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                        }
+
+                        if (myW > me.minSpanX && occupied.isRegionVacant(x, y, myW - 1, myH)) {
+                            me.spanX --;
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                            me.spanX ++;
+                        }
+
+                        if (myH > me.minSpanY && occupied.isRegionVacant(x, y, myW, myH - 1)) {
+                            me.spanY --;
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                            me.spanY ++;
+                        }
+
+                        if (myH > me.minSpanY && myW > me.minSpanX &&
+                                occupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
+                            me.spanX --;
+                            me.spanY --;
+                            occupied.markCells(me, true);
+                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
+                            occupied.markCells(me, false);
+                            me.spanX ++;
+                            me.spanY ++;
+                        }
+                        me.cellX = myX;
+                        me.cellY = myY;
+                    }
+                }
+                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+            } else {
+                int newDistance = Integer.MAX_VALUE;
+                int newX = Integer.MAX_VALUE, newY = Integer.MAX_VALUE;
+
+                for (int y = startY; y < countY; y++) {
+                    for (int x = 0; x < countX; x++) {
+                        if (!occupied.isOccupied(x, y)) {
+                            int dist = ignoreMove ? 0 :
+                                ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
+                            if (dist < newDistance) {
+                                newX = x;
+                                newY = y;
+                                newDistance = dist;
+                            }
+                        }
+                    }
+                }
+
+                if (newX < countX && newY < countY) {
+                    float newMoveCost = moveCost;
+                    if (newX != myX) {
+                        me.cellX = newX;
+                        newMoveCost ++;
+                    }
+                    if (newY != myY) {
+                        me.cellY = newY;
+                        newMoveCost ++;
+                    }
+                    if (ignoreMove) {
+                        newMoveCost = moveCost;
+                    }
+                    occupied.markCells(me, true);
+                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
+                    occupied.markCells(me, false);
+                    me.cellX = myX;
+                    me.cellY = myY;
+
+                    if (index + 1 < itemsToPlace.size()
+                            && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
+                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                    }
+                } else {
+                    for (int i = index + 1; i < itemsToPlace.size(); i++) {
+                        weightLoss += itemsToPlace.get(i).weight;
+                    }
+                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.android.launcher3.model;
+
+import com.android.launcher3.WidgetPreviewLoader;
+import com.android.launcher3.util.MultiHashMap;
+import com.android.launcher3.util.PackageUserKey;
+
+import java.util.ArrayList;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link WidgetsModel}
+ */
+public class WidgetsModelTest extends BaseModelUpdateTaskTestCase {
+
+    private WidgetPreviewLoader mWidgetCache;
+    private WidgetsModel mWidgetsModel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mWidgetCache = mock(WidgetPreviewLoader.class);
+        when(appState.getContext()).thenReturn(targetContext);
+        when(appState.getWidgetCache()).thenReturn(mWidgetCache);
+        mWidgetsModel = bgDataModel.widgetsModel;
+    }
+
+    public void testFullUpdate_keepsUnchangedPackages() throws Exception {
+        mWidgetsModel.update(appState, null);
+        MultiHashMap<PackageItemInfo, WidgetItem> widgets = mWidgetsModel.getWidgetsMap();
+
+        mWidgetsModel.update(appState, null);
+        assertSameLists(widgets, mWidgetsModel.getWidgetsMap());
+
+        // Only the first full update checks the previews of all the packages.
+        verify(mWidgetCache, times(1)).removeObsoletePreviews(
+                any(ArrayList.class), (PackageUserKey) isNull());
+    }
+
+    public void testPackageUpdate_keepsOtherPackages() throws Exception {
+        mWidgetsModel.update(appState, null);
+        MultiHashMap<PackageItemInfo, WidgetItem> widgets = mWidgetsModel.getWidgetsMap();
+        if (widgets.isEmpty()) {
+            return;
+        }
+
+        PackageItemInfo pInfo = widgets.keySet().iterator().next();
+        mWidgetsModel.update(appState, new PackageUserKey(pInfo.packageName, pInfo.user));
+        assertSameLists(widgets, mWidgetsModel.getWidgetsMap());
+    }
+
+    private void assertSameLists(MultiHashMap<PackageItemInfo, WidgetItem> expected,
+            MultiHashMap<PackageItemInfo, WidgetItem> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (PackageItemInfo pInfo : expected.keySet()) {
+            assertSame(expected.get(pInfo), actual.get(pInfo));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.notification;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.Process;
+import android.service.notification.StatusBarNotification;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link NotificationStore}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class NotificationStoreTest {
+
+    private Context mContext;
+    private NotificationStore mStore;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mStore = new NotificationStore();
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        StatusBarNotification sbn = createNotification(1, 100);
+        mStore.put(sbn);
+        assertSame(sbn, mStore.get(sbn.getKey()));
+
+        StatusBarNotification update = createNotification(1, 200);
+        mStore.put(update);
+        assertSame(update, mStore.get(sbn.getKey()));
+        assertEquals(1, mStore.size());
+
+        mStore.remove(sbn.getKey());
+        assertNull(mStore.get(sbn.getKey()));
+        assertNull(mStore.getInfo(mContext, sbn.getKey()));
+    }
+
+    @Test
+    public void testInfoIsCreatedOncePerPost() {
+        StatusBarNotification sbn = createNotification(1, 100);
+        mStore.put(sbn);
+        NotificationInfo info = mStore.getInfo(mContext, sbn.getKey());
+        assertSame(info, mStore.getInfo(mContext, sbn.getKey()));
+
+        mStore.put(createNotification(1, 200));
+        assertNotSame(info, mStore.getInfo(mContext, sbn.getKey()));
+    }
+
+    @Test
+    public void testReplaceAllKeepsUnchangedNotifications() {
+        StatusBarNotification unchanged = createNotification(1, 100);
+        StatusBarNotification updated = createNotification(2, 100);
+        StatusBarNotification removed = createNotification(3, 100);
+        mStore.replaceAll(Arrays.asList(unchanged, updated, removed));
+        NotificationInfo unchangedInfo = mStore.getInfo(mContext, unchanged.getKey());
+        NotificationInfo updatedInfo = mStore.getInfo(mContext, updated.getKey());
+
+        mStore.replaceAll(Arrays.asList(createNotification(1, 100), createNotification(2, 200)));
+        assertEquals(2, mStore.size());
+        assertSame(unchangedInfo, mStore.getInfo(mContext, unchanged.getKey()));
+        assertNotSame(updatedInfo, mStore.getInfo(mContext, updated.getKey()));
+        assertNull(mStore.get(removed.getKey()));
+
+        mStore.replaceAll(Collections.<StatusBarNotification>emptyList());
+        assertEquals(0, mStore.size());
+    }
+
+    private StatusBarNotification createNotification(int id, long postTime) {
+        Notification notification = new Notification.Builder(mContext, "test")
+                .setSmallIcon(android.R.drawable.ic_dialog_info)
+                .setContentTitle("title " + id)
+                .build();
+        return new StatusBarNotification(mContext.getPackageName(), mContext.getPackageName(),
+                id, null, Process.myUid(), 0, 0, notification, Process.myUserHandle(), postTime);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.shortcuts;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.UserHandle;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link ShortcutCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ShortcutCacheTest {
+
+    private static final int ICON_SIZE = 10;
+    private static final int ICON_BYTES = ICON_SIZE * ICON_SIZE * 4;
+
+    private UserHandle mMyUser;
+    private UserHandle mOtherUser;
+    private ShortcutCache mCache;
+
+    @Before
+    public void setUp() {
+        mMyUser = Process.myUserHandle();
+        mOtherUser = UserHandle.getUserHandleForUid(Process.myUid() + 100000);
+        mCache = new ShortcutCache(2, 3 * ICON_BYTES);
+    }
+
+    @Test
+    public void testShortcuts_keepsRecentActivities() {
+        List<ShortcutInfoCompat> shortcuts1 = new ArrayList<>();
+        mCache.putShortcuts(activity("app1", "Activity1", mMyUser), shortcuts1);
+        putShortcuts(activity("app1", "Activity2", mMyUser));
+        assertSame(shortcuts1, mCache.getShortcuts(activity("app1", "Activity1", mMyUser)));
+
+        putShortcuts(activity("app2", "Activity1", mMyUser));
+        assertNull(mCache.getShortcuts(activity("app1", "Activity2", mMyUser)));
+        assertSame(shortcuts1, mCache.getShortcuts(activity("app1", "Activity1", mMyUser)));
+    }
+
+    @Test
+    public void testIcons_keptWithinByteBudget() {
+        for (int i = 0; i < 4; i++) {
+            mCache.putIcon(new ShortcutKey("app1", mMyUser, "id" + i), newIcon());
+        }
+        assertNull(mCache.getIcon(new ShortcutKey("app1", mMyUser, "id0")));
+        for (int i = 1; i < 4; i++) {
+            assertNotNull(mCache.getIcon(new ShortcutKey("app1", mMyUser, "id" + i)));
+        }
+    }
+
+    @Test
+    public void testRemoveShortcuts_onlyRemovesPackageOfUser() {
+        putShortcuts(activity("app1", "Activity1", mMyUser));
+        putShortcuts(activity("app1", "Activity1", mOtherUser));
+        mCache.putIcon(new ShortcutKey("app1", mMyUser, "id"), newIcon());
+        mCache.putIcon(new ShortcutKey("app1", mOtherUser, "id"), newIcon());
+        mCache.putIcon(new ShortcutKey("app2", mMyUser, "id"), newIcon());
+
+        mCache.removeShortcuts("app1", mMyUser);
+        assertNull(mCache.getShortcuts(activity("app1", "Activity1", mMyUser)));
+        assertNull(mCache.getIcon(new ShortcutKey("app1", mMyUser, "id")));
+        assertNotNull(mCache.getShortcuts(activity("app1", "Activity1", mOtherUser)));
+        assertNotNull(mCache.getIcon(new ShortcutKey("app1", mOtherUser, "id")));
+        assertNotNull(mCache.getIcon(new ShortcutKey("app2", mMyUser, "id")));
+    }
+
+    @Test
+    public void testRemoveShortcuts_allPackagesOfUser() {
+        putShortcuts(activity("app1", "Activity1", mMyUser));
+        putShortcuts(activity("app2", "Activity1", mOtherUser));
+        mCache.putIcon(new ShortcutKey("app2", mMyUser, "id"), newIcon());
+
+        mCache.removeShortcuts(null, mMyUser);
+        assertNull(mCache.getShortcuts(activity("app1", "Activity1", mMyUser)));
+        assertNull(mCache.getIcon(new ShortcutKey("app2", mMyUser, "id")));
+        assertNotNull(mCache.getShortcuts(activity("app2", "Activity1", mOtherUser)));
+    }
+
+    private void putShortcuts(ComponentKey activity) {
+        mCache.putShortcuts(activity, new ArrayList<ShortcutInfoCompat>());
+    }
+
+    private static ComponentKey activity(String packageName, String className, UserHandle user) {
+        return new ComponentKey(new ComponentName(packageName, className), user);
+    }
+
+    private static Bitmap newIcon() {
+        return Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -1,15 +1,20 @@
 package com.android.launcher3.util;
 
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
 
 import junit.framework.TestCase;
 
+import java.util.Random;
+
 /**
  * Unit tests for {@link GridOccupancy}
  */
 @SmallTest
 public class GridOccupancyTest extends TestCase {
 
+    private static final String TAG = "GridOccupancyTest";
+
     public void testFindVacantCell() {
         GridOccupancy grid = initGrid(4,
                 1, 1, 1, 0, 0,
@@ -46,13 +51,287 @@ public class GridOccupancyTest extends TestCase {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    public void testMarkCells_clippedToGrid() {
+        GridOccupancy grid = new GridOccupancy(4, 3);
+        grid.markCells(2, 1, 5, 5, true);
+        assertGrid(grid, 3,
+                0, 0, 0, 0,
+                0, 0, 1, 1,
+                0, 0, 1, 1);
+
+        grid.markCells(-1, 0, 2, 2, true);
+        grid.markCells(4, 0, 1, 1, true);
+        grid.markCells(3, 2, 1, 1, false);
+        assertGrid(grid, 3,
+                0, 0, 0, 0,
+                0, 0, 1, 1,
+                0, 0, 1, 0);
+
+        grid.clear();
+        assertTrue(grid.isRegionVacant(0, 0, 4, 3));
+    }
+
+    public void testSetOccupied() {
+        GridOccupancy grid = new GridOccupancy(3, 2);
+        grid.setOccupied(2, 1, true);
+        assertTrue(grid.isOccupied(2, 1));
+        assertFalse(grid.isRegionVacant(1, 0, 2, 2));
+        assertTrue(grid.isRegionVacant(0, 0, 2, 2));
+
+        grid.setOccupied(2, 1, false);
+        assertFalse(grid.isOccupied(2, 1));
+        try {
+            grid.setOccupied(3, 0, true);
+            fail("Cell outside of the grid was marked");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected, like writing past the cells array.
+        }
+    }
+
+    public void testSnapshotRestore() {
+        GridOccupancy grid = initGrid(3,
+                1, 0, 0,
+                0, 1, 0,
+                0, 0, 1);
+        long[] snapshot = grid.snapshot();
+        grid.markCells(0, 0, 3, 3, true);
+        assertFalse(grid.isRegionVacant(1, 0, 1, 1));
+
+        grid.restore(snapshot);
+        assertGrid(grid, 3,
+                1, 0, 0,
+                0, 1, 0,
+                0, 0, 1);
+
+        GridOccupancy copy = new GridOccupancy(3, 3);
+        grid.copyTo(copy);
+        assertGrid(copy, 3,
+                1, 0, 0,
+                0, 1, 0,
+                0, 0, 1);
+    }
+
+    public void testIntersects() {
+        GridOccupancy grid = initGrid(3,
+                1, 1, 0, 0,
+                0, 0, 0, 0,
+                0, 0, 0, 1);
+        GridOccupancy block = initGrid(2,
+                1, 0,
+                1, 1);
+
+        assertTrue(grid.intersects(0, 0, block));
+        assertFalse(grid.intersects(2, 0, block));
+        assertFalse(grid.intersects(1, 1, block));
+        assertTrue(grid.intersects(2, 1, block));
+    }
+
+    public void testWideGrid() {
+        GridOccupancy grid = new GridOccupancy(GridOccupancy.MAX_COUNT_X, 2);
+        grid.markCells(0, 0, GridOccupancy.MAX_COUNT_X - 1, 1, true);
+
+        int[] vacant = new int[2];
+        assertTrue(grid.findVacantCell(vacant, 1, 1));
+        assertEquals(GridOccupancy.MAX_COUNT_X - 1, vacant[0]);
+        assertEquals(0, vacant[1]);
+
+        assertTrue(grid.findVacantCell(vacant, GridOccupancy.MAX_COUNT_X, 1));
+        assertEquals(0, vacant[0]);
+        assertEquals(1, vacant[1]);
+        assertTrue(grid.isRegionVacant(0, 1, GridOccupancy.MAX_COUNT_X, 1));
+        assertFalse(grid.isRegionVacant(1, 0, GridOccupancy.MAX_COUNT_X, 1));
+    }
+
+    public void testRandomGrids_sameAsPerCellScan() {
+        Random random = new Random(42);
+        int[] vacant = new int[2];
+        int[] expected = new int[2];
+        for (int n = 0; n < 200; n++) {
+            boolean[][] cells = randomCells(random, 2 + random.nextInt(6), 2 + random.nextInt(6));
+            GridOccupancy grid = toGrid(cells);
+            int countX = cells.length;
+            int countY = cells[0].length;
+
+            for (int spanX = 1; spanX <= countX; spanX++) {
+                for (int spanY = 1; spanY <= countY; spanY++) {
+                    boolean found = findVacantCell(cells, expected, spanX, spanY);
+                    assertEquals(found, grid.findVacantCell(vacant, spanX, spanY));
+                    if (found) {
+                        assertEquals(expected[0], vacant[0]);
+                        assertEquals(expected[1], vacant[1]);
+                    }
+                    for (int x = -1; x <= countX; x++) {
+                        for (int y = -1; y <= countY; y++) {
+                            assertEquals(isRegionVacant(cells, x, y, spanX, spanY),
+                                    grid.isRegionVacant(x, y, spanX, spanY));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Benchmark of the queries made by the CellLayout reorder search, which scans every
+     * position of the grid for the vacant regions of a span and for a block of views.
+     */
+    public void testBenchmark_reorderSearch() {
+        Random random = new Random(1234);
+        boolean[][][] layouts = new boolean[500][][];
+        GridOccupancy[] grids = new GridOccupancy[layouts.length];
+        for (int i = 0; i < layouts.length; i++) {
+            layouts[i] = randomCells(random, 6, 6);
+            grids[i] = toGrid(layouts[i]);
+        }
+        boolean[][] blockCells = new boolean[][] {{true, true}, {false, true}};
+        GridOccupancy block = toGrid(blockCells);
+
+        // The first rounds warm up the code, only the last one is timed.
+        int expected = 0, count = 0;
+        long cellScanNanos = 0, gridNanos = 0;
+        for (int round = 0; round < 5; round++) {
+            expected = count = 0;
+            long start = System.nanoTime();
+            for (boolean[][] cells : layouts) {
+                expected += countVacantRegions(cells, blockCells);
+            }
+            cellScanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (GridOccupancy grid : grids) {
+                count += countVacantRegions(grid, block);
+            }
+            gridNanos = System.nanoTime() - start;
+        }
+
+        Log.d(TAG, String.format("per cell scan: %.2fms, grid: %.2fms",
+                cellScanNanos / 1e6, gridNanos / 1e6));
+        assertEquals(expected, count);
+    }
+
+    private static int countVacantRegions(GridOccupancy grid, GridOccupancy block) {
+        int count = 0;
+        for (int spanX = 1; spanX <= 4; spanX++) {
+            for (int spanY = 1; spanY <= 4; spanY++) {
+                for (int y = 0; y < grid.getCountY() - (spanY - 1); y++) {
+                    for (int x = 0; x < grid.getCountX() - (spanX - 1); x++) {
+                        if (grid.isRegionVacant(x, y, spanX, spanY)) {
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < grid.getCountY() - (block.getCountY() - 1); y++) {
+            for (int x = 0; x < grid.getCountX() - (block.getCountX() - 1); x++) {
+                if (!grid.intersects(x, y, block)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countVacantRegions(boolean[][] cells, boolean[][] block) {
+        int countX = cells.length;
+        int countY = cells[0].length;
+        int count = 0;
+        for (int spanX = 1; spanX <= 4; spanX++) {
+            for (int spanY = 1; spanY <= 4; spanY++) {
+                for (int y = 0; y < countY - (spanY - 1); y++) {
+                    for (int x = 0; x < countX - (spanX - 1); x++) {
+                        if (isRegionVacant(cells, x, y, spanX, spanY)) {
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        int blockX = block.length;
+        int blockY = block[0].length;
+        for (int y = 0; y < countY - (blockY - 1); y++) {
+            inner:
+            for (int x = 0; x < countX - (blockX - 1); x++) {
+                for (int i = 0; i < blockX; i++) {
+                    for (int j = 0; j < blockY; j++) {
+                        if (cells[x + i][y + j] && block[i][j]) {
+                            continue inner;
+                        }
+                    }
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean findVacantCell(boolean[][] cells, int[] vacantOut,
+            int spanX, int spanY) {
+        for (int y = 0; (y + spanY) <= cells[0].length; y++) {
+            for (int x = 0; (x + spanX) <= cells.length; x++) {
+                if (isRegionVacant(cells, x, y, spanX, spanY)) {
+                    vacantOut[0] = x;
+                    vacantOut[1] = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRegionVacant(boolean[][] cells, int x, int y, int spanX, int spanY) {
+        if (x < 0 || y < 0 || x + spanX > cells.length || y + spanY > cells[0].length) {
+            return false;
+        }
+        for (int i = x; i < x + spanX; i++) {
+            for (int j = y; j < y + spanY; j++) {
+                if (cells[i][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean[][] randomCells(Random random, int countX, int countY) {
+        boolean[][] cells = new boolean[countX][countY];
+        for (int x = 0; x < countX; x++) {
+            for (int y = 0; y < countY; y++) {
+                cells[x][y] = random.nextInt(4) == 0;
+            }
+        }
+        return cells;
+    }
+
+    private static GridOccupancy toGrid(boolean[][] cells) {
+        GridOccupancy grid = new GridOccupancy(cells.length, cells[0].length);
+        for (int x = 0; x < cells.length; x++) {
+            for (int y = 0; y < cells[0].length; y++) {
+                grid.markCells(x, y, 1, 1, cells[x][y]);
+            }
+        }
+        return grid;
+    }
+
+    private void assertGrid(GridOccupancy grid, int rows, int... cells) {
+        int cols = cells.length / rows;
+        int i = 0;
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                assertEquals(cells[i] != 0, grid.isOccupied(x, y));
+                assertEquals(cells[i] != 0, grid.cells[x][y]);
+                i++;
+            }
+        }
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
@@ -0,0 +1,55 @@
+package com.android.launcher3.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LatencyHistogram}
+ */
+@SmallTest
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram("test", 10, 20, 50);
+        histogram.record(0);
+        histogram.record(9);
+        histogram.record(10);
+        histogram.record(49);
+        histogram.record(50);
+        histogram.record(1000);
+
+        assertEquals(6, histogram.getCount());
+        assertEquals(2, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(1, histogram.getBucketCount(2));
+        assertEquals(2, histogram.getBucketCount(3));
+    }
+
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram("test", 10, 20, 50);
+        for (int i = 0; i < 90; i++) {
+            histogram.record(5);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(15);
+        }
+        histogram.record(200);
+
+        assertEquals(10, histogram.getPercentile(50));
+        assertEquals(10, histogram.getPercentile(90));
+        assertEquals(20, histogram.getPercentile(99));
+        assertEquals(200, histogram.getPercentile(100));
+    }
+
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram("test", 10);
+        histogram.record(5);
+        histogram.record(15);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getBucketCount(0));
+        assertEquals(0, histogram.getBucketCount(1));
+    }
+}
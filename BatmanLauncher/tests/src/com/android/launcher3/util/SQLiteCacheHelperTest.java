@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link SQLiteCacheHelper}, comparing single and batched writes when refreshing
+ * 500 icons.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SQLiteCacheHelperTest {
+
+    private static final String TAG = "SQLiteCacheHelperTest";
+    private static final String DB_NAME = "sqlite_cache_helper_test.db";
+    private static final String TABLE_NAME = "icons";
+    private static final int ICON_COUNT = 500;
+    private static final int BATCH_SIZE = 25;
+
+    private Context mContext;
+    private TestCacheHelper mHelper;
+    private byte[] mIconData;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new TestCacheHelper(mContext);
+
+        Bitmap icon = Bitmap.createBitmap(192, 192, Bitmap.Config.ARGB_8888);
+        icon.eraseColor(0xFF3F51B5);
+        mIconData = Utilities.flattenBitmap(icon);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void testBatchedInsertOrReplace() {
+        // Initial write, followed by a refresh replacing every row.
+        for (int round = 0; round < 2; round++) {
+            ArrayList<ContentValues> batch = new ArrayList<>();
+            for (int i = 0; i < ICON_COUNT; i++) {
+                batch.add(newValues(i, "label" + round));
+                if (batch.size() == BATCH_SIZE) {
+                    mHelper.insertOrReplace(batch);
+                    batch.clear();
+                }
+            }
+            mHelper.insertOrReplace(batch);
+        }
+        assertRowCount(ICON_COUNT, "label1");
+    }
+
+    @Test
+    public void testRefreshBenchmark() {
+        for (int i = 0; i < ICON_COUNT; i++) {
+            mHelper.insertOrReplace(newValues(i, "initial"));
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ICON_COUNT; i++) {
+            mHelper.insertOrReplace(newValues(i, "single"));
+        }
+        long singleTime = SystemClock.elapsedRealtime() - start;
+        assertRowCount(ICON_COUNT, "single");
+
+        start = SystemClock.elapsedRealtime();
+        ArrayList<ContentValues> batch = new ArrayList<>();
+        for (int i = 0; i < ICON_COUNT; i++) {
+            batch.add(newValues(i, "batched"));
+            if (batch.size() == BATCH_SIZE) {
+                mHelper.insertOrReplace(batch);
+                batch.clear();
+            }
+        }
+        mHelper.insertOrReplace(batch);
+        long batchedTime = SystemClock.elapsedRealtime() - start;
+        assertRowCount(ICON_COUNT, "batched");
+
+        Log.d(TAG, "Refreshing " + ICON_COUNT + " icons: one transaction per icon "
+                + singleTime + "ms, " + BATCH_SIZE + " icons per transaction "
+                + batchedTime + "ms");
+    }
+
+    private ContentValues newValues(int index, String label) {
+        ContentValues values = new ContentValues();
+        values.put("componentName", "com.example.app" + index + "/.Main");
+        values.put("icon", mIconData);
+        values.put("label", label);
+        return values;
+    }
+
+    private void assertRowCount(int expected, String label) {
+        Cursor c = mHelper.query(new String[] {"label"}, "label = ?", new String[] {label});
+        try {
+            assertEquals(expected, c.getCount());
+        } finally {
+            c.close();
+        }
+    }
+
+    private static class TestCacheHelper extends SQLiteCacheHelper {
+
+        TestCacheHelper(Context context) {
+            super(context, DB_NAME, 1, TABLE_NAME);
+        }
+
+        @Override
+        protected void onCreateTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                    + "componentName TEXT NOT NULL PRIMARY KEY, "
+                    + "icon BLOB, "
+                    + "label TEXT);");
+        }
+    }
+}
@@ -24,7 +24,6 @@ import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.view.LayoutInflater;
 
-import com.android.launcher3.IconCache;
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.WidgetPreviewLoader;
@@ -40,8 +39,11 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -54,7 +56,6 @@ public class WidgetsListAdapterTest {
     @Mock private LayoutInflater mMockLayoutInflater;
     @Mock private WidgetPreviewLoader mMockWidgetCache;
     @Mock private WidgetsDiffReporter.NotifyListener mListener;
-    @Mock private IconCache mIconCache;
 
     private WidgetsListAdapter mAdapter;
     private AlphabeticIndexCompat mIndexCompat;
@@ -69,7 +70,7 @@ public class WidgetsListAdapterTest {
         mTestProfile.numRows = 5;
         mTestProfile.numColumns = 5;
         mIndexCompat = new AlphabeticIndexCompat(mContext);
-        WidgetsDiffReporter reporter = new WidgetsDiffReporter(mIconCache);
+        WidgetsDiffReporter reporter = new WidgetsDiffReporter();
         reporter.setListener(mListener);
         mAdapter = new WidgetsListAdapter(mContext, mMockLayoutInflater, mMockWidgetCache,
                 mIndexCompat, null, null, reporter);
@@ -105,6 +106,25 @@ public class WidgetsListAdapterTest {
         verify(mListener, times(1)).notifyItemChanged(0);
     }
 
+    @Test
+    public void testNotifyItemChanged_onlyReplacedLists() throws Exception {
+        MultiHashMap<PackageItemInfo, WidgetItem> widgets = generateSampleMap(2);
+        mAdapter.setWidgets(widgets);
+
+        // The lists of the unchanged packages are shared between the updates of the model.
+        MultiHashMap<PackageItemInfo, WidgetItem> update = new MultiHashMap<>();
+        update.putAll(widgets);
+        mAdapter.setWidgets(update);
+        verify(mListener, never()).notifyItemChanged(anyInt());
+
+        update = new MultiHashMap<>();
+        update.putAll(widgets);
+        PackageItemInfo changedPackage = widgets.keySet().iterator().next();
+        update.put(changedPackage, new ArrayList<WidgetItem>(widgets.get(changedPackage)));
+        mAdapter.setWidgets(update);
+        verify(mListener, times(1)).notifyItemChanged(anyInt());
+    }
+
     @Test
     public void testNotifyItemChanged_widgetItemInfoDiff() throws Exception {
         // TODO: same package name but item number changed